@@ -0,0 +1,267 @@
+package com.xixi.lab.rabbitmq.benchmark;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmCallback;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.impl.AMQImpl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 本地 Broker 替身（loopback）：一个不走网络的 Channel 实现，使基准测试在没有 RabbitMQ 的机器上也能得到可重复的结果
+ *
+ * 只实现发布相关的方法：
+ * （1）basicPublish：将消息体复制到一个写缓冲区（模拟帧序列化），确认模式下分配序列号；
+ * （2）确认：由一个独立的“Broker 线程”异步发送 ack，并像真实的 Broker 一样把积压的确认合并为 multiple=true；
+ * （3）waitForConfirms / txCommit：同步等待“Broker 线程”处理完，模拟一次往返（线程切换代替网络 RTT）。
+ *
+ * 因此测得的是客户端侧的开销（序列号跟踪、确认处理、分配、线程交接），绝对值不能与真实 Broker 的结果直接比较，
+ * 但各策略之间的相对差异和分配率是稳定可复现的。其他方法抛出 UnsupportedOperationException。
+ */
+public class LoopbackChannel implements InvocationHandler {
+
+    private static final AtomicInteger CHANNEL_NUMBER = new AtomicInteger();
+
+    private final int channelNumber = CHANNEL_NUMBER.incrementAndGet();
+
+    private final List<ConfirmListener> confirmListeners = new CopyOnWriteArrayList<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // 有新的消息或往返请求待 Broker 线程处理
+    private final Condition pending = lock.newCondition();
+
+    // Broker 线程处理完一轮
+    private final Condition processed = lock.newCondition();
+
+    private final Thread broker;
+
+    // 写缓冲区，模拟将消息体写入 socket 缓冲
+    private byte[] writeBuffer = new byte[64 * 1024];
+
+    private boolean confirmMode;
+
+    private boolean txMode;
+
+    private long nextPublishSeqNo;
+
+    private long publishedSeqNo;
+
+    private long confirmedSeqNo;
+
+    private long roundTripRequested;
+
+    private long roundTripCompleted;
+
+    private volatile boolean open = true;
+
+    private LoopbackChannel() {
+        broker = new Thread(this::brokerLoop, "loopback-broker-" + channelNumber);
+        broker.setDaemon(true);
+        broker.start();
+    }
+
+    /**
+     * 创建一个 loopback Channel
+     */
+    public static Channel create() {
+        return (Channel) Proxy.newProxyInstance(LoopbackChannel.class.getClassLoader(),
+                new Class<?>[]{Channel.class}, new LoopbackChannel());
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "basicPublish":
+                basicPublish((byte[]) args[args.length - 1]);
+                return null;
+            case "confirmSelect":
+                lock.lock();
+                try {
+                    if (!confirmMode) {
+                        confirmMode = true;
+                        nextPublishSeqNo = 1;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                return new AMQImpl.Confirm.SelectOk();
+            case "txSelect":
+                txMode = true;
+                return new AMQImpl.Tx.SelectOk();
+            case "txCommit":
+                if (!txMode) {
+                    throw new IOException("channel is not transactional");
+                }
+                roundTrip();
+                return new AMQImpl.Tx.CommitOk();
+            case "getNextPublishSeqNo":
+                lock.lock();
+                try {
+                    return nextPublishSeqNo;
+                } finally {
+                    lock.unlock();
+                }
+            case "waitForConfirms":
+                return waitForConfirms(args == null ? 0L : (Long) args[0]);
+            case "waitForConfirmsOrDie":
+                if (!waitForConfirms(args == null ? 0L : (Long) args[0])) {
+                    throw new IOException("nacks received");
+                }
+                return null;
+            case "addConfirmListener":
+                if (args.length == 1) {
+                    confirmListeners.add((ConfirmListener) args[0]);
+                    return null;
+                }
+                ConfirmListener listener = confirmListener((ConfirmCallback) args[0], (ConfirmCallback) args[1]);
+                confirmListeners.add(listener);
+                return listener;
+            case "queueDeclare":
+                return new AMQImpl.Queue.DeclareOk(args == null ? "amq.gen-loopback" : (String) args[0], 0, 0);
+            case "addShutdownListener":
+            case "addReturnListener":
+                return null;
+            case "getChannelNumber":
+                return channelNumber;
+            case "isOpen":
+                return open;
+            case "close":
+            case "abort":
+                open = false;
+                broker.interrupt();
+                return null;
+            case "toString":
+                return "LoopbackChannel#" + channelNumber;
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                throw new UnsupportedOperationException("LoopbackChannel does not support " + method.getName());
+        }
+    }
+
+    private void basicPublish(byte[] body) throws IOException {
+        if (!open) {
+            throw new IOException("channel is already closed");
+        }
+        lock.lock();
+        try {
+            if (body.length > writeBuffer.length) {
+                writeBuffer = new byte[body.length];
+            }
+            System.arraycopy(body, 0, writeBuffer, 0, body.length);
+            if (confirmMode) {
+                publishedSeqNo = nextPublishSeqNo++;
+                pending.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 发起一次往返，等待 Broker 线程处理完此前的所有请求
+    private void roundTrip() throws InterruptedIOException {
+        lock.lock();
+        try {
+            long ticket = ++roundTripRequested;
+            pending.signal();
+            while (roundTripCompleted < ticket) {
+                processed.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the loopback broker");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean waitForConfirms(long timeoutMillis) throws InterruptedException, TimeoutException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lock();
+        try {
+            if (!confirmMode) {
+                throw new IllegalStateException("Confirms not selected");
+            }
+            long target = publishedSeqNo;
+            while (confirmedSeqNo < target) {
+                if (timeoutMillis <= 0) {
+                    processed.await();
+                } else {
+                    if (nanos <= 0) {
+                        throw new TimeoutException();
+                    }
+                    nanos = processed.awaitNanos(nanos);
+                }
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void brokerLoop() {
+        while (open) {
+            long ackFrom;
+            long ackUpTo;
+            lock.lock();
+            try {
+                while (publishedSeqNo == confirmedSeqNo && roundTripCompleted == roundTripRequested) {
+                    pending.await();
+                }
+                ackFrom = confirmedSeqNo;
+                ackUpTo = publishedSeqNo;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            // 在锁外回调，与真实客户端一样由单独的线程执行 ConfirmListener
+            if (ackUpTo > ackFrom) {
+                boolean multiple = ackUpTo - ackFrom > 1;
+                for (ConfirmListener listener : confirmListeners) {
+                    try {
+                        listener.handleAck(ackUpTo, multiple);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+            lock.lock();
+            try {
+                confirmedSeqNo = Math.max(confirmedSeqNo, ackUpTo);
+                roundTripCompleted = roundTripRequested;
+                processed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static ConfirmListener confirmListener(ConfirmCallback ackCallback, ConfirmCallback nackCallback) {
+        return new ConfirmListener() {
+            @Override
+            public void handleAck(long deliveryTag, boolean multiple) throws IOException {
+                ackCallback.handle(deliveryTag, multiple);
+            }
+
+            @Override
+            public void handleNack(long deliveryTag, boolean multiple) throws IOException {
+                nackCallback.handle(deliveryTag, multiple);
+            }
+        };
+    }
+}
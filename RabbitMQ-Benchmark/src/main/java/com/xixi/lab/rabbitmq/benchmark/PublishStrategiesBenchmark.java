@@ -0,0 +1,287 @@
+package com.xixi.lab.rabbitmq.benchmark;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.xixi.lab.rabbitmq.java.common.broker.EmbeddedBroker;
+import com.xixi.lab.rabbitmq.java.common.metrics.LatencyHistogram;
+import com.xixi.lab.rabbitmq.java.ox07_publisher_confirms.AdaptiveConfirmPublisher;
+import com.xixi.lab.rabbitmq.java.ox07_publisher_confirms.ConfirmTracker;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 发布策略基准测试：对比 PublisherConfirms 中的各种确认策略，以及事务、无确认发布
+ *
+ * 打包并运行（-prof gc 输出分配率；-t 指定生产者线程数，多个线程按轮询共用 channelCount 个信道）：
+ *   mvn -pl RabbitMQ-Benchmark -am package
+ *   java -jar RabbitMQ-Benchmark/target/benchmarks.jar PublishStrategiesBenchmark -prof gc
+ *   java -jar RabbitMQ-Benchmark/target/benchmarks.jar PublishStrategiesBenchmark -t 4 -p channelCount=1,4
+ *
+ * 参数：
+ *   messageSize：消息体字节数
+ *   batchSize：批量确认、事务每次提交的消息数
+ *   channelCount：信道数
+ *   broker：loopback 本地 Broker 替身（无需网络，结果可复现，见 {@link LoopbackChannel}）；
+ *           embedded 进程内 Broker（走完整的 AMQP 协议栈，帧在内存中传递，见 {@link EmbeddedBroker}）；
+ *           rabbitmq 真实的 RabbitMQ（-Dbenchmark.host=localhost）
+ *
+ * 吞吐量为每秒发布的消息数；每轮测试结束时输出确认延迟的 p50/p99/p999（individual 为单条消息，batch/transactional 为整批）。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PublishStrategiesBenchmark {
+
+    private static final String QUEUE_NAME = "benchmark-queue";
+
+    @Param({"16", "1024"})
+    public int messageSize;
+
+    @Param({"100"})
+    public int batchSize;
+
+    @Param({"1", "4"})
+    public int channelCount;
+
+    @Param({"loopback"})
+    public String broker;
+
+    private final AtomicInteger nextLane = new AtomicInteger();
+
+    private final LatencyHistogram confirmLatency = new LatencyHistogram();
+
+    private EmbeddedBroker embeddedBroker;
+
+    private Connection connection;
+
+    private Lane[] lanes;
+
+    private byte[] body;
+
+    private String benchmarkName;
+
+    /**
+     * 一个信道及其发布状态，多个生产者线程共用时按信道加锁
+     */
+    static class Lane {
+
+        final Channel channel;
+
+        ConfirmTracker tracker;
+
+        AdaptiveConfirmPublisher publisher;
+
+        int outstanding;
+
+        long batchStartNanos;
+
+        Lane(Channel channel) {
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * 生产者线程：按轮询分配一个信道
+     */
+    @State(Scope.Thread)
+    public static class Producer {
+
+        Lane lane;
+
+        @Setup(Level.Trial)
+        public void setup(PublishStrategiesBenchmark benchmark) {
+            lane = benchmark.lanes[benchmark.nextLane.getAndIncrement() % benchmark.lanes.length];
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup(BenchmarkParams params) throws Exception {
+        String label = params.getBenchmark();
+        benchmarkName = label.substring(label.lastIndexOf('.') + 1);
+        body = new byte[messageSize];
+        new Random(42).nextBytes(body);
+
+        if ("rabbitmq".equals(broker)) {
+            ConnectionFactory factory = new ConnectionFactory();
+            factory.setHost(System.getProperty("benchmark.host", "localhost"));
+            connection = factory.newConnection("publish-strategies-benchmark");
+        } else if ("embedded".equals(broker)) {
+            embeddedBroker = new EmbeddedBroker();
+            connection = embeddedBroker.newConnectionFactory().newConnection("publish-strategies-benchmark");
+        }
+        lanes = new Lane[channelCount];
+        for (int i = 0; i < channelCount; i++) {
+            Channel channel = connection == null ? LoopbackChannel.create() : connection.createChannel();
+            // 限制队列长度，避免长时间测试时 Broker 内存无限增长
+            channel.queueDeclare(QUEUE_NAME, false, false, false, Collections.<String, Object>singletonMap("x-max-length", 100_000));
+            lanes[i] = prepare(new Lane(channel));
+        }
+    }
+
+    private Lane prepare(Lane lane) throws Exception {
+        switch (benchmarkName) {
+            case "individual":
+            case "batch":
+                lane.channel.confirmSelect();
+                break;
+            case "async":
+                lane.channel.confirmSelect();
+                lane.tracker = new ConfirmTracker(1024);
+                ConfirmTracker tracker = lane.tracker;
+                lane.channel.addConfirmListener((sequenceNumber, multiple) -> {
+                    synchronized (tracker) {
+                        if (tracker.confirm(sequenceNumber, multiple, System.nanoTime()) > 0) {
+                            confirmLatency.record(tracker.getLastLatencyNanos());
+                        }
+                    }
+                }, (sequenceNumber, multiple) -> tracker.confirm(sequenceNumber, multiple, System.nanoTime()));
+                break;
+            case "adaptive":
+                lane.publisher = new AdaptiveConfirmPublisher(lane.channel);
+                break;
+            case "transactional":
+                lane.channel.txSelect();
+                break;
+            default:
+                break;
+        }
+        return lane;
+    }
+
+    /**
+     * 每轮结束时等待所有确认/提交完成，避免积压带入下一轮
+     */
+    @TearDown(Level.Iteration)
+    public void drain() throws Exception {
+        for (Lane lane : lanes) {
+            synchronized (lane) {
+                switch (benchmarkName) {
+                    case "individual":
+                    case "batch":
+                    case "async":
+                        lane.channel.waitForConfirmsOrDie(60_000);
+                        break;
+                    case "adaptive":
+                        lane.publisher.flush().get(60, TimeUnit.SECONDS);
+                        break;
+                    case "transactional":
+                        lane.channel.txCommit();
+                        break;
+                    default:
+                        break;
+                }
+                lane.outstanding = 0;
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (confirmLatency.getCount() > 0) {
+            System.out.printf("%n[%s] confirm latency: %s%n", benchmarkName, confirmLatency.snapshot().format(TimeUnit.MICROSECONDS));
+        }
+        for (Lane lane : lanes) {
+            lane.channel.close();
+        }
+        if (connection != null) {
+            connection.close();
+        }
+        if (embeddedBroker != null) {
+            embeddedBroker.close();
+        }
+    }
+
+    /**
+     * 无确认发布（fire-and-forget）
+     */
+    @Benchmark
+    public void fireAndForget(Producer producer) throws Exception {
+        Lane lane = producer.lane;
+        synchronized (lane) {
+            lane.channel.basicPublish("", QUEUE_NAME, null, body);
+        }
+    }
+
+    /**
+     * Strategy #1：单个确认发布
+     */
+    @Benchmark
+    public void individual(Producer producer) throws Exception {
+        Lane lane = producer.lane;
+        synchronized (lane) {
+            long start = System.nanoTime();
+            lane.channel.basicPublish("", QUEUE_NAME, null, body);
+            lane.channel.waitForConfirmsOrDie(5_000);
+            confirmLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Strategy #2：批量确认发布，每 batchSize 条等待一次确认
+     */
+    @Benchmark
+    public void batch(Producer producer) throws Exception {
+        Lane lane = producer.lane;
+        synchronized (lane) {
+            if (lane.outstanding == 0) {
+                lane.batchStartNanos = System.nanoTime();
+            }
+            lane.channel.basicPublish("", QUEUE_NAME, null, body);
+            if (++lane.outstanding == batchSize) {
+                lane.channel.waitForConfirmsOrDie(5_000);
+                confirmLatency.record(System.nanoTime() - lane.batchStartNanos);
+                lane.outstanding = 0;
+            }
+        }
+    }
+
+    /**
+     * Strategy #3：异步确认发布（ConfirmTracker 跟踪未确认消息，不限制未确认数）
+     */
+    @Benchmark
+    public void async(Producer producer) throws Exception {
+        Lane lane = producer.lane;
+        synchronized (lane) {
+            lane.tracker.track(lane.channel.getNextPublishSeqNo(), System.nanoTime(), null);
+            lane.channel.basicPublish("", QUEUE_NAME, null, body);
+        }
+    }
+
+    /**
+     * Strategy #4：异步确认发布 + 自适应窗口（publishAsync 返回 Future）
+     */
+    @Benchmark
+    public void adaptive(Producer producer) {
+        long start = System.nanoTime();
+        producer.lane.publisher.publishAsync("", QUEUE_NAME, null, body)
+                .thenRun(() -> confirmLatency.record(System.nanoTime() - start));
+    }
+
+    /**
+     * 事务：txSelect 后每 batchSize 条 txCommit 一次
+     */
+    @Benchmark
+    public void transactional(Producer producer) throws Exception {
+        Lane lane = producer.lane;
+        synchronized (lane) {
+            if (lane.outstanding == 0) {
+                lane.batchStartNanos = System.nanoTime();
+            }
+            lane.channel.basicPublish("", QUEUE_NAME, null, body);
+            if (++lane.outstanding == batchSize) {
+                lane.channel.txCommit();
+                confirmLatency.record(System.nanoTime() - lane.batchStartNanos);
+                lane.outstanding = 0;
+            }
+        }
+    }
+}
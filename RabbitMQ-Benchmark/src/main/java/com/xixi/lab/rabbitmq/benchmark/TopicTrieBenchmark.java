@@ -0,0 +1,123 @@
+package com.xixi.lab.rabbitmq.benchmark;
+
+import com.xixi.lab.rabbitmq.java.common.routing.TopicTrie;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * topic 匹配基准测试：对比 {@link TopicTrie} 前缀树索引与逐个绑定键匹配（线性扫描）
+ *
+ * 打包并运行：
+ *   mvn -pl RabbitMQ-Benchmark -am package
+ *   java -jar RabbitMQ-Benchmark/target/benchmarks.jar TopicTrieBenchmark -p patternCount=1000,100000
+ *
+ * 参数：
+ *   patternCount：绑定键数量，按 <speed>.<colour>.<species> 形式随机生成（与 Topics 示例相同），
+ *                 约 1/5 的位置为 *、约 1/10 的绑定键以 # 结尾；每个绑定键一个订阅者
+ *   keyCount：轮流匹配的路由键数量（大于 TopicTrie 的缓存容量 maxCachedKeys（默认 1024）时拆分缓存频繁清空，不再命中）
+ *
+ * 得分为每秒匹配的路由键数；linearScan 只在 patternCount 较小时有意义，建造索引的耗时和节点数在 setup 时输出。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TopicTrieBenchmark {
+
+    private static final String[] SPEEDS = words("speed", 50);
+
+    private static final String[] COLOURS = words("colour", 200);
+
+    private static final String[] SPECIES = words("species", 1000);
+
+    @Param({"1000", "100000"})
+    public int patternCount;
+
+    @Param({"256"})
+    public int keyCount;
+
+    private TopicTrie<Integer> trie;
+
+    private String[] patterns;
+
+    private String[] keys;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        patterns = new String[patternCount];
+        trie = new TopicTrie<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < patternCount; i++) {
+            patterns[i] = pattern(random);
+            trie.add(patterns[i], i);
+        }
+        System.out.printf("%n[TopicTrie] %d patterns, %d nodes, built in %d ms%n", patternCount, trie.getNodeCount(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        keys = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = pick(random, SPEEDS) + "." + pick(random, COLOURS) + "." + pick(random, SPECIES);
+        }
+    }
+
+    @Benchmark
+    public void trie(Blackhole blackhole) {
+        Set<Integer> matched = new HashSet<>();
+        trie.match(nextKey(), matched);
+        blackhole.consume(matched);
+    }
+
+    @Benchmark
+    public void linearScan(Blackhole blackhole) {
+        String key = nextKey();
+        List<Integer> matched = new ArrayList<>();
+        for (int i = 0; i < patterns.length; i++) {
+            if (TopicTrie.matches(patterns[i], key)) {
+                matched.add(i);
+            }
+        }
+        blackhole.consume(matched);
+    }
+
+    private String nextKey() {
+        String key = keys[next];
+        next = next + 1 == keys.length ? 0 : next + 1;
+        return key;
+    }
+
+    private static String pattern(Random random) {
+        String[][] levels = {SPEEDS, COLOURS, SPECIES};
+        StringBuilder pattern = new StringBuilder();
+        int depth = random.nextInt(10) == 0 ? 1 + random.nextInt(2) : 3;
+        for (int level = 0; level < depth; level++) {
+            if (level > 0) {
+                pattern.append('.');
+            }
+            pattern.append(random.nextInt(5) == 0 ? "*" : pick(random, levels[level]));
+        }
+        return depth < 3 ? pattern.append(".#").toString() : pattern.toString();
+    }
+
+    private static String pick(Random random, String[] words) {
+        return words[random.nextInt(words.length)];
+    }
+
+    private static String[] words(String prefix, int count) {
+        String[] words = new String[count];
+        for (int i = 0; i < count; i++) {
+            words[i] = prefix + i;
+        }
+        return words;
+    }
+}
@@ -0,0 +1,258 @@
+package com.xixi.lab.rabbitmq.java.common.batch;
+
+import com.rabbitmq.client.Channel;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 确认合并器：手动确认模式下，把逐条的 basicAck(tag, false) 合并为一次 basicAck(maxTag, true)
+ *
+ * deliveryTag 在信道内从1开始连续递增，记录已处理完的 deliveryTag，满足以下任一条件时确认：
+ * （1）待确认数达到 maxPending；
+ * （2）第一条待确认的消息已等待 maxDelayMillis（由后台线程确认，<= 0 时不启用，只能手动 flush()）。
+ * 确认时只能覆盖 从最小的未确认 deliveryTag 开始连续处理完的部分（multiple=true 会确认其之前的所有消息）：
+ * （1）乱序完成：前面还有未处理完的消息时，后面已处理完的先保留，等前面的处理完再一起确认；
+ *      保留超过 maxDelayMillis 仍未能合并确认的改为逐条确认，避免一条慢消息让已处理完的消息长时间占满预取窗口、Broker 停止投递；
+ * （2）nack(tag, requeue)：立即单独发送 basicNack(tag, false, requeue)，之后的合并确认跳过它。
+ *
+ * 预取值为 prefetch 时，maxPending 不应超过 prefetch / 2（见 {@link #forPrefetch}），否则未确认的消息占满预取窗口后要等 maxDelayMillis 才能继续投递；
+ * 预取值会变化时（如 {@code AdaptivePrefetchController}），用 {@link #followPrefetch} 让 maxPending 随之调整。
+ * 不按时间确认（maxDelayMillis <= 0）时，被慢消息隔开的部分只在 flush()/close() 时确认。
+ *
+ * 该信道上的所有投递（包括其他消费者、basicGet 的消息）都必须经由同一个合并器确认，且应在 basicConsume 之前创建；
+ * 不处理信道的自动恢复（恢复后 deliveryTag 重新计数）。可多线程使用；后台确认失败时，异常在下一次调用时抛出。
+ */
+public class AckCoalescer implements AutoCloseable {
+
+    private final Channel channel;
+
+    private int maxPending;
+
+    private final long maxDelayMillis;
+
+    private final ScheduledExecutorService scheduler;
+
+    // 最小的未确认 deliveryTag，以下两个 BitSet 的第 i 位对应 base + i
+    private long base = 1;
+
+    // 已处理完（确认或拒绝）的 deliveryTag
+    private final BitSet completed = new BitSet();
+
+    // 已单独发送过 ack/nack 的 deliveryTag，合并确认时跳过
+    private final BitSet settled = new BitSet();
+
+    // 已处理完、尚未发送确认的数量
+    private int pending;
+
+    // 每次从无到有待确认时加一，区分过期的定时任务
+    private long generation;
+
+    private long ackFrames;
+
+    private long acked;
+
+    private IOException asyncFailure;
+
+    private boolean closed;
+
+    /**
+     * @param channel        消费所在的信道
+     * @param maxPending     待确认数达到该值时确认
+     * @param maxDelayMillis 待确认的消息最长等待时间，<= 0 表示不按时间确认
+     */
+    public AckCoalescer(Channel channel, int maxPending, long maxDelayMillis) {
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("maxPending must be positive");
+        }
+        this.channel = channel;
+        this.maxPending = maxPending;
+        this.maxDelayMillis = maxDelayMillis;
+        this.scheduler = maxDelayMillis > 0 ? Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ack-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * 按预取值创建：maxPending 为 prefetch / 2（至少为1，prefetch 为1时每条消息立即确认）
+     */
+    public static AckCoalescer forPrefetch(Channel channel, int prefetch, long maxDelayMillis) {
+        return new AckCoalescer(channel, Math.max(1, prefetch / 2), maxDelayMillis);
+    }
+
+    /**
+     * 预取值变化后调整 maxPending 为 prefetch / 2（至少为1）；缩小后待确认数已达到新值时立即确认
+     */
+    public synchronized void followPrefetch(int prefetch) throws IOException {
+        maxPending = Math.max(1, prefetch / 2);
+        if (pending >= maxPending && !closed) {
+            advance();
+        }
+    }
+
+    /**
+     * 消息处理成功
+     */
+    public synchronized void ack(long deliveryTag) throws IOException {
+        complete(deliveryTag);
+        if (pending++ == 0 && scheduler != null) {
+            long scheduled = ++generation;
+            scheduler.schedule(() -> linger(scheduled), maxDelayMillis, TimeUnit.MILLISECONDS);
+        }
+        if (pending >= maxPending) {
+            advance();
+        }
+    }
+
+    /**
+     * 消息处理失败：立即拒绝
+     *
+     * @param requeue 是否重新入队
+     */
+    public synchronized void nack(long deliveryTag, boolean requeue) throws IOException {
+        complete(deliveryTag);
+        settled.set(index(deliveryTag));
+        channel.basicNack(deliveryTag, false, requeue);
+        // 没有待确认的消息时推进 base（不会发送确认），避免只有 nack 时 BitSet 一直增长
+        if (pending == 0) {
+            advance();
+        }
+    }
+
+    /**
+     * 立即确认所有已处理完的消息：连续部分合并确认，被隔开的部分逐条确认
+     */
+    public synchronized void flush() throws IOException {
+        checkState();
+        advance();
+        ackSeparately();
+    }
+
+    /**
+     * 确认所有已处理完的消息（被隔开的部分逐条确认）并停止后台线程
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            if (channel.isOpen()) {
+                flush();
+            }
+        } finally {
+            closed = true;
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * 发送的 basic.ack 帧数
+     */
+    public synchronized long getAckFrames() {
+        return ackFrames;
+    }
+
+    /**
+     * 已确认的消息数（不含 nack）
+     */
+    public synchronized long getAcked() {
+        return acked;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("AckCoalescer{acked=%d, ackFrames=%d, pending=%d, nextTag=%d}", acked, ackFrames, pending, base);
+    }
+
+    private void complete(long deliveryTag) throws IOException {
+        checkState();
+        if (deliveryTag < base || completed.get(index(deliveryTag))) {
+            throw new IllegalArgumentException("delivery tag " + deliveryTag + " is already settled");
+        }
+        completed.set(index(deliveryTag));
+    }
+
+    /**
+     * 以一次 multiple 确认覆盖连续处理完的部分，并把 base 推进到第一个未处理完的 deliveryTag
+     */
+    private void advance() throws IOException {
+        int run = completed.nextClearBit(0);
+        if (run == 0) {
+            return;
+        }
+        // 连续部分中最后一个未单独确认/拒绝的 deliveryTag（multiple 确认的 deliveryTag 必须是未确认的）
+        int last = run - 1;
+        while (last >= 0 && settled.get(last)) {
+            last--;
+        }
+        int covered = 0;
+        if (last >= 0) {
+            covered = last + 1 - settled.get(0, last + 1).cardinality();
+            channel.basicAck(base + last, true);
+            ackFrames++;
+            acked += covered;
+        }
+        shift(completed, run);
+        shift(settled, run);
+        base += run;
+        pending -= covered;
+    }
+
+    private void ackSeparately() throws IOException {
+        for (int i = completed.nextSetBit(0); i >= 0; i = completed.nextSetBit(i + 1)) {
+            if (!settled.get(i)) {
+                channel.basicAck(base + i, false);
+                settled.set(i);
+                ackFrames++;
+                acked++;
+            }
+        }
+        pending = 0;
+    }
+
+    private static void shift(BitSet bits, int count) {
+        BitSet remaining = bits.get(count, Math.max(count, bits.length()));
+        bits.clear();
+        bits.or(remaining);
+    }
+
+    private int index(long deliveryTag) {
+        long index = deliveryTag - base;
+        if (index > Integer.MAX_VALUE - 1) {
+            throw new IllegalArgumentException("delivery tag " + deliveryTag + " is too far ahead of " + base);
+        }
+        return (int) index;
+    }
+
+    private synchronized void linger(long scheduled) {
+        if (closed || scheduled != generation || pending == 0) {
+            return;
+        }
+        try {
+            advance();
+            // 已等待 maxDelayMillis 仍被隔开的部分：逐条确认
+            ackSeparately();
+        } catch (IOException e) {
+            asyncFailure = e;
+        }
+    }
+
+    private void checkState() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("ack coalescer is closed");
+        }
+        if (asyncFailure != null) {
+            IOException failure = asyncFailure;
+            asyncFailure = null;
+            throw failure;
+        }
+    }
+}
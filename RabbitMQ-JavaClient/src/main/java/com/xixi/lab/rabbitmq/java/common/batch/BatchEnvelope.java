@@ -0,0 +1,158 @@
+package com.xixi.lab.rabbitmq.java.common.batch;
+
+import com.rabbitmq.client.AMQP;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 批量信封：把多条逻辑消息打包进一条 AMQP 消息的二进制格式
+ *
+ * 消息体由若干条目顺序拼接而成，每个条目为：长度（无符号 varint，1~5 字节） + 消息体字节，
+ * 小于128字节的消息只需额外 1 个字节；而每条单独发送的 AMQP 消息至少需要 method/header/body 三个帧（每帧 8 字节帧头）、
+ * 交换机名、路由键及属性，并在 Broker 端单独路由、入队。
+ *
+ * 信封的属性：content-type 为 {@link #CONTENT_TYPE}，headers 中 x-batch-size 为条目数，
+ * 若原消息设置了 content-type，则保存在 x-batch-content-type 中，拆包时还原。
+ */
+public final class BatchEnvelope {
+
+    public static final String CONTENT_TYPE = "application/x-rabbitmq-lab-batch";
+
+    public static final String HEADER_SIZE = "x-batch-size";
+
+    public static final String HEADER_CONTENT_TYPE = "x-batch-content-type";
+
+    private BatchEnvelope() {
+    }
+
+    /**
+     * 是否为批量信封
+     */
+    public static boolean isBatch(AMQP.BasicProperties props) {
+        return props != null && CONTENT_TYPE.equals(props.getContentType());
+    }
+
+    /**
+     * 由第一条消息的属性生成信封的属性
+     */
+    public static AMQP.BasicProperties envelopeProperties(AMQP.BasicProperties props, int size) {
+        AMQP.BasicProperties.Builder builder = props == null ? new AMQP.BasicProperties.Builder() : props.builder();
+        Map<String, Object> headers = props == null || props.getHeaders() == null
+                ? new HashMap<>(4) : new HashMap<>(props.getHeaders());
+        headers.put(HEADER_SIZE, size);
+        if (props != null && props.getContentType() != null) {
+            headers.put(HEADER_CONTENT_TYPE, props.getContentType());
+        }
+        return builder.contentType(CONTENT_TYPE).headers(headers).build();
+    }
+
+    /**
+     * 由信封的属性还原单条消息的属性
+     */
+    public static AMQP.BasicProperties entryProperties(AMQP.BasicProperties envelope) {
+        Map<String, Object> headers = envelope.getHeaders() == null ? null : new HashMap<>(envelope.getHeaders());
+        Object contentType = null;
+        if (headers != null) {
+            headers.remove(HEADER_SIZE);
+            contentType = headers.remove(HEADER_CONTENT_TYPE);
+            if (headers.isEmpty()) {
+                headers = null;
+            }
+        }
+        return envelope.builder()
+                .contentType(contentType == null ? null : contentType.toString())
+                .headers(headers)
+                .build();
+    }
+
+    /**
+     * 拆出信封中的所有条目
+     *
+     * @throws IllegalArgumentException 信封格式错误（如被截断）
+     */
+    public static List<byte[]> split(byte[] body) {
+        List<byte[]> entries = new ArrayList<>();
+        int position = 0;
+        while (position < body.length) {
+            int length = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (position >= body.length || shift > 28) {
+                    throw new IllegalArgumentException("malformed batch envelope at offset " + position);
+                }
+                b = body[position++];
+                length |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            if (length < 0 || length > body.length - position) {
+                throw new IllegalArgumentException("batch entry of " + length + " bytes exceeds the envelope at offset " + position);
+            }
+            entries.add(Arrays.copyOfRange(body, position, position + length));
+            position += length;
+        }
+        return entries;
+    }
+
+    /**
+     * 信封写入器：追加条目，toByteArray() 取出信封消息体，reset() 后可复用内部缓冲区
+     */
+    public static class Writer {
+
+        private byte[] buffer;
+
+        private int size;
+
+        private int count;
+
+        public Writer(int initialCapacity) {
+            this.buffer = new byte[Math.max(16, initialCapacity)];
+        }
+
+        public void add(byte[] body) {
+            ensureCapacity(5 + body.length);
+            int length = body.length;
+            while ((length & ~0x7F) != 0) {
+                buffer[size++] = (byte) ((length & 0x7F) | 0x80);
+                length >>>= 7;
+            }
+            buffer[size++] = (byte) length;
+            System.arraycopy(body, 0, buffer, size, body.length);
+            size += body.length;
+            count++;
+        }
+
+        /**
+         * 条目数
+         */
+        public int count() {
+            return count;
+        }
+
+        /**
+         * 信封消息体的当前字节数
+         */
+        public int size() {
+            return size;
+        }
+
+        public byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        public void reset() {
+            size = 0;
+            count = 0;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, size + extra));
+            }
+        }
+    }
+}
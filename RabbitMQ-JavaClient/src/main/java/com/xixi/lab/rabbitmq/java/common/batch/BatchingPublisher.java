@@ -0,0 +1,185 @@
+package com.xixi.lab.rabbitmq.java.common.batch;
+
+import com.rabbitmq.client.AMQP;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量发布者：把发往同一 交换机 + 路由键 的小消息打包为一个 {@link BatchEnvelope} 再发布
+ *
+ * 满足以下任一条件时发布当前批次：
+ * （1）条目数达到 maxMessages；
+ * （2）信封字节数达到 maxBytes；
+ * （3）批次中的第一条消息已等待 lingerMillis（由后台线程发布，lingerMillis <= 0 时不启用，只能手动 flush()）。
+ *
+ * 同一批次中的消息共用第一条消息的属性；若后续消息的属性不是同一个对象（如 MessageProperties.PERSISTENT_TEXT_PLAIN），则先发布当前批次。
+ * 消费端需用 {@link UnbatchingDeliverCallback} 拆包。可多线程共用；后台发布失败时，异常在下一次 publish()/flush() 时抛出。
+ */
+public class BatchingPublisher implements AutoCloseable {
+
+    /**
+     * 信封的实际发布方式，如 channel::basicPublish
+     */
+    @FunctionalInterface
+    public interface EnvelopeSink {
+        void publish(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body) throws IOException;
+    }
+
+    private final EnvelopeSink sink;
+
+    private final int maxMessages;
+
+    private final int maxBytes;
+
+    private final long lingerMillis;
+
+    private final ScheduledExecutorService scheduler;
+
+    // 交换机 + 路由键 -> 当前批次
+    private final Map<String, Batch> batches = new HashMap<>();
+
+    private IOException asyncFailure;
+
+    private boolean closed;
+
+    /**
+     * @param sink         信封的发布方式
+     * @param maxMessages  每批最多条目数
+     * @param maxBytes     每批最多字节数（单条消息超过该值时单独成批）
+     * @param lingerMillis 批次最长等待时间，<= 0 表示不按时间发布
+     */
+    public BatchingPublisher(EnvelopeSink sink, int maxMessages, int maxBytes, long lingerMillis) {
+        if (maxMessages < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("maxMessages and maxBytes must be positive");
+        }
+        this.sink = sink;
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.lingerMillis = lingerMillis;
+        this.scheduler = lingerMillis > 0 ? Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "batching-publisher-linger");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * 加入批次，达到条目数或字节数上限时在当前线程发布
+     */
+    public synchronized void publish(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body)
+            throws IOException {
+        checkState();
+        String key = exchange + '\u0000' + routingKey;
+        Batch batch = batches.get(key);
+        if (batch != null && batch.writer.count() > 0
+                && (batch.props != props || batch.writer.size() + body.length + 5 > maxBytes)) {
+            send(batch);
+        }
+        if (batch == null) {
+            batch = new Batch(exchange, routingKey, Math.min(maxBytes, 64 * 1024));
+            batches.put(key, batch);
+        }
+        if (batch.writer.count() == 0) {
+            batch.props = props;
+            batch.generation++;
+            if (scheduler != null) {
+                Batch scheduled = batch;
+                long generation = batch.generation;
+                scheduler.schedule(() -> linger(scheduled, generation), lingerMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        batch.writer.add(body);
+        if (batch.writer.count() >= maxMessages || batch.writer.size() >= maxBytes) {
+            send(batch);
+        }
+    }
+
+    /**
+     * 立即发布所有未满的批次
+     */
+    public synchronized void flush() throws IOException {
+        checkState();
+        List<Batch> pending = new ArrayList<>(batches.values());
+        for (Batch batch : pending) {
+            if (batch.writer.count() > 0) {
+                send(batch);
+            }
+        }
+    }
+
+    /**
+     * 发布剩余批次并停止后台线程
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            closed = true;
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+            }
+        }
+    }
+
+    private synchronized void linger(Batch batch, long generation) {
+        // 该批次在等待期间已因条目数/字节数上限被发布
+        if (closed || batch.generation != generation || batch.writer.count() == 0) {
+            return;
+        }
+        try {
+            send(batch);
+        } catch (IOException e) {
+            asyncFailure = e;
+        }
+    }
+
+    private void send(Batch batch) throws IOException {
+        AMQP.BasicProperties props = BatchEnvelope.envelopeProperties(batch.props, batch.writer.count());
+        byte[] body = batch.writer.toByteArray();
+        batch.writer.reset();
+        batch.generation++;
+        sink.publish(batch.exchange, batch.routingKey, props, body);
+    }
+
+    private void checkState() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("batching publisher is closed");
+        }
+        if (asyncFailure != null) {
+            IOException failure = asyncFailure;
+            asyncFailure = null;
+            throw failure;
+        }
+    }
+
+    private static class Batch {
+
+        private final String exchange;
+
+        private final String routingKey;
+
+        private final BatchEnvelope.Writer writer;
+
+        private AMQP.BasicProperties props;
+
+        // 每开始/发布一个批次加1，用于判断等待到期的是否还是同一批次
+        private long generation;
+
+        Batch(String exchange, String routingKey, int initialCapacity) {
+            this.exchange = exchange;
+            this.routingKey = routingKey;
+            this.writer = new BatchEnvelope.Writer(initialCapacity);
+        }
+    }
+}
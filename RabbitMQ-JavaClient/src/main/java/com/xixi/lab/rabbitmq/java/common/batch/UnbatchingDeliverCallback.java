@@ -0,0 +1,80 @@
+package com.xixi.lab.rabbitmq.java.common.batch;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DeliverCallback;
+import com.rabbitmq.client.Delivery;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 拆包的 DeliverCallback：收到 {@link BatchEnvelope} 时，把其中的消息逐条交给原有的 DeliverCallback 处理，
+ * 非批量消息原样传递，因此可以直接包装已有的处理逻辑
+ *
+ * 拆出的每条消息使用信封的 Envelope（同一个 deliveryTag），所以原有处理逻辑中不能再逐条 basicAck（同一 deliveryTag 重复确认会导致信道关闭），
+ * 确认改由本类完成（手动确认模式下使用 manualAck()）：
+ *      所有消息处理成功后确认一次整个信封；任一消息处理失败则拒绝整个信封并重新入队（已处理的消息会被重复投递，处理逻辑需幂等）。
+ */
+public class UnbatchingDeliverCallback implements DeliverCallback {
+
+    private final DeliverCallback delegate;
+
+    private final Channel channel;
+
+    private UnbatchingDeliverCallback(DeliverCallback delegate, Channel channel) {
+        this.delegate = delegate;
+        this.channel = channel;
+    }
+
+    /**
+     * 自动确认模式（autoAck=true）下使用：只负责拆包
+     */
+    public static DeliverCallback autoAck(DeliverCallback delegate) {
+        return new UnbatchingDeliverCallback(delegate, null);
+    }
+
+    /**
+     * 手动确认模式（autoAck=false）下使用：拆包，并在处理完整个信封后确认一次
+     */
+    public static DeliverCallback manualAck(Channel channel, DeliverCallback delegate) {
+        return new UnbatchingDeliverCallback(delegate, channel);
+    }
+
+    @Override
+    public void handle(String consumerTag, Delivery message) throws IOException {
+        long deliveryTag = message.getEnvelope().getDeliveryTag();
+        if (!BatchEnvelope.isBatch(message.getProperties())) {
+            handleEntry(consumerTag, message, deliveryTag);
+        } else {
+            List<byte[]> entries;
+            try {
+                entries = BatchEnvelope.split(message.getBody());
+            } catch (IllegalArgumentException e) {
+                // 格式错误的信封重新入队也无法处理，直接丢弃（或进入死信队列）
+                if (channel != null) {
+                    channel.basicNack(deliveryTag, false, false);
+                }
+                throw e;
+            }
+            AMQP.BasicProperties props = BatchEnvelope.entryProperties(message.getProperties());
+            for (byte[] entry : entries) {
+                handleEntry(consumerTag, new Delivery(message.getEnvelope(), props, entry), deliveryTag);
+            }
+        }
+        if (channel != null) {
+            channel.basicAck(deliveryTag, false);
+        }
+    }
+
+    private void handleEntry(String consumerTag, Delivery entry, long deliveryTag) throws IOException {
+        try {
+            delegate.handle(consumerTag, entry);
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                channel.basicNack(deliveryTag, false, true);
+            }
+            throw e;
+        }
+    }
+}
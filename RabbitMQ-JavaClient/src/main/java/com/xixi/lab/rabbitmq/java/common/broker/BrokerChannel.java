@@ -0,0 +1,524 @@
+package com.xixi.lab.rabbitmq.java.common.broker;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.impl.AMQImpl;
+import com.rabbitmq.client.impl.Method;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * 一个信道：处理该信道上的命令，记录消费者、未确认的投递与发布确认的序号，只由 Broker 线程访问
+ *
+ * （1）投递标签（delivery tag）按信道递增，ack/nack/reject 支持 multiple，未知的标签按 RabbitMQ 的方式关闭信道（406）；
+ * （2）预取值：global=false 作用于之后创建的消费者，global=true 限制整个信道的未确认数；
+ * （3）发布确认：每条消息路由完成即确认，同一批命令中的确认合并为一个 multiple=true 的 Basic.Ack（见 {@link #flushConfirms()}）；
+ * （4）事务只实现了握手（Tx.Select/Commit/Rollback 直接回复），发布不会被缓冲到提交时。
+ */
+class BrokerChannel {
+
+    private final EmbeddedBroker broker;
+
+    private final BrokerConnection connection;
+
+    final int number;
+
+    private final Map<String, BrokerConsumer> consumers = new LinkedHashMap<>();
+
+    private final TreeMap<Long, Unacked> unacked = new TreeMap<>();
+
+    private long deliveryTag;
+
+    private int consumerPrefetch;
+
+    private int globalPrefetch;
+
+    private boolean flowActive = true;
+
+    private boolean closing;
+
+    // 最近声明的队列，队列名为空时使用（AMQP 0-9-1 规范）
+    private String lastQueue;
+
+    private boolean confirm;
+
+    private boolean transactional;
+
+    // 已发布、已确认到的发布序号
+    private long publishSeq;
+
+    private long confirmedSeq;
+
+    private long ackedSeq;
+
+    // 直接回复的伪队列名（amq.rabbitmq.reply-to.xxx），该信道在 amq.rabbitmq.reply-to 上消费时才有
+    private String replyQueue;
+
+    /**
+     * 一条已投递未确认的消息
+     */
+    private static final class Unacked {
+
+        final BrokerQueue queue;
+
+        final BrokerMessage message;
+
+        // Basic.Get 取出的消息为 null
+        final BrokerConsumer consumer;
+
+        Unacked(BrokerQueue queue, BrokerMessage message, BrokerConsumer consumer) {
+            this.queue = queue;
+            this.message = message;
+            this.consumer = consumer;
+        }
+    }
+
+    BrokerChannel(EmbeddedBroker broker, BrokerConnection connection, int number) {
+        this.broker = broker;
+        this.connection = connection;
+        this.number = number;
+    }
+
+    boolean isClosing() {
+        return closing;
+    }
+
+    boolean isDelivering() {
+        return !closing && flowActive;
+    }
+
+    boolean hasCapacity() {
+        return globalPrefetch == 0 || unacked.size() < globalPrefetch;
+    }
+
+    void handle(Method method, AMQP.BasicProperties properties, byte[] body) throws BrokerException {
+        if (method instanceof AMQP.Basic.Publish) {
+            publish((AMQP.Basic.Publish) method, properties, body);
+        } else if (method instanceof AMQP.Basic.Ack) {
+            AMQP.Basic.Ack ack = (AMQP.Basic.Ack) method;
+            settle(ack.getDeliveryTag(), ack.getMultiple(), false);
+        } else if (method instanceof AMQP.Basic.Nack) {
+            AMQP.Basic.Nack nack = (AMQP.Basic.Nack) method;
+            settle(nack.getDeliveryTag(), nack.getMultiple(), nack.getRequeue());
+        } else if (method instanceof AMQP.Basic.Reject) {
+            AMQP.Basic.Reject reject = (AMQP.Basic.Reject) method;
+            settle(reject.getDeliveryTag(), false, reject.getRequeue());
+        } else if (method instanceof AMQP.Basic.Get) {
+            get((AMQP.Basic.Get) method);
+        } else if (method instanceof AMQP.Basic.Qos) {
+            qos((AMQP.Basic.Qos) method);
+        } else if (method instanceof AMQP.Basic.Consume) {
+            consume((AMQP.Basic.Consume) method);
+        } else if (method instanceof AMQP.Basic.Cancel) {
+            AMQP.Basic.Cancel cancel = (AMQP.Basic.Cancel) method;
+            BrokerConsumer consumer = consumers.remove(cancel.getConsumerTag());
+            if (consumer != null) {
+                removeConsumer(consumer);
+            }
+            if (!cancel.getNowait()) {
+                connection.send(number, new AMQImpl.Basic.CancelOk(cancel.getConsumerTag()));
+            }
+        } else if (method instanceof AMQP.Basic.Recover || method instanceof AMQP.Basic.RecoverAsync) {
+            // requeue=false 时 RabbitMQ 同样重新入队
+            settle(0, true, true);
+            if (method instanceof AMQP.Basic.Recover) {
+                connection.send(number, new AMQImpl.Basic.RecoverOk());
+            }
+        } else if (method instanceof AMQP.Queue.Declare) {
+            queueDeclare((AMQP.Queue.Declare) method);
+        } else if (method instanceof AMQP.Queue.Bind) {
+            AMQP.Queue.Bind bind = (AMQP.Queue.Bind) method;
+            BrokerQueue queue = queue(bind.getQueue());
+            exchange(bind.getExchange()).bind(queue, bindingKey(bind.getQueue(), bind.getRoutingKey(), queue), bind.getArguments());
+            if (!bind.getNowait()) {
+                connection.send(number, new AMQImpl.Queue.BindOk());
+            }
+        } else if (method instanceof AMQP.Queue.Unbind) {
+            AMQP.Queue.Unbind unbind = (AMQP.Queue.Unbind) method;
+            BrokerQueue queue = queue(unbind.getQueue());
+            BrokerExchange exchange = exchange(unbind.getExchange());
+            exchange.unbind(queue, bindingKey(unbind.getQueue(), unbind.getRoutingKey(), queue), unbind.getArguments());
+            broker.unbound(exchange);
+            connection.send(number, new AMQImpl.Queue.UnbindOk());
+        } else if (method instanceof AMQP.Queue.Purge) {
+            AMQP.Queue.Purge purge = (AMQP.Queue.Purge) method;
+            int count = queue(purge.getQueue()).purge();
+            if (!purge.getNowait()) {
+                connection.send(number, new AMQImpl.Queue.PurgeOk(count));
+            }
+        } else if (method instanceof AMQP.Queue.Delete) {
+            queueDelete((AMQP.Queue.Delete) method);
+        } else if (method instanceof AMQP.Exchange.Declare) {
+            exchangeDeclare((AMQP.Exchange.Declare) method);
+        } else if (method instanceof AMQP.Exchange.Delete) {
+            exchangeDelete((AMQP.Exchange.Delete) method);
+        } else if (method instanceof AMQP.Confirm.Select) {
+            if (transactional) {
+                throw BrokerException.preconditionFailed("cannot switch from tx to confirm mode");
+            }
+            confirm = true;
+            if (!((AMQP.Confirm.Select) method).getNowait()) {
+                connection.send(number, new AMQImpl.Confirm.SelectOk());
+            }
+        } else if (method instanceof AMQP.Tx.Select) {
+            if (confirm) {
+                throw BrokerException.preconditionFailed("cannot switch from confirm to tx mode");
+            }
+            transactional = true;
+            connection.send(number, new AMQImpl.Tx.SelectOk());
+        } else if (method instanceof AMQP.Tx.Commit || method instanceof AMQP.Tx.Rollback) {
+            if (!transactional) {
+                throw BrokerException.preconditionFailed("channel is not transactional");
+            }
+            connection.send(number, method instanceof AMQP.Tx.Commit ? new AMQImpl.Tx.CommitOk() : new AMQImpl.Tx.RollbackOk());
+        } else if (method instanceof AMQP.Channel.Flow) {
+            flowActive = ((AMQP.Channel.Flow) method).getActive();
+            connection.send(number, new AMQImpl.Channel.FlowOk(flowActive));
+            dispatchConsumers();
+        } else if (!(method instanceof AMQP.Channel.FlowOk)) {
+            throw BrokerException.notImplemented("method '" + method.protocolMethodName() + "' is not supported by the embedded broker");
+        }
+    }
+
+    private void publish(AMQP.Basic.Publish publish, AMQP.BasicProperties properties, byte[] body) throws BrokerException {
+        long seq = confirm ? ++publishSeq : 0;
+        String exchange = publish.getExchange();
+        String routingKey = publish.getRoutingKey();
+        if (EmbeddedBroker.DIRECT_REPLY_TO.equals(properties.getReplyTo())) {
+            if (replyQueue == null) {
+                throw BrokerException.preconditionFailed("fast reply consumer does not exist");
+            }
+            properties = properties.builder().replyTo(replyQueue).build();
+        }
+        BrokerMessage message = new BrokerMessage(exchange, routingKey, properties, body);
+        if (!broker.route(message) && publish.getMandatory()) {
+            connection.sendContent(number, new AMQImpl.Basic.Return(AMQP.NO_ROUTE, "NO_ROUTE", exchange, routingKey), properties, body);
+        }
+        if (confirm) {
+            confirmedSeq = seq;
+            connection.markDirty();
+        }
+    }
+
+    /**
+     * 投递一条消息给该信道上的消费者（queue 为 null 表示直接回复）
+     */
+    void deliver(BrokerConsumer consumer, BrokerQueue queue, BrokerMessage message, boolean redelivered) {
+        long tag = ++deliveryTag;
+        if (!consumer.noAck) {
+            unacked.put(tag, new Unacked(queue, message, consumer));
+            consumer.unacked++;
+        }
+        connection.sendContent(number, new AMQImpl.Basic.Deliver(consumer.tag, tag, redelivered, message.exchange, message.routingKey),
+                message.properties, message.body);
+    }
+
+    private void get(AMQP.Basic.Get get) throws BrokerException {
+        BrokerQueue queue = queue(get.getQueue());
+        BrokerQueue.Entry entry = queue.poll();
+        if (entry == null) {
+            connection.send(number, new AMQImpl.Basic.GetEmpty(""));
+            return;
+        }
+        long tag = ++deliveryTag;
+        if (!get.getNoAck()) {
+            unacked.put(tag, new Unacked(queue, entry.message, null));
+        }
+        BrokerMessage message = entry.message;
+        connection.sendContent(number, new AMQImpl.Basic.GetOk(tag, entry.redelivered, message.exchange, message.routingKey, queue.messageCount()),
+                message.properties, message.body);
+    }
+
+    /**
+     * ack（requeue=false 的 nack/reject 同样直接丢弃）或重新入队，deliveryTag=0 且 multiple 时表示全部
+     */
+    private void settle(long tag, boolean multiple, boolean requeue) throws BrokerException {
+        if ((tag != 0 || !multiple) && !unacked.containsKey(tag)) {
+            throw BrokerException.preconditionFailed("unknown delivery tag " + tag);
+        }
+        if (!multiple) {
+            Unacked entry = unacked.remove(tag);
+            release(entry);
+            if (requeue) {
+                entry.queue.requeue(entry.message);
+                entry.queue.dispatch();
+            }
+        } else {
+            NavigableMap<Long, Unacked> range = tag == 0 ? unacked : unacked.headMap(tag, true);
+            if (range.isEmpty()) {
+                return;
+            }
+            List<Unacked> entries = new ArrayList<>(range.values());
+            range.clear();
+            for (Unacked entry : entries) {
+                release(entry);
+            }
+            if (requeue) {
+                requeue(entries);
+            }
+        }
+        dispatchConsumers();
+    }
+
+    private static void release(Unacked entry) {
+        if (entry.consumer != null) {
+            entry.consumer.unacked--;
+        }
+    }
+
+    /**
+     * 按原来的顺序放回各自的队首
+     */
+    private static void requeue(List<Unacked> entries) {
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            Unacked entry = entries.get(i);
+            entry.queue.requeue(entry.message);
+        }
+        for (Unacked entry : entries) {
+            entry.queue.dispatch();
+        }
+    }
+
+    /**
+     * 该信道的余量变化后（ack、qos、flow），让其消费的队列继续投递
+     */
+    private void dispatchConsumers() {
+        for (BrokerConsumer consumer : consumers.values()) {
+            if (consumer.queue != null) {
+                consumer.queue.dispatch();
+            }
+        }
+    }
+
+    private void qos(AMQP.Basic.Qos qos) {
+        if (qos.getGlobal()) {
+            globalPrefetch = qos.getPrefetchCount();
+        } else {
+            consumerPrefetch = qos.getPrefetchCount();
+        }
+        connection.send(number, new AMQImpl.Basic.QosOk());
+        dispatchConsumers();
+    }
+
+    private void consume(AMQP.Basic.Consume consume) throws BrokerException {
+        String tag = consume.getConsumerTag().isEmpty() ? broker.generateName("amq.ctag-") : consume.getConsumerTag();
+        if (consumers.containsKey(tag)) {
+            throw BrokerException.notAllowed("attempt to reuse consumer tag '" + tag + "'");
+        }
+        if (EmbeddedBroker.DIRECT_REPLY_TO.equals(consume.getQueue())) {
+            if (!consume.getNoAck()) {
+                throw BrokerException.preconditionFailed("reply consumer cannot acknowledge");
+            }
+            if (replyQueue != null) {
+                throw BrokerException.preconditionFailed("reply consumer already set");
+            }
+            BrokerConsumer consumer = new BrokerConsumer(tag, this, null, true, 0);
+            replyQueue = broker.registerReplyConsumer(consumer);
+            consumers.put(tag, consumer);
+            if (!consume.getNowait()) {
+                connection.send(number, new AMQImpl.Basic.ConsumeOk(tag));
+            }
+            return;
+        }
+        BrokerQueue queue = queue(consume.getQueue());
+        if (queue.hasExclusiveConsumer() || (consume.getExclusive() && queue.consumerCount() > 0)) {
+            throw BrokerException.accessRefused("queue '" + queue.name + "' in vhost '/' in exclusive use");
+        }
+        BrokerConsumer consumer = new BrokerConsumer(tag, this, queue, consume.getNoAck(), consumerPrefetch);
+        consumers.put(tag, consumer);
+        queue.addConsumer(consumer, consume.getExclusive());
+        // 先回复 ConsumeOk，再投递已有的消息
+        if (!consume.getNowait()) {
+            connection.send(number, new AMQImpl.Basic.ConsumeOk(tag));
+        }
+        queue.dispatch();
+    }
+
+    private void removeConsumer(BrokerConsumer consumer) {
+        if (consumer.queue == null) {
+            broker.unregisterReplyConsumer(replyQueue);
+            replyQueue = null;
+        } else {
+            broker.removeConsumer(consumer);
+        }
+    }
+
+    /**
+     * 队列被删除时由 Broker 取消消费者，通知客户端（consumer_cancel_notify）
+     */
+    void cancelledByBroker(BrokerConsumer consumer) {
+        if (consumers.remove(consumer.tag) != null && !closing) {
+            connection.send(number, new AMQImpl.Basic.Cancel(consumer.tag, false));
+        }
+    }
+
+    private void queueDeclare(AMQP.Queue.Declare declare) throws BrokerException {
+        String name = declare.getQueue();
+        BrokerQueue queue;
+        if (declare.getPassive()) {
+            if (EmbeddedBroker.DIRECT_REPLY_TO.equals(name)) {
+                connection.send(number, new AMQImpl.Queue.DeclareOk(name, 0, 0));
+                return;
+            }
+            queue = queue(name);
+        } else {
+            if (name.isEmpty()) {
+                name = broker.generateName("amq.gen-");
+            } else if (name.startsWith("amq.")) {
+                throw BrokerException.accessRefused("queue name '" + name + "' contains reserved prefix 'amq.*'");
+            }
+            queue = broker.queue(name);
+            if (queue == null) {
+                queue = broker.declareQueue(name, declare.getDurable(), declare.getAutoDelete(),
+                        declare.getExclusive() ? connection : null, maxLength(declare.getArguments()));
+            } else {
+                checkOwner(queue);
+            }
+        }
+        lastQueue = queue.name;
+        if (!declare.getNowait()) {
+            connection.send(number, new AMQImpl.Queue.DeclareOk(queue.name, queue.messageCount(), queue.consumerCount()));
+        }
+    }
+
+    private static int maxLength(Map<String, Object> arguments) {
+        Object value = arguments == null ? null : arguments.get("x-max-length");
+        return value instanceof Number ? ((Number) value).intValue() : -1;
+    }
+
+    private void queueDelete(AMQP.Queue.Delete delete) throws BrokerException {
+        String name = delete.getQueue().isEmpty() ? String.valueOf(lastQueue) : delete.getQueue();
+        BrokerQueue queue = broker.queue(name);
+        int count = 0;
+        // 与 RabbitMQ 3.x 一样，删除不存在的队列不报错
+        if (queue != null) {
+            checkOwner(queue);
+            if (delete.getIfUnused() && queue.consumerCount() > 0) {
+                throw BrokerException.preconditionFailed("queue '" + name + "' in vhost '/' in use");
+            }
+            if (delete.getIfEmpty() && queue.messageCount() > 0) {
+                throw BrokerException.preconditionFailed("queue '" + name + "' in vhost '/' is not empty");
+            }
+            count = broker.deleteQueue(queue);
+        }
+        if (!delete.getNowait()) {
+            connection.send(number, new AMQImpl.Queue.DeleteOk(count));
+        }
+    }
+
+    private void exchangeDeclare(AMQP.Exchange.Declare declare) throws BrokerException {
+        String name = declare.getExchange();
+        BrokerExchange exchange = broker.exchange(name);
+        if (declare.getPassive()) {
+            if (exchange == null && !name.isEmpty()) {
+                throw BrokerException.notFound("exchange", name);
+            }
+        } else if (name.isEmpty()) {
+            throw BrokerException.accessRefused("operation not permitted on the default exchange");
+        } else if (exchange == null) {
+            if (name.startsWith("amq.")) {
+                throw BrokerException.accessRefused("exchange name '" + name + "' contains reserved prefix 'amq.*'");
+            }
+            if (!BrokerExchange.isSupportedType(declare.getType())) {
+                throw BrokerException.commandInvalid("unknown exchange type '" + declare.getType() + "'");
+            }
+            broker.declareExchange(name, declare.getType(), declare.getDurable(), declare.getAutoDelete(), declare.getInternal());
+        } else if (!exchange.type.equals(declare.getType())) {
+            throw BrokerException.preconditionFailed("inequivalent arg 'type' for exchange '" + name + "' in vhost '/': received '"
+                    + declare.getType() + "' but current is '" + exchange.type + "'");
+        }
+        if (!declare.getNowait()) {
+            connection.send(number, new AMQImpl.Exchange.DeclareOk());
+        }
+    }
+
+    private void exchangeDelete(AMQP.Exchange.Delete delete) throws BrokerException {
+        String name = delete.getExchange();
+        if (name.isEmpty() || name.startsWith("amq.")) {
+            throw BrokerException.accessRefused("operation not permitted on exchange '" + name + "'");
+        }
+        BrokerExchange exchange = broker.exchange(name);
+        if (exchange != null) {
+            if (delete.getIfUnused() && !exchange.isUnused()) {
+                throw BrokerException.preconditionFailed("exchange '" + name + "' in vhost '/' in use");
+            }
+            broker.deleteExchange(name);
+        }
+        if (!delete.getNowait()) {
+            connection.send(number, new AMQImpl.Exchange.DeleteOk());
+        }
+    }
+
+    /**
+     * 按名称查找队列（为空时取该信道最近声明的队列），不存在或为其他连接的排他队列时报错
+     */
+    private BrokerQueue queue(String name) throws BrokerException {
+        String resolved = name.isEmpty() && lastQueue != null ? lastQueue : name;
+        BrokerQueue queue = broker.queue(resolved);
+        if (queue == null) {
+            throw BrokerException.notFound("queue", resolved);
+        }
+        checkOwner(queue);
+        return queue;
+    }
+
+    private void checkOwner(BrokerQueue queue) throws BrokerException {
+        if (queue.owner != null && queue.owner != connection) {
+            throw BrokerException.resourceLocked("cannot obtain exclusive access to locked queue '" + queue.name + "' in vhost '/'");
+        }
+    }
+
+    private BrokerExchange exchange(String name) throws BrokerException {
+        if (name.isEmpty()) {
+            throw BrokerException.accessRefused("operation not permitted on the default exchange");
+        }
+        BrokerExchange exchange = broker.exchange(name);
+        if (exchange == null) {
+            throw BrokerException.notFound("exchange", name);
+        }
+        return exchange;
+    }
+
+    /**
+     * 队列名与绑定键都为空时，绑定键取队列名（AMQP 0-9-1 规范）
+     */
+    private static String bindingKey(String queueName, String routingKey, BrokerQueue queue) {
+        return queueName.isEmpty() && routingKey.isEmpty() ? queue.name : routingKey;
+    }
+
+    /**
+     * 批量命令处理完后发送合并的发布确认
+     */
+    void flushConfirms() {
+        if (confirmedSeq > ackedSeq) {
+            connection.send(number, new AMQImpl.Basic.Ack(confirmedSeq, confirmedSeq - ackedSeq > 1));
+            ackedSeq = confirmedSeq;
+        }
+    }
+
+    /**
+     * 关闭信道：取消所有消费者，未确认的消息重新入队
+     */
+    void close() {
+        if (closing) {
+            return;
+        }
+        closing = true;
+        for (BrokerConsumer consumer : new ArrayList<>(consumers.values())) {
+            removeConsumer(consumer);
+        }
+        consumers.clear();
+        if (!unacked.isEmpty()) {
+            List<Unacked> entries = new ArrayList<>(unacked.values());
+            unacked.clear();
+            for (Unacked entry : entries) {
+                release(entry);
+            }
+            requeue(entries);
+        }
+    }
+}
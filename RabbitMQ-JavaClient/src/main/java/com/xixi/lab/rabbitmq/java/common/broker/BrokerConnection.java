@@ -0,0 +1,404 @@
+package com.xixi.lab.rabbitmq.java.common.broker;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.LongString;
+import com.rabbitmq.client.impl.AMQImpl;
+import com.rabbitmq.client.impl.Frame;
+import com.rabbitmq.client.impl.LongStringHelper;
+import com.rabbitmq.client.impl.Method;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * 一个客户端连接
+ *
+ * （1）读线程（run）：握手（Start/StartOk、Tune/TuneOk、Open/OpenOk），之后按信道把 方法帧 + 内容头帧 + 消息体帧 组装成命令，
+ *     交给 Broker 线程处理；
+ * （2）Broker 线程：处理命令、写回复与投递（先写入传输层的缓冲区，一批命令处理完后统一 flush，见 {@link EmbeddedBroker}）。
+ * 写失败时只做标记，在 flush 时关闭连接，避免在投递的过程中修改队列的消费者列表。
+ */
+class BrokerConnection implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BrokerConnection.class);
+
+    static final int CHANNEL_MAX = 2047;
+
+    static final int FRAME_MAX = 131072;
+
+    static final int HEARTBEAT_SECONDS = 60;
+
+    // 帧头（7 字节）+ 帧结束符（1 字节）
+    private static final int FRAME_OVERHEAD = 8;
+
+    private final EmbeddedBroker broker;
+
+    private final BrokerTransport transport;
+
+    private final String id;
+
+    // 握手完成后只由 Broker 线程访问
+    private final Map<Integer, BrokerChannel> channels = new HashMap<>();
+
+    private String name;
+
+    private int frameMax = FRAME_MAX;
+
+    private int heartbeat;
+
+    // 已发出 Connection.Close，等待客户端的 CloseOk
+    private boolean closing;
+
+    // 读线程据此区分 Broker 主动关闭与连接异常
+    private volatile boolean closed;
+
+    private boolean broken;
+
+    private boolean dirty;
+
+    private ScheduledFuture<?> heartbeatTask;
+
+    /**
+     * 正在组装的带内容的命令（Basic.Publish）
+     */
+    private static final class PendingCommand {
+
+        final Method method;
+
+        AMQP.BasicProperties properties;
+
+        byte[] body;
+
+        int received;
+
+        PendingCommand(Method method) {
+            this.method = method;
+        }
+    }
+
+    BrokerConnection(EmbeddedBroker broker, BrokerTransport transport, String id) {
+        this.broker = broker;
+        this.transport = transport;
+        this.id = id;
+        this.name = id;
+    }
+
+    int getHeartbeat() {
+        return heartbeat;
+    }
+
+    void setHeartbeatTask(ScheduledFuture<?> heartbeatTask) {
+        this.heartbeatTask = heartbeatTask;
+    }
+
+    @Override
+    public void run() {
+        try {
+            transport.readProtocolHeader();
+            handshake();
+            broker.execute(() -> broker.opened(this));
+            readCommands();
+        } catch (EOFException e) {
+            // 客户端已断开
+        } catch (IOException | RuntimeException e) {
+            if (!closed && !broker.isClosed()) {
+                LOGGER.warn("Embedded broker connection {} failed", name, e);
+            }
+        } finally {
+            broker.execute(this::shutdown);
+        }
+    }
+
+    private void handshake() throws IOException {
+        Map<String, Object> capabilities = new HashMap<>();
+        capabilities.put("publisher_confirms", true);
+        capabilities.put("exchange_exchange_bindings", false);
+        capabilities.put("basic.nack", true);
+        capabilities.put("consumer_cancel_notify", true);
+        capabilities.put("connection.blocked", false);
+        capabilities.put("per_consumer_qos", true);
+        capabilities.put("direct_reply_to", true);
+        Map<String, Object> serverProperties = new LinkedHashMap<>();
+        serverProperties.put("product", LongStringHelper.asLongString("RabbitMQ-Lab EmbeddedBroker"));
+        serverProperties.put("version", LongStringHelper.asLongString("3.8.0"));
+        serverProperties.put("platform", LongStringHelper.asLongString("Java " + System.getProperty("java.version")));
+        serverProperties.put("capabilities", capabilities);
+        writeNow(new AMQImpl.Connection.Start(AMQP.PROTOCOL.MAJOR, AMQP.PROTOCOL.MINOR, serverProperties,
+                LongStringHelper.asLongString("PLAIN AMQPLAIN"), LongStringHelper.asLongString("en_US")));
+
+        // 不校验用户名密码
+        AMQP.Connection.StartOk startOk = expect(AMQP.Connection.StartOk.class);
+        Object connectionName = startOk.getClientProperties() == null ? null : startOk.getClientProperties().get("connection_name");
+        if (connectionName instanceof LongString || connectionName instanceof String) {
+            name = id + " (" + connectionName + ")";
+        }
+
+        writeNow(new AMQImpl.Connection.Tune(CHANNEL_MAX, FRAME_MAX, HEARTBEAT_SECONDS));
+        AMQP.Connection.TuneOk tuneOk = expect(AMQP.Connection.TuneOk.class);
+        frameMax = tuneOk.getFrameMax() == 0 ? FRAME_MAX : Math.min(tuneOk.getFrameMax(), FRAME_MAX);
+        heartbeat = tuneOk.getHeartbeat();
+
+        expect(AMQP.Connection.Open.class);
+        writeNow(new AMQImpl.Connection.OpenOk(""));
+    }
+
+    private void writeNow(Method method) throws IOException {
+        transport.writeFrame(method.toFrame(0));
+        transport.flush();
+    }
+
+    private <T> T expect(Class<T> type) throws IOException {
+        while (true) {
+            Frame frame = transport.readFrame();
+            if (frame == null || frame.type == AMQP.FRAME_HEARTBEAT) {
+                continue;
+            }
+            Method method = frame.type == AMQP.FRAME_METHOD ? AMQImpl.readMethodFrom(frame.getInputStream()) : null;
+            if (!type.isInstance(method)) {
+                throw new IOException("expected " + type.getSimpleName() + " during handshake but got " + (method == null ? "frame type " + frame.type : method.protocolMethodName()));
+            }
+            return type.cast(method);
+        }
+    }
+
+    /**
+     * 读线程：组装命令（帧格式错误时直接断开连接）
+     */
+    private void readCommands() throws IOException {
+        Map<Integer, PendingCommand> pending = new HashMap<>();
+        while (true) {
+            Frame frame = transport.readFrame();
+            if (frame == null) {
+                continue;
+            }
+            switch (frame.type) {
+                case AMQP.FRAME_METHOD:
+                    Method method = AMQImpl.readMethodFrom(frame.getInputStream());
+                    if (pending.containsKey(frame.channel)) {
+                        throw new IOException("unexpected method frame on channel " + frame.channel + ", expected content");
+                    }
+                    if (method.hasContent()) {
+                        pending.put(frame.channel, new PendingCommand(method));
+                    } else {
+                        submit(frame.channel, method, null, null);
+                    }
+                    break;
+                case AMQP.FRAME_HEADER: {
+                    PendingCommand command = pending.get(frame.channel);
+                    if (command == null || command.properties != null) {
+                        throw new IOException("unexpected content header frame on channel " + frame.channel);
+                    }
+                    command.properties = (AMQP.BasicProperties) AMQImpl.readContentHeaderFrom(frame.getInputStream());
+                    command.body = new byte[(int) command.properties.getBodySize()];
+                    if (command.body.length == 0) {
+                        pending.remove(frame.channel);
+                        submit(frame.channel, command.method, command.properties, command.body);
+                    }
+                    break;
+                }
+                case AMQP.FRAME_BODY: {
+                    PendingCommand command = pending.get(frame.channel);
+                    byte[] payload = frame.getPayload();
+                    if (command == null || command.properties == null || command.received + payload.length > command.body.length) {
+                        throw new IOException("unexpected content body frame on channel " + frame.channel);
+                    }
+                    System.arraycopy(payload, 0, command.body, command.received, payload.length);
+                    command.received += payload.length;
+                    if (command.received == command.body.length) {
+                        pending.remove(frame.channel);
+                        submit(frame.channel, command.method, command.properties, command.body);
+                    }
+                    break;
+                }
+                case AMQP.FRAME_HEARTBEAT:
+                    break;
+                default:
+                    throw new IOException("unknown frame type " + frame.type);
+            }
+        }
+    }
+
+    private void submit(int channel, Method method, AMQP.BasicProperties properties, byte[] body) {
+        broker.execute(() -> handle(channel, method, properties, body));
+    }
+
+    /**
+     * Broker 线程：处理一个命令
+     */
+    private void handle(int number, Method method, AMQP.BasicProperties properties, byte[] body) {
+        if (closed) {
+            return;
+        }
+        if (number == 0) {
+            if (method instanceof AMQP.Connection.Close) {
+                closeChannels();
+                send(0, new AMQImpl.Connection.CloseOk());
+                shutdown();
+            } else if (method instanceof AMQP.Connection.CloseOk && closing) {
+                shutdown();
+            }
+            return;
+        }
+        if (closing) {
+            return;
+        }
+        BrokerChannel channel = channels.get(number);
+        try {
+            if (method instanceof AMQP.Channel.Open) {
+                if (channel != null) {
+                    throw BrokerException.channelError("second 'channel.open' seen");
+                }
+                channels.put(number, new BrokerChannel(broker, this, number));
+                send(number, new AMQImpl.Channel.OpenOk(LongStringHelper.asLongString("")));
+                return;
+            }
+            if (channel == null) {
+                throw BrokerException.channelError("expected 'channel.open'");
+            }
+            if (channel.isClosing()) {
+                // 信道因错误关闭，等待客户端的 CloseOk，其间的命令都忽略
+                if (method instanceof AMQP.Channel.CloseOk || method instanceof AMQP.Channel.Close) {
+                    channels.remove(number);
+                }
+                return;
+            }
+            if (method instanceof AMQP.Channel.Close) {
+                channel.close();
+                channels.remove(number);
+                send(number, new AMQImpl.Channel.CloseOk());
+                return;
+            }
+            channel.handle(method, properties, body);
+        } catch (BrokerException e) {
+            if (e.isConnectionLevel()) {
+                closing = true;
+                closeChannels();
+                send(0, new AMQImpl.Connection.Close(e.getCode(), e.getMessage(), method.protocolClassId(), method.protocolMethodId()));
+            } else {
+                channel.close();
+                send(number, new AMQImpl.Channel.Close(e.getCode(), e.getMessage(), method.protocolClassId(), method.protocolMethodId()));
+            }
+        }
+    }
+
+    private void closeChannels() {
+        for (BrokerChannel channel : new ArrayList<>(channels.values())) {
+            channel.close();
+        }
+        channels.clear();
+    }
+
+    /**
+     * Broker 线程：关闭连接，释放信道与排他队列
+     */
+    void shutdown() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        closeChannels();
+        if (heartbeatTask != null) {
+            heartbeatTask.cancel(false);
+        }
+        try {
+            transport.flush();
+        } catch (IOException ignored) {
+            // 连接已断开
+        }
+        transport.close();
+        broker.closed(this);
+    }
+
+    void send(int channel, Method method) {
+        if (closed || broken) {
+            return;
+        }
+        try {
+            transport.writeFrame(method.toFrame(channel));
+            markDirty();
+        } catch (IOException e) {
+            broken();
+        }
+    }
+
+    /**
+     * 发送带内容的方法（Deliver、GetOk、Return），消息体按协商的 frameMax 拆分为多个帧
+     */
+    void sendContent(int channel, Method method, AMQP.BasicProperties properties, byte[] body) {
+        if (closed || broken) {
+            return;
+        }
+        try {
+            transport.writeFrame(method.toFrame(channel));
+            transport.writeFrame(properties.toFrame(channel, body.length));
+            int chunk = frameMax - FRAME_OVERHEAD;
+            for (int offset = 0; offset < body.length; offset += chunk) {
+                transport.writeFrame(Frame.fromBodyFragment(channel, body, offset, Math.min(chunk, body.length - offset)));
+            }
+            markDirty();
+        } catch (IOException e) {
+            broken();
+        }
+    }
+
+    void sendHeartbeat() {
+        if (closed || broken) {
+            return;
+        }
+        try {
+            transport.writeFrame(new Frame(AMQP.FRAME_HEARTBEAT, 0));
+            markDirty();
+        } catch (IOException e) {
+            broken();
+        }
+    }
+
+    private void broken() {
+        broken = true;
+        markDirty();
+    }
+
+    void markDirty() {
+        if (!dirty) {
+            dirty = true;
+            broker.markDirty(this);
+        }
+    }
+
+    /**
+     * Broker 线程：一批命令处理完后，发送合并的发布确认并 flush
+     */
+    void flush() {
+        if (closed) {
+            return;
+        }
+        if (!broken) {
+            for (BrokerChannel channel : channels.values()) {
+                channel.flushConfirms();
+            }
+        }
+        dirty = false;
+        if (broken) {
+            shutdown();
+            return;
+        }
+        try {
+            transport.flush();
+        } catch (IOException e) {
+            shutdown();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + transport;
+    }
+}
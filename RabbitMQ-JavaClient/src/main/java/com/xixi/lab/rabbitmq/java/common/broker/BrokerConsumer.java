@@ -0,0 +1,38 @@
+package com.xixi.lab.rabbitmq.java.common.broker;
+
+/**
+ * 一个消费者（Basic.Consume），只由 Broker 线程访问
+ *
+ * 直接回复（amq.rabbitmq.reply-to）的消费者没有队列（queue 为 null），消息发布时直接投递给它。
+ */
+class BrokerConsumer {
+
+    final String tag;
+
+    final BrokerChannel channel;
+
+    final BrokerQueue queue;
+
+    final boolean noAck;
+
+    // 单个消费者的预取值（Basic.Qos global=false），0 表示不限制
+    final int prefetch;
+
+    // 已投递未确认的消息数
+    int unacked;
+
+    BrokerConsumer(String tag, BrokerChannel channel, BrokerQueue queue, boolean noAck, int prefetch) {
+        this.tag = tag;
+        this.channel = channel;
+        this.queue = queue;
+        this.noAck = noAck;
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * 是否还能再投递一条：自动确认的消费者不受预取值限制
+     */
+    boolean canAccept() {
+        return channel.isDelivering() && (noAck || ((prefetch == 0 || unacked < prefetch) && channel.hasCapacity()));
+    }
+}
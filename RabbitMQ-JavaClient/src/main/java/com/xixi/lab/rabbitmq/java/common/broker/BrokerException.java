@@ -0,0 +1,63 @@
+package com.xixi.lab.rabbitmq.java.common.broker;
+
+import com.rabbitmq.client.AMQP;
+
+/**
+ * 处理命令时的错误：信道级错误关闭信道（Channel.Close），连接级错误关闭连接（Connection.Close）
+ *
+ * 错误码与文本格式与 RabbitMQ 一致（如 "NOT_FOUND - no queue 'x' in vhost '/'"），客户端的异常信息与连接真实 Broker 时相同。
+ */
+class BrokerException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int code;
+
+    private final boolean connectionLevel;
+
+    private BrokerException(int code, String name, String text, boolean connectionLevel) {
+        super(name + " - " + text, null, false, false);
+        this.code = code;
+        this.connectionLevel = connectionLevel;
+    }
+
+    int getCode() {
+        return code;
+    }
+
+    boolean isConnectionLevel() {
+        return connectionLevel;
+    }
+
+    static BrokerException notFound(String kind, String name) {
+        return new BrokerException(AMQP.NOT_FOUND, "NOT_FOUND", "no " + kind + " '" + name + "' in vhost '/'", false);
+    }
+
+    static BrokerException accessRefused(String text) {
+        return new BrokerException(AMQP.ACCESS_REFUSED, "ACCESS_REFUSED", text, false);
+    }
+
+    static BrokerException resourceLocked(String text) {
+        return new BrokerException(AMQP.RESOURCE_LOCKED, "RESOURCE_LOCKED", text, false);
+    }
+
+    static BrokerException preconditionFailed(String text) {
+        return new BrokerException(AMQP.PRECONDITION_FAILED, "PRECONDITION_FAILED", text, false);
+    }
+
+    static BrokerException notImplemented(String text) {
+        return new BrokerException(AMQP.NOT_IMPLEMENTED, "NOT_IMPLEMENTED", text, true);
+    }
+
+    static BrokerException notAllowed(String text) {
+        return new BrokerException(AMQP.NOT_ALLOWED, "NOT_ALLOWED", text, true);
+    }
+
+    static BrokerException channelError(String text) {
+        return new BrokerException(AMQP.CHANNEL_ERROR, "CHANNEL_ERROR", text, true);
+    }
+
+    static BrokerException commandInvalid(String text) {
+        return new BrokerException(AMQP.COMMAND_INVALID, "COMMAND_INVALID", text, true);
+    }
+}
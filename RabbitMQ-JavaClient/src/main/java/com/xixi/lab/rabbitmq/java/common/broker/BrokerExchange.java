@@ -0,0 +1,175 @@
+package com.xixi.lab.rabbitmq.java.common.broker;
+
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.xixi.lab.rabbitmq.java.common.routing.TopicTrie;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 交换机及其绑定，只由 Broker 线程访问
+ *
+ * 路由规则与 RabbitMQ 相同：
+ * （1）direct：绑定键与路由键相等；
+ * （2）fanout：忽略路由键，投递给所有绑定的队列；
+ * （3）topic：按 . 分隔的单词匹配，* 匹配一个单词，# 匹配零个或多个单词，绑定键另外索引在 {@link TopicTrie} 中；
+ * （4）headers：按绑定参数与消息头匹配，x-match=all（默认）需全部相等，x-match=any 任意一个相等即可。
+ * 默认交换机（""）不在这里，由 {@link EmbeddedBroker} 按队列名直接投递。
+ */
+class BrokerExchange {
+
+    final String name;
+
+    final String type;
+
+    final boolean durable;
+
+    final boolean autoDelete;
+
+    final boolean internal;
+
+    private final List<Binding> bindings = new ArrayList<>();
+
+    // 只有 topic 交换机使用
+    private final TopicTrie<BrokerQueue> topics;
+
+    /**
+     * 一个绑定：队列 + 绑定键 + 参数（headers 交换机使用）
+     */
+    private static final class Binding {
+
+        final BrokerQueue queue;
+
+        final String key;
+
+        final Map<String, Object> arguments;
+
+        Binding(BrokerQueue queue, String key, Map<String, Object> arguments) {
+            this.queue = queue;
+            this.key = key;
+            this.arguments = arguments;
+        }
+
+        boolean same(BrokerQueue queue, String key, Map<String, Object> arguments) {
+            return this.queue == queue && this.key.equals(key) && Objects.equals(emptyToNull(this.arguments), emptyToNull(arguments));
+        }
+
+        private static Map<String, Object> emptyToNull(Map<String, Object> arguments) {
+            return arguments == null || arguments.isEmpty() ? null : arguments;
+        }
+    }
+
+    BrokerExchange(String name, String type, boolean durable, boolean autoDelete, boolean internal) {
+        this.name = name;
+        this.type = type;
+        this.durable = durable;
+        this.autoDelete = autoDelete;
+        this.internal = internal;
+        this.topics = "topic".equals(type) ? new TopicTrie<>() : null;
+    }
+
+    static boolean isSupportedType(String type) {
+        for (BuiltinExchangeType builtin : BuiltinExchangeType.values()) {
+            if (builtin.getType().equals(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void bind(BrokerQueue queue, String key, Map<String, Object> arguments) {
+        for (Binding binding : bindings) {
+            if (binding.same(queue, key, arguments)) {
+                return;
+            }
+        }
+        bindings.add(new Binding(queue, key, arguments));
+        if (topics != null) {
+            topics.add(key, queue);
+        }
+    }
+
+    void unbind(BrokerQueue queue, String key, Map<String, Object> arguments) {
+        if (bindings.removeIf(binding -> binding.same(queue, key, arguments)) && topics != null
+                && bindings.stream().noneMatch(binding -> binding.queue == queue && binding.key.equals(key))) {
+            // 参数不同的同名绑定在前缀树中只有一份
+            topics.remove(key, queue);
+        }
+    }
+
+    /**
+     * 删除队列的所有绑定
+     *
+     * @return 是否删除了绑定
+     */
+    boolean unbindAll(BrokerQueue queue) {
+        if (topics != null) {
+            for (Binding binding : bindings) {
+                if (binding.queue == queue) {
+                    topics.remove(binding.key, queue);
+                }
+            }
+        }
+        return bindings.removeIf(binding -> binding.queue == queue);
+    }
+
+    boolean isUnused() {
+        return bindings.isEmpty();
+    }
+
+    /**
+     * 把匹配的队列加入 queues（同一个队列只加入一次，由调用方传入 Set 去重）
+     */
+    void route(String routingKey, Map<String, Object> headers, Collection<BrokerQueue> queues) {
+        switch (type) {
+            case "fanout":
+                for (Binding binding : bindings) {
+                    queues.add(binding.queue);
+                }
+                break;
+            case "direct":
+                for (Binding binding : bindings) {
+                    if (binding.key.equals(routingKey)) {
+                        queues.add(binding.queue);
+                    }
+                }
+                break;
+            case "topic":
+                topics.match(routingKey, queues);
+                break;
+            case "headers":
+                for (Binding binding : bindings) {
+                    if (headersMatch(binding.arguments, headers)) {
+                        queues.add(binding.queue);
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static boolean headersMatch(Map<String, Object> arguments, Map<String, Object> headers) {
+        if (arguments == null) {
+            return true;
+        }
+        boolean any = "any".equals(String.valueOf(arguments.get("x-match")));
+        for (Map.Entry<String, Object> argument : arguments.entrySet()) {
+            if (argument.getKey().startsWith("x-")) {
+                continue;
+            }
+            // LongString 与 String 按文本比较
+            boolean matched = headers != null && headers.containsKey(argument.getKey())
+                    && (argument.getValue() == null
+                    || String.valueOf(argument.getValue()).equals(String.valueOf(headers.get(argument.getKey()))));
+            // any：有一个相等即匹配；all：有一个不相等即不匹配
+            if (matched == any) {
+                return any;
+            }
+        }
+        return !any;
+    }
+}
@@ -0,0 +1,24 @@
+package com.xixi.lab.rabbitmq.java.common.broker;
+
+import com.rabbitmq.client.AMQP;
+
+/**
+ * 一条已发布的消息，路由到多个队列时共用同一个对象（属性与消息体都不会被修改）
+ */
+final class BrokerMessage {
+
+    final String exchange;
+
+    final String routingKey;
+
+    final AMQP.BasicProperties properties;
+
+    final byte[] body;
+
+    BrokerMessage(String exchange, String routingKey, AMQP.BasicProperties properties, byte[] body) {
+        this.exchange = exchange;
+        this.routingKey = routingKey;
+        this.properties = properties;
+        this.body = body;
+    }
+}
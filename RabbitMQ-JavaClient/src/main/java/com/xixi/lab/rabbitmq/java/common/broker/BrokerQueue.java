@@ -0,0 +1,139 @@
+package com.xixi.lab.rabbitmq.java.common.broker;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 队列：消息按 FIFO 排队，按轮询投递给还有余量（预取值）的消费者，只由 Broker 线程访问
+ *
+ * （1）重新入队（nack/reject requeue、信道关闭时未确认的消息）的消息放回队首，并标记 redelivered；
+ * （2）支持 x-max-length：超出长度时丢弃队首的消息（RabbitMQ 默认的 drop-head）；
+ * （3）持久化只是一个标记，消息都在内存中。
+ */
+class BrokerQueue {
+
+    final String name;
+
+    final boolean durable;
+
+    final boolean autoDelete;
+
+    // 排他队列所属的连接，非排他队列为 null
+    final BrokerConnection owner;
+
+    private final int maxLength;
+
+    private final ArrayDeque<Entry> messages = new ArrayDeque<>();
+
+    private final List<BrokerConsumer> consumers = new ArrayList<>();
+
+    // 轮询的起点
+    private int next;
+
+    private boolean exclusiveConsumer;
+
+    boolean deleted;
+
+    /**
+     * 队列中的一条消息
+     */
+    static final class Entry {
+
+        final BrokerMessage message;
+
+        final boolean redelivered;
+
+        Entry(BrokerMessage message, boolean redelivered) {
+            this.message = message;
+            this.redelivered = redelivered;
+        }
+    }
+
+    BrokerQueue(String name, boolean durable, boolean autoDelete, BrokerConnection owner, int maxLength) {
+        this.name = name;
+        this.durable = durable;
+        this.autoDelete = autoDelete;
+        this.owner = owner;
+        this.maxLength = maxLength;
+    }
+
+    void enqueue(BrokerMessage message) {
+        messages.addLast(new Entry(message, false));
+        if (maxLength >= 0) {
+            while (messages.size() > maxLength) {
+                messages.pollFirst();
+            }
+        }
+    }
+
+    void requeue(BrokerMessage message) {
+        if (!deleted) {
+            messages.addFirst(new Entry(message, true));
+        }
+    }
+
+    Entry poll() {
+        return messages.pollFirst();
+    }
+
+    int purge() {
+        int count = messages.size();
+        messages.clear();
+        return count;
+    }
+
+    int messageCount() {
+        return messages.size();
+    }
+
+    int consumerCount() {
+        return consumers.size();
+    }
+
+    List<BrokerConsumer> consumers() {
+        return consumers;
+    }
+
+    boolean hasExclusiveConsumer() {
+        return exclusiveConsumer;
+    }
+
+    void addConsumer(BrokerConsumer consumer, boolean exclusive) {
+        consumers.add(consumer);
+        exclusiveConsumer = exclusive;
+    }
+
+    void removeConsumer(BrokerConsumer consumer) {
+        if (consumers.remove(consumer)) {
+            exclusiveConsumer = false;
+        }
+    }
+
+    /**
+     * 把队首的消息依次投递给有余量的消费者，直到队列为空或所有消费者都达到预取值
+     */
+    void dispatch() {
+        while (!messages.isEmpty()) {
+            BrokerConsumer consumer = nextConsumer();
+            if (consumer == null) {
+                return;
+            }
+            Entry entry = messages.pollFirst();
+            consumer.channel.deliver(consumer, this, entry.message, entry.redelivered);
+        }
+    }
+
+    private BrokerConsumer nextConsumer() {
+        int size = consumers.size();
+        for (int i = 0; i < size; i++) {
+            int index = (next + i) % size;
+            BrokerConsumer consumer = consumers.get(index);
+            if (consumer.canAccept()) {
+                next = (index + 1) % size;
+                return consumer;
+            }
+        }
+        return null;
+    }
+}
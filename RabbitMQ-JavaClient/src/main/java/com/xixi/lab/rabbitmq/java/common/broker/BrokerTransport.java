@@ -0,0 +1,37 @@
+package com.xixi.lab.rabbitmq.java.common.broker;
+
+import com.rabbitmq.client.impl.Frame;
+
+import java.io.IOException;
+
+/**
+ * Broker 一侧的传输层：按帧读写，由 {@link EmbeddedBroker#accept(BrokerTransport)} 接入
+ *
+ * 内置两种实现：本机 socket（{@link SocketTransport}，客户端照常 setHost/setPort）和进程内的帧队列
+ * （{@link InMemoryConnectionFactory}，不经过网络栈）。
+ * 线程模型：readFrame 只由该连接的读线程调用，writeFrame/flush 只由 Broker 线程调用（握手阶段由读线程调用）。
+ */
+public interface BrokerTransport {
+
+    /**
+     * 读取并校验协议头（"AMQP" 0 0 9 1），握手前调用一次；不传协议头的传输层无需实现
+     */
+    default void readProtocolHeader() throws IOException {
+    }
+
+    /**
+     * 阻塞读取下一帧
+     *
+     * @throws java.io.EOFException 对端已关闭
+     */
+    Frame readFrame() throws IOException;
+
+    /**
+     * 写入一帧，可以先缓冲，flush 时再发出
+     */
+    void writeFrame(Frame frame) throws IOException;
+
+    void flush() throws IOException;
+
+    void close();
+}
@@ -0,0 +1,412 @@
+package com.xixi.lab.rabbitmq.java.common.broker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 进程内的 AMQP 0-9-1 Broker 替身：不需要安装 RabbitMQ 即可运行示例、压测与基准测试，结果不受网络与磁盘影响
+ *
+ * 支持：
+ * （1）默认、direct、fanout、topic、headers 交换机的路由，mandatory 消息无法路由时 Basic.Return；
+ * （2）队列：声明（含服务端命名、排他、自动删除、x-max-length）、绑定、清空、删除，删除时通知消费者（Basic.Cancel）；
+ * （3）消费：预取值（单个消费者 / 整个信道）、ack/nack/reject（含 multiple、requeue）、Basic.Get、Basic.Recover；
+ * （4）发布确认（Confirm.Select）与直接回复（amq.rabbitmq.reply-to），RPC 示例无需声明回调队列也能运行；
+ * （5）两种接入方式：本机 socket（{@link #listen(int)}，客户端代码不用修改，只需连接到对应端口），
+ *     或进程内传输（{@link #newConnectionFactory()}，直接传递帧对象，不经过网络栈）；
+ *     也可以实现 {@link BrokerTransport} 接入其他传输层（{@link #accept(BrokerTransport)}）。
+ * 不支持：持久化（durable 只是标记）、TTL、死信、优先级、交换机到交换机的绑定、事务的缓冲（Tx 只回复，不回滚）、用户与权限。
+ *
+ * 线程模型：所有状态（交换机、队列、信道）只由一个 Broker 线程访问，各连接的读线程把组装好的命令放入任务队列，
+ * Broker 线程每次取出一批（最多 {@link #BATCH_SIZE} 个）依次处理，处理完后统一 flush 各连接的写缓冲，
+ * 同一批中的发布确认合并为一个 multiple=true 的 Basic.Ack。任务队列有界，Broker 处理不过来时读线程阻塞，
+ * 由 TCP（或进程内传输的有界队列）把背压传给发布方。
+ *
+ * 用法：
+ *   try (EmbeddedBroker broker = new EmbeddedBroker()) {
+ *       ConnectionFactory factory = broker.newConnectionFactory();
+ *       ...
+ *   }
+ * 或单独运行 main（默认监听 5672，可指定端口），之后照常运行各个示例。
+ */
+public class EmbeddedBroker implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EmbeddedBroker.class);
+
+    /**
+     * 直接回复的伪队列名
+     */
+    public static final String DIRECT_REPLY_TO = "amq.rabbitmq.reply-to";
+
+    static final int BATCH_SIZE = 256;
+
+    private static final int TASK_QUEUE_CAPACITY = 65536;
+
+    private final BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>(TASK_QUEUE_CAPACITY);
+
+    private final Thread loop;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "embedded-broker-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicInteger connectionIds = new AtomicInteger();
+
+    // 以下只由 Broker 线程访问
+    private final Map<String, BrokerExchange> exchanges = new HashMap<>();
+
+    private final Map<String, BrokerQueue> queues = new HashMap<>();
+
+    private final Map<String, BrokerConsumer> replyConsumers = new HashMap<>();
+
+    private final Set<BrokerConnection> connections = new HashSet<>();
+
+    private final List<BrokerConnection> dirty = new ArrayList<>();
+
+    private final Set<BrokerQueue> routed = new LinkedHashSet<>();
+
+    private boolean stopped;
+
+    private volatile boolean closed;
+
+    private volatile ServerSocket serverSocket;
+
+    public EmbeddedBroker() {
+        declareExchange("amq.direct", "direct", true, false, false);
+        declareExchange("amq.fanout", "fanout", true, false, false);
+        declareExchange("amq.topic", "topic", true, false, false);
+        declareExchange("amq.headers", "headers", true, false, false);
+        declareExchange("amq.match", "headers", true, false, false);
+        loop = new Thread(this::runLoop, "embedded-broker");
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    /**
+     * 在本机（loopback）端口上接受 socket 连接
+     *
+     * @param port 端口，0 表示随机选择一个空闲端口（见 {@link #getPort()}）
+     */
+    public synchronized EmbeddedBroker listen(int port) throws IOException {
+        if (serverSocket != null) {
+            throw new IllegalStateException("already listening on port " + serverSocket.getLocalPort());
+        }
+        ServerSocket server = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+        serverSocket = server;
+        Thread acceptor = new Thread(() -> {
+            while (!closed) {
+                try {
+                    Socket socket = server.accept();
+                    accept(new SocketTransport(socket));
+                } catch (SocketException e) {
+                    // 已关闭
+                    return;
+                } catch (IOException e) {
+                    LOGGER.warn("Embedded broker failed to accept a connection", e);
+                }
+            }
+        }, "embedded-broker-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return this;
+    }
+
+    /**
+     * 监听的端口，未调用 listen 时为 -1
+     */
+    public int getPort() {
+        ServerSocket server = serverSocket;
+        return server == null ? -1 : server.getLocalPort();
+    }
+
+    /**
+     * 通过进程内传输连接到该 Broker 的连接工厂
+     */
+    public InMemoryConnectionFactory newConnectionFactory() {
+        return new InMemoryConnectionFactory(this);
+    }
+
+    /**
+     * 接入一个连接：启动该连接的读线程，由它完成握手
+     */
+    public void accept(BrokerTransport transport) {
+        if (closed) {
+            transport.close();
+            throw new IllegalStateException("broker is closed");
+        }
+        String id = "connection-" + connectionIds.incrementAndGet();
+        Thread reader = new Thread(new BrokerConnection(this, transport, id), "embedded-broker-" + id);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 提交任务到 Broker 线程，任务队列满时阻塞（读线程据此形成背压）
+     */
+    void execute(Runnable task) {
+        if (closed) {
+            return;
+        }
+        try {
+            tasks.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runLoop() {
+        List<Runnable> batch = new ArrayList<>(BATCH_SIZE);
+        while (!stopped) {
+            try {
+                Runnable first = tasks.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                tasks.drainTo(batch, BATCH_SIZE - 1);
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (Runnable task : batch) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOGGER.error("Embedded broker task failed", e);
+                }
+            }
+            batch.clear();
+            flushConnections();
+        }
+    }
+
+    private void flushConnections() {
+        while (!dirty.isEmpty()) {
+            List<BrokerConnection> snapshot = new ArrayList<>(dirty);
+            dirty.clear();
+            for (BrokerConnection connection : snapshot) {
+                connection.flush();
+            }
+        }
+    }
+
+    void markDirty(BrokerConnection connection) {
+        dirty.add(connection);
+    }
+
+    /**
+     * 握手完成：登记连接，按协商的心跳间隔的一半发送心跳
+     */
+    void opened(BrokerConnection connection) {
+        connections.add(connection);
+        int heartbeat = connection.getHeartbeat();
+        if (heartbeat > 0) {
+            long period = Math.max(1000L, TimeUnit.SECONDS.toMillis(heartbeat) / 2);
+            connection.setHeartbeatTask(timer.scheduleAtFixedRate(
+                    () -> tasks.offer(connection::sendHeartbeat), period, period, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /**
+     * 连接关闭：删除它的排他队列
+     */
+    void closed(BrokerConnection connection) {
+        connections.remove(connection);
+        for (BrokerQueue queue : new ArrayList<>(queues.values())) {
+            if (queue.owner == connection) {
+                deleteQueue(queue);
+            }
+        }
+    }
+
+    String generateName(String prefix) {
+        byte[] random = new byte[16];
+        ThreadLocalRandom.current().nextBytes(random);
+        return prefix + Base64.getUrlEncoder().withoutPadding().encodeToString(random);
+    }
+
+    BrokerExchange exchange(String name) {
+        return exchanges.get(name);
+    }
+
+    void declareExchange(String name, String type, boolean durable, boolean autoDelete, boolean internal) {
+        exchanges.put(name, new BrokerExchange(name, type, durable, autoDelete, internal));
+    }
+
+    void deleteExchange(String name) {
+        exchanges.remove(name);
+    }
+
+    /**
+     * 解除绑定后，自动删除的交换机不再有绑定时删除
+     */
+    void unbound(BrokerExchange exchange) {
+        if (exchange.autoDelete && exchange.isUnused()) {
+            exchanges.remove(exchange.name);
+        }
+    }
+
+    BrokerQueue queue(String name) {
+        return queues.get(name);
+    }
+
+    BrokerQueue declareQueue(String name, boolean durable, boolean autoDelete, BrokerConnection owner, int maxLength) {
+        BrokerQueue queue = new BrokerQueue(name, durable, autoDelete, owner, maxLength);
+        queues.put(name, queue);
+        return queue;
+    }
+
+    /**
+     * 删除队列：解除所有绑定，取消消费者，丢弃其中的消息
+     *
+     * @return 丢弃的消息数
+     */
+    int deleteQueue(BrokerQueue queue) {
+        queue.deleted = true;
+        queues.remove(queue.name);
+        for (BrokerExchange exchange : new ArrayList<>(exchanges.values())) {
+            if (exchange.unbindAll(queue)) {
+                unbound(exchange);
+            }
+        }
+        for (BrokerConsumer consumer : new ArrayList<>(queue.consumers())) {
+            queue.removeConsumer(consumer);
+            consumer.channel.cancelledByBroker(consumer);
+        }
+        return queue.purge();
+    }
+
+    /**
+     * 移除消费者，自动删除的队列在最后一个消费者取消后删除
+     */
+    void removeConsumer(BrokerConsumer consumer) {
+        BrokerQueue queue = consumer.queue;
+        queue.removeConsumer(consumer);
+        if (queue.autoDelete && queue.consumerCount() == 0 && !queue.deleted) {
+            deleteQueue(queue);
+        }
+    }
+
+    String registerReplyConsumer(BrokerConsumer consumer) {
+        String name = generateName(DIRECT_REPLY_TO + ".");
+        replyConsumers.put(name, consumer);
+        return name;
+    }
+
+    void unregisterReplyConsumer(String name) {
+        if (name != null) {
+            replyConsumers.remove(name);
+        }
+    }
+
+    /**
+     * 路由并投递一条消息
+     *
+     * @return 是否路由到了至少一个队列（或直接回复的消费者）
+     * @throws BrokerException 交换机不存在或为内部交换机
+     */
+    boolean route(BrokerMessage message) throws BrokerException {
+        if (message.exchange.isEmpty()) {
+            if (message.routingKey.startsWith(DIRECT_REPLY_TO + ".")) {
+                BrokerConsumer consumer = replyConsumers.get(message.routingKey);
+                if (consumer == null) {
+                    return false;
+                }
+                consumer.channel.deliver(consumer, null, message, false);
+                return true;
+            }
+            BrokerQueue queue = queues.get(message.routingKey);
+            if (queue == null) {
+                return false;
+            }
+            queue.enqueue(message);
+            queue.dispatch();
+            return true;
+        }
+        BrokerExchange exchange = exchanges.get(message.exchange);
+        if (exchange == null) {
+            throw BrokerException.notFound("exchange", message.exchange);
+        }
+        if (exchange.internal) {
+            throw BrokerException.accessRefused("cannot publish to internal exchange '" + exchange.name + "' in vhost '/'");
+        }
+        routed.clear();
+        exchange.route(message.routingKey, message.properties.getHeaders(), routed);
+        for (BrokerQueue queue : routed) {
+            queue.enqueue(message);
+            queue.dispatch();
+        }
+        return !routed.isEmpty();
+    }
+
+    /**
+     * 关闭监听与所有连接
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        try {
+            tasks.put(() -> {
+                for (BrokerConnection connection : new ArrayList<>(connections)) {
+                    connection.shutdown();
+                }
+                stopped = true;
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closed = true;
+        ServerSocket server = serverSocket;
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException ignored) {
+                // 已关闭
+            }
+        }
+        try {
+            loop.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        timer.shutdownNow();
+    }
+
+    /**
+     * 单独运行：java ... EmbeddedBroker [port]，默认 5672（与本机 RabbitMQ 相同，示例无需修改即可连接）
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 5672;
+        EmbeddedBroker broker = new EmbeddedBroker().listen(port);
+        System.out.println("[broker] listening on localhost:" + broker.getPort() + ", press Ctrl+C to stop");
+        Runtime.getRuntime().addShutdownHook(new Thread(broker::close, "embedded-broker-shutdown"));
+        broker.loop.join();
+    }
+}
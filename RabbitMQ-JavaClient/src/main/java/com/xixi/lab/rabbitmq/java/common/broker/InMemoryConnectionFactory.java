@@ -0,0 +1,227 @@
+package com.xixi.lab.rabbitmq.java.common.broker;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.impl.AMQConnection;
+import com.rabbitmq.client.impl.Frame;
+import com.rabbitmq.client.impl.FrameHandler;
+import com.rabbitmq.client.impl.FrameHandlerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连接到进程内 {@link EmbeddedBroker} 的连接工厂：客户端与 Broker 之间直接传递 Frame 对象，不经过 socket
+ *
+ * 除传输层外与普通的 ConnectionFactory 相同（握手、心跳、信道、自动恢复等都走 amqp-client 原有的实现），
+ * 因此 ConnectionFactory 的示例代码只需换成 broker.newConnectionFactory() 即可运行。
+ * 客户端 -> Broker 的帧队列有界（{@link #PIPE_CAPACITY}），Broker 处理不过来时发布线程阻塞，相当于 TCP 的背压；
+ * Broker -> 客户端的帧队列无界，Broker 线程从不阻塞在某一个客户端上。
+ */
+public class InMemoryConnectionFactory extends ConnectionFactory {
+
+    static final int PIPE_CAPACITY = 8192;
+
+    // 关闭标记，放入队列唤醒读取方
+    private static final Frame CLOSED = new Frame(AMQP.FRAME_HEARTBEAT, 0);
+
+    private final EmbeddedBroker broker;
+
+    public InMemoryConnectionFactory(EmbeddedBroker broker) {
+        this.broker = broker;
+        setHost("localhost");
+    }
+
+    @Override
+    protected synchronized FrameHandlerFactory createFrameHandlerFactory() {
+        return (address, connectionName) -> {
+            Pipe pipe = new Pipe();
+            broker.accept(pipe.brokerSide);
+            return pipe.clientSide;
+        };
+    }
+
+    /**
+     * 一对帧队列及两端的关闭状态
+     */
+    private static class Pipe {
+
+        final BlockingQueue<Frame> toBroker = new LinkedBlockingQueue<>(PIPE_CAPACITY);
+
+        final BlockingQueue<Frame> toClient = new LinkedBlockingQueue<>();
+
+        volatile boolean clientClosed;
+
+        volatile boolean brokerClosed;
+
+        final ClientSide clientSide = new ClientSide(this);
+
+        final BrokerSide brokerSide = new BrokerSide(this);
+    }
+
+    /**
+     * 客户端一侧，由 AMQConnection 的 MainLoop 读、由发布线程写
+     */
+    private static class ClientSide implements FrameHandler {
+
+        private final Pipe pipe;
+
+        private volatile int timeout;
+
+        ClientSide(Pipe pipe) {
+            this.pipe = pipe;
+        }
+
+        @Override
+        public void setTimeout(int timeoutMs) {
+            this.timeout = timeoutMs;
+        }
+
+        @Override
+        public int getTimeout() {
+            return timeout;
+        }
+
+        @Override
+        public void sendHeader() {
+            // 进程内传输不需要协议头
+        }
+
+        @Override
+        public void initialize(AMQConnection connection) {
+            connection.startMainLoop();
+        }
+
+        /**
+         * 超时返回 null（MainLoop 据此检查心跳），Broker 关闭连接后抛出 EOFException
+         */
+        @Override
+        public Frame readFrame() throws IOException {
+            try {
+                int timeoutMs = timeout;
+                Frame frame = timeoutMs > 0 ? pipe.toClient.poll(timeoutMs, TimeUnit.MILLISECONDS) : pipe.toClient.take();
+                if (frame == CLOSED || (frame == null && pipe.clientClosed)) {
+                    throw new EOFException("connection closed");
+                }
+                return frame;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EOFException("interrupted");
+            }
+        }
+
+        @Override
+        public void writeFrame(Frame frame) throws IOException {
+            checkOpen();
+            try {
+                while (!pipe.toBroker.offer(frame, 100, TimeUnit.MILLISECONDS)) {
+                    checkOpen();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SocketException("interrupted");
+            }
+        }
+
+        private void checkOpen() throws SocketException {
+            if (pipe.clientClosed || pipe.brokerClosed) {
+                throw new SocketException("connection closed");
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            pipe.clientClosed = true;
+            pipe.toBroker.offer(CLOSED);
+            pipe.toClient.offer(CLOSED);
+        }
+
+        @Override
+        public InetAddress getLocalAddress() {
+            return InetAddress.getLoopbackAddress();
+        }
+
+        @Override
+        public int getLocalPort() {
+            return 0;
+        }
+
+        @Override
+        public InetAddress getAddress() {
+            return InetAddress.getLoopbackAddress();
+        }
+
+        @Override
+        public int getPort() {
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "in-memory";
+        }
+    }
+
+    /**
+     * Broker 一侧
+     */
+    private static class BrokerSide implements BrokerTransport {
+
+        private final Pipe pipe;
+
+        BrokerSide(Pipe pipe) {
+            this.pipe = pipe;
+        }
+
+        @Override
+        public Frame readFrame() throws IOException {
+            try {
+                while (true) {
+                    Frame frame = pipe.toBroker.poll(1, TimeUnit.SECONDS);
+                    // 队列满时客户端无法放入关闭标记，由 clientClosed 兜底
+                    if (frame == CLOSED || (frame == null && pipe.clientClosed) || pipe.brokerClosed) {
+                        throw new EOFException("connection closed");
+                    }
+                    if (frame != null) {
+                        return frame;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EOFException("interrupted");
+            }
+        }
+
+        @Override
+        public void writeFrame(Frame frame) throws IOException {
+            if (pipe.clientClosed) {
+                throw new SocketException("connection closed");
+            }
+            pipe.toClient.add(frame);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            pipe.brokerClosed = true;
+            pipe.toClient.offer(CLOSED);
+        }
+
+        @Override
+        public String toString() {
+            return "in-memory";
+        }
+    }
+}
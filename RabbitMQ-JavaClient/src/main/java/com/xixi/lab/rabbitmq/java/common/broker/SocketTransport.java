@@ -0,0 +1,74 @@
+package com.xixi.lab.rabbitmq.java.common.broker;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.impl.Frame;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Arrays;
+
+/**
+ * 基于 socket 的传输层：读写都经过缓冲，Broker 线程处理完一批命令后统一 flush
+ */
+class SocketTransport implements BrokerTransport {
+
+    private static final byte[] PROTOCOL_HEADER = {'A', 'M', 'Q', 'P', 0, AMQP.PROTOCOL.MAJOR, AMQP.PROTOCOL.MINOR, AMQP.PROTOCOL.REVISION};
+
+    private final Socket socket;
+
+    private final DataInputStream in;
+
+    private final DataOutputStream out;
+
+    SocketTransport(Socket socket) throws IOException {
+        this.socket = socket;
+        socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    @Override
+    public void readProtocolHeader() throws IOException {
+        byte[] header = new byte[PROTOCOL_HEADER.length];
+        in.readFully(header);
+        if (!Arrays.equals(header, PROTOCOL_HEADER)) {
+            // 协议版本不匹配时回复支持的版本后关闭（AMQP 0-9-1 规范 4.2.2）
+            out.write(PROTOCOL_HEADER);
+            out.flush();
+            throw new IOException("unsupported protocol header " + Arrays.toString(header));
+        }
+    }
+
+    @Override
+    public Frame readFrame() throws IOException {
+        return Frame.readFrom(in);
+    }
+
+    @Override
+    public void writeFrame(Frame frame) throws IOException {
+        frame.writeTo(out);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // 已关闭
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(socket.getRemoteSocketAddress());
+    }
+}
@@ -0,0 +1,261 @@
+package com.xixi.lab.rabbitmq.java.common.cache;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * RPC 响应缓存：以 路由键 + 请求消息体 为键，缓存处理结果，命中时无需再次执行处理方法
+ *
+ * （1）容量有限：超过 maxEntries 时淘汰最久未访问的条目（LRU）；为减少多个消费者线程之间的锁竞争，
+ *      按键的哈希分为多个段，每段是一个按访问顺序排列的 LinkedHashMap，各自加锁、各自淘汰（近似全局 LRU）；
+ * （2）可选的过期时间 ttlMillis：写入后超过该时间的条目视为未命中（<= 0 表示不过期）；
+ * （3）命中、未命中、淘汰、过期次数由 LongAdder 计数，可通过 toString() 或 getHitRate() 观察命中率。
+ *
+ * 处理方法抛出异常时不缓存；只应缓存结果仅取决于请求内容的处理（如 fib(n)）。
+ *
+ * @param <V> 缓存的响应类型，如 byte[]
+ */
+public class ResponseCache<V> {
+
+    private final Segment<V>[] segments;
+
+    private final long ttlNanos;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * @param maxEntries 最多缓存的条目数
+     * @param ttlMillis  过期时间（毫秒），<= 0 表示不过期
+     */
+    public ResponseCache(int maxEntries, long ttlMillis) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        // 每段至少 64 个条目，最多 16 段
+        int segmentCount = Math.max(1, Math.min(16, Integer.highestOneBit(maxEntries / 64)));
+        this.segments = newSegments(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            int capacity = maxEntries / segmentCount + (i < maxEntries % segmentCount ? 1 : 0);
+            segments[i] = new Segment<>(capacity, evictions);
+        }
+        this.ttlNanos = ttlMillis <= 0 ? 0L : ttlMillis * 1_000_000L;
+    }
+
+    /**
+     * 查找缓存的响应，未命中或已过期返回 null
+     */
+    public V get(String routingKey, byte[] request) {
+        Key key = new Key(routingKey, request);
+        Segment<V> segment = segmentFor(key);
+        synchronized (segment) {
+            CachedResponse<V> entry = segment.get(key);
+            if (entry != null) {
+                if (ttlNanos == 0L || System.nanoTime() - entry.createdNanos < ttlNanos) {
+                    hits.increment();
+                    return entry.value;
+                }
+                segment.remove(key);
+                expirations.increment();
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * 缓存响应（请求消息体会被复制，调用方之后可修改或复用原数组）
+     */
+    public void put(String routingKey, byte[] request, V response) {
+        if (response == null) {
+            return;
+        }
+        Key key = new Key(routingKey, request.clone());
+        Segment<V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, new CachedResponse<>(response, System.nanoTime()));
+        }
+    }
+
+    /**
+     * 命中时直接返回缓存的响应，否则执行处理方法并缓存其结果
+     * 同一请求并发未命中时，处理方法可能被执行多次
+     */
+    public V getOrCompute(String routingKey, byte[] request, Function<byte[], V> handler) {
+        V response = get(routingKey, request);
+        if (response == null) {
+            response = handler.apply(request);
+            put(routingKey, request, response);
+        }
+        return response;
+    }
+
+    /**
+     * 清除所有条目（不重置计数）
+     */
+    public void clear() {
+        for (Segment<V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * 清除已过期的条目，返回清除的个数（过期条目在被访问或淘汰时也会被清除，这里可用于定期回收内存）
+     */
+    public int purgeExpired() {
+        if (ttlNanos == 0L) {
+            return 0;
+        }
+        int purged = 0;
+        long now = System.nanoTime();
+        for (Segment<V> segment : segments) {
+            synchronized (segment) {
+                Iterator<CachedResponse<V>> iterator = segment.values().iterator();
+                while (iterator.hasNext()) {
+                    if (now - iterator.next().createdNanos >= ttlNanos) {
+                        iterator.remove();
+                        purged++;
+                    }
+                }
+            }
+        }
+        expirations.add(purged);
+        return purged;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getExpirationCount() {
+        return expirations.sum();
+    }
+
+    /**
+     * 命中率（0 ~ 1），尚无请求时为 0
+     */
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size=%d, hits=%d, misses=%d, hitRate=%.1f%%, evictions=%d, expirations=%d",
+                size(), getHitCount(), getMissCount(), getHitRate() * 100, getEvictionCount(), getExpirationCount());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Segment<V>[] newSegments(int count) {
+        return (Segment<V>[]) new Segment<?>[count];
+    }
+
+    private Segment<V> segmentFor(Key key) {
+        int h = key.hash;
+        return segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+    }
+
+    /**
+     * 一段：按访问顺序排列的 LinkedHashMap，超过容量时淘汰最久未访问的条目
+     */
+    private static class Segment<V> extends LinkedHashMap<Key, CachedResponse<V>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        private final LongAdder evictions;
+
+        Segment(int capacity, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, CachedResponse<V>> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static class CachedResponse<V> {
+
+        private final V value;
+
+        private final long createdNanos;
+
+        CachedResponse(V value, long createdNanos) {
+            this.value = value;
+            this.createdNanos = createdNanos;
+        }
+    }
+
+    /**
+     * 缓存键：路由键 + 请求消息体，哈希值在创建时计算一次
+     */
+    private static final class Key {
+
+        private final String routingKey;
+
+        private final byte[] request;
+
+        private final int hash;
+
+        Key(String routingKey, byte[] request) {
+            this.routingKey = routingKey == null ? "" : routingKey;
+            this.request = request;
+            this.hash = 31 * this.routingKey.hashCode() + Arrays.hashCode(request);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && routingKey.equals(other.routingKey) && Arrays.equals(request, other.request);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
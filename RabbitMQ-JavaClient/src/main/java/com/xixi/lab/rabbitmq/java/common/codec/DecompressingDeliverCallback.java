@@ -0,0 +1,26 @@
+package com.xixi.lab.rabbitmq.java.common.codec;
+
+import com.rabbitmq.client.DeliverCallback;
+import com.rabbitmq.client.Delivery;
+
+import java.io.IOException;
+
+/**
+ * 解压的 DeliverCallback：按 content-encoding 解压后再交给原有的 DeliverCallback，未压缩的消息原样传递
+ */
+public class DecompressingDeliverCallback implements DeliverCallback {
+
+    private final PayloadCompressor compressor;
+
+    private final DeliverCallback delegate;
+
+    public DecompressingDeliverCallback(PayloadCompressor compressor, DeliverCallback delegate) {
+        this.compressor = compressor;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void handle(String consumerTag, Delivery message) throws IOException {
+        delegate.handle(consumerTag, compressor.decompress(message));
+    }
+}
@@ -0,0 +1,94 @@
+package com.xixi.lab.rabbitmq.java.common.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * deflate 压缩（zlib 格式，与 HTTP 的 content-encoding: deflate 一致）
+ *
+ * 也是 {@link DictionaryCodec} 的基础：setDictionary() 后再压缩/解压即为预置字典压缩。
+ */
+public class DeflateCodec implements PayloadCodec {
+
+    public static final String NAME = "deflate";
+
+    private final int level;
+
+    public DeflateCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level 压缩级别 1~9（Deflater.BEST_SPEED ~ Deflater.BEST_COMPRESSION）
+     */
+    public DeflateCodec(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(byte[] body) {
+        return deflate(body, level, false, null);
+    }
+
+    @Override
+    public byte[] decode(byte[] body) throws IOException {
+        return inflate(body, false, null);
+    }
+
+    static byte[] deflate(byte[] body, int level, boolean nowrap, byte[] dictionary) {
+        Deflater deflater = new Deflater(level, nowrap);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(body);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, body.length / 2));
+            byte[] buffer = new byte[Math.min(64 * 1024, Math.max(256, body.length))];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static byte[] inflate(byte[] body, boolean nowrap, byte[] dictionary) throws IOException {
+        Inflater inflater = new Inflater(nowrap);
+        try {
+            // raw deflate（nowrap）需在输入末尾补一个字节，否则 Inflater 可能无法识别输入结束；字典需在解压前设置
+            inflater.setInput(nowrap ? Arrays.copyOf(body, body.length + 1) : body);
+            if (dictionary != null) {
+                inflater.setDictionary(dictionary);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, body.length * 3));
+            byte[] buffer = new byte[Math.min(64 * 1024, Math.max(256, body.length * 4))];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("truncated deflate payload");
+                }
+                out.write(buffer, 0, n);
+                if (out.size() > MAX_DECODED_SIZE) {
+                    throw new IOException("deflate payload exceeds " + MAX_DECODED_SIZE + " bytes");
+                }
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("malformed deflate payload", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.xixi.lab.rabbitmq.java.common.codec;
+
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 预置字典的 deflate 压缩：适合很短、但彼此相似的消息（如日志行）
+ *
+ * 普通压缩只能利用单条消息内部的重复，几十字节的日志行几乎压不动；预置字典后，消息中与字典重复的片段可直接引用字典，
+ * 生产者与消费者需使用同一份字典（可由 {@link DictionaryTrainer} 从样本消息训练得到）。
+ *
+ * 字典编号为字典内容的 CRC32，写在编码名称中（content-encoding: deflate-dict.1a2b3c4d），消费者据此找到对应的字典，
+ * 字典不一致时直接报错，不会解出错误的内容。压缩数据为 raw deflate（不含 zlib 头尾的6个字节）。
+ */
+public class DictionaryCodec implements PayloadCodec {
+
+    public static final String NAME_PREFIX = "deflate-dict.";
+
+    private final byte[] dictionary;
+
+    private final String name;
+
+    private final int level;
+
+    public DictionaryCodec(byte[] dictionary) {
+        this(dictionary, Deflater.BEST_COMPRESSION);
+    }
+
+    public DictionaryCodec(byte[] dictionary, int level) {
+        if (dictionary.length == 0 || dictionary.length > 32 * 1024) {
+            throw new IllegalArgumentException("dictionary size must be within 1 ~ 32768 bytes: " + dictionary.length);
+        }
+        this.dictionary = dictionary.clone();
+        this.level = level;
+        CRC32 crc = new CRC32();
+        crc.update(dictionary);
+        this.name = NAME_PREFIX + String.format("%08x", crc.getValue());
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public byte[] encode(byte[] body) {
+        return DeflateCodec.deflate(body, level, true, dictionary);
+    }
+
+    @Override
+    public byte[] decode(byte[] body) throws IOException {
+        return DeflateCodec.inflate(body, true, dictionary);
+    }
+
+    public int getDictionarySize() {
+        return dictionary.length;
+    }
+}
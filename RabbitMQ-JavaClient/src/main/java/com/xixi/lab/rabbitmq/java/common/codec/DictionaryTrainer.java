@@ -0,0 +1,108 @@
+package com.xixi.lab.rabbitmq.java.common.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 从样本消息中训练压缩字典（简化的 COVER 算法，zstd 的字典训练也采用该思路）
+ *
+ * （1）统计每个长度为 K 的片段（k-mer）出现在多少个样本中；
+ * （2）在所有样本中找出得分最高的长度为 SEGMENT 的窗口（得分 = 窗口内各 k-mer 的出现次数之和），加入字典，
+ *      并将其中的 k-mer 计数清零，避免重复选中相同的内容；
+ * （3）重复（2）直到字典写满或没有重复内容。
+ * 越重要的片段放在字典越靠后的位置（deflate 引用距离越近，编码越短）。
+ *
+ * 训练结果只取决于样本内容和参数，生产者与消费者用相同的样本训练可得到相同的字典。
+ */
+public final class DictionaryTrainer {
+
+    private static final int K = 6;
+
+    private static final int SEGMENT = 32;
+
+    private DictionaryTrainer() {
+    }
+
+    /**
+     * @param samples        样本消息
+     * @param dictionarySize 字典最大字节数（不超过 32KB，deflate 的窗口大小）
+     */
+    public static byte[] train(List<byte[]> samples, int dictionarySize) {
+        int capacity = Math.min(dictionarySize, 32 * 1024);
+        Map<Long, Integer> frequency = new HashMap<>();
+        for (byte[] sample : samples) {
+            Set<Long> seen = new HashSet<>();
+            for (int i = 0; i + K <= sample.length; i++) {
+                Long kmer = kmer(sample, i);
+                if (seen.add(kmer)) {
+                    frequency.merge(kmer, 1, Integer::sum);
+                }
+            }
+        }
+        // 只出现在一个样本中的片段对其他消息没有帮助
+        frequency.values().removeIf(count -> count < 2);
+
+        List<byte[]> segments = new ArrayList<>();
+        int size = 0;
+        while (size < capacity && !frequency.isEmpty()) {
+            byte[] bestSample = null;
+            int bestStart = 0;
+            int bestLength = 0;
+            long bestScore = 0;
+            for (byte[] sample : samples) {
+                int length = Math.min(SEGMENT, sample.length);
+                if (length < K) {
+                    continue;
+                }
+                // 滑动窗口：窗口 [start, start + length) 内的 k-mer 起点为 [start, start + length - K]
+                long score = 0;
+                for (int i = 0; i <= length - K; i++) {
+                    score += frequency.getOrDefault(kmer(sample, i), 0);
+                }
+                for (int start = 0; ; start++) {
+                    if (score > bestScore) {
+                        bestScore = score;
+                        bestSample = sample;
+                        bestStart = start;
+                        bestLength = length;
+                    }
+                    if (start + length >= sample.length) {
+                        break;
+                    }
+                    score -= frequency.getOrDefault(kmer(sample, start), 0);
+                    score += frequency.getOrDefault(kmer(sample, start + length - K + 1), 0);
+                }
+            }
+            if (bestSample == null) {
+                break;
+            }
+            int length = Math.min(bestLength, capacity - size);
+            byte[] segment = new byte[length];
+            System.arraycopy(bestSample, bestStart, segment, 0, length);
+            segments.add(segment);
+            size += length;
+            for (int i = 0; i + K <= length; i++) {
+                frequency.remove(kmer(segment, i));
+            }
+        }
+
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            dictionary.write(segments.get(i), 0, segments.get(i).length);
+        }
+        return dictionary.toByteArray();
+    }
+
+    private static Long kmer(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < K; i++) {
+            value = value << 8 | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
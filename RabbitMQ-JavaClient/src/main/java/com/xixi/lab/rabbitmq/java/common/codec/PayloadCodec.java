@@ -0,0 +1,20 @@
+package com.xixi.lab.rabbitmq.java.common.codec;
+
+import java.io.IOException;
+
+/**
+ * 消息体编解码（压缩算法），name() 即写入 content-encoding 的名称
+ */
+public interface PayloadCodec {
+
+    /**
+     * 消息体解压后允许的最大字节数，防止异常/恶意的消息（压缩炸弹）耗尽内存
+     */
+    int MAX_DECODED_SIZE = 64 * 1024 * 1024;
+
+    String name();
+
+    byte[] encode(byte[] body);
+
+    byte[] decode(byte[] body) throws IOException;
+}
@@ -0,0 +1,151 @@
+package com.xixi.lab.rabbitmq.java.common.codec;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Delivery;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 消息体压缩：超过阈值的消息体用指定算法压缩，并设置 content-encoding；消费端按 content-encoding 透明解压
+ *
+ * content-encoding 沿用 Spring AMQP（GZipPostProcessor 等）的约定：“算法名:原 content-encoding”，如 lz4:UTF-8，
+ * 解压后还原原来的 content-encoding，因此 Java Client 与 Spring 两端可以互通。
+ *
+ * 以下情况不压缩，原样发送：消息体小于阈值；压缩后没有变小；消息已经被压缩过（content-encoding 中已含有已注册的算法名）。
+ * 解码端按名称查找算法，默认注册了 lz4、deflate，预置字典的算法需通过 register() 注册同一份字典。
+ */
+public class PayloadCompressor {
+
+    private final PayloadCodec codec;
+
+    private final int threshold;
+
+    private final Map<String, PayloadCodec> decoders = new ConcurrentHashMap<>();
+
+    /**
+     * @param codec     压缩算法，为 null 时只解压不压缩
+     * @param threshold 消息体达到该字节数时才压缩
+     */
+    public PayloadCompressor(PayloadCodec codec, int threshold) {
+        this.codec = codec;
+        this.threshold = threshold;
+        register(new Lz4Codec());
+        register(new DeflateCodec());
+        if (codec != null) {
+            register(codec);
+        }
+    }
+
+    /**
+     * 注册解压算法
+     */
+    public PayloadCompressor register(PayloadCodec decoder) {
+        decoders.put(decoder.name(), decoder);
+        return this;
+    }
+
+    /**
+     * 压缩消息体
+     *
+     * @param contentEncoding 原 content-encoding，可为 null
+     * @return 压缩后的消息体及 content-encoding；不需要压缩时返回 null
+     */
+    public EncodedPayload compress(byte[] body, String contentEncoding) {
+        if (codec == null || body == null || body.length < threshold || codecOf(contentEncoding) != null) {
+            return null;
+        }
+        byte[] compressed = codec.encode(body);
+        if (compressed.length >= body.length) {
+            return null;
+        }
+        String encoding = contentEncoding == null ? codec.name() : codec.name() + ":" + contentEncoding;
+        return new EncodedPayload(compressed, encoding);
+    }
+
+    /**
+     * 解压消息体
+     *
+     * @return 解压后的消息体及原 content-encoding；消息未压缩时返回 null
+     * @throws IOException 数据损坏，或使用了未注册的算法（如字典不一致）
+     */
+    public EncodedPayload decompress(byte[] body, String contentEncoding) throws IOException {
+        if (contentEncoding == null) {
+            return null;
+        }
+        int separator = contentEncoding.indexOf(':');
+        String name = separator < 0 ? contentEncoding : contentEncoding.substring(0, separator);
+        PayloadCodec decoder = decoders.get(name);
+        if (decoder == null) {
+            if (name.startsWith(DictionaryCodec.NAME_PREFIX)) {
+                throw new IOException("no dictionary registered for content-encoding " + contentEncoding);
+            }
+            // 不是压缩算法（如 UTF-8），原样处理
+            return null;
+        }
+        return new EncodedPayload(decoder.decode(body), separator < 0 ? null : contentEncoding.substring(separator + 1));
+    }
+
+    /**
+     * 压缩后发布
+     */
+    public void publish(Channel channel, String exchange, String routingKey, AMQP.BasicProperties props, byte[] body)
+            throws IOException {
+        EncodedPayload encoded = compress(body, props == null ? null : props.getContentEncoding());
+        if (encoded == null) {
+            channel.basicPublish(exchange, routingKey, props, body);
+            return;
+        }
+        AMQP.BasicProperties.Builder builder = props == null ? new AMQP.BasicProperties.Builder() : props.builder();
+        channel.basicPublish(exchange, routingKey, builder.contentEncoding(encoded.getContentEncoding()).build(), encoded.getBody());
+    }
+
+    /**
+     * 解压收到的消息，未压缩时返回原消息
+     */
+    public Delivery decompress(Delivery delivery) throws IOException {
+        AMQP.BasicProperties props = delivery.getProperties();
+        EncodedPayload decoded = decompress(delivery.getBody(), props == null ? null : props.getContentEncoding());
+        if (decoded == null) {
+            return delivery;
+        }
+        return new Delivery(delivery.getEnvelope(), props.builder().contentEncoding(decoded.getContentEncoding()).build(), decoded.getBody());
+    }
+
+    private PayloadCodec codecOf(String contentEncoding) {
+        if (contentEncoding == null) {
+            return null;
+        }
+        int separator = contentEncoding.indexOf(':');
+        return decoders.get(separator < 0 ? contentEncoding : contentEncoding.substring(0, separator));
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * 编码后的消息体及对应的 content-encoding
+     */
+    public static class EncodedPayload {
+
+        private final byte[] body;
+
+        private final String contentEncoding;
+
+        EncodedPayload(byte[] body, String contentEncoding) {
+            this.body = body;
+            this.contentEncoding = contentEncoding;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public String getContentEncoding() {
+            return contentEncoding;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.xixi.lab.rabbitmq.java.common.log;
+
+import com.rabbitmq.client.AMQP;
+
+/**
+ * 二进制日志事件格式（大端）：
+ *
+ *   偏移  长度  字段
+ *   0     1     版本号（当前为 1）
+ *   1     1     日志级别 {@link LogLevel#code()}
+ *   2     8     时间戳（epoch 毫秒）
+ *   10    2     路由键长度 K（无符号）
+ *   12    K     路由键（UTF-8）
+ *   12+K  4     文本长度 T
+ *   16+K  T     文本（UTF-8）
+ *
+ * 所有字段位于固定偏移或由前面的长度直接算出，读取时无需解析整条消息，见 {@link LogEventReader}。
+ */
+public final class LogEventFormat {
+
+    public static final String CONTENT_TYPE = "application/x-rabbitmq-lab-log";
+
+    public static final AMQP.BasicProperties PROPERTIES = new AMQP.BasicProperties.Builder()
+            .contentType(CONTENT_TYPE)
+            .build();
+
+    static final byte VERSION = 1;
+
+    static final int LEVEL_OFFSET = 1;
+
+    static final int TIMESTAMP_OFFSET = 2;
+
+    static final int ROUTING_KEY_LENGTH_OFFSET = 10;
+
+    static final int ROUTING_KEY_OFFSET = 12;
+
+    static final int HEADER_SIZE = 16;
+
+    static final int MAX_ROUTING_KEY_LENGTH = 255;
+
+    private LogEventFormat() {
+    }
+
+    /**
+     * 是否为日志事件（按 content-type 判断）
+     */
+    public static boolean isLogEvent(AMQP.BasicProperties props) {
+        return props != null && CONTENT_TYPE.equals(props.getContentType());
+    }
+}
@@ -0,0 +1,232 @@
+package com.xixi.lab.rabbitmq.java.common.log;
+
+import com.rabbitmq.client.Delivery;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 日志事件的享元（flyweight）读取器：wrap() 只记录消息体的位置并校验长度，各字段在调用时才从原始字节中读取
+ *
+ * 之前消费者收到消息后先 new String(body, "UTF-8") 解码整条消息，再拼接字符串；这里：
+ * （1）level()、timestamp() 直接读取固定偏移处的字节，不分配对象；
+ * （2）routingKeyEquals()、textStartsWith() 直接比较 UTF-8 字节；
+ * （3）writeText() 把文本的 UTF-8 字节原样写出（如 System.out），不创建 String；控制台编码不是 UTF-8 时 print() 改为按 String 打印，避免乱码；
+ * （4）只有调用 routingKey()、text() 时才创建 String。
+ *
+ * 同一个读取器可反复 wrap() 不同的消息（每个消费者线程一个），wrap 之后原消息体不能被修改。
+ * 支持 byte[]（如 delivery.getBody()）与 ByteBuffer（堆内或直接内存，不改变其 position/limit）。
+ * 消费者应使用 {@link #print(Delivery, PrintStream, String, String)}：不是日志事件的消息（如其他生产者发布的纯文本）按文本打印，
+ * 不会在 DeliverCallback 中抛出异常（异常会导致 amqp-client 关闭消费者的信道）。
+ */
+public class LogEventReader {
+
+    // 标准输出的编码（JDK 18+ 为 stdout.encoding，之前为 sun.stdout.encoding，未设置时为默认编码）
+    private static final boolean UTF8_CONSOLE = Charset.forName(System.getProperty("stdout.encoding",
+            System.getProperty("sun.stdout.encoding", Charset.defaultCharset().name()))).equals(StandardCharsets.UTF_8);
+
+    private byte[] array;
+
+    private ByteBuffer buffer;
+
+    // 消息在 array/buffer 中的起始位置
+    private int base;
+
+    private int routingKeyLength;
+
+    private int textLength;
+
+    public LogEventReader wrap(byte[] body) {
+        return wrap(body, 0, body.length);
+    }
+
+    public LogEventReader wrap(byte[] body, int offset, int length) {
+        this.array = body;
+        this.buffer = null;
+        this.base = offset;
+        return validate(length);
+    }
+
+    public LogEventReader wrap(ByteBuffer body) {
+        if (body.hasArray()) {
+            return wrap(body.array(), body.arrayOffset() + body.position(), body.remaining());
+        }
+        this.array = null;
+        this.buffer = body;
+        this.base = body.position();
+        return validate(body.remaining());
+    }
+
+    private LogEventReader validate(int length) {
+        if (length < LogEventFormat.HEADER_SIZE || byteAt(0) != LogEventFormat.VERSION) {
+            throw new IllegalArgumentException("not a log event (version " + (length > 0 ? byteAt(0) : -1) + ", " + length + " bytes)");
+        }
+        routingKeyLength = (byteAt(LogEventFormat.ROUTING_KEY_LENGTH_OFFSET) & 0xFF) << 8
+                | (byteAt(LogEventFormat.ROUTING_KEY_LENGTH_OFFSET + 1) & 0xFF);
+        if (LogEventFormat.HEADER_SIZE + routingKeyLength > length) {
+            throw new IllegalArgumentException("truncated log event: routing key of " + routingKeyLength + " bytes");
+        }
+        textLength = intAt(textLengthOffset());
+        if (textLength < 0 || LogEventFormat.HEADER_SIZE + routingKeyLength + textLength != length) {
+            throw new IllegalArgumentException("truncated log event: text of " + textLength + " bytes");
+        }
+        return this;
+    }
+
+    public LogLevel level() {
+        return LogLevel.of(byteAt(LogEventFormat.LEVEL_OFFSET));
+    }
+
+    /**
+     * 时间戳（epoch 毫秒）
+     */
+    public long timestamp() {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | (byteAt(LogEventFormat.TIMESTAMP_OFFSET + i) & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * 路由键（创建 String）
+     */
+    public String routingKey() {
+        return string(LogEventFormat.ROUTING_KEY_OFFSET, routingKeyLength);
+    }
+
+    /**
+     * 路由键的 UTF-8 字节是否与 key 相同（不创建 String）
+     */
+    public boolean routingKeyEquals(byte[] key) {
+        return key.length == routingKeyLength && regionEquals(LogEventFormat.ROUTING_KEY_OFFSET, key);
+    }
+
+    /**
+     * 文本（创建 String）
+     */
+    public String text() {
+        return string(textOffset(), textLength);
+    }
+
+    /**
+     * 文本的 UTF-8 字节数
+     */
+    public int textLength() {
+        return textLength;
+    }
+
+    /**
+     * 文本是否以 prefix（UTF-8 字节）开头
+     */
+    public boolean textStartsWith(byte[] prefix) {
+        return prefix.length <= textLength && regionEquals(textOffset(), prefix);
+    }
+
+    /**
+     * 把文本的 UTF-8 字节写出（不创建 String）
+     */
+    public void writeText(OutputStream out) throws IOException {
+        write(out, textOffset(), textLength);
+    }
+
+    /**
+     * 把路由键的 UTF-8 字节写出（不创建 String）
+     */
+    public void writeRoutingKey(OutputStream out) throws IOException {
+        write(out, LogEventFormat.ROUTING_KEY_OFFSET, routingKeyLength);
+    }
+
+    /**
+     * 打印为一行：prefix + [LEVEL] 路由键: 文本 + suffix，控制台编码为 UTF-8 时路由键与文本直接输出 UTF-8 字节
+     */
+    public void print(PrintStream out, String prefix, String suffix) throws IOException {
+        synchronized (out) {
+            out.print(prefix);
+            out.print('[');
+            out.print(level().name());
+            out.print("] ");
+            if (UTF8_CONSOLE) {
+                writeRoutingKey(out);
+                out.print(": ");
+                writeText(out);
+            } else {
+                out.print(routingKey());
+                out.print(": ");
+                out.print(text());
+            }
+            out.println(suffix);
+        }
+    }
+
+    /**
+     * 打印收到的消息：日志事件（按 content-type 判断且格式正确）同 {@link #print(PrintStream, String, String)}，
+     * 其他消息按 UTF-8 文本打印
+     */
+    public void print(Delivery delivery, PrintStream out, String prefix, String suffix) throws IOException {
+        byte[] body = delivery.getBody();
+        if (LogEventFormat.isLogEvent(delivery.getProperties())) {
+            try {
+                wrap(body);
+            } catch (IllegalArgumentException e) {
+                out.println(prefix + "<malformed log event: " + e.getMessage() + "> " + new String(body, StandardCharsets.UTF_8) + suffix);
+                return;
+            }
+            print(out, prefix, suffix);
+            return;
+        }
+        out.println(prefix + new String(body, StandardCharsets.UTF_8) + suffix);
+    }
+
+    private int textLengthOffset() {
+        return LogEventFormat.ROUTING_KEY_OFFSET + routingKeyLength;
+    }
+
+    private int textOffset() {
+        return textLengthOffset() + 4;
+    }
+
+    private byte byteAt(int index) {
+        return array != null ? array[base + index] : buffer.get(base + index);
+    }
+
+    private int intAt(int index) {
+        return (byteAt(index) & 0xFF) << 24 | (byteAt(index + 1) & 0xFF) << 16
+                | (byteAt(index + 2) & 0xFF) << 8 | (byteAt(index + 3) & 0xFF);
+    }
+
+    // 从 offset 开始的字节是否与 bytes 相同
+    private boolean regionEquals(int offset, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (byteAt(offset + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String string(int offset, int length) {
+        if (array != null) {
+            return new String(array, base + offset, length, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = byteAt(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void write(OutputStream out, int offset, int length) throws IOException {
+        if (array != null) {
+            out.write(array, base + offset, length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            out.write(byteAt(offset + i));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.xixi.lab.rabbitmq.java.common.log;
+
+import java.util.Arrays;
+
+/**
+ * 日志事件编码器：直接将字符编码为 UTF-8 写入内部缓冲区（不经过 String.getBytes() 的中间数组），缓冲区重复使用
+ * 非线程安全，每个发布线程使用一个
+ */
+public class LogEventWriter {
+
+    private byte[] buffer = new byte[256];
+
+    private int position;
+
+    /**
+     * 编码一条日志事件，返回新的字节数组（可直接作为消息体发布）
+     */
+    public byte[] encode(LogLevel level, long timestamp, CharSequence routingKey, CharSequence text) {
+        position = 0;
+        ensureCapacity(LogEventFormat.HEADER_SIZE);
+        buffer[position++] = LogEventFormat.VERSION;
+        buffer[position++] = level.code();
+        putLong(timestamp);
+
+        // 路由键：先预留2字节长度，写完后回填
+        int routingKeyLengthAt = position;
+        position += 2;
+        writeUtf8(routingKey);
+        int routingKeyLength = position - routingKeyLengthAt - 2;
+        if (routingKeyLength > LogEventFormat.MAX_ROUTING_KEY_LENGTH) {
+            throw new IllegalArgumentException("routing key exceeds 255 bytes: " + routingKey);
+        }
+        buffer[routingKeyLengthAt] = (byte) (routingKeyLength >>> 8);
+        buffer[routingKeyLengthAt + 1] = (byte) routingKeyLength;
+
+        // 文本：同样预留4字节长度后回填
+        ensureCapacity(4);
+        int textLengthAt = position;
+        position += 4;
+        writeUtf8(text);
+        int textLength = position - textLengthAt - 4;
+        buffer[textLengthAt] = (byte) (textLength >>> 24);
+        buffer[textLengthAt + 1] = (byte) (textLength >>> 16);
+        buffer[textLengthAt + 2] = (byte) (textLength >>> 8);
+        buffer[textLengthAt + 3] = (byte) textLength;
+
+        return Arrays.copyOf(buffer, position);
+    }
+
+    /**
+     * 以当前时间编码
+     */
+    public byte[] encode(LogLevel level, CharSequence routingKey, CharSequence text) {
+        return encode(level, System.currentTimeMillis(), routingKey, text);
+    }
+
+    private void putLong(long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[position++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void writeUtf8(CharSequence chars) {
+        int length = chars.length();
+        ensureCapacity(length * 3);
+        for (int i = 0; i < length; i++) {
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // 不成对的代理字符，与 String.getBytes(UTF_8) 一样替换为 '?'
+                buffer[position++] = '?';
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (position + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, position + extra));
+        }
+    }
+}
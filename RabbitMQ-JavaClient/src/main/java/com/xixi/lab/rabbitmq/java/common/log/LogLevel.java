@@ -0,0 +1,34 @@
+package com.xixi.lab.rabbitmq.java.common.log;
+
+/**
+ * 日志级别，编码为 1 个字节（code）
+ */
+public enum LogLevel {
+
+    DEBUG, INFO, WARN, ERROR;
+
+    private static final LogLevel[] VALUES = values();
+
+    public byte code() {
+        return (byte) ordinal();
+    }
+
+    public static LogLevel of(byte code) {
+        if (code < 0 || code >= VALUES.length) {
+            throw new IllegalArgumentException("unknown log level code: " + code);
+        }
+        return VALUES[code];
+    }
+
+    /**
+     * 由名称（不区分大小写，如路由键 info、error）获取日志级别，未知名称返回 INFO
+     */
+    public static LogLevel parse(String name) {
+        for (LogLevel level : VALUES) {
+            if (level.name().equalsIgnoreCase(name)) {
+                return level;
+            }
+        }
+        return INFO;
+    }
+}
@@ -0,0 +1,390 @@
+package com.xixi.lab.rabbitmq.java.common.metrics;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.MetricsCollector;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 客户端指标：通过 ConnectionFactory.setMetricsCollector() 接入（{@link #install(ConnectionFactory)}），
+ * 由客户端在连接/信道的各个操作中回调，覆盖该工厂创建的所有连接
+ *
+ * 指标：
+ * （1）连接数、信道数；
+ * （2）发布：发布数、发布失败数、不可路由（被退回）数；确认模式下的已确认数、nack 数、未确认数（outstanding confirms）；
+ * （3）消费：投递数、ack 数、reject/nack 数、未确认的投递数；
+ * （4）重新投递数、处理时间：客户端回调中拿不到 Envelope 与处理时间，由 {@link MeteredDeliverCallback}（或 Spring 的监听容器 Advice）记录。
+ *
+ * 计数器均为 LongAdder（按线程分散的计数单元，多线程自增时不争用同一缓存行）；
+ * 批量确认（multiple=true）按信道记录已确认的序号，统计实际覆盖的条数（见 {@link Settlements}），每个信道只在自己的线程间同步。
+ * 客户端的 basicNack 回调不带 multiple 参数，与客户端自带的 AbstractMetricsCollector 一致，按 multiple=true 统计。
+ *
+ * snapshot() 获取累计值及最近一个时间段的速率（每秒），sample() 开始新的时间段；report() 即 sample() 并输出，可通过 startReporting() 定期输出。
+ */
+public class ClientMetrics implements MetricsCollector {
+
+    /**
+     * 是否开启客户端指标（-Dlab.metrics=true）
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("lab.metrics");
+
+    private static volatile ClientMetrics shared;
+
+    private final LongAdder connections = new LongAdder();
+
+    private final LongAdder channels = new LongAdder();
+
+    private final LongAdder published = new LongAdder();
+
+    private final LongAdder publishFailed = new LongAdder();
+
+    private final LongAdder publishUnrouted = new LongAdder();
+
+    // 在确认模式的信道上发布的消息数
+    private final LongAdder confirmPublished = new LongAdder();
+
+    private final LongAdder confirmed = new LongAdder();
+
+    private final LongAdder confirmNacked = new LongAdder();
+
+    private final LongAdder consumed = new LongAdder();
+
+    // 手动确认模式下的投递数
+    private final LongAdder consumedManual = new LongAdder();
+
+    private final LongAdder acked = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder redelivered = new LongAdder();
+
+    private final LatencyHistogram handlerTime = new LatencyHistogram();
+
+    private final LatencyHistogram intervalHandlerTime = new LatencyHistogram();
+
+    private final Map<Channel, ChannelState> channelStates = new ConcurrentHashMap<>();
+
+    private volatile Sample lastSample = new Sample(this, System.nanoTime());
+
+    private volatile Map<String, Double> rates = new LinkedHashMap<>();
+
+    /**
+     * 进程内共享的指标，首次获取时开始每隔 lab.metrics.report-seconds（默认10）秒输出到 System.out
+     */
+    public static ClientMetrics shared() {
+        ClientMetrics metrics = shared;
+        if (metrics == null) {
+            synchronized (ClientMetrics.class) {
+                metrics = shared;
+                if (metrics == null) {
+                    metrics = new ClientMetrics();
+                    metrics.startReporting(Long.getLong("lab.metrics.report-seconds", 10L), TimeUnit.SECONDS, System.out);
+                    shared = metrics;
+                }
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * 开启了客户端指标（-Dlab.metrics=true）时，为连接工厂设置共享的指标；之后创建的连接生效
+     */
+    public static ConnectionFactory install(ConnectionFactory factory) {
+        if (ENABLED) {
+            factory.setMetricsCollector(shared());
+        }
+        return factory;
+    }
+
+    @Override
+    public void newConnection(Connection connection) {
+        connections.increment();
+    }
+
+    @Override
+    public void closeConnection(Connection connection) {
+        connections.decrement();
+        // 连接断开时其上的信道不一定逐个回调 closeChannel
+        channelStates.keySet().removeIf(channel -> channel.getConnection() == connection);
+    }
+
+    @Override
+    public void newChannel(Channel channel) {
+        channels.increment();
+    }
+
+    @Override
+    public void closeChannel(Channel channel) {
+        channels.decrement();
+        channelStates.remove(channel);
+    }
+
+    @Override
+    public void basicPublish(Channel channel) {
+        published.increment();
+        // 确认模式下客户端在发布时已递增序号，getNextPublishSeqNo() > 0
+        if (channel.getNextPublishSeqNo() > 0) {
+            confirmPublished.increment();
+        }
+    }
+
+    @Override
+    public void basicPublishFailure(Channel channel, Throwable cause) {
+        publishFailed.increment();
+    }
+
+    @Override
+    public void basicPublishAck(Channel channel, long deliveryTag, boolean multiple) {
+        confirmed.add(state(channel).confirms.settle(deliveryTag, multiple));
+    }
+
+    @Override
+    public void basicPublishNack(Channel channel, long deliveryTag, boolean multiple) {
+        confirmNacked.add(state(channel).confirms.settle(deliveryTag, multiple));
+    }
+
+    @Override
+    public void basicPublishUnrouted(Channel channel) {
+        publishUnrouted.increment();
+    }
+
+    @Override
+    public void consumedMessage(Channel channel, long deliveryTag, boolean autoAck) {
+        consumed(channel, deliveryTag, autoAck);
+    }
+
+    @Override
+    public void consumedMessage(Channel channel, long deliveryTag, String consumerTag) {
+        consumed(channel, deliveryTag, state(channel).autoAckConsumers.getOrDefault(consumerTag, Boolean.FALSE));
+    }
+
+    private void consumed(Channel channel, long deliveryTag, boolean autoAck) {
+        consumed.increment();
+        if (autoAck) {
+            // 自动确认的投递不会再被 basicAck，标记为已确认，以免被之后的批量确认计入
+            state(channel).deliveries.settle(deliveryTag, false);
+        } else {
+            consumedManual.increment();
+        }
+    }
+
+    @Override
+    public void basicAck(Channel channel, long deliveryTag, boolean multiple) {
+        acked.add(state(channel).deliveries.settle(deliveryTag, multiple));
+    }
+
+    @Override
+    public void basicNack(Channel channel, long deliveryTag) {
+        rejected.add(state(channel).deliveries.settle(deliveryTag, true));
+    }
+
+    @Override
+    public void basicReject(Channel channel, long deliveryTag) {
+        rejected.add(state(channel).deliveries.settle(deliveryTag, false));
+    }
+
+    @Override
+    public void basicConsume(Channel channel, String consumerTag, boolean autoAck) {
+        state(channel).autoAckConsumers.put(consumerTag, autoAck);
+    }
+
+    @Override
+    public void basicCancel(Channel channel, String consumerTag) {
+        state(channel).autoAckConsumers.remove(consumerTag);
+    }
+
+    /**
+     * 记录一条重新投递的消息
+     */
+    public void recordRedelivered() {
+        redelivered.increment();
+    }
+
+    /**
+     * 记录一次处理时间
+     */
+    public void recordHandlerTime(long handlerNanos) {
+        handlerTime.record(handlerNanos);
+        intervalHandlerTime.record(handlerNanos);
+    }
+
+    /**
+     * 记录一次消息处理：是否为重新投递、处理时间
+     */
+    public void recordHandled(Envelope envelope, long handlerNanos) {
+        if (envelope.isRedeliver()) {
+            recordRedelivered();
+        }
+        recordHandlerTime(handlerNanos);
+    }
+
+    private ChannelState state(Channel channel) {
+        // 先 get：JDK 8 的 computeIfAbsent 即使键已存在也会锁住桶
+        ChannelState state = channelStates.get(channel);
+        return state != null ? state : channelStates.computeIfAbsent(channel, c -> new ChannelState());
+    }
+
+    /**
+     * 累计值、当前值，以及最近一个时间段（两次 sample() 之间）的速率（每秒）、处理时间（微秒）
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("connections", connections.sum());
+        snapshot.put("channels", channels.sum());
+        snapshot.put("published", published.sum());
+        snapshot.put("publishFailed", publishFailed.sum());
+        snapshot.put("publishUnrouted", publishUnrouted.sum());
+        long confirmedCount = confirmed.sum();
+        long confirmNackedCount = confirmNacked.sum();
+        snapshot.put("confirmed", confirmedCount);
+        snapshot.put("confirmNacked", confirmNackedCount);
+        snapshot.put("outstandingConfirms", Math.max(0L, confirmPublished.sum() - confirmedCount - confirmNackedCount));
+        snapshot.put("consumed", consumed.sum());
+        long ackedCount = acked.sum();
+        long rejectedCount = rejected.sum();
+        snapshot.put("acked", ackedCount);
+        snapshot.put("rejected", rejectedCount);
+        snapshot.put("unacked", Math.max(0L, consumedManual.sum() - ackedCount - rejectedCount));
+        snapshot.put("redelivered", redelivered.sum());
+        snapshot.put("handlerTimeMicros", handlerTime.snapshot().toMap(TimeUnit.MICROSECONDS));
+        snapshot.put("ratesPerSecond", rates);
+        return snapshot;
+    }
+
+    /**
+     * 结束当前时间段：计算该时间段的速率，并开始新的时间段
+     */
+    public synchronized Map<String, Double> sample() {
+        Sample previous = lastSample;
+        Sample current = new Sample(this, System.nanoTime());
+        double seconds = Math.max(1L, current.nanoTime - previous.nanoTime) / 1e9;
+        Map<String, Double> sampled = new LinkedHashMap<>();
+        sampled.put("published", (current.published - previous.published) / seconds);
+        sampled.put("confirmed", (current.confirmed - previous.confirmed) / seconds);
+        sampled.put("confirmNacked", (current.confirmNacked - previous.confirmNacked) / seconds);
+        sampled.put("consumed", (current.consumed - previous.consumed) / seconds);
+        sampled.put("acked", (current.acked - previous.acked) / seconds);
+        sampled.put("rejected", (current.rejected - previous.rejected) / seconds);
+        sampled.put("redelivered", (current.redelivered - previous.redelivered) / seconds);
+        lastSample = current;
+        rates = sampled;
+        return sampled;
+    }
+
+    /**
+     * sample() 并输出该时间段的速率与处理时间
+     */
+    public void report(PrintStream out) {
+        Map<String, Double> sampled = sample();
+        Map<String, Object> snapshot = snapshot();
+        out.printf("[metrics] connections=%d, channels=%d, outstandingConfirms=%d, unacked=%d%n",
+                snapshot.get("connections"), snapshot.get("channels"), snapshot.get("outstandingConfirms"), snapshot.get("unacked"));
+        out.printf("    publish=%.1f/s, confirm=%.1f/s, nack=%.1f/s, deliver=%.1f/s, ack=%.1f/s, reject=%.1f/s, redeliver=%.1f/s%n",
+                sampled.get("published"), sampled.get("confirmed"), sampled.get("confirmNacked"), sampled.get("consumed"),
+                sampled.get("acked"), sampled.get("rejected"), sampled.get("redelivered"));
+        LatencyHistogram.Snapshot handler = intervalHandlerTime.intervalSnapshot();
+        if (handler.getCount() > 0) {
+            out.printf("    handler: %s%n", handler.format(TimeUnit.MICROSECONDS));
+        }
+    }
+
+    /**
+     * 由后台线程定期输出（daemon 线程，不阻止进程退出）
+     */
+    public void startReporting(long period, TimeUnit unit, PrintStream out) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> report(out), period, period, unit);
+    }
+
+    private static class ChannelState {
+
+        private final Settlements confirms = new Settlements();
+
+        private final Settlements deliveries = new Settlements();
+
+        private final Map<String, Boolean> autoAckConsumers = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * 一个信道上已确认的序号（发布确认的序号，或投递的 deliveryTag），用于统计批量确认实际覆盖的条数：
+     * floor 及以下的序号都已确认，settled 为 floor 之上单独确认的序号；连续时并入 floor，通常 settled 很小
+     */
+    static class Settlements {
+
+        private long floor;
+
+        private final NavigableSet<Long> settled = new TreeSet<>();
+
+        /**
+         * 确认 tag（multiple 时确认 tag 及以下所有序号），返回新确认的条数
+         */
+        synchronized long settle(long tag, boolean multiple) {
+            if (tag <= floor) {
+                return 0;
+            }
+            long count;
+            if (multiple) {
+                NavigableSet<Long> covered = settled.headSet(tag, true);
+                count = tag - floor - covered.size();
+                covered.clear();
+                floor = tag;
+            } else {
+                count = settled.add(tag) ? 1 : 0;
+            }
+            while (!settled.isEmpty() && settled.first() == floor + 1) {
+                settled.pollFirst();
+                floor++;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * 计算速率用的累计值
+     */
+    private static class Sample {
+
+        private final long nanoTime;
+
+        private final long published;
+
+        private final long confirmed;
+
+        private final long confirmNacked;
+
+        private final long consumed;
+
+        private final long acked;
+
+        private final long rejected;
+
+        private final long redelivered;
+
+        Sample(ClientMetrics metrics, long nanoTime) {
+            this.nanoTime = nanoTime;
+            this.published = metrics.published.sum();
+            this.confirmed = metrics.confirmed.sum();
+            this.confirmNacked = metrics.confirmNacked.sum();
+            this.consumed = metrics.consumed.sum();
+            this.acked = metrics.acked.sum();
+            this.rejected = metrics.rejected.sum();
+            this.redelivered = metrics.redelivered.sum();
+        }
+    }
+}
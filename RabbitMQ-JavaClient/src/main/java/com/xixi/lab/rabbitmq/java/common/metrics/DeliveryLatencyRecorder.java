@@ -0,0 +1,144 @@
+package com.xixi.lab.rabbitmq.java.common.metrics;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按 队列 + 路由键 分别记录两段延迟的直方图（均为无锁的 {@link LatencyHistogram}）：
+ * （1）publish-to-deliver：消息头中的发布时间戳（{@link LatencyStamp}）-> 消费者开始处理，
+ *      包含 Broker 中的排队时间、网络传输及客户端预取缓冲中的等待时间；
+ * （2）deliver-to-ack：消费者开始处理 -> 处理完成（手动确认模式下包含 basicAck），即处理时间。
+ * 对比两者的 p99/p999 可判断尾延迟来自排队/预取缓冲还是处理逻辑本身（排队与预取缓冲可通过调整预取值 basicQos 进一步区分）。
+ *
+ * snapshot() 获取累计快照；report() 输出自上次输出以来的统计，可通过 startReporting() 定期输出。
+ * 累计与按时间段的统计各用一组直方图（记录时各自增一次），互不影响。
+ */
+public class DeliveryLatencyRecorder {
+
+    private static volatile DeliveryLatencyRecorder shared;
+
+    private final Map<String, Stages> stages = new ConcurrentHashMap<>();
+
+    /**
+     * 进程内共享的记录器，首次获取时开始每隔 lab.latency.report-seconds（默认10）秒输出到 System.out
+     */
+    public static DeliveryLatencyRecorder shared() {
+        DeliveryLatencyRecorder recorder = shared;
+        if (recorder == null) {
+            synchronized (DeliveryLatencyRecorder.class) {
+                recorder = shared;
+                if (recorder == null) {
+                    recorder = new DeliveryLatencyRecorder();
+                    recorder.startReporting(Long.getLong("lab.latency.report-seconds", 10L), TimeUnit.SECONDS, System.out);
+                    shared = recorder;
+                }
+            }
+        }
+        return recorder;
+    }
+
+    /**
+     * 记录 发布 -> 投递 的延迟
+     *
+     * @param publishedAtEpochNanos 发布时间戳，< 0（消息未带时间戳）时忽略
+     */
+    public void recordDelivered(String queue, String routingKey, long publishedAtEpochNanos) {
+        if (publishedAtEpochNanos >= 0) {
+            long latency = LatencyStamp.nowEpochNanos() - publishedAtEpochNanos;
+            Stages entry = stagesFor(queue, routingKey);
+            entry.publishToDeliver.record(latency);
+            entry.intervalPublishToDeliver.record(latency);
+        }
+    }
+
+    /**
+     * 记录 投递 -> 处理完成 的延迟
+     */
+    public void recordHandled(String queue, String routingKey, long handlerNanos) {
+        Stages entry = stagesFor(queue, routingKey);
+        entry.deliverToAck.record(handlerNanos);
+        entry.intervalDeliverToAck.record(handlerNanos);
+    }
+
+    private Stages stagesFor(String queue, String routingKey) {
+        String key = queue + " [" + routingKey + "]";
+        // 先 get：JDK 8 的 computeIfAbsent 即使键已存在也会锁住桶
+        Stages entry = stages.get(key);
+        return entry != null ? entry : stages.computeIfAbsent(key, k -> new Stages());
+    }
+
+    /**
+     * 累计快照：队列 + 路由键 -> 两段延迟的快照，按键排序
+     */
+    public Map<String, StageSnapshot> snapshot() {
+        Map<String, StageSnapshot> snapshots = new TreeMap<>();
+        stages.forEach((key, value) -> snapshots.put(key,
+                new StageSnapshot(value.publishToDeliver.snapshot(), value.deliverToAck.snapshot())));
+        return snapshots;
+    }
+
+    /**
+     * 输出自上次输出以来的统计；该时间段内没有消息的键不输出
+     */
+    public void report(PrintStream out) {
+        stages.forEach((key, value) -> {
+            LatencyHistogram.Snapshot publishToDeliver = value.intervalPublishToDeliver.intervalSnapshot();
+            LatencyHistogram.Snapshot deliverToAck = value.intervalDeliverToAck.intervalSnapshot();
+            if (publishToDeliver.getCount() > 0 || deliverToAck.getCount() > 0) {
+                out.printf("[latency] %s%n    publish-to-deliver: %s%n    deliver-to-ack:     %s%n", key,
+                        publishToDeliver.format(TimeUnit.MICROSECONDS), deliverToAck.format(TimeUnit.MICROSECONDS));
+            }
+        });
+    }
+
+    /**
+     * 由后台线程定期输出（daemon 线程，不阻止进程退出）
+     */
+    public void startReporting(long period, TimeUnit unit, PrintStream out) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "latency-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> report(out), period, period, unit);
+    }
+
+    private static class Stages {
+
+        private final LatencyHistogram publishToDeliver = new LatencyHistogram();
+
+        private final LatencyHistogram deliverToAck = new LatencyHistogram();
+
+        private final LatencyHistogram intervalPublishToDeliver = new LatencyHistogram();
+
+        private final LatencyHistogram intervalDeliverToAck = new LatencyHistogram();
+    }
+
+    /**
+     * 两段延迟的快照
+     */
+    public static class StageSnapshot {
+
+        private final LatencyHistogram.Snapshot publishToDeliver;
+
+        private final LatencyHistogram.Snapshot deliverToAck;
+
+        StageSnapshot(LatencyHistogram.Snapshot publishToDeliver, LatencyHistogram.Snapshot deliverToAck) {
+            this.publishToDeliver = publishToDeliver;
+            this.deliverToAck = deliverToAck;
+        }
+
+        public LatencyHistogram.Snapshot getPublishToDeliver() {
+            return publishToDeliver;
+        }
+
+        public LatencyHistogram.Snapshot getDeliverToAck() {
+            return deliverToAck;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.xixi.lab.rabbitmq.java.common.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无锁的延迟直方图（HDR 风格的对数-线性分桶）
+ *
+ * 小于128的值一个值一个桶；更大的值按2的幂分段，每段再等分为64个子桶，相对误差不超过 1/64（约1.6%），
+ * 可以覆盖 1ns ~ Long.MAX_VALUE 的范围，共 3712 个桶，记录只是对一个桶做原子自增，不加锁、不分配对象。
+ *
+ * 可多线程同时记录；snapshot() 获取累计快照，intervalSnapshot() 获取并清零（用于按时间段输出）。
+ */
+public class LatencyHistogram {
+
+    // 每段子桶数的一半（2^6）
+    private static final int SUB_BUCKET_HALF_BITS = 6;
+
+    private static final int SUB_BUCKET_HALF = 1 << SUB_BUCKET_HALF_BITS;
+
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_HALF_BITS) * SUB_BUCKET_HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    private final LongAdder totalCount = new LongAdder();
+
+    private final LongAdder totalValue = new LongAdder();
+
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * 记录一个值（如纳秒延迟），负数按0处理
+     */
+    public void record(long value) {
+        long v = Math.max(0L, value);
+        counts.incrementAndGet(bucketIndex(v));
+        totalCount.increment();
+        totalValue.add(v);
+        long max;
+        while (v > (max = maxValue.get())) {
+            if (maxValue.compareAndSet(max, v)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 累计快照
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, totalValue.sum(), maxValue.get());
+    }
+
+    /**
+     * 获取自上次调用以来的快照，并清零（各个桶依次清零，与并发记录之间不是严格原子的）
+     */
+    public Snapshot intervalSnapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.getAndSet(i, 0L);
+            count += copy[i];
+        }
+        totalCount.reset();
+        return new Snapshot(copy, count, totalValue.sumThenReset(), maxValue.getAndSet(0L));
+    }
+
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    static int bucketIndex(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_HALF_BITS);
+        return (shift << SUB_BUCKET_HALF_BITS) + (int) (value >>> shift);
+    }
+
+    // 桶内的最大值
+    static long highestEquivalentValue(int index) {
+        int shift = Math.max(0, (index >> SUB_BUCKET_HALF_BITS) - 1);
+        long top = index - ((long) shift << SUB_BUCKET_HALF_BITS);
+        return ((top + 1) << shift) - 1;
+    }
+
+    /**
+     * 直方图快照：不可变，可计算任意百分位
+     */
+    public static class Snapshot {
+
+        private final long[] counts;
+
+        private final long count;
+
+        private final long total;
+
+        private final long max;
+
+        Snapshot(long[] counts, long count, long total, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.total = total;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) total / count;
+        }
+
+        /**
+         * 百分位值，如 percentile(99.9)
+         */
+        public long percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestEquivalentValue(i), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * 以纳秒记录时，按指定单位输出 p50/p99/p999/max
+         */
+        public String format(TimeUnit unit) {
+            String suffix = unit == TimeUnit.MICROSECONDS ? "us" : unit == TimeUnit.MILLISECONDS ? "ms" : unit.name().toLowerCase();
+            double scale = TimeUnit.NANOSECONDS.convert(1, unit);
+            return String.format("count=%d, mean=%.1f%s, p50=%.1f%s, p99=%.1f%s, p999=%.1f%s, max=%.1f%s",
+                    count, getMean() / scale, suffix, percentile(50) / scale, suffix, percentile(99) / scale, suffix,
+                    percentile(99.9) / scale, suffix, max / scale, suffix);
+        }
+
+        /**
+         * 以纳秒记录时，按指定单位输出 count/mean/p50/p99/p999/max（用于导出，如 JSON）
+         */
+        public Map<String, Object> toMap(TimeUnit unit) {
+            double scale = TimeUnit.NANOSECONDS.convert(1, unit);
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("count", count);
+            map.put("mean", getMean() / scale);
+            map.put("p50", percentile(50) / scale);
+            map.put("p99", percentile(99) / scale);
+            map.put("p999", percentile(99.9) / scale);
+            map.put("max", max / scale);
+            return map;
+        }
+    }
+}
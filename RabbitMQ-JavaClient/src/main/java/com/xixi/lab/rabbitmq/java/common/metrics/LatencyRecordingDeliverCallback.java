@@ -0,0 +1,45 @@
+package com.xixi.lab.rabbitmq.java.common.metrics;
+
+import com.rabbitmq.client.DeliverCallback;
+import com.rabbitmq.client.Delivery;
+
+import java.io.IOException;
+
+/**
+ * 记录延迟的 DeliverCallback：包装原有的处理逻辑，记录每条消息的 发布 -> 投递、投递 -> 处理完成 延迟（见 {@link DeliveryLatencyRecorder}）
+ *
+ * 应包装在最外层（如 DecompressingDeliverCallback、UnbatchingDeliverCallback 之外），每条 AMQP 消息只记录一次。
+ */
+public class LatencyRecordingDeliverCallback implements DeliverCallback {
+
+    private final DeliveryLatencyRecorder recorder;
+
+    private final String queue;
+
+    private final DeliverCallback delegate;
+
+    public LatencyRecordingDeliverCallback(DeliveryLatencyRecorder recorder, String queue, DeliverCallback delegate) {
+        this.recorder = recorder;
+        this.queue = queue;
+        this.delegate = delegate;
+    }
+
+    /**
+     * 开启了延迟记录（-Dlab.latency=true）时包装，记录到共享的记录器；否则原样返回
+     */
+    public static DeliverCallback wrap(String queue, DeliverCallback delegate) {
+        return LatencyStamp.ENABLED ? new LatencyRecordingDeliverCallback(DeliveryLatencyRecorder.shared(), queue, delegate) : delegate;
+    }
+
+    @Override
+    public void handle(String consumerTag, Delivery message) throws IOException {
+        String routingKey = message.getEnvelope().getRoutingKey();
+        recorder.recordDelivered(queue, routingKey, LatencyStamp.publishedAt(message.getProperties()));
+        long start = System.nanoTime();
+        try {
+            delegate.handle(consumerTag, message);
+        } finally {
+            recorder.recordHandled(queue, routingKey, System.nanoTime() - start);
+        }
+    }
+}
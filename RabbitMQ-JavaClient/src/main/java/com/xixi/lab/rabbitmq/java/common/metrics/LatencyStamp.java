@@ -0,0 +1,92 @@
+package com.xixi.lab.rabbitmq.java.common.metrics;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 发布时间戳：生产者在消息头 {@link #HEADER} 中写入发布时刻，消费者据此计算 发布 -> 投递 的延迟（见 {@link DeliveryLatencyRecorder}）
+ *
+ * 时间戳为纳秒精度的 Unix 时间：进程启动时以 System.currentTimeMillis() 为基准，之后按 System.nanoTime() 递增，
+ * 同一台机器上的生产者、消费者进程之间可直接相减（基准对齐误差约 1ms）；跨机器时还取决于时钟同步的精度。
+ *
+ * 默认关闭，通过 -Dlab.latency=true 开启（{@link #ENABLED}）。
+ */
+public final class LatencyStamp {
+
+    public static final String HEADER = "x-publish-nanos";
+
+    /**
+     * 是否开启发布时间戳与延迟记录
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("lab.latency");
+
+    private static final long BASE_EPOCH_NANOS = System.currentTimeMillis() * 1_000_000L;
+
+    private static final long BASE_NANO_TIME = System.nanoTime();
+
+    private LatencyStamp() {
+    }
+
+    /**
+     * 当前时刻（纳秒精度的 Unix 时间）
+     */
+    public static long nowEpochNanos() {
+        return BASE_EPOCH_NANOS + (System.nanoTime() - BASE_NANO_TIME);
+    }
+
+    /**
+     * 返回带有当前发布时间戳的属性（不修改原属性）
+     */
+    public static AMQP.BasicProperties stamp(AMQP.BasicProperties props) {
+        AMQP.BasicProperties.Builder builder = props == null ? new AMQP.BasicProperties.Builder() : props.builder();
+        Map<String, Object> headers = props == null || props.getHeaders() == null
+                ? new HashMap<>(4) : new HashMap<>(props.getHeaders());
+        headers.put(HEADER, nowEpochNanos());
+        return builder.headers(headers).build();
+    }
+
+    /**
+     * 消息的发布时间戳，没有时返回 -1
+     */
+    public static long publishedAt(Map<String, Object> headers) {
+        Object value = headers == null ? null : headers.get(HEADER);
+        return value instanceof Number ? ((Number) value).longValue() : -1L;
+    }
+
+    /**
+     * 消息的发布时间戳，没有时返回 -1
+     */
+    public static long publishedAt(AMQP.BasicProperties props) {
+        return props == null ? -1L : publishedAt(props.getHeaders());
+    }
+
+    /**
+     * 包装信道：所有 basicPublish 的消息都带上发布时间戳，其他方法原样转发
+     */
+    public static Channel stamping(Channel channel) {
+        return (Channel) Proxy.newProxyInstance(LatencyStamp.class.getClassLoader(), new Class<?>[]{Channel.class},
+                (proxy, method, args) -> {
+                    // 代理对象作为 Map 的键（ChannelPool 中），equals/hashCode 按代理对象自身判断
+                    if ("equals".equals(method.getName()) && args != null && args.length == 1) {
+                        return proxy == args[0];
+                    }
+                    if ("hashCode".equals(method.getName()) && args == null) {
+                        return System.identityHashCode(proxy);
+                    }
+                    if ("basicPublish".equals(method.getName())) {
+                        int propsIndex = args.length - 2;
+                        args[propsIndex] = stamp((AMQP.BasicProperties) args[propsIndex]);
+                    }
+                    try {
+                        return method.invoke(channel, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                });
+    }
+}
@@ -0,0 +1,40 @@
+package com.xixi.lab.rabbitmq.java.common.metrics;
+
+import com.rabbitmq.client.DeliverCallback;
+import com.rabbitmq.client.Delivery;
+
+import java.io.IOException;
+
+/**
+ * 记录指标的 DeliverCallback：包装原有的处理逻辑，记录重新投递数与处理时间（见 {@link ClientMetrics}）
+ *
+ * 应包装在最外层，每条 AMQP 消息只记录一次。
+ */
+public class MeteredDeliverCallback implements DeliverCallback {
+
+    private final ClientMetrics metrics;
+
+    private final DeliverCallback delegate;
+
+    public MeteredDeliverCallback(ClientMetrics metrics, DeliverCallback delegate) {
+        this.metrics = metrics;
+        this.delegate = delegate;
+    }
+
+    /**
+     * 开启了客户端指标（-Dlab.metrics=true）时包装，记录到共享的指标；否则原样返回
+     */
+    public static DeliverCallback wrap(DeliverCallback delegate) {
+        return ClientMetrics.ENABLED ? new MeteredDeliverCallback(ClientMetrics.shared(), delegate) : delegate;
+    }
+
+    @Override
+    public void handle(String consumerTag, Delivery message) throws IOException {
+        long start = System.nanoTime();
+        try {
+            delegate.handle(consumerTag, message);
+        } finally {
+            metrics.recordHandled(message.getEnvelope(), System.nanoTime() - start);
+        }
+    }
+}
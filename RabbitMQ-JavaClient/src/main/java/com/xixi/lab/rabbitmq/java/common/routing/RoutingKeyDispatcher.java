@@ -0,0 +1,172 @@
+package com.xixi.lab.rabbitmq.java.common.routing;
+
+import com.rabbitmq.client.DeliverCallback;
+import com.rabbitmq.client.Delivery;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 按路由键分发的 DeliverCallback：一个队列绑定多个路由键时，每个路由键交给各自的处理逻辑
+ *
+ * （1）构造时为绑定的路由键集合计算一张完美哈希表：表长为 2 的幂，下标 = (key.hashCode() * seed) >>> shift，
+ *      尝试不同的 seed（必要时加大表长）直到各个键落在不同的槽位；
+ * （2）分发时只计算一次路由键的 hashCode（Envelope 中的同一个 String 会缓存哈希值），定位到唯一的槽位，
+ *      哈希值相等时才做一次 equals，不分配对象，也没有 if/else 或 switch 的比较链，与路由键的数量无关；
+ * （3）String.hashCode 相同的不同路由键无法用 seed 区分，这时退化为线性探测，探测长度在构造时确定。
+ *
+ * 未绑定处理逻辑的路由键交给 fallback（为 null 时忽略）。构造后不可修改，可被多个消费者线程共用。
+ */
+public class RoutingKeyDispatcher implements DeliverCallback {
+
+    // 每种表长尝试的 seed 数
+    private static final int SEED_ATTEMPTS = 64;
+
+    // 表长最多为键数的 8 倍
+    private static final int MAX_TABLE_FACTOR = 8;
+
+    private final String[] keys;
+
+    private final int[] hashes;
+
+    private final DeliverCallback[] handlers;
+
+    private final DeliverCallback fallback;
+
+    private final int seed;
+
+    private final int shift;
+
+    private final int mask;
+
+    private final int maxProbe;
+
+    /**
+     * @param handlers 路由键 -> 处理逻辑
+     * @param fallback 其他路由键的处理逻辑，为 null 时忽略这些消息
+     */
+    public RoutingKeyDispatcher(Map<String, ? extends DeliverCallback> handlers, DeliverCallback fallback) {
+        this.fallback = fallback;
+        String[] keySet = handlers.keySet().toArray(new String[0]);
+        int minSize = Math.max(2, Integer.highestOneBit(Math.max(1, keySet.length) - 1) << 1);
+
+        // 找出探测长度最短的 seed 与表长，为 0 即完美哈希
+        int bestSeed = 1;
+        int bestSize = minSize;
+        int bestProbe = Integer.MAX_VALUE;
+        int candidate = 0x9E3779B9;
+        search:
+        for (int size = minSize; size <= minSize * MAX_TABLE_FACTOR; size <<= 1) {
+            for (int attempt = 0; attempt < SEED_ATTEMPTS; attempt++) {
+                // 奇数乘子，按黄金分割数递推
+                candidate = (candidate + 0x61C88647) | 1;
+                int probe = maxProbe(keySet, candidate, size);
+                if (probe < bestProbe) {
+                    bestSeed = candidate;
+                    bestSize = size;
+                    bestProbe = probe;
+                    if (probe == 0) {
+                        break search;
+                    }
+                }
+            }
+        }
+
+        this.seed = bestSeed;
+        this.shift = Integer.numberOfLeadingZeros(bestSize) + 1;
+        this.mask = bestSize - 1;
+        this.maxProbe = keySet.length == 0 ? 0 : bestProbe;
+        this.keys = new String[bestSize];
+        this.hashes = new int[bestSize];
+        this.handlers = new DeliverCallback[bestSize];
+        for (String key : keySet) {
+            int index = slot(key.hashCode());
+            while (keys[index] != null) {
+                index = (index + 1) & mask;
+            }
+            keys[index] = key;
+            hashes[index] = key.hashCode();
+            this.handlers[index] = handlerFor(handlers, key);
+        }
+    }
+
+    private static DeliverCallback handlerFor(Map<String, ? extends DeliverCallback> handlers, String key) {
+        DeliverCallback handler = handlers.get(key);
+        if (handler == null) {
+            throw new IllegalArgumentException("no handler for routing key '" + key + "'");
+        }
+        return handler;
+    }
+
+    @Override
+    public void handle(String consumerTag, Delivery message) throws IOException {
+        DeliverCallback handler = lookup(message.getEnvelope().getRoutingKey());
+        if (handler != null) {
+            handler.handle(consumerTag, message);
+        }
+    }
+
+    /**
+     * 路由键对应的处理逻辑，未绑定时返回 fallback
+     */
+    public DeliverCallback lookup(String routingKey) {
+        int hash = routingKey.hashCode();
+        int index = slot(hash);
+        for (int probe = 0; probe <= maxProbe; probe++) {
+            String key = keys[index];
+            if (key == null) {
+                break;
+            }
+            if (hashes[index] == hash && (key == routingKey || key.equals(routingKey))) {
+                return handlers[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return fallback;
+    }
+
+    /**
+     * 有处理逻辑的路由键，可用于绑定队列
+     */
+    public Set<String> getRoutingKeys() {
+        Set<String> routingKeys = new LinkedHashSet<>();
+        for (String key : keys) {
+            if (key != null) {
+                routingKeys.add(key);
+            }
+        }
+        return Collections.unmodifiableSet(routingKeys);
+    }
+
+    private int slot(int hash) {
+        return (hash * seed) >>> shift;
+    }
+
+    /**
+     * 按线性探测放入所有键后的最长探测距离
+     */
+    private static int maxProbe(String[] keySet, int seed, int size) {
+        int shift = Integer.numberOfLeadingZeros(size) + 1;
+        boolean[] used = new boolean[size];
+        int maxProbe = 0;
+        for (String key : keySet) {
+            int index = (key.hashCode() * seed) >>> shift;
+            int probe = 0;
+            while (used[index]) {
+                index = (index + 1) & (size - 1);
+                probe++;
+            }
+            used[index] = true;
+            maxProbe = Math.max(maxProbe, probe);
+        }
+        return maxProbe;
+    }
+
+    @Override
+    public String toString() {
+        return "RoutingKeyDispatcher{keys=" + getRoutingKeys() + ", tableSize=" + keys.length + ", maxProbe=" + maxProbe + '}';
+    }
+}
@@ -0,0 +1,431 @@
+package com.xixi.lab.rabbitmq.java.common.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * topic 绑定键索引：按 . 分隔的单词建立前缀树，* 匹配一个单词，# 匹配零个或多个单词（与 RabbitMQ 的 topic 交换机相同）
+ *
+ * （1）匹配时把前缀树当作 NFA，逐个单词推进当前可达的节点集合，代价与路由键的单词数（及同时可达的通配节点数）成正比，
+ *      与绑定键的总数无关；一次匹配返回所有匹配的订阅者；
+ * （2）节点只保存本层单词、一个 * 子节点、一个 # 子节点，普通子节点只有一个时直接引用、多于一个时才创建 HashMap，
+ *      相同的单词共用一个 String 实例（按使用该单词的节点数计数，节点删除后不再被使用的单词随之移出），
+ *      几十万个绑定键也只占用较少的内存；
+ * （3）路由键拆分后的单词数组缓存在一个容量有限的 ConcurrentHashMap 中（maxCachedKeys），重复的路由键无需再次拆分；
+ *      查找不加锁，多个线程的匹配互不阻塞，缓存满时整体清空后重新填充（不维护 LRU 顺序）。
+ *
+ * 可多线程使用：add/remove 加写锁，match 加读锁（路由键在加锁前拆分或从缓存取出）。同一个订阅者可以用多个绑定键订阅，
+ * 需要去重时向 {@link #match(String, Collection)} 传入 Set。
+ *
+ * @param <T> 订阅者类型，按 equals 区分
+ */
+public class TopicTrie<T> {
+
+    private static final String STAR = "*";
+
+    private static final String HASH = "#";
+
+    private static final String[] NO_WORDS = new String[0];
+
+    private static final Object[] NO_SUBSCRIBERS = new Object[0];
+
+    private final Node root = new Node(null, false);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // 节点使用的单词，用于共用 String 实例
+    private final Map<String, PooledWord> wordPool = new HashMap<>();
+
+    private final Map<String, String[]> keyCache;
+
+    private final int maxCachedKeys;
+
+    private int size;
+
+    private int nodeCount = 1;
+
+    /**
+     * 前缀树节点
+     */
+    private static final class Node {
+
+        final String word;
+
+        // 由 # 到达的节点：可以继续消耗任意个单词而停留在本节点
+        final boolean hash;
+
+        // null、单个 Node（只有一个普通子节点）或 HashMap<String, Node>
+        Object children;
+
+        Node star;
+
+        Node hashChild;
+
+        Object[] subscribers = NO_SUBSCRIBERS;
+
+        Node(String word, boolean hash) {
+            this.word = word;
+            this.hash = hash;
+        }
+
+        @SuppressWarnings("unchecked")
+        Node child(String word) {
+            if (children instanceof Node) {
+                Node only = (Node) children;
+                return only.word.equals(word) ? only : null;
+            }
+            return children == null ? null : ((Map<String, Node>) children).get(word);
+        }
+
+        @SuppressWarnings("unchecked")
+        void putChild(Node child) {
+            if (children == null) {
+                children = child;
+                return;
+            }
+            if (children instanceof Node) {
+                Node only = (Node) children;
+                Map<String, Node> map = new HashMap<>(4);
+                map.put(only.word, only);
+                children = map;
+            }
+            ((Map<String, Node>) children).put(child.word, child);
+        }
+
+        @SuppressWarnings("unchecked")
+        void removeChild(String word) {
+            if (children instanceof Node) {
+                children = null;
+                return;
+            }
+            Map<String, Node> map = (Map<String, Node>) children;
+            map.remove(word);
+            if (map.size() == 1) {
+                children = map.values().iterator().next();
+            }
+        }
+
+        boolean isEmpty() {
+            return children == null && star == null && hashChild == null && subscribers.length == 0;
+        }
+    }
+
+    /**
+     * 共用的单词及使用它的节点数
+     */
+    private static final class PooledWord {
+
+        final String word;
+
+        int nodes;
+
+        PooledWord(String word) {
+            this.word = word;
+        }
+    }
+
+    public TopicTrie() {
+        this(1024);
+    }
+
+    /**
+     * @param maxCachedKeys 最多缓存多少个路由键的拆分结果，0 表示不缓存
+     */
+    public TopicTrie(int maxCachedKeys) {
+        if (maxCachedKeys < 0) {
+            throw new IllegalArgumentException("maxCachedKeys must not be negative");
+        }
+        this.maxCachedKeys = maxCachedKeys;
+        this.keyCache = maxCachedKeys == 0 ? null : new ConcurrentHashMap<>();
+    }
+
+    /**
+     * 添加订阅
+     *
+     * @return 是否新增（同一绑定键下已有相等的订阅者时返回 false）
+     */
+    public boolean add(String pattern, T subscriber) {
+        lock.writeLock().lock();
+        try {
+            Node node = root;
+            for (String word : split(pattern)) {
+                Node next = step(node, word);
+                if (next == null) {
+                    next = new Node(intern(word), HASH.equals(word));
+                    if (STAR.equals(word)) {
+                        node.star = next;
+                    } else if (next.hash) {
+                        node.hashChild = next;
+                    } else {
+                        node.putChild(next);
+                    }
+                    nodeCount++;
+                }
+                node = next;
+            }
+            for (Object existing : node.subscribers) {
+                if (existing.equals(subscriber)) {
+                    return false;
+                }
+            }
+            Object[] subscribers = Arrays.copyOf(node.subscribers, node.subscribers.length + 1);
+            subscribers[subscribers.length - 1] = subscriber;
+            node.subscribers = subscribers;
+            size++;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 取消订阅，并删除不再使用的节点
+     *
+     * @return 是否存在该订阅
+     */
+    public boolean remove(String pattern, T subscriber) {
+        lock.writeLock().lock();
+        try {
+            String[] words = split(pattern);
+            Node[] path = new Node[words.length + 1];
+            path[0] = root;
+            for (int i = 0; i < words.length; i++) {
+                path[i + 1] = step(path[i], words[i]);
+                if (path[i + 1] == null) {
+                    return false;
+                }
+            }
+            Node node = path[words.length];
+            int index = -1;
+            for (int i = 0; i < node.subscribers.length; i++) {
+                if (node.subscribers[i].equals(subscriber)) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return false;
+            }
+            Object[] subscribers = new Object[node.subscribers.length - 1];
+            System.arraycopy(node.subscribers, 0, subscribers, 0, index);
+            System.arraycopy(node.subscribers, index + 1, subscribers, index, subscribers.length - index);
+            node.subscribers = subscribers.length == 0 ? NO_SUBSCRIBERS : subscribers;
+            size--;
+            // 自下而上删除空节点
+            for (int i = words.length; i > 0 && path[i].isEmpty(); i--) {
+                Node parent = path[i - 1];
+                if (path[i] == parent.star) {
+                    parent.star = null;
+                } else if (path[i] == parent.hashChild) {
+                    parent.hashChild = null;
+                } else {
+                    parent.removeChild(words[i - 1]);
+                }
+                release(path[i].word);
+                nodeCount--;
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 返回匹配路由键的所有订阅者（去重，按首次匹配的顺序）
+     */
+    public Set<T> match(String routingKey) {
+        Set<T> result = new LinkedHashSet<>();
+        match(routingKey, result);
+        return result;
+    }
+
+    /**
+     * 把匹配路由键的订阅者加入 into（传入 Set 可去掉用多个绑定键订阅的重复订阅者）
+     */
+    @SuppressWarnings("unchecked")
+    public void match(String routingKey, Collection<? super T> into) {
+        String[] words = tokenize(routingKey);
+        lock.readLock().lock();
+        try {
+            List<Node> current = new ArrayList<>();
+            List<Node> next = new ArrayList<>();
+            enter(root, current);
+            for (String word : words) {
+                for (int i = 0; i < current.size(); i++) {
+                    Node node = current.get(i);
+                    if (node.hash) {
+                        enter(node, next);
+                    }
+                    Node child = node.child(word);
+                    if (child != null) {
+                        enter(child, next);
+                    }
+                    if (node.star != null) {
+                        enter(node.star, next);
+                    }
+                }
+                if (next.isEmpty()) {
+                    return;
+                }
+                List<Node> swap = current;
+                current = next;
+                next = swap;
+                next.clear();
+            }
+            for (Node node : current) {
+                for (Object subscriber : node.subscribers) {
+                    into.add((T) subscriber);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 订阅数（绑定键 + 订阅者）
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 前缀树的节点数（含根节点），用于观察内存占用
+     */
+    public int getNodeCount() {
+        lock.readLock().lock();
+        try {
+            return nodeCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 单个绑定键是否匹配路由键（不建索引，用于一次性判断或作为基准对照）
+     */
+    public static boolean matches(String pattern, String routingKey) {
+        return matches(split(pattern), 0, split(routingKey), 0);
+    }
+
+    private static boolean matches(String[] pattern, int p, String[] words, int w) {
+        if (p == pattern.length) {
+            return w == words.length;
+        }
+        if (HASH.equals(pattern[p])) {
+            // 连续的 # 与一个 # 等价
+            while (p + 1 < pattern.length && HASH.equals(pattern[p + 1])) {
+                p++;
+            }
+            for (int skip = w; skip <= words.length; skip++) {
+                if (matches(pattern, p + 1, words, skip)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return w < words.length && (STAR.equals(pattern[p]) || pattern[p].equals(words[w]))
+                && matches(pattern, p + 1, words, w + 1);
+    }
+
+    /**
+     * 把节点及其经由 # 零个单词可达的节点加入集合（已在集合中的不重复加入）
+     */
+    private static void enter(Node node, List<Node> nodes) {
+        for (Node n = node; n != null; n = n.hashChild) {
+            if (contains(nodes, n)) {
+                return;
+            }
+            nodes.add(n);
+        }
+    }
+
+    private static boolean contains(List<Node> nodes, Node node) {
+        for (int i = 0; i < nodes.size(); i++) {
+            if (nodes.get(i) == node) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Node step(Node node, String word) {
+        if (STAR.equals(word)) {
+            return node.star;
+        }
+        return HASH.equals(word) ? node.hashChild : node.child(word);
+    }
+
+    /**
+     * 取得共用的单词实例，使用计数加一（新建节点时调用）
+     */
+    private String intern(String word) {
+        PooledWord pooled = wordPool.computeIfAbsent(word, PooledWord::new);
+        pooled.nodes++;
+        return pooled.word;
+    }
+
+    /**
+     * 使用计数减一，不再有节点使用时移出（删除节点时调用）
+     */
+    private void release(String word) {
+        PooledWord pooled = wordPool.get(word);
+        if (pooled != null && --pooled.nodes == 0) {
+            wordPool.remove(word);
+        }
+    }
+
+    private String[] tokenize(String routingKey) {
+        if (keyCache == null) {
+            return split(routingKey);
+        }
+        String[] words = keyCache.get(routingKey);
+        if (words == null) {
+            words = split(routingKey);
+            // size() 只是估计值，并发时可能略超出容量
+            if (keyCache.size() >= maxCachedKeys) {
+                keyCache.clear();
+            }
+            keyCache.put(routingKey, words);
+        }
+        return words;
+    }
+
+    /**
+     * 按 . 拆分，空字符串为零个单词（不使用正则）
+     */
+    static String[] split(String key) {
+        if (key.isEmpty()) {
+            return NO_WORDS;
+        }
+        int count = 1;
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) == '.') {
+                count++;
+            }
+        }
+        String[] words = new String[count];
+        int start = 0;
+        for (int i = 0; i < count - 1; i++) {
+            int dot = key.indexOf('.', start);
+            words[i] = key.substring(start, dot);
+            start = dot + 1;
+        }
+        words[count - 1] = key.substring(start);
+        return words;
+    }
+}
@@ -0,0 +1,144 @@
+package com.xixi.lab.rabbitmq.java.common.runtime;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DeliverCallback;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 自适应预取值：按消费者的处理时间与 Broker 往返时间（RTT）不断调整信道的 basicQos
+ *
+ * 消费者确认一条消息后，Broker 要过一个 RTT 才能把下一条消息送到，预取值 P 需满足 P * 处理时间 >= 处理时间 + RTT，
+ * 消费者才不会空等，即 P >= 1 + RTT / 处理时间。这里：
+ * （1）处理时间：包装 DeliverCallback（{@link #wrap}）或由调用方 {@link #recordHandled} 记录，取指数加权平均；
+ * （2）RTT：basicQos 是同步调用（Qos -> QosOk），每次调用的耗时就是一次往返，同样取指数加权平均；
+ * （3）每隔 adjustIntervalMillis，在消费线程上重新计算 P = 1 + round(2 * RTT / 处理时间)（2 倍余量应对抖动），
+ *      限制在 [minPrefetch, maxPrefetch] 内（与当前值相差不到 1/4 时不变），并重新调用 basicQos（即使 P 没变，也借此采样 RTT）。
+ * 处理快的消费者得到较大的预取值，吞吐量不受 RTT 限制；处理慢的消费者收敛到 1，不会囤积消息让其他消费者空闲（Fair dispatch）。
+ *
+ * 使用 basicQos(P, global=true)：RabbitMQ 中 global=false 的预取值只对之后新建的消费者生效，而信道级（global=true）的修改立即生效，
+ * 因此每个信道应只有一个消费者；与信道上已有的 global=false 预取值（如 Spring 容器的 prefetch）同时生效，取较小者。
+ * 自动确认（autoAck=true）的消费者不受预取值限制。与 {@code AckCoalescer} 一起使用时，合并条数应不超过当前预取值的一半，
+ * 预取值调整后调用 {@code AckCoalescer.followPrefetch(getPrefetch())}。
+ */
+public class AdaptivePrefetchController {
+
+    // 指数加权平均的权重
+    private static final double ALPHA = 0.2;
+
+    // RTT 的余量倍数
+    private static final int HEADROOM = 2;
+
+    private final Channel channel;
+
+    private final int minPrefetch;
+
+    private final int maxPrefetch;
+
+    private final long adjustIntervalNanos;
+
+    private double handlerNanos;
+
+    private double rttNanos;
+
+    private int prefetch;
+
+    private long lastAdjust = System.nanoTime();
+
+    /**
+     * @param channel              消费所在的信道（只有一个消费者）
+     * @param minPrefetch          最小预取值
+     * @param maxPrefetch          最大预取值
+     * @param adjustIntervalMillis 调整周期（毫秒）
+     */
+    public AdaptivePrefetchController(Channel channel, int minPrefetch, int maxPrefetch, long adjustIntervalMillis) {
+        if (minPrefetch < 1 || maxPrefetch < minPrefetch) {
+            throw new IllegalArgumentException("prefetch bounds must satisfy 1 <= min <= max");
+        }
+        this.channel = channel;
+        this.minPrefetch = minPrefetch;
+        this.maxPrefetch = maxPrefetch;
+        this.adjustIntervalNanos = TimeUnit.MILLISECONDS.toNanos(adjustIntervalMillis);
+    }
+
+    /**
+     * 以 minPrefetch 开始（同时测量第一次 RTT），应在 basicConsume 之前调用
+     */
+    public synchronized void start() throws IOException {
+        apply(minPrefetch);
+    }
+
+    /**
+     * 包装处理逻辑：记录每条消息的处理时间，到调整周期时在当前（消费）线程上调整预取值
+     */
+    public DeliverCallback wrap(DeliverCallback delegate) {
+        return (consumerTag, message) -> {
+            long start = System.nanoTime();
+            try {
+                delegate.handle(consumerTag, message);
+            } finally {
+                recordHandled(System.nanoTime() - start);
+            }
+        };
+    }
+
+    /**
+     * 记录一条消息的处理时间，到调整周期时重新调用 basicQos
+     *
+     * @return 预取值是否改变
+     */
+    public synchronized boolean recordHandled(long nanos) throws IOException {
+        handlerNanos = handlerNanos == 0 ? nanos : handlerNanos + ALPHA * (nanos - handlerNanos);
+        long now = System.nanoTime();
+        if (now - lastAdjust < adjustIntervalNanos || !channel.isOpen()) {
+            return false;
+        }
+        int previous = prefetch;
+        int target = target();
+        // 与当前值相差不到 1/4 时保持不变，避免处理时间的抖动引起预取值来回变化
+        if (Math.abs(target - previous) * 4 < previous) {
+            target = previous;
+        }
+        apply(target);
+        return target != previous;
+    }
+
+    /**
+     * 按当前的处理时间与 RTT 计算的预取值
+     */
+    public synchronized int target() {
+        if (handlerNanos <= 0) {
+            return prefetch == 0 ? minPrefetch : prefetch;
+        }
+        long target = 1 + Math.round(HEADROOM * rttNanos / Math.max(1.0, handlerNanos));
+        return (int) Math.max(minPrefetch, Math.min(maxPrefetch, target));
+    }
+
+    private void apply(int target) throws IOException {
+        long start = System.nanoTime();
+        channel.basicQos(target, true);
+        long now = System.nanoTime();
+        long rtt = now - start;
+        rttNanos = rttNanos == 0 ? rtt : rttNanos + ALPHA * (rtt - rttNanos);
+        prefetch = target;
+        lastAdjust = now;
+    }
+
+    public synchronized int getPrefetch() {
+        return prefetch;
+    }
+
+    public synchronized long getHandlerNanos() {
+        return (long) handlerNanos;
+    }
+
+    public synchronized long getRttNanos() {
+        return (long) rttNanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("prefetch=%d (handler=%.1fus, rtt=%.1fus)", prefetch, handlerNanos / 1000.0, rttNanos / 1000.0);
+    }
+}
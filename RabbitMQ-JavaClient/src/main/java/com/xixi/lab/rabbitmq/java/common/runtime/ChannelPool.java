@@ -0,0 +1,103 @@
+package com.xixi.lab.rabbitmq.java.common.runtime;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+/**
+ * 按线程分配的信道池：Channel 不是线程安全的，每个线程独占一个信道，首次使用时创建，之后一直复用
+ *
+ * 线程按轮询分配到连接池中的某个连接上，即 N 个连接上的信道数大致相等；
+ * 信道因异常被 Broker 关闭（如 PRECONDITION_FAILED）后，下次获取时在同一连接上重建；
+ * 连接断开后信道由客户端的自动恢复一并恢复，不重建。
+ * 可指定信道的包装（如 LatencyStamp::stamping），新建的信道都经过包装后再交给调用方。
+ */
+public class ChannelPool implements AutoCloseable {
+
+    private final ConnectionPool connections;
+
+    private final UnaryOperator<Channel> decorator;
+
+    private final AtomicInteger nextConnection = new AtomicInteger();
+
+    private final ThreadLocal<Slot> slot = ThreadLocal.withInitial(this::newSlot);
+
+    // 所有已创建的信道，用于 close() 时统一关闭（线程结束后 ThreadLocal 中的信道无法再访问到）
+    private final Map<Channel, Boolean> channels = new ConcurrentHashMap<>();
+
+    public ChannelPool(ConnectionPool connections) {
+        this(connections, UnaryOperator.identity());
+    }
+
+    /**
+     * @param decorator 新建信道的包装
+     */
+    public ChannelPool(ConnectionPool connections, UnaryOperator<Channel> decorator) {
+        this.connections = connections;
+        this.decorator = decorator;
+    }
+
+    /**
+     * 当前线程的信道
+     */
+    public Channel get() throws IOException {
+        Slot current = slot.get();
+        Channel channel = current.channel;
+        // 连接恢复中时信道也处于关闭状态，但会随连接一起恢复，此时不重建
+        if (channel == null || (!channel.isOpen() && connection().isOpen())) {
+            if (channel != null) {
+                channels.remove(channel);
+            }
+            channel = connection().createChannel();
+            if (channel == null) {
+                throw new IOException("no channel available on " + connection());
+            }
+            channel = decorator.apply(channel);
+            channels.put(channel, Boolean.TRUE);
+            current.channel = channel;
+        }
+        return channel;
+    }
+
+    /**
+     * 当前线程所分配的连接
+     */
+    public Connection connection() throws IOException {
+        return connections.get(slot.get().connectionIndex);
+    }
+
+    private Slot newSlot() {
+        return new Slot(Math.floorMod(nextConnection.getAndIncrement(), connections.size()));
+    }
+
+    @Override
+    public void close() {
+        for (Channel channel : channels.keySet()) {
+            if (channel.isOpen()) {
+                try {
+                    channel.close();
+                } catch (IOException | TimeoutException e) {
+                    // 连接随后也会关闭，忽略
+                }
+            }
+        }
+        channels.clear();
+    }
+
+    private static class Slot {
+
+        private final int connectionIndex;
+
+        private Channel channel;
+
+        Slot(int connectionIndex) {
+            this.connectionIndex = connectionIndex;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.xixi.lab.rabbitmq.java.common.runtime;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConnectionFactory;
+import com.xixi.lab.rabbitmq.java.common.metrics.ClientMetrics;
+import com.xixi.lab.rabbitmq.java.common.metrics.LatencyStamp;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * 客户端运行时：长连接池 + 按线程分配的信道池 + 拓扑缓存，供各个生产者共用
+ *
+ * 之前的生产者每发一条消息都要：新建 ConnectionFactory -> TCP 连接 + AMQP 握手 -> 创建信道 -> 声明队列 -> 发布 -> 关闭，
+ * 真正的发布只占一小部分时间，每秒最多只能发布几百条消息。使用运行时后：
+ * （1）连接在进程内一直复用（{@link ConnectionPool}），并开启自动恢复；
+ * （2）每个线程复用自己的信道（{@link ChannelPool}）；
+ * （3）同一连接上相同的队列/交换机只声明一次（{@link TopologyCache}），连接恢复后自动重新声明。
+ *
+ * 用法：
+ *   try (ClientRuntime runtime = ClientRuntime.local()) {
+ *       runtime.declareQueue("work-queue", false, false, false, null);
+ *       runtime.publish("", "work-queue", null, body);
+ *   }
+ */
+public class ClientRuntime implements AutoCloseable {
+
+    private static volatile ClientRuntime local;
+
+    private final ConnectionPool connections;
+
+    private final ChannelPool channels;
+
+    private final TopologyCache topology = new TopologyCache();
+
+    /**
+     * @param factory         连接工厂
+     * @param connectionCount 连接数，线程按轮询分配到各个连接上
+     * @param connectionName  连接名前缀
+     */
+    public ClientRuntime(ConnectionFactory factory, int connectionCount, String connectionName) {
+        this.connections = new ConnectionPool(factory, connectionCount, connectionName, topology::reapply);
+        // 开启延迟记录（-Dlab.latency=true）时，发布的消息都带上发布时间戳
+        this.channels = new ChannelPool(connections, LatencyStamp.ENABLED ? LatencyStamp::stamping : UnaryOperator.identity());
+    }
+
+    /**
+     * 连接本机 RabbitMQ（localhost）的共享运行时
+     *
+     * 连接的线程不是守护线程，一次性的生产者在 main 结束前需关闭运行时（try-with-resources），否则进程不会退出；
+     * 关闭后再调用 local() 会创建新的运行时。未关闭的运行时在进程退出（如 Ctrl+C）时关闭。
+     */
+    public static ClientRuntime local() {
+        ClientRuntime runtime = local;
+        if (runtime == null) {
+            synchronized (ClientRuntime.class) {
+                runtime = local;
+                if (runtime == null) {
+                    ConnectionFactory factory = new ConnectionFactory();
+                    factory.setHost("localhost");
+                    ClientMetrics.install(factory);
+                    runtime = new ClientRuntime(factory, 1, "rabbitmq-lab");
+                    Runtime.getRuntime().addShutdownHook(new Thread(runtime::close, "client-runtime-shutdown"));
+                    local = runtime;
+                }
+            }
+        }
+        return runtime;
+    }
+
+    /**
+     * 当前线程的信道，不要关闭它（由运行时统一关闭），也不要传给其他线程使用
+     */
+    public Channel channel() throws IOException {
+        return channels.get();
+    }
+
+    /**
+     * 声明队列（当前连接上已声明过相同的队列时直接返回）
+     */
+    public void declareQueue(String queue, boolean durable, boolean exclusive, boolean autoDelete,
+                             Map<String, Object> arguments) throws IOException {
+        declare(Declaration.queue(queue, durable, exclusive, autoDelete, arguments));
+    }
+
+    /**
+     * 声明非持久化的交换机
+     */
+    public void declareExchange(String exchange, BuiltinExchangeType type) throws IOException {
+        declareExchange(exchange, type, false);
+    }
+
+    /**
+     * 声明交换机（当前连接上已声明过相同的交换机时直接返回）
+     */
+    public void declareExchange(String exchange, BuiltinExchangeType type, boolean durable) throws IOException {
+        declare(Declaration.exchange(exchange, type, durable));
+    }
+
+    public void declare(Declaration declaration) throws IOException {
+        topology.declare(channels.connection(), channels.get(), declaration);
+    }
+
+    /**
+     * 在当前线程的信道上发布消息
+     */
+    public void publish(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body) throws IOException {
+        channels.get().basicPublish(exchange, routingKey, props, body);
+    }
+
+    @Override
+    public void close() {
+        synchronized (ClientRuntime.class) {
+            if (local == this) {
+                local = null;
+            }
+        }
+        channels.close();
+        connections.close();
+    }
+}
@@ -0,0 +1,113 @@
+package com.xixi.lab.rabbitmq.java.common.runtime;
+
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * 长连接池：固定数量的长连接，首次使用时创建，之后一直复用（直到 close()）
+ *
+ * 建立一个连接需要 TCP 握手 + AMQP 握手（Connection.Start/Tune/Open）多次往返，每条消息新建连接会让发布速度受限于握手，
+ * 这里的连接在整个进程生命周期内复用，并开启自动恢复（automatic recovery），网络中断后由客户端自动重连，
+ * 重连成功后通过 onRecovery 回调通知（如重新声明拓扑）。
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private final ConnectionFactory factory;
+
+    private final String connectionName;
+
+    private final Connection[] connections;
+
+    private final Consumer<Connection> onRecovery;
+
+    private volatile boolean closed;
+
+    /**
+     * @param factory        连接工厂
+     * @param size           连接数
+     * @param connectionName 连接名前缀（显示在管理界面中），实际名称为 connectionName-序号
+     * @param onRecovery     连接自动恢复后的回调，可为 null
+     */
+    public ConnectionPool(ConnectionFactory factory, int size, String connectionName, Consumer<Connection> onRecovery) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size must be positive: " + size);
+        }
+        this.factory = factory;
+        this.connectionName = connectionName;
+        this.connections = new Connection[size];
+        this.onRecovery = onRecovery;
+        factory.setAutomaticRecoveryEnabled(true);
+    }
+
+    /**
+     * 获取第 index 个连接，未创建（或已被关闭且无法自动恢复）时新建
+     */
+    public Connection get(int index) throws IOException {
+        Connection connection = connections[index];
+        if (connection != null && connection.isOpen()) {
+            return connection;
+        }
+        synchronized (connections) {
+            if (closed) {
+                throw new IllegalStateException("connection pool is closed");
+            }
+            connection = connections[index];
+            // 自动恢复中的连接 isOpen() 为 false，但不应替换，等待其恢复即可
+            if (connection == null || (!connection.isOpen() && !(connection instanceof Recoverable))) {
+                connection = newConnection(index);
+                connections[index] = connection;
+            }
+            return connection;
+        }
+    }
+
+    private Connection newConnection(int index) throws IOException {
+        Connection connection;
+        try {
+            connection = factory.newConnection(connectionName + "-" + index);
+        } catch (TimeoutException e) {
+            throw new IOException("timed out while connecting to " + factory.getHost(), e);
+        }
+        if (onRecovery != null && connection instanceof Recoverable) {
+            ((Recoverable) connection).addRecoveryListener(new RecoveryListener() {
+                @Override
+                public void handleRecovery(Recoverable recoverable) {
+                    onRecovery.accept((Connection) recoverable);
+                }
+
+                @Override
+                public void handleRecoveryStarted(Recoverable recoverable) {
+                }
+            });
+        }
+        return connection;
+    }
+
+    public int size() {
+        return connections.length;
+    }
+
+    @Override
+    public void close() {
+        synchronized (connections) {
+            closed = true;
+            for (int i = 0; i < connections.length; i++) {
+                Connection connection = connections[i];
+                connections[i] = null;
+                if (connection != null && connection.isOpen()) {
+                    try {
+                        connection.close();
+                    } catch (IOException e) {
+                        connection.abort();
+                    }
+                }
+            }
+        }
+    }
+}
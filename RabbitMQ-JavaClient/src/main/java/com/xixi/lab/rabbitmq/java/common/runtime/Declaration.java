@@ -0,0 +1,132 @@
+package com.xixi.lab.rabbitmq.java.common.runtime;
+
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 一个队列或交换机的声明，相同名称、相同参数的声明视为相等
+ */
+public abstract class Declaration {
+
+    /**
+     * 声明队列
+     */
+    public static Declaration queue(String name, boolean durable, boolean exclusive, boolean autoDelete,
+                                    Map<String, Object> arguments) {
+        return new QueueDeclaration(name, durable, exclusive, autoDelete, arguments);
+    }
+
+    /**
+     * 声明交换机
+     */
+    public static Declaration exchange(String name, BuiltinExchangeType type, boolean durable) {
+        return new ExchangeDeclaration(name, type, durable);
+    }
+
+    /**
+     * 缓存键：类型 + 名称
+     */
+    abstract String key();
+
+    /**
+     * 在信道上执行声明
+     */
+    abstract void declare(Channel channel) throws IOException;
+
+    private static class QueueDeclaration extends Declaration {
+
+        private final String name;
+
+        private final boolean durable;
+
+        private final boolean exclusive;
+
+        private final boolean autoDelete;
+
+        private final Map<String, Object> arguments;
+
+        QueueDeclaration(String name, boolean durable, boolean exclusive, boolean autoDelete, Map<String, Object> arguments) {
+            this.name = name;
+            this.durable = durable;
+            this.exclusive = exclusive;
+            this.autoDelete = autoDelete;
+            this.arguments = arguments == null ? null : Collections.unmodifiableMap(new HashMap<>(arguments));
+        }
+
+        @Override
+        String key() {
+            return "queue:" + name;
+        }
+
+        @Override
+        void declare(Channel channel) throws IOException {
+            channel.queueDeclare(name, durable, exclusive, autoDelete, arguments);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof QueueDeclaration)) {
+                return false;
+            }
+            QueueDeclaration that = (QueueDeclaration) o;
+            return durable == that.durable && exclusive == that.exclusive && autoDelete == that.autoDelete
+                    && name.equals(that.name) && Objects.equals(arguments, that.arguments);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, durable, exclusive, autoDelete, arguments);
+        }
+    }
+
+    private static class ExchangeDeclaration extends Declaration {
+
+        private final String name;
+
+        private final BuiltinExchangeType type;
+
+        private final boolean durable;
+
+        ExchangeDeclaration(String name, BuiltinExchangeType type, boolean durable) {
+            this.name = name;
+            this.type = type;
+            this.durable = durable;
+        }
+
+        @Override
+        String key() {
+            return "exchange:" + name;
+        }
+
+        @Override
+        void declare(Channel channel) throws IOException {
+            channel.exchangeDeclare(name, type, durable);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ExchangeDeclaration)) {
+                return false;
+            }
+            ExchangeDeclaration that = (ExchangeDeclaration) o;
+            return durable == that.durable && name.equals(that.name) && type == that.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, type, durable);
+        }
+    }
+}
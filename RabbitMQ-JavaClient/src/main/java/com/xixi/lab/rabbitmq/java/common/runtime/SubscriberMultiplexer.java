@@ -0,0 +1,185 @@
+package com.xixi.lab.rabbitmq.java.common.runtime;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.DeliverCallback;
+import com.rabbitmq.client.impl.nio.NioParams;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 订阅者复用：把大量订阅者（消费者）放到少量连接、少量信道上
+ *
+ * 每个订阅者各自一个阻塞 IO 的 Connection 时，每个连接都有自己的读线程、心跳线程和消费者线程池（默认为 CPU 核数 * 2），
+ * 几千个订阅者就是上万个线程。这里：
+ * （1）连接使用 NIO（{@link #useNio}）：所有连接的读写由 ioThreads 个 NIO 线程完成，没有每连接的读线程；
+ * （2）所有连接共用一个消费者线程池（consumerThreads 个线程）和一个心跳线程；
+ * （3）订阅者按轮询分配到 connectionCount 个连接上，同一连接上每 consumersPerChannel 个订阅者共用一个信道，
+ *      同一信道上的消息按顺序回调（amqp-client 按信道串行分发），不同信道之间并行。
+ *
+ * 线程数因此与订阅者数量无关：约为 ioThreads + consumerThreads + 1。
+ * 用法：
+ *   SubscriberMultiplexer multiplexer = new SubscriberMultiplexer(factory, 4, 100, 2, 8, "subscribers");
+ *   multiplexer.subscribe(queueName, true, 0, deliverCallback);
+ */
+public class SubscriberMultiplexer implements AutoCloseable {
+
+    private final ConnectionPool connections;
+
+    private final int consumersPerChannel;
+
+    private final ExecutorService consumerExecutor;
+
+    private final ScheduledExecutorService heartbeatExecutor;
+
+    // 每个连接当前正在分配的信道及其上的订阅者数
+    private final Channel[] currentChannels;
+
+    private final int[] currentCounts;
+
+    private final List<Channel> channels = new ArrayList<>();
+
+    // 消费者标签 -> 所在信道（标签只在创建它的信道上有效）
+    private final Map<String, Channel> subscriptions = new HashMap<>();
+
+    private final AtomicInteger nextConnection = new AtomicInteger();
+
+    /**
+     * @param factory             连接工厂（会被修改：开启 NIO，设置共用的线程池）
+     * @param connectionCount     连接数
+     * @param consumersPerChannel 每个信道上的订阅者数
+     * @param ioThreads           NIO 线程数
+     * @param consumerThreads     消费者回调线程数
+     * @param connectionName      连接名前缀
+     */
+    public SubscriberMultiplexer(ConnectionFactory factory, int connectionCount, int consumersPerChannel,
+                                 int ioThreads, int consumerThreads, String connectionName) {
+        if (consumersPerChannel < 1) {
+            throw new IllegalArgumentException("consumersPerChannel must be positive: " + consumersPerChannel);
+        }
+        this.consumersPerChannel = consumersPerChannel;
+        this.consumerExecutor = Executors.newFixedThreadPool(consumerThreads, daemonThreads(connectionName + "-consumer"));
+        this.heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(daemonThreads(connectionName + "-heartbeat"));
+        useNio(factory, ioThreads, connectionName);
+        factory.setSharedExecutor(consumerExecutor);
+        factory.setHeartbeatExecutor(heartbeatExecutor);
+        this.connections = new ConnectionPool(factory, connectionCount, connectionName, null);
+        this.currentChannels = new Channel[connectionCount];
+        this.currentCounts = new int[connectionCount];
+    }
+
+    /**
+     * 开启 NIO 连接模式：
+     * （1）ioThreads 个 NIO 线程处理该工厂创建的所有连接的读写；
+     * （2）连接数少、每个连接上的信道多，读写缓冲区加大到 64KB（默认 32KB），一次系统调用可读写更多的帧；
+     * （3）NIO 线程为守护线程，线程名以 threadNamePrefix-nio 开头，便于在线程转储中区分。
+     */
+    public static void useNio(ConnectionFactory factory, int ioThreads, String threadNamePrefix) {
+        factory.useNio();
+        factory.setNioParams(new NioParams()
+                .setNbIoThreads(ioThreads)
+                .setReadByteBufferSize(64 * 1024)
+                .setWriteByteBufferSize(64 * 1024)
+                .setThreadFactory(daemonThreads(threadNamePrefix + "-nio")));
+    }
+
+    /**
+     * 订阅一个队列（在复用的信道上 basicConsume）
+     *
+     * @param prefetch 每个订阅者的预取数，0 表示不限制（自动确认时不生效）
+     * @return 消费者标签，可用于 {@link #cancel(String)}
+     */
+    public String subscribe(String queue, boolean autoAck, int prefetch, DeliverCallback deliverCallback) throws IOException {
+        Channel channel = nextChannel();
+        String consumerTag;
+        synchronized (channel) {
+            if (prefetch > 0) {
+                // global=false：对之后在该信道上创建的每个消费者分别限制
+                channel.basicQos(prefetch, false);
+            }
+            consumerTag = channel.basicConsume(queue, autoAck, deliverCallback, tag -> { });
+        }
+        synchronized (currentChannels) {
+            subscriptions.put(consumerTag, channel);
+        }
+        return consumerTag;
+    }
+
+    /**
+     * 分配信道：按轮询选择连接，连接上当前的信道满 consumersPerChannel 个订阅者后新建信道
+     */
+    private Channel nextChannel() throws IOException {
+        int index = Math.floorMod(nextConnection.getAndIncrement(), currentChannels.length);
+        synchronized (currentChannels) {
+            Channel channel = currentChannels[index];
+            if (channel == null || !channel.isOpen() || currentCounts[index] == consumersPerChannel) {
+                Connection connection = connections.get(index);
+                channel = connection.createChannel();
+                if (channel == null) {
+                    throw new IOException("no channel available on " + connection);
+                }
+                currentChannels[index] = channel;
+                currentCounts[index] = 0;
+                channels.add(channel);
+            }
+            currentCounts[index]++;
+            return channel;
+        }
+    }
+
+    /**
+     * 取消订阅（信道上的其他订阅者不受影响）
+     */
+    public void cancel(String consumerTag) throws IOException {
+        Channel channel;
+        synchronized (currentChannels) {
+            channel = subscriptions.remove(consumerTag);
+        }
+        if (channel == null) {
+            throw new IllegalArgumentException("unknown consumer tag " + consumerTag);
+        }
+        channel.basicCancel(consumerTag);
+    }
+
+    public int getSubscriberCount() {
+        synchronized (currentChannels) {
+            return subscriptions.size();
+        }
+    }
+
+    public int getChannelCount() {
+        synchronized (currentChannels) {
+            return channels.size();
+        }
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    @Override
+    public void close() {
+        connections.close();
+        consumerExecutor.shutdown();
+        heartbeatExecutor.shutdown();
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,70 @@
+package com.xixi.lab.rabbitmq.java.common.runtime;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 拓扑缓存：每个连接上，同一个队列/交换机只声明一次
+ *
+ * 之前每发一条消息都要 queueDeclare 一次（一次同步往返），这里记录每个连接上已执行过的声明，
+ * 再次声明相同的队列/交换机时直接跳过；参数不同的声明仍会发给 Broker（由 Broker 判断是否冲突）。
+ * 连接自动恢复（recovery）后，Broker 端的非持久化拓扑可能已丢失，通过 reapply() 在新的连接上重新执行所有声明。
+ */
+public class TopologyCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TopologyCache.class);
+
+    // 所有出现过的声明：key -> 最近一次的声明
+    private final Map<String, Declaration> declarations = new ConcurrentHashMap<>();
+
+    // 每个连接上已执行的声明：Connection -> (key -> 声明)
+    private final Map<Connection, Map<String, Declaration>> declared = new ConcurrentHashMap<>();
+
+    /**
+     * 在连接上执行声明（若该连接上已执行过相同的声明则跳过）
+     *
+     * 声明是一次同步往返，不在 ConcurrentHashMap.compute 中执行（会在整个往返期间持有桶锁，阻塞同一桶中的其他 key）；
+     * 并发声明同一个 key 时可能各自执行一次，队列/交换机的声明是幂等的，成功后再记录。
+     */
+    public void declare(Connection connection, Channel channel, Declaration declaration) throws IOException {
+        declarations.put(declaration.key(), declaration);
+        Map<String, Declaration> applied = declared.computeIfAbsent(connection, c -> new ConcurrentHashMap<>());
+        Declaration previous = applied.get(declaration.key());
+        if (declaration.equals(previous)) {
+            return;
+        }
+        declaration.declare(channel);
+        // 只在记录未被其他线程改动时替换，避免覆盖并发写入的较新声明
+        if (previous == null) {
+            applied.putIfAbsent(declaration.key(), declaration);
+        } else {
+            applied.replace(declaration.key(), previous, declaration);
+        }
+    }
+
+    /**
+     * 连接恢复后，在该连接上重新执行所有声明
+     */
+    public void reapply(Connection connection) {
+        Map<String, Declaration> applied = declared.computeIfAbsent(connection, c -> new ConcurrentHashMap<>());
+        applied.clear();
+        if (declarations.isEmpty()) {
+            return;
+        }
+        try (Channel channel = connection.createChannel()) {
+            for (Declaration declaration : declarations.values()) {
+                declare(connection, channel, declaration);
+            }
+        } catch (IOException | TimeoutException e) {
+            // 声明失败时保持未声明状态，下次使用时会再次尝试
+            LOGGER.warn("Failed to re-apply declarations after recovery on {}", connection, e);
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package com.xixi.lab.rabbitmq.java.ox01_hello_world;
 
 import com.rabbitmq.client.*;
+import com.xixi.lab.rabbitmq.java.common.metrics.ClientMetrics;
+import com.xixi.lab.rabbitmq.java.common.metrics.LatencyRecordingDeliverCallback;
+import com.xixi.lab.rabbitmq.java.common.metrics.MeteredDeliverCallback;
+import com.xixi.lab.rabbitmq.java.common.runtime.ClientRuntime;
 
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
@@ -25,20 +29,18 @@ class HelloWorldSend {
     private final static String QUEUE_NAME = "hello-queue";
 
     public static void main(String[] argv) throws Exception {
-        // 1、创建连接工厂
-        ConnectionFactory factory = new ConnectionFactory();
-        factory.setHost("localhost");
-        // 使用 try-with-resources 来创建 Connection，进而创建 Channel
-        try (Connection connection = factory.newConnection(); // 2、通过 连接工厂 创建连接 Connection
-             Channel channel = connection.createChannel()) { // 3、通过 Connection 创建信道 Channel
-            // 4、利用 Channel 声明一个队列（要发送给哪个队列），指定队列名及相应参数（执行此后，即会创建好一个队列）
+        // 1~3、从共享的客户端运行时获取 Channel：运行时内部复用长连接 Connection，并为每个线程复用一个信道 Channel，
+        //      不必每次发送都重新建立连接（TCP + AMQP 握手），信道由运行时统一关闭；发送完后关闭运行时（try-with-resources），进程才能退出
+        try (ClientRuntime runtime = ClientRuntime.local()) {
+            Channel channel = runtime.channel();
+            // 4、声明一个队列（要发送给哪个队列），指定队列名及相应参数（执行此后，即会创建好一个队列；同一连接上只声明一次）
             /* 参数1 String queue：队列名
              * 参数2 boolean durable：true 设置队列为持久化，会存到磁盘上，MQ服务重启后不丢失；false 不持久化，默认消息存储在内存中，MQ服务重启后会丢失
              * 参数3 boolean exclusive：true 设置队列为排他的，被设置排他的队列仅对首次声明它的连接可见，并在连接断开时自动删除（即使设置了持久化）
              * 参数4 boolean autoDelete：ture 设置队列为自动删除，当至少有一个消费者已连接到该队列，之后该队列连接的所有消费者都断开时，该队列会自动删除
              * 参数5 Map<String, Object> arguments：其他参数
              */
-            channel.queueDeclare(QUEUE_NAME, false, false, false, null);
+            runtime.declareQueue(QUEUE_NAME, false, false, false, null);
             String message = "Hello World! " + LocalDateTime.now().toString();
             // 5、发布消息（消息需转为 byte[]）至队列中
             /* 参数1 String exchange：交换机名，发布消息到该交换机中，若为空串，则发往MQ默认的交换机中
@@ -63,6 +65,7 @@ class HelloWorldRecv {
         // 1、创建连接工厂
         ConnectionFactory factory = new ConnectionFactory();
         factory.setHost("localhost");
+        ClientMetrics.install(factory);
         // 2、通过 连接工厂 创建连接 Connection
         Connection connection = factory.newConnection();
         // 3、通过 Connection 创建信道 Channel
@@ -86,6 +89,6 @@ class HelloWorldRecv {
          * 参数3 DeliverCallback deliverCallback：接收到消息的消费回调
          * 参数4 CancelCallback cancelCallback：消费者取消时的回调（不受channel.basicCancel()影响），如队列被删除（rabbitmqctl delete_queue hello）
          */
-        channel.basicConsume(QUEUE_NAME, true, deliverCallback, cancelCallback);
+        channel.basicConsume(QUEUE_NAME, true, MeteredDeliverCallback.wrap(LatencyRecordingDeliverCallback.wrap(QUEUE_NAME, deliverCallback)), cancelCallback);
     }
 }
@@ -4,11 +4,14 @@ import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
 import com.rabbitmq.client.DeliverCallback;
+import com.xixi.lab.rabbitmq.java.common.metrics.ClientMetrics;
+import com.xixi.lab.rabbitmq.java.common.metrics.LatencyRecordingDeliverCallback;
+import com.xixi.lab.rabbitmq.java.common.metrics.MeteredDeliverCallback;
+import com.xixi.lab.rabbitmq.java.common.runtime.ClientRuntime;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
 /**
  * 2.1. Work Queues（Task Queues） 任务分发(竞争消费者模式)
@@ -31,21 +34,20 @@ class WorkQueuesSend {
 
     public static void main(String[] argv) throws Exception {
         String msg = "Hello, work queues: ";
-        for (int i = 0; i < SEND_COUNT; i++) {
-            send(msg + i);
+        // 发送完后关闭共享运行时：连接的线程不是守护线程，不关闭时进程不会退出
+        try (ClientRuntime runtime = ClientRuntime.local()) {
+            for (int i = 0; i < SEND_COUNT; i++) {
+                send(runtime, msg + i);
+            }
         }
     }
 
-    private static void send(String message) throws IOException, TimeoutException {
-        ConnectionFactory factory = new ConnectionFactory();
-        factory.setHost("localhost");
-        try (Connection connection = factory.newConnection();
-             Channel channel = connection.createChannel()) {
-            channel.queueDeclare(QUEUE_NAME, false, false, false, null);
-            // 生产者发布消息
-            channel.basicPublish("", QUEUE_NAME, null, message.getBytes(StandardCharsets.UTF_8));
-            System.out.println(">>> Sent: " + message);
-        }
+    // 复用共享运行时的长连接和当前线程的信道，队列只在首次发送时声明
+    private static void send(ClientRuntime runtime, String message) throws IOException {
+        runtime.declareQueue(QUEUE_NAME, false, false, false, null);
+        // 生产者发布消息
+        runtime.publish("", QUEUE_NAME, null, message.getBytes(StandardCharsets.UTF_8));
+        System.out.println(">>> Sent: " + message);
     }
 }
 
@@ -69,6 +71,7 @@ class WorkQueuesAutoAckRecv {
     public static void main(String[] argv) throws Exception {
         ConnectionFactory factory = new ConnectionFactory();
         factory.setHost("localhost");
+        ClientMetrics.install(factory);
         Connection connection = factory.newConnection();
         Channel channel = connection.createChannel();
 
@@ -85,7 +88,7 @@ class WorkQueuesAutoAckRecv {
             }
         };
         boolean autoAck = true; // 自动确认
-        channel.basicConsume(QUEUE_NAME, autoAck, deliverCallback, consumerTag -> {
+        channel.basicConsume(QUEUE_NAME, autoAck, MeteredDeliverCallback.wrap(LatencyRecordingDeliverCallback.wrap(QUEUE_NAME, deliverCallback)), consumerTag -> {
         });
     }
 
@@ -116,6 +119,7 @@ class WorkQueuesManualAckRecv {
     public static void main(String[] argv) throws Exception {
         ConnectionFactory factory = new ConnectionFactory();
         factory.setHost("localhost");
+        ClientMetrics.install(factory);
         Connection connection = factory.newConnection();
         Channel channel = connection.createChannel();
 
@@ -133,6 +137,7 @@ class WorkQueuesManualAckRecv {
                 // 手动确认消息已处理，若出现异常致使没有答复，则该消息会重新回到队列中，再重新分发下去
                 /* 参数1 long deliveryTag：可看作消息编号，是一个64位的长整型值
                  * 参数2 boolean multiple：true 批量确认当前deliveryTag及其之前的所有消息；false 仅确认当前deliveryTag的消息
+                 * 每条消息处理需2秒，合并确认（AckCoalescer）省下的确认帧可以忽略，反而让确认延后，这里仍逐条确认
                  */
                 channel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
             }
@@ -140,7 +145,7 @@ class WorkQueuesManualAckRecv {
         // 设置取消自动确认，需手动确认 channel.basicAck()
         // 若某个消费者接收到消息，一直未答复，超时（默认30分钟），则该Channel会关闭（PRECONDITION_FAILED） https://www.rabbitmq.com/consumers.html#acknowledgement-timeout
         boolean autoAck = false;
-        channel.basicConsume(QUEUE_NAME, autoAck, deliverCallback, consumerTag -> {
+        channel.basicConsume(QUEUE_NAME, autoAck, MeteredDeliverCallback.wrap(LatencyRecordingDeliverCallback.wrap(QUEUE_NAME, deliverCallback)), consumerTag -> {
         });
     }
 
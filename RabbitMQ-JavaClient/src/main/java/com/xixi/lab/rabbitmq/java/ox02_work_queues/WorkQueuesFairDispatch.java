@@ -1,11 +1,16 @@
 package com.xixi.lab.rabbitmq.java.ox02_work_queues;
 
 import com.rabbitmq.client.*;
+import com.xixi.lab.rabbitmq.java.common.batch.AckCoalescer;
+import com.xixi.lab.rabbitmq.java.common.metrics.ClientMetrics;
+import com.xixi.lab.rabbitmq.java.common.metrics.LatencyRecordingDeliverCallback;
+import com.xixi.lab.rabbitmq.java.common.metrics.MeteredDeliverCallback;
+import com.xixi.lab.rabbitmq.java.common.runtime.AdaptivePrefetchController;
+import com.xixi.lab.rabbitmq.java.common.runtime.ClientRuntime;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
 /**
  * 2.3. Work Queues（Task Queues） 任务分发(竞争消费者模式)：Fair dispatch
@@ -32,20 +37,19 @@ class WorkQueuesFairDispatchSend {
 
     public static void main(String[] argv) throws Exception {
         String msg = "Hello, fair dispatch queue: ";
-        for (int i = 0; i < 10; i++) {
-            send(msg + i);
+        // 发送完后关闭共享运行时：连接的线程不是守护线程，不关闭时进程不会退出
+        try (ClientRuntime runtime = ClientRuntime.local()) {
+            for (int i = 0; i < 10; i++) {
+                send(runtime, msg + i);
+            }
         }
     }
 
-    private static void send(String message) throws IOException, TimeoutException {
-        ConnectionFactory factory = new ConnectionFactory();
-        factory.setHost("localhost");
-        try (Connection connection = factory.newConnection();
-             Channel channel = connection.createChannel()) {
-            channel.queueDeclare(QUEUE_NAME, true, false, false, null);
-            channel.basicPublish("", QUEUE_NAME, MessageProperties.PERSISTENT_TEXT_PLAIN, message.getBytes(StandardCharsets.UTF_8));
-            System.out.println(">>> Sent: " + message);
-        }
+    // 复用共享运行时的长连接和当前线程的信道，队列只在首次发送时声明
+    private static void send(ClientRuntime runtime, String message) throws IOException {
+        runtime.declareQueue(QUEUE_NAME, true, false, false, null);
+        runtime.publish("", QUEUE_NAME, MessageProperties.PERSISTENT_TEXT_PLAIN, message.getBytes(StandardCharsets.UTF_8));
+        System.out.println(">>> Sent: " + message);
     }
 }
 
@@ -62,6 +66,7 @@ class WorkQueuesFairDispatchRecv {
     public static void main(String[] argv) throws Exception {
         ConnectionFactory factory = new ConnectionFactory();
         factory.setHost("localhost");
+        ClientMetrics.install(factory);
         final Connection connection = factory.newConnection();
         final Channel channel = connection.createChannel();
 
@@ -69,8 +74,13 @@ class WorkQueuesFairDispatchRecv {
         System.out.println(" [*] Waiting for messages. To exit press CTRL+C");
 
         // prefetchCount 设置为1：告诉RabbitMQ不要给某个消费者的缓冲区发送超过1条消息，打破Round-robin，处理速度快的消费者将承担更多的任务
+        // 预取值不再写死：自适应预取值从1开始，按处理时间与 RTT 每秒调整一次，处理慢（本例2秒/条）时保持为1，处理快时调大以免等待 RTT
         int prefetchCount = 1;
-        channel.basicQos(prefetchCount);
+        AdaptivePrefetchController prefetch = new AdaptivePrefetchController(channel, prefetchCount, 100, 1000);
+        prefetch.start();
+        // 确认合并器跟随当前预取值：每 预取值 / 2 条合并确认一次；预取值为1时每条消息立即确认（否则 Broker 要等确认才投递下一条），
+        // 处理快、预取值调大后自动合并确认
+        AckCoalescer acks = AckCoalescer.forPrefetch(channel, prefetchCount, 200);
 
         DeliverCallback deliverCallback = (consumerTag, delivery) -> {
             String message = new String(delivery.getBody(), "UTF-8");
@@ -79,12 +89,13 @@ class WorkQueuesFairDispatchRecv {
                 processMessage();
             } finally {
                 System.out.println(" [√] Done!!! cost = " + PROCESS_TIME + "s.");
-                // 手动确认消息
-                channel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
+                // 手动确认消息：先按上次调整后的预取值设置合并条数
+                acks.followPrefetch(prefetch.getPrefetch());
+                acks.ack(delivery.getEnvelope().getDeliveryTag());
             }
         };
         // 设置手动确认消息 autoAck=false
-        channel.basicConsume(QUEUE_NAME, false, deliverCallback, consumerTag -> {
+        channel.basicConsume(QUEUE_NAME, false, MeteredDeliverCallback.wrap(LatencyRecordingDeliverCallback.wrap(QUEUE_NAME, prefetch.wrap(deliverCallback))), consumerTag -> {
         });
     }
 
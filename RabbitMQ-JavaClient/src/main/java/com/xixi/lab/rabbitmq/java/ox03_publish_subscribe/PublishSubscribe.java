@@ -1,6 +1,16 @@
 package com.xixi.lab.rabbitmq.java.ox03_publish_subscribe;
 
 import com.rabbitmq.client.*;
+import com.xixi.lab.rabbitmq.java.common.batch.BatchingPublisher;
+import com.xixi.lab.rabbitmq.java.common.batch.UnbatchingDeliverCallback;
+import com.xixi.lab.rabbitmq.java.common.log.LogEventFormat;
+import com.xixi.lab.rabbitmq.java.common.log.LogEventReader;
+import com.xixi.lab.rabbitmq.java.common.log.LogEventWriter;
+import com.xixi.lab.rabbitmq.java.common.log.LogLevel;
+import com.xixi.lab.rabbitmq.java.common.metrics.ClientMetrics;
+import com.xixi.lab.rabbitmq.java.common.metrics.LatencyRecordingDeliverCallback;
+import com.xixi.lab.rabbitmq.java.common.metrics.MeteredDeliverCallback;
+import com.xixi.lab.rabbitmq.java.common.runtime.ClientRuntime;
 
 import java.util.Scanner;
 
@@ -40,29 +50,36 @@ class EmitLog {
     private static final String EXCHANGE_NAME = "logs_X";
 
     public static void main(String[] argv) throws Exception {
-        ConnectionFactory factory = new ConnectionFactory();
-        factory.setHost("localhost");
-        try (Connection connection = factory.newConnection();
-             Channel channel = connection.createChannel()) {
+        // 从共享的客户端运行时获取当前线程的信道（长连接复用，信道不需要也不应关闭），发送完后关闭运行时，进程才能退出
+        try (ClientRuntime runtime = ClientRuntime.local()) {
+            Channel channel = runtime.channel();
 
             // 声明交换机名称 + 类型(fanout)
-            channel.exchangeDeclare(EXCHANGE_NAME, BuiltinExchangeType.FANOUT);
+            runtime.declareExchange(EXCHANGE_NAME, BuiltinExchangeType.FANOUT);
+
+            // 批量发布：短日志先攒批，每100条或等待200ms打包为一条消息发布，消费者拆包后逐条处理
+            BatchingPublisher batcher = new BatchingPublisher(channel::basicPublish, 100, 64 * 1024, 200);
+
+            // 日志事件编码器：级别 + 时间戳 + 路由键 + 文本
+            LogEventWriter writer = new LogEventWriter();
 
             String message = "Hello World!";
 
             // 生产者发布消息：
             // 参数1 String exchange：设置交换机名，之前为空串（Nameless exchange，默认交换机）。若exchange非空，则交由交换机来决定将消息放到哪些队列
             // 参数2 String routingKey：设置为空串，之前都为队列名，fanout类型交换机会忽略该值。若routingKey非空，则会根据此值，路由到指定队列中
-            channel.basicPublish(EXCHANGE_NAME, "", null, message.getBytes("UTF-8"));
+            batcher.publish(EXCHANGE_NAME, "", LogEventFormat.PROPERTIES, writer.encode(LogLevel.INFO, "", message));
             System.out.println(">>> Sent: " + message);
 
             // 控制台输入消息，回车发布
             Scanner scanner = new Scanner(System.in);
             while (scanner.hasNext()) {
                 String input = scanner.next();
-                channel.basicPublish(EXCHANGE_NAME, "", null, input.getBytes("UTF-8"));
+                batcher.publish(EXCHANGE_NAME, "", LogEventFormat.PROPERTIES, writer.encode(LogLevel.INFO, "", input));
                 System.out.println(">>> Sent: " + input);
             }
+            // 发布剩余的批次
+            batcher.close();
         }
     }
 }
@@ -80,6 +97,7 @@ class ReceiveLogs1 {
     public static void main(String[] argv) throws Exception {
         ConnectionFactory factory = new ConnectionFactory();
         factory.setHost("localhost");
+        ClientMetrics.install(factory);
         Connection connection = factory.newConnection();
         Channel channel = connection.createChannel();
 
@@ -92,11 +110,11 @@ class ReceiveLogs1 {
 
         System.out.printf(" [*] 消费者1 (%s)：Waiting for messages. To exit press CTRL+C\n", queueName);
 
-        DeliverCallback deliverCallback = (consumerTag, delivery) -> {
-            String message = new String(delivery.getBody(), "UTF-8");
-            System.out.println("<<< 消费者1：Received: " + message);
-        };
-        channel.basicConsume(queueName, true, deliverCallback, consumerTag -> { });
+        // 享元读取器：按需读取日志事件的字段，打印时直接输出 UTF-8 字节，不解码整条消息；不是日志事件的消息（如纯文本）按文本打印
+        LogEventReader event = new LogEventReader();
+        DeliverCallback deliverCallback = (consumerTag, delivery) ->
+                event.print(delivery, System.out, "<<< 消费者1：Received: ", "");
+        channel.basicConsume(queueName, true, MeteredDeliverCallback.wrap(LatencyRecordingDeliverCallback.wrap(queueName, UnbatchingDeliverCallback.autoAck(deliverCallback))), consumerTag -> { });
     }
 }
 
@@ -113,6 +131,7 @@ class ReceiveLogs2 {
     public static void main(String[] argv) throws Exception {
         ConnectionFactory factory = new ConnectionFactory();
         factory.setHost("localhost");
+        ClientMetrics.install(factory);
         Connection connection = factory.newConnection();
         Channel channel = connection.createChannel();
 
@@ -125,10 +144,9 @@ class ReceiveLogs2 {
 
         System.out.printf(" [*] 消费者2 (%s)：Waiting for messages. To exit press CTRL+C\n", queueName);
 
-        DeliverCallback deliverCallback = (consumerTag, delivery) -> {
-            String message = new String(delivery.getBody(), "UTF-8");
-            System.out.println("<<< 消费者2：Received: " + message);
-        };
-        channel.basicConsume(queueName, true, deliverCallback, consumerTag -> { });
+        LogEventReader event = new LogEventReader();
+        DeliverCallback deliverCallback = (consumerTag, delivery) ->
+                event.print(delivery, System.out, "<<< 消费者2：Received: ", "");
+        channel.basicConsume(queueName, true, MeteredDeliverCallback.wrap(LatencyRecordingDeliverCallback.wrap(queueName, UnbatchingDeliverCallback.autoAck(deliverCallback))), consumerTag -> { });
     }
 }
@@ -1,8 +1,25 @@
 package com.xixi.lab.rabbitmq.java.ox04_routing;
 
 import com.rabbitmq.client.*;
-
+import com.xixi.lab.rabbitmq.java.common.batch.BatchingPublisher;
+import com.xixi.lab.rabbitmq.java.common.batch.UnbatchingDeliverCallback;
+import com.xixi.lab.rabbitmq.java.common.codec.DecompressingDeliverCallback;
+import com.xixi.lab.rabbitmq.java.common.codec.DictionaryCodec;
+import com.xixi.lab.rabbitmq.java.common.codec.DictionaryTrainer;
+import com.xixi.lab.rabbitmq.java.common.codec.PayloadCompressor;
+import com.xixi.lab.rabbitmq.java.common.log.LogEventFormat;
+import com.xixi.lab.rabbitmq.java.common.log.LogEventReader;
+import com.xixi.lab.rabbitmq.java.common.log.LogEventWriter;
+import com.xixi.lab.rabbitmq.java.common.log.LogLevel;
+import com.xixi.lab.rabbitmq.java.common.metrics.ClientMetrics;
+import com.xixi.lab.rabbitmq.java.common.metrics.LatencyRecordingDeliverCallback;
+import com.xixi.lab.rabbitmq.java.common.metrics.MeteredDeliverCallback;
+import com.xixi.lab.rabbitmq.java.common.routing.RoutingKeyDispatcher;
+import com.xixi.lab.rabbitmq.java.common.runtime.ClientRuntime;
+
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -22,6 +39,20 @@ import java.util.Map;
  *          若 direct 类型的交换机的 绑定键routingKey 都一样的，则类似 fanout 的广播了
  */
 public class Routing {
+
+    /**
+     * 日志消息的压缩：日志行很短（十几个字节）且格式相似，普通压缩几乎压不动，这里用日志样本训练预置字典，
+     * 生产者与消费者用同样的样本训练出同一份字典（不一致时消费者解压报错）；超过16字节即压缩
+     */
+    static PayloadCompressor compressor() {
+        LogEventWriter writer = new LogEventWriter();
+        List<byte[]> samples = new ArrayList<>();
+        for (String level : new String[]{"debug", "info", "warn", "error"}) {
+            samples.add(writer.encode(LogLevel.parse(level), 0L, level, "This a " + level + " msg."));
+            samples.add(writer.encode(LogLevel.parse(level), 0L, level, "[" + level + "] This a " + level + " msg."));
+        }
+        return new PayloadCompressor(new DictionaryCodec(DictionaryTrainer.train(samples, 1024)), 16);
+    }
 }
 
 /**
@@ -34,12 +65,19 @@ class EmitLogDirect {
     private static final String EXCHANGE_NAME = "direct_logs_X";
 
     public static void main(String[] argv) throws Exception {
-        ConnectionFactory factory = new ConnectionFactory();
-        factory.setHost("localhost");
-        try (Connection connection = factory.newConnection();
-             Channel channel = connection.createChannel()) {
+        // 从共享的客户端运行时获取当前线程的信道（长连接复用，信道不需要也不应关闭），发送完后关闭运行时，进程才能退出
+        try (ClientRuntime runtime = ClientRuntime.local()) {
+            Channel channel = runtime.channel();
             // 声明一个交换机：交换机名+direct类型
-            channel.exchangeDeclare(EXCHANGE_NAME, BuiltinExchangeType.DIRECT);
+            runtime.declareExchange(EXCHANGE_NAME, BuiltinExchangeType.DIRECT);
+
+            // 批量发布：发往同一路由键的日志打包为一条消息，再用预置字典压缩，消费者解压、拆包后逐条处理
+            PayloadCompressor compressor = Routing.compressor();
+            BatchingPublisher batcher = new BatchingPublisher((exchange, routingKey, props, body) ->
+                    compressor.publish(channel, exchange, routingKey, props, body), 100, 64 * 1024, 200);
+
+            // 日志事件编码器：级别 + 时间戳 + 路由键 + 文本
+            LogEventWriter writer = new LogEventWriter();
 
             // routingKey 日志级别 -> message
             Map<String, String> bindingKeyMap = new HashMap<>();
@@ -54,9 +92,12 @@ class EmitLogDirect {
                 // 生产者发布消息：
                 // 参数1：exchange：设置交换机名
                 // 参数2：routingKey：即设置 binding key
-                channel.basicPublish(EXCHANGE_NAME, routingKey, null, message.getBytes("UTF-8"));
+                batcher.publish(EXCHANGE_NAME, routingKey, LogEventFormat.PROPERTIES,
+                        writer.encode(LogLevel.parse(routingKey), routingKey, message));
                 System.out.println(">>> Sent '" + routingKey + "':'" + message + "'");
             }
+            // 发布剩余的批次
+            batcher.close();
         }
     }
 }
@@ -68,31 +109,39 @@ class ReceiveLogsDirectInfoWarnError {
 
     private static final String EXCHANGE_NAME = "direct_logs_X";
 
-    private static final String ROUTING_KEY = "info,warn,error";
-
     public static void main(String[] argv) throws Exception {
         ConnectionFactory factory = new ConnectionFactory();
         factory.setHost("localhost");
+        ClientMetrics.install(factory);
         Connection connection = factory.newConnection();
         Channel channel = connection.createChannel();
 
+        // 享元读取器：按需读取日志事件的字段，打印时直接输出 UTF-8 字节，不解码整条消息；不是日志事件的消息（如纯文本）按文本打印
+        LogEventReader event = new LogEventReader();
+        // 每个 routingKey 各自的处理逻辑：info、warn 打印到标准输出，error 打印到标准错误
+        Map<String, DeliverCallback> handlers = new HashMap<>();
+        handlers.put("info", (consumerTag, delivery) ->
+                event.print(delivery, System.out, "<<< Received ", ", printing..."));
+        handlers.put("warn", (consumerTag, delivery) ->
+                event.print(delivery, System.out, "<<< Received ", ", printing with attention..."));
+        handlers.put("error", (consumerTag, delivery) ->
+                event.print(delivery, System.err, "<<< Received ", ", printing to stderr..."));
+        // 按 routingKey 查预先计算的哈希表分发，没有字符串比较链
+        RoutingKeyDispatcher dispatcher = new RoutingKeyDispatcher(handlers, null);
+
         // 声明一个交换机：交换机名+direct类型
         channel.exchangeDeclare(EXCHANGE_NAME, BuiltinExchangeType.DIRECT);
         // 创建临时队列，一旦我们断开了消费者的连接，队列将被自动删除
         String queueName = channel.queueDeclare().getQueue();
         // 设置Bindings关系，一个交换机绑定一个队列，可设置多个routingKey：交换机 --routingKey1,routingKey2,...--> 队列名
-        String[] routingKeyArr = ROUTING_KEY.split(",");
-        for (String routingKey : routingKeyArr) {
+        for (String routingKey : dispatcher.getRoutingKeys()) {
             channel.queueBind(queueName, EXCHANGE_NAME, routingKey);
         }
 
         System.out.println(" [*] Waiting for messages. To exit press CTRL+C");
 
-        DeliverCallback deliverCallback = (consumerTag, delivery) -> {
-            String message = new String(delivery.getBody(), "UTF-8");
-            System.out.println("<<< Received '" + delivery.getEnvelope().getRoutingKey() + "':'" + message + "', printing...");
-        };
-        channel.basicConsume(queueName, true, deliverCallback, consumerTag -> { });
+        channel.basicConsume(queueName, true, MeteredDeliverCallback.wrap(LatencyRecordingDeliverCallback.wrap(queueName,
+                new DecompressingDeliverCallback(Routing.compressor(), UnbatchingDeliverCallback.autoAck(dispatcher)))), consumerTag -> { });
     }
 }
 
@@ -108,6 +157,7 @@ class ReceiveLogsDirectError {
     public static void main(String[] argv) throws Exception {
         ConnectionFactory factory = new ConnectionFactory();
         factory.setHost("localhost");
+        ClientMetrics.install(factory);
         Connection connection = factory.newConnection();
         Channel channel = connection.createChannel();
 
@@ -123,11 +173,11 @@ class ReceiveLogsDirectError {
 
         System.out.println(" [*] Waiting for messages. To exit press CTRL+C");
 
-        DeliverCallback deliverCallback = (consumerTag, delivery) -> {
-            String message = new String(delivery.getBody(), "UTF-8");
-            System.out.println("<<< Received '" + delivery.getEnvelope().getRoutingKey() + "':'" + message + "', saving to disk...");
-        };
-        channel.basicConsume(queueName, true, deliverCallback, consumerTag -> { });
+        LogEventReader event = new LogEventReader();
+        DeliverCallback deliverCallback = (consumerTag, delivery) ->
+                event.print(delivery, System.out, "<<< Received ", ", saving to disk...");
+        channel.basicConsume(queueName, true, MeteredDeliverCallback.wrap(LatencyRecordingDeliverCallback.wrap(queueName,
+                new DecompressingDeliverCallback(Routing.compressor(), UnbatchingDeliverCallback.autoAck(deliverCallback)))), consumerTag -> { });
     }
 }
 
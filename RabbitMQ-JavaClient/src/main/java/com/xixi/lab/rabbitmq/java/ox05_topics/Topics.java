@@ -1,7 +1,22 @@
 package com.xixi.lab.rabbitmq.java.ox05_topics;
 
 import com.rabbitmq.client.*;
-
+import com.xixi.lab.rabbitmq.java.common.batch.BatchingPublisher;
+import com.xixi.lab.rabbitmq.java.common.batch.UnbatchingDeliverCallback;
+import com.xixi.lab.rabbitmq.java.common.codec.DecompressingDeliverCallback;
+import com.xixi.lab.rabbitmq.java.common.codec.DictionaryCodec;
+import com.xixi.lab.rabbitmq.java.common.codec.DictionaryTrainer;
+import com.xixi.lab.rabbitmq.java.common.codec.PayloadCompressor;
+import com.xixi.lab.rabbitmq.java.common.log.LogEventFormat;
+import com.xixi.lab.rabbitmq.java.common.log.LogEventReader;
+import com.xixi.lab.rabbitmq.java.common.log.LogEventWriter;
+import com.xixi.lab.rabbitmq.java.common.log.LogLevel;
+import com.xixi.lab.rabbitmq.java.common.metrics.ClientMetrics;
+import com.xixi.lab.rabbitmq.java.common.metrics.LatencyRecordingDeliverCallback;
+import com.xixi.lab.rabbitmq.java.common.metrics.MeteredDeliverCallback;
+import com.xixi.lab.rabbitmq.java.common.runtime.ClientRuntime;
+
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -29,6 +44,24 @@ import java.util.Map;
  * 2）如果队列绑定键当中没有#和*出现，那么该队列绑定类型就类似 direct
  */
 public class Topics {
+
+    /**
+     * 日志消息的压缩：日志行很短且格式相似（<speed>.<colour>.<species>），这里用日志样本训练预置字典，
+     * 生产者与消费者用同样的样本训练出同一份字典；超过16字节即压缩
+     */
+    static PayloadCompressor compressor() {
+        LogEventWriter writer = new LogEventWriter();
+        List<byte[]> samples = new ArrayList<>();
+        for (String speed : new String[]{"quick", "lazy"}) {
+            for (String colour : new String[]{"orange", "brown", "pink"}) {
+                for (String species : new String[]{"rabbit", "elephant", "fox"}) {
+                    String routingKey = speed + "." + colour + "." + species;
+                    samples.add(writer.encode(LogLevel.INFO, 0L, routingKey, "This is a " + speed + " and " + colour + " " + species + "."));
+                }
+            }
+        }
+        return new PayloadCompressor(new DictionaryCodec(DictionaryTrainer.train(samples, 1024)), 16);
+    }
 }
 
 /**
@@ -39,12 +72,19 @@ class EmitLogTopic {
     private static final String EXCHANGE_NAME = "topic_logs_X";
 
     public static void main(String[] argv) throws Exception {
-        ConnectionFactory factory = new ConnectionFactory();
-        factory.setHost("localhost");
-        try (Connection connection = factory.newConnection();
-             Channel channel = connection.createChannel()) {
+        // 从共享的客户端运行时获取当前线程的信道（长连接复用，信道不需要也不应关闭），发送完后关闭运行时，进程才能退出
+        try (ClientRuntime runtime = ClientRuntime.local()) {
+            Channel channel = runtime.channel();
             // 声明一个交换机：交换机名+topic类型
-            channel.exchangeDeclare(EXCHANGE_NAME, BuiltinExchangeType.TOPIC);
+            runtime.declareExchange(EXCHANGE_NAME, BuiltinExchangeType.TOPIC);
+
+            // 批量发布：发往同一路由键的日志打包为一条消息，再用预置字典压缩，消费者解压、拆包后逐条处理
+            PayloadCompressor compressor = Topics.compressor();
+            BatchingPublisher batcher = new BatchingPublisher((exchange, routingKey, props, body) ->
+                    compressor.publish(channel, exchange, routingKey, props, body), 100, 64 * 1024, 200);
+
+            // 日志事件编码器：级别 + 时间戳 + 路由键 + 文本
+            LogEventWriter writer = new LogEventWriter();
 
             // routingKey（pattern） -> message
             Map<String, String> bindingKeyMap = new HashMap<>();
@@ -60,9 +100,12 @@ class EmitLogTopic {
                 // 生产者发布消息：
                 // 参数1 String exchange：设置交换机名
                 // 参数2 String routingKey：即设置 binding key（pattern）
-                channel.basicPublish(EXCHANGE_NAME, routingKey, null, message.getBytes("UTF-8"));
+                batcher.publish(EXCHANGE_NAME, routingKey, LogEventFormat.PROPERTIES,
+                        writer.encode(LogLevel.INFO, routingKey, message));
                 System.out.println(">>> Sent '" + routingKey + "':'" + message + "'");
             }
+            // 发布剩余的批次
+            batcher.close();
         }
     }
 }
@@ -80,6 +123,7 @@ class ReceiveLogsTopic1 {
     public static void main(String[] argv) throws Exception {
         ConnectionFactory factory = new ConnectionFactory();
         factory.setHost("localhost");
+        ClientMetrics.install(factory);
         Connection connection = factory.newConnection();
         Channel channel = connection.createChannel();
 
@@ -92,12 +136,12 @@ class ReceiveLogsTopic1 {
 
         System.out.println(" [*.orange.*] Waiting for messages. To exit press CTRL+C");
 
-        DeliverCallback deliverCallback = (consumerTag, delivery) -> {
-            String message = new String(delivery.getBody(), "UTF-8");
-            System.out.println("<<< [*.orange.*] Received '" +
-                    delivery.getEnvelope().getRoutingKey() + "':'" + message + "'");
-        };
-        channel.basicConsume(queueName, true, deliverCallback, consumerTag -> { });
+        // 享元读取器：按需读取日志事件的字段，打印时直接输出 UTF-8 字节，不解码整条消息；不是日志事件的消息（如纯文本）按文本打印
+        LogEventReader event = new LogEventReader();
+        DeliverCallback deliverCallback = (consumerTag, delivery) ->
+                event.print(delivery, System.out, "<<< [*.orange.*] Received ", "");
+        channel.basicConsume(queueName, true, MeteredDeliverCallback.wrap(LatencyRecordingDeliverCallback.wrap(queueName,
+                new DecompressingDeliverCallback(Topics.compressor(), UnbatchingDeliverCallback.autoAck(deliverCallback)))), consumerTag -> { });
     }
 }
 
@@ -115,6 +159,7 @@ class ReceiveLogsTopic2 {
     public static void main(String[] argv) throws Exception {
         ConnectionFactory factory = new ConnectionFactory();
         factory.setHost("localhost");
+        ClientMetrics.install(factory);
         Connection connection = factory.newConnection();
         Channel channel = connection.createChannel();
 
@@ -129,11 +174,12 @@ class ReceiveLogsTopic2 {
 
         System.out.printf("[%s] Waiting for messages. To exit press CTRL+C\n", String.join(",", ROUTING_KEYS));
 
-        DeliverCallback deliverCallback = (consumerTag, delivery) -> {
-            String message = new String(delivery.getBody(), "UTF-8");
-            System.out.printf("<<< [%s] Received: routingKey=%s, message=%s\n", String.join(",", ROUTING_KEYS), delivery.getEnvelope().getRoutingKey(), message);
-        };
-        channel.basicConsume(queueName, true, deliverCallback, consumerTag -> {
+        String prefix = "<<< [" + String.join(",", ROUTING_KEYS) + "] Received: ";
+        LogEventReader event = new LogEventReader();
+        DeliverCallback deliverCallback = (consumerTag, delivery) ->
+                event.print(delivery, System.out, prefix, "");
+        channel.basicConsume(queueName, true, MeteredDeliverCallback.wrap(LatencyRecordingDeliverCallback.wrap(queueName,
+                new DecompressingDeliverCallback(Topics.compressor(), UnbatchingDeliverCallback.autoAck(deliverCallback)))), consumerTag -> {
         });
     }
 }
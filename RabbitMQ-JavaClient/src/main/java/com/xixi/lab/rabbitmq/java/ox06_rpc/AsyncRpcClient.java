@@ -0,0 +1,217 @@
+package com.xixi.lab.rabbitmq.java.ox06_rpc;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.ReturnListener;
+import com.rabbitmq.client.ShutdownListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 可并发调用的 RPC 客户端：一个长期存在的回复消费者 + 并发的 correlationId 映射
+ *
+ * 教程中的 RPCClient 每次调用都要 声明临时队列、basicConsume、basicCancel（3次与 Broker 的往返），
+ * 且一次只能进行一个调用。这里：
+ * （1）使用 Direct Reply-to（伪队列 amq.rabbitmq.reply-to）：在信道上只订阅一次，回复由 Broker 直接投递给本信道，无需创建队列；
+ * （2）correlationId 为单调递增的计数（AtomicLong），代替 UUID.randomUUID()（其内部的 SecureRandom 在多线程下存在竞争）；
+ * （3）未完成的调用保存在 ConcurrentHashMap（correlationId -> Future）中，callAsync() 发布请求后立即返回，
+ *      回复到达时在消费者线程中完成对应的 Future，因此同一个连接上可同时有成千上万个调用；
+ * （4）请求以 mandatory 发布，没有队列可路由时（如服务端未启动）Broker 退回消息，对应的 Future 立即失败；
+ *      超时未回复或信道关闭的调用也以异常完成，不会在映射中无限积累。
+ *
+ * 同一信道 Channel 不是线程安全的，这里发布操作串行化，可在多个线程中共用同一个客户端。
+ * 注意：Future 在 Connection 的消费者线程中完成，其后续回调中不应执行阻塞操作（如同步的 call()）。
+ */
+public class AsyncRpcClient implements AutoCloseable {
+
+    /**
+     * Direct Reply-to 的伪队列名
+     */
+    public static final String DIRECT_REPLY_TO = "amq.rabbitmq.reply-to";
+
+    // 超时检测的共享线程
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "rpc-client-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Channel channel;
+
+    private final String exchange;
+
+    private final String routingKey;
+
+    private final long timeoutMillis;
+
+    private final AtomicLong nextCorrelationId = new AtomicLong();
+
+    // 未完成的调用：correlationId -> 调用
+    private final Map<String, PendingCall> pendingCalls = new ConcurrentHashMap<>();
+
+    private final Object publishLock = new Object();
+
+    private final ReturnListener returnListener;
+
+    private final ShutdownListener shutdownListener;
+
+    private final String consumerTag;
+
+    /**
+     * 发往默认交换机的指定队列，超时时间 30 秒
+     */
+    public AsyncRpcClient(Channel channel, String requestQueue) throws IOException {
+        this(channel, "", requestQueue, 30_000);
+    }
+
+    /**
+     * @param channel       专用的信道：回复消费者订阅在该信道上，请求也必须从该信道发布
+     * @param exchange      请求发往的交换机
+     * @param routingKey    请求的路由键
+     * @param timeoutMillis 调用超时时间，<= 0 表示不超时
+     */
+    public AsyncRpcClient(Channel channel, String exchange, String routingKey, long timeoutMillis) throws IOException {
+        this.channel = channel;
+        this.exchange = exchange;
+        this.routingKey = routingKey;
+        this.timeoutMillis = timeoutMillis;
+        // 被退回（无法路由）的请求：立即失败
+        this.returnListener = (replyCode, replyText, returnedExchange, returnedRoutingKey, properties, body) ->
+                fail(properties.getCorrelationId(), new IOException("request returned by broker: " + replyCode + " " + replyText));
+        channel.addReturnListener(returnListener);
+        // 信道关闭后不会再收到回复，所有未完成的调用以异常完成
+        this.shutdownListener = cause -> failAll(cause);
+        channel.addShutdownListener(shutdownListener);
+        // 使用 Direct Reply-to 时必须以自动确认模式订阅，且要先于发布请求
+        this.consumerTag = channel.basicConsume(DIRECT_REPLY_TO, true,
+                (tag, delivery) -> complete(delivery),
+                tag -> failAll(new IOException("reply consumer cancelled by broker")));
+    }
+
+    /**
+     * 异步调用：发布请求后立即返回，Future 在收到回复时以回复消息体完成
+     */
+    public CompletableFuture<byte[]> callAsync(byte[] request) {
+        return callAsync(null, request);
+    }
+
+    /**
+     * 异步调用，可指定请求的其他属性（correlationId、replyTo 由客户端设置）
+     */
+    public CompletableFuture<byte[]> callAsync(AMQP.BasicProperties props, byte[] request) {
+        String correlationId = Long.toString(nextCorrelationId.incrementAndGet());
+        AMQP.BasicProperties.Builder builder = props == null ? new AMQP.BasicProperties.Builder() : props.builder();
+        AMQP.BasicProperties requestProps = builder
+                .correlationId(correlationId)
+                .replyTo(DIRECT_REPLY_TO)
+                .build();
+        PendingCall call = new PendingCall();
+        pendingCalls.put(correlationId, call);
+        if (timeoutMillis > 0) {
+            call.timeout = TIMER.schedule(() -> fail(correlationId,
+                    new TimeoutException("no reply within " + timeoutMillis + " ms, correlationId=" + correlationId)),
+                    timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        try {
+            synchronized (publishLock) {
+                channel.basicPublish(exchange, routingKey, true, requestProps, request);
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(correlationId, e);
+        }
+        return call.future;
+    }
+
+    /**
+     * 同步调用：阻塞直到收到回复
+     */
+    public byte[] call(byte[] request) throws IOException, InterruptedException {
+        try {
+            return callAsync(request).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * 未完成的调用数
+     */
+    public int getPendingCount() {
+        return pendingCalls.size();
+    }
+
+    private void complete(Delivery delivery) {
+        String correlationId = delivery.getProperties().getCorrelationId();
+        PendingCall call = correlationId == null ? null : pendingCalls.remove(correlationId);
+        // 已超时或未知的回复直接丢弃
+        if (call != null) {
+            call.cancelTimeout();
+            call.future.complete(delivery.getBody());
+        }
+    }
+
+    private void fail(String correlationId, Throwable cause) {
+        PendingCall call = correlationId == null ? null : pendingCalls.remove(correlationId);
+        if (call != null) {
+            call.cancelTimeout();
+            call.future.completeExceptionally(cause);
+        }
+    }
+
+    private void failAll(Throwable cause) {
+        List<String> correlationIds = new ArrayList<>(pendingCalls.keySet());
+        for (String correlationId : correlationIds) {
+            fail(correlationId, cause);
+        }
+    }
+
+    /**
+     * 取消回复消费者，未完成的调用以异常完成（不关闭信道）
+     */
+    @Override
+    public void close() throws IOException {
+        channel.removeReturnListener(returnListener);
+        channel.removeShutdownListener(shutdownListener);
+        try {
+            if (channel.isOpen()) {
+                channel.basicCancel(consumerTag);
+            }
+        } catch (AlreadyClosedException e) {
+            // 信道已关闭，消费者随之失效
+        } finally {
+            failAll(new IOException("rpc client closed"));
+        }
+    }
+
+    private static class PendingCall {
+
+        private final CompletableFuture<byte[]> future = new CompletableFuture<>();
+
+        private volatile ScheduledFuture<?> timeout;
+
+        void cancelTimeout() {
+            ScheduledFuture<?> t = timeout;
+            if (t != null) {
+                t.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.xixi.lab.rabbitmq.java.ox06_rpc;
+
+import com.xixi.lab.rabbitmq.java.common.batch.BatchEnvelope;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量 RPC 客户端：在一个很短的等待窗口（linger）内收集多个调用，打包为一个请求发出，一次往返返回所有结果
+ *
+ * 请求与回复都是 {@link BatchEnvelope}：请求的第 i 个条目为第 i 个调用的参数，回复的第 i 个条目为其结果，
+ * 客户端收到回复后拆包，依次完成各个调用的 Future。服务端需识别批量请求（见 RPCServer），整批计算，
+ * 并可在相关参数之间共享计算（如 fib(30) 与 fib(31) 只需计算一次数列）。
+ *
+ * 满足以下任一条件时发出当前批次：
+ * （1）调用数达到 maxCalls；
+ * （2）批次中的第一个调用已等待 lingerMillis。
+ * 请求频率很高时，消息数与每次调用在 Broker 上的开销约降低为原来的 1/批次大小；
+ * 请求稀疏时，每个调用最多多等待 lingerMillis。
+ */
+public class BatchingRpcClient implements AutoCloseable {
+
+    private final AsyncRpcClient rpcClient;
+
+    private final int maxCalls;
+
+    private final long lingerMillis;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final BatchEnvelope.Writer writer = new BatchEnvelope.Writer(256);
+
+    private List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+
+    // 批次中的第一个请求：批次只有一个调用时按普通请求发出
+    private byte[] firstRequest;
+
+    // 每开始/发出一个批次加1，用于判断等待到期的是否还是同一批次
+    private long generation;
+
+    private boolean closed;
+
+    /**
+     * @param rpcClient    实际发出请求的客户端
+     * @param maxCalls     每批最多调用数
+     * @param lingerMillis 批次最长等待时间（毫秒）
+     */
+    public BatchingRpcClient(AsyncRpcClient rpcClient, int maxCalls, long lingerMillis) {
+        if (maxCalls < 1 || lingerMillis < 1) {
+            throw new IllegalArgumentException("maxCalls and lingerMillis must be positive");
+        }
+        this.rpcClient = rpcClient;
+        this.maxCalls = maxCalls;
+        this.lingerMillis = lingerMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "batching-rpc-linger");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 加入当前批次，返回该调用的 Future
+     */
+    public synchronized CompletableFuture<byte[]> callAsync(byte[] request) {
+        if (closed) {
+            throw new IllegalStateException("batching rpc client is closed");
+        }
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        if (futures.isEmpty()) {
+            firstRequest = request;
+            long scheduled = ++generation;
+            scheduler.schedule(() -> linger(scheduled), lingerMillis, TimeUnit.MILLISECONDS);
+        }
+        writer.add(request);
+        futures.add(future);
+        if (futures.size() >= maxCalls) {
+            send();
+        }
+        return future;
+    }
+
+    /**
+     * 立即发出未满的批次
+     */
+    public synchronized void flush() {
+        if (!futures.isEmpty()) {
+            send();
+        }
+    }
+
+    private synchronized void linger(long scheduled) {
+        // 该批次在等待期间已因调用数上限被发出
+        if (generation == scheduled && !futures.isEmpty()) {
+            send();
+        }
+    }
+
+    private void send() {
+        List<CompletableFuture<byte[]>> batch = futures;
+        // 单个调用没有打包的必要，按普通请求发出
+        CompletableFuture<byte[]> reply = batch.size() == 1
+                ? rpcClient.callAsync(firstRequest)
+                : rpcClient.callAsync(BatchEnvelope.envelopeProperties(null, batch.size()), writer.toByteArray());
+        futures = new ArrayList<>(batch.size());
+        firstRequest = null;
+        writer.reset();
+        generation++;
+        reply.whenComplete((response, e) -> {
+            if (e != null) {
+                batch.forEach(future -> future.completeExceptionally(e));
+            } else if (batch.size() == 1) {
+                batch.get(0).complete(response);
+            } else {
+                complete(batch, response);
+            }
+        });
+    }
+
+    private static void complete(List<CompletableFuture<byte[]>> batch, byte[] response) {
+        List<byte[]> results;
+        try {
+            results = BatchEnvelope.split(response);
+        } catch (IllegalArgumentException e) {
+            batch.forEach(future -> future.completeExceptionally(new IOException("malformed batch reply", e)));
+            return;
+        }
+        if (results.size() != batch.size()) {
+            IOException e = new IOException("batch reply has " + results.size() + " results for " + batch.size() + " calls");
+            batch.forEach(future -> future.completeExceptionally(e));
+            return;
+        }
+        for (int i = 0; i < results.size(); i++) {
+            batch.get(i).complete(results.get(i));
+        }
+    }
+
+    /**
+     * 发出剩余批次并停止后台线程（不关闭 rpcClient）
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+        scheduler.shutdownNow();
+    }
+}
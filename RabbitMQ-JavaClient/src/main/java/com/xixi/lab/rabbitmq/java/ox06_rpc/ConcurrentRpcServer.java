@@ -0,0 +1,365 @@
+package com.xixi.lab.rabbitmq.java.ox06_rpc;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.ShutdownSignalException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多线程 RPC 服务端：一个消费信道 + 工作线程池 + 一个回复/确认线程
+ *
+ * 教程中的 RPCServer 使用 basicQos(1)、在一个 DeliverCallback 中串行处理，一个慢请求（如 fib(40)）会阻塞其后的所有请求。这里：
+ * （1）预取值为 工作线程数 * 4，消费回调只把请求交给工作线程池，多个请求并行处理，吞吐量随 CPU 核数增长；
+ * （2）工作线程处理完后，把 回复 + deliveryTag 交给唯一的回复/确认线程，由它在信道上发布回复与确认，信道的写操作不会并发；
+ * （3）回复/确认线程每次取出所有已完成的请求，先逐个发布回复，再以 multiple=true 一次确认连续完成的 deliveryTag；
+ *      被慢请求隔开（未连续）的 deliveryTag 暂不确认，积压超过预取值的一半时改为逐个确认，避免慢请求占满预取窗口使服务端停顿；
+ * （4）可选的 {@link ReplyLookup}（如响应缓存）在消费线程上先行查找，命中的请求直接交给回复/确认线程，不必排在进行中的慢请求之后；
+ * （5）close()：先取消订阅并等待 cancel-ok（之前已投递的请求都已交给工作线程池），再等待进行中的请求处理完、回复与确认发布完，
+ *      最后关闭信道，而不是无限等待；等待超时后仍到达的请求不再处理，由回复/确认线程 nack 并重新入队。
+ *
+ * 注意：deliveryTag 在信道内连续递增，这里不处理信道的自动恢复（恢复后 deliveryTag 重新计数），信道关闭后需重新创建服务端。
+ */
+public class ConcurrentRpcServer implements AutoCloseable {
+
+    /**
+     * 请求处理方法
+     */
+    @FunctionalInterface
+    public interface RequestHandler {
+
+        /**
+         * 处理请求，返回回复的消息体，返回 null 表示不回复（请求仍会被确认）
+         *
+         * @param request    请求
+         * @param replyProps 回复的属性，correlationId 已设置，可设置其他属性（如 content-type）
+         */
+        byte[] handle(Delivery request, AMQP.BasicProperties.Builder replyProps) throws Exception;
+    }
+
+    /**
+     * 在消费线程上查找现成的回复（如响应缓存），应当很快返回
+     */
+    @FunctionalInterface
+    public interface ReplyLookup {
+
+        /**
+         * @param request    请求
+         * @param replyProps 回复的属性，correlationId 已设置
+         * @return 回复的消息体，未命中返回 null（请求交给工作线程池处理）
+         */
+        byte[] lookup(Delivery request, AMQP.BasicProperties.Builder replyProps);
+    }
+
+    private final Channel channel;
+
+    private final String queue;
+
+    private final RequestHandler handler;
+
+    private final ReplyLookup lookup;
+
+    private final int prefetch;
+
+    private final ExecutorService workers;
+
+    private final Thread replier;
+
+    // 已处理完、待发布回复与确认的请求
+    private final LinkedBlockingQueue<Completion> completions = new LinkedBlockingQueue<>();
+
+    // 以下字段只由回复/确认线程访问
+    // 已完成但未确认的 deliveryTag（前面还有未完成的请求）
+    private final TreeSet<Long> completed = new TreeSet<>();
+
+    // 已逐个确认的 deliveryTag，multiple 确认推进到此处时跳过
+    private final Set<Long> ackedSeparately = new HashSet<>();
+
+    // 最小的未确认 deliveryTag
+    private long nextToAck = 1;
+
+    private volatile String consumerTag;
+
+    private volatile boolean closing;
+
+    // 收到 cancel-ok（或信道关闭）时计数
+    private final CountDownLatch cancelled = new CountDownLatch(1);
+
+    /**
+     * @param connection 连接，服务端在其上创建自己的信道
+     * @param queue      请求队列
+     * @param workers    工作线程数
+     * @param handler    请求处理方法，会被多个工作线程同时调用
+     */
+    public ConcurrentRpcServer(Connection connection, String queue, int workers, RequestHandler handler) throws IOException {
+        this(connection, queue, workers, null, handler);
+    }
+
+    /**
+     * @param connection 连接，服务端在其上创建自己的信道
+     * @param queue      请求队列
+     * @param workers    工作线程数
+     * @param lookup     在消费线程上先行查找回复，null 表示不查找
+     * @param handler    请求处理方法，会被多个工作线程同时调用
+     */
+    public ConcurrentRpcServer(Connection connection, String queue, int workers, ReplyLookup lookup, RequestHandler handler) throws IOException {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be positive");
+        }
+        this.channel = connection.createChannel();
+        this.queue = queue;
+        this.handler = handler;
+        this.lookup = lookup;
+        this.prefetch = workers * 4;
+        this.workers = Executors.newFixedThreadPool(workers, namedThreads("rpc-worker-"));
+        this.replier = new Thread(this::replyLoop, "rpc-replier");
+    }
+
+    /**
+     * 开始消费请求
+     */
+    public synchronized void start() throws IOException {
+        if (consumerTag != null) {
+            throw new IllegalStateException("rpc server is already started");
+        }
+        replier.start();
+        channel.basicQos(prefetch);
+        consumerTag = channel.basicConsume(queue, false, new DefaultConsumer(channel) {
+            @Override
+            public void handleDelivery(String tag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+                Delivery delivery = new Delivery(envelope, properties, body);
+                if (lookup != null && replyFromLookup(delivery)) {
+                    return;
+                }
+                try {
+                    workers.execute(() -> process(delivery));
+                } catch (RejectedExecutionException e) {
+                    // 工作线程池已关闭（等待 cancel-ok 超时）：不处理，交给回复/确认线程重新入队
+                    completions.add(Completion.requeue(envelope.getDeliveryTag()));
+                }
+            }
+
+            @Override
+            public void handleCancelOk(String tag) {
+                cancelled.countDown();
+            }
+
+            @Override
+            public void handleCancel(String tag) {
+                System.out.println(" [S] Consumer cancelled by broker: " + tag);
+                cancelled.countDown();
+            }
+
+            @Override
+            public void handleShutdownSignal(String tag, ShutdownSignalException sig) {
+                cancelled.countDown();
+            }
+        });
+    }
+
+    /**
+     * 查找成功时交给回复/确认线程，返回 true；未命中或查找失败返回 false
+     */
+    private boolean replyFromLookup(Delivery delivery) {
+        AMQP.BasicProperties.Builder replyProps = replyProps(delivery);
+        byte[] reply;
+        try {
+            reply = lookup.lookup(delivery, replyProps);
+        } catch (RuntimeException e) {
+            System.out.println("[S] 查找回复失败: " + e.toString());
+            return false;
+        }
+        if (reply == null) {
+            return false;
+        }
+        completions.add(new Completion(delivery.getEnvelope().getDeliveryTag(),
+                delivery.getProperties().getReplyTo(), replyProps.build(), reply));
+        return true;
+    }
+
+    private void process(Delivery delivery) {
+        AMQP.BasicProperties requestProps = delivery.getProperties();
+        AMQP.BasicProperties.Builder replyProps = replyProps(delivery);
+        byte[] reply;
+        try {
+            reply = handler.handle(delivery, replyProps);
+        } catch (Exception e) {
+            // 与教程一致：处理失败时仍回复（空消息体），避免客户端一直等待
+            System.out.println("[S] 异常: " + e.toString());
+            reply = new byte[0];
+        }
+        String replyTo = requestProps.getReplyTo();
+        completions.add(new Completion(delivery.getEnvelope().getDeliveryTag(),
+                reply == null ? null : replyTo, replyProps.build(), reply));
+    }
+
+    private void replyLoop() {
+        List<Completion> batch = new ArrayList<>();
+        while (true) {
+            try {
+                Completion first = completions.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    // 关闭时：工作线程已全部结束且没有待处理的请求，退出
+                    if (closing && workers.isTerminated() && completions.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                completions.drainTo(batch);
+                publish(batch);
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                // 信道已关闭等：回复与确认都无法再发布，未确认的请求会由 Broker 重新投递
+                System.out.println("[S] 回复/确认失败: " + e.toString());
+                if (!channel.isOpen()) {
+                    return;
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void publish(List<Completion> batch) throws IOException {
+        for (int i = 0; i < batch.size(); i++) {
+            Completion completion = batch.get(i);
+            try {
+                if (completion.requeue) {
+                    channel.basicNack(completion.deliveryTag, false, true);
+                    ackedSeparately.add(completion.deliveryTag);
+                    continue;
+                }
+                if (completion.replyTo != null) {
+                    channel.basicPublish("", completion.replyTo, completion.props, completion.body);
+                }
+            } catch (IOException | RuntimeException e) {
+                // 其后尚未发布的请求放回队列，下次再发布，否则它们的 deliveryTag 不会进入 completed，连续确认会停在这里；
+                // 回复发布失败的请求仍确认（与处理失败一样不再重复处理），nack 失败的请求放回队列重试
+                completions.addAll(batch.subList(completion.requeue ? i : i + 1, batch.size()));
+                if (!completion.requeue) {
+                    completed.add(completion.deliveryTag);
+                }
+                throw e;
+            }
+            completed.add(completion.deliveryTag);
+        }
+        // 确认连续完成的部分：一次 multiple 确认
+        long target = 0;
+        while (true) {
+            if (completed.remove(nextToAck)) {
+                target = nextToAck++;
+            } else if (ackedSeparately.remove(nextToAck)) {
+                nextToAck++;
+            } else {
+                break;
+            }
+        }
+        if (target > 0) {
+            channel.basicAck(target, true);
+        }
+        // 被慢请求隔开的部分积压过多：逐个确认，释放预取窗口
+        if (completed.size() >= prefetch / 2) {
+            for (Long deliveryTag : completed) {
+                channel.basicAck(deliveryTag, false);
+                ackedSeparately.add(deliveryTag);
+            }
+            completed.clear();
+        }
+    }
+
+    /**
+     * 取消订阅，等待进行中的请求处理完并发布回复与确认后关闭信道
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closing) {
+            return;
+        }
+        closing = true;
+        try {
+            if (consumerTag != null && channel.isOpen()) {
+                channel.basicCancel(consumerTag);
+                // cancel-ok 之前已投递的请求仍会回调 handleDelivery，等它们都交给工作线程池后再关闭线程池
+                cancelled.await(30, TimeUnit.SECONDS);
+            }
+            workers.shutdown();
+            if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+            if (replier.isAlive()) {
+                replier.join(TimeUnit.SECONDS.toMillis(30));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            workers.shutdownNow();
+            replier.interrupt();
+            if (channel.isOpen()) {
+                try {
+                    channel.close();
+                } catch (TimeoutException e) {
+                    channel.abort();
+                }
+            }
+        }
+    }
+
+    private static AMQP.BasicProperties.Builder replyProps(Delivery delivery) {
+        return new AMQP.BasicProperties.Builder().correlationId(delivery.getProperties().getCorrelationId());
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger index = new AtomicInteger();
+        return r -> new Thread(r, prefix + index.incrementAndGet());
+    }
+
+    private static class Completion {
+
+        private final long deliveryTag;
+
+        private final String replyTo;
+
+        private final AMQP.BasicProperties props;
+
+        private final byte[] body;
+
+        // 未处理，需 nack 并重新入队
+        private final boolean requeue;
+
+        Completion(long deliveryTag, String replyTo, AMQP.BasicProperties props, byte[] body) {
+            this(deliveryTag, replyTo, props, body, false);
+        }
+
+        private Completion(long deliveryTag, String replyTo, AMQP.BasicProperties props, byte[] body, boolean requeue) {
+            this.deliveryTag = deliveryTag;
+            this.replyTo = replyTo;
+            this.props = props;
+            this.body = body;
+            this.requeue = requeue;
+        }
+
+        static Completion requeue(long deliveryTag) {
+            return new Completion(deliveryTag, null, null, null, true);
+        }
+    }
+}
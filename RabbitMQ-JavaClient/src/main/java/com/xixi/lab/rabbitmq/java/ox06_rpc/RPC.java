@@ -1,11 +1,17 @@
 package com.xixi.lab.rabbitmq.java.ox06_rpc;
 
 import com.rabbitmq.client.*;
+import com.xixi.lab.rabbitmq.java.common.batch.BatchEnvelope;
+import com.xixi.lab.rabbitmq.java.common.cache.ResponseCache;
+import com.xixi.lab.rabbitmq.java.common.metrics.ClientMetrics;
 
 import java.io.IOException;
-import java.util.UUID;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeoutException;
 
 /**
@@ -18,6 +24,7 @@ import java.util.concurrent.TimeoutException;
      * 这里使用RabbitMQ来实现RPC：客户端作为生产者通过队列rpc_queue发送请求计算的请求 --> 服务端作为队列rpc_queue的消费者，一旦接收到消息，就开始计算，
      *      当计算完成后，通过客户端创建并设置的临时队列（replyTo），此时服务端作为临时队列（从replyTo获取临时队列名）的生产者，将计算结果发布出去
      *      --> 客户端作为临时队列的消费者，监听服务端返回的计算结果，拿到计算结果后，即完成一整个RPC过程
+     *      （客户端现使用 Direct Reply-to 代替每次创建的临时队列，见 {@link AsyncRpcClient}）
  *
  * 可看到，客户端和服务端 即为生产者，又为消费者
  */
@@ -27,38 +34,60 @@ public class RPC {
 /**
  * 客户端：
  * 作为生产者，发布计算请求到队列（rpc_queue）中
- * 作为消费者，等待服务端计算完成并放入队列（临时队列）后，会接收返回的计算结果（创建临时队列，并设置到replyTo传递给服务端）
+ * 作为消费者，等待服务端计算完成并返回计算结果
+ *
+ * 早期的实现每次调用都创建临时队列并重新订阅、取消订阅，且一次只能进行一个调用；
+ * 现在委托给 {@link AsyncRpcClient}：通过 Direct Reply-to 只订阅一次，多个调用可同时进行
  */
 class RPCClient implements AutoCloseable {
 
     private Connection connection;
-    private Channel channel;
+    private AsyncRpcClient rpcClient;
+    private BatchingRpcClient batchingClient;
     private String QUEUE_NAME = "rpc_queue";
 
-    // 初始化好 连接Connection 和 信道Channel
+    // 初始化好 连接Connection、信道Channel 和 回复消费者
     public RPCClient() throws IOException, TimeoutException {
         ConnectionFactory factory = new ConnectionFactory();
         factory.setHost("localhost");
+        ClientMetrics.install(factory);
 
         connection = factory.newConnection();
-        channel = connection.createChannel();
+        rpcClient = new AsyncRpcClient(connection.createChannel(), QUEUE_NAME);
+        // 批量调用：5ms 内的调用（最多64个）合并为一个请求
+        batchingClient = new BatchingRpcClient(rpcClient, 64, 5);
     }
 
     public static void main(String[] argv) {
         try (RPCClient rpcClient = new RPCClient()) {
-            for (int i = 0; i < 32; i++) {
+            // 同步调用：逐个等待结果
+            for (int i = 0; i < 8; i++) {
                 String num = Integer.toString(i);
                 System.out.println(">>> [C] Requesting fib(" + num + ")......");
                 String response = rpcClient.call(num);
                 System.out.printf("<<< [C] Got: num=%s, response=%s\n\n", num, response);
             }
-        } catch (IOException | TimeoutException | InterruptedException e) {
+            // 异步调用：先全部发出，再等待结果
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int i = 8; i < 20; i++) {
+                String num = Integer.toString(i);
+                futures.add(rpcClient.callAsync(num)
+                        .whenComplete((response, e) -> System.out.printf("<<< [C] Got: num=%s, response=%s\n", num, e == null ? response : e)));
+            }
+            // 批量调用：这些调用在同一个等待窗口内，合并为一个请求发出，服务端整批计算后一次返回
+            for (int i = 20; i < 32; i++) {
+                String num = Integer.toString(i);
+                futures.add(rpcClient.callBatchedAsync(num)
+                        .whenComplete((response, e) -> System.out.printf("<<< [C] Got (batched): num=%s, response=%s\n", num, e == null ? response : e)));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (IOException | TimeoutException | InterruptedException | CompletionException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * 客户端发起计算请求，让远程服务端来处理计算该请求
+     * 客户端发起计算请求，让远程服务端来处理计算该请求，阻塞直到收到结果
      *
      * @param numMsg
      * @return
@@ -66,49 +95,32 @@ class RPCClient implements AutoCloseable {
      * @throws InterruptedException
      */
     public String call(String numMsg) throws IOException, InterruptedException {
-        // 随机生成一个 correlationId，关联请求与返回：发布给服务端时携带该值，服务端处理好再次发布返回计算结果后，根据该值来确定是哪个请求
-        final String corrId = UUID.randomUUID().toString();
-
-        // 创建临时队列，一旦我们断开了消费者的连接，队列将被自动删除（auto-delete=true、exclusive=true）
-        String replyQueueName = channel.queueDeclare().getQueue();
-        // 构建基本属性
-        AMQP.BasicProperties props = new AMQP.BasicProperties
-                .Builder()
-                .correlationId(corrId) // correlationId
-                .replyTo(replyQueueName) // replyTo: a callback queue
-                .build();
-
-        System.out.printf(">>> [C] Publish: corrId=%s, replyQueueName=%s\n", corrId, replyQueueName);
-        // >>>>>>1.发布：发布计算请求到队列 rpc_queue 中，让远程的服务端通过该队列取到数据并进行计算处理
-        channel.basicPublish("", QUEUE_NAME, props, numMsg.getBytes("UTF-8"));
-
-        // 构建一个容器为1的阻塞队列
-        final BlockingQueue<String> responseQueue = new ArrayBlockingQueue<>(1);
-
-        // <<<<<<接收：当服务端计算完成后，会重新将结果发布到队列中，这里消费接收服务端的计算结果
-        String ctag = channel.basicConsume(replyQueueName, true,
-                // DeliverCallback
-                (consumerTag, delivery) -> {
-                    // 4. 客户端作为随机队列的消费者，监听服务端返回计算结果的回调
-                    // 通过 correlationId 来保证此刻接收到计算结果，与当初发布的计算请求 为同一个
-                    if (delivery.getProperties().getCorrelationId().equals(corrId)) {
-                        // 将计算结果加入阻塞队列
-                        responseQueue.offer(new String(delivery.getBody(), "UTF-8"));
-                    }
-                },
-                // CancelCallback
-                consumerTag -> {
-                });
-        System.out.println("ctag=" + ctag);
-
-        // 从队列获取数据，若为空，则一直等待（阻塞），直到队列添加了一条数据
-        String result = responseQueue.take();
-        channel.basicCancel(ctag); // 显示地取消客户端消费者的订阅
-        return result;
+        // >>>>>>1.发布：发布计算请求到队列 rpc_queue 中，携带 correlationId 与 replyTo（amq.rabbitmq.reply-to）
+        // <<<<<<4.接收：服务端计算完成后将结果发布到 replyTo，Broker 直接投递给本客户端的回复消费者，根据 correlationId 找到对应的请求
+        byte[] response = rpcClient.call(numMsg.getBytes(StandardCharsets.UTF_8));
+        return new String(response, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 异步发起计算请求，发布后立即返回
+     */
+    public CompletableFuture<String> callAsync(String numMsg) {
+        return rpcClient.callAsync(numMsg.getBytes(StandardCharsets.UTF_8))
+                .thenApply(response -> new String(response, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 批量发起计算请求：与同一等待窗口内的其他调用合并为一个请求
+     */
+    public CompletableFuture<String> callBatchedAsync(String numMsg) {
+        return batchingClient.callAsync(numMsg.getBytes(StandardCharsets.UTF_8))
+                .thenApply(response -> new String(response, StandardCharsets.UTF_8));
     }
 
     @Override
     public void close() throws IOException {
+        batchingClient.close();
+        rpcClient.close();
         connection.close();
     }
 }
@@ -133,67 +145,158 @@ class RPCServer {
         return fib(n - 1) + fib(n - 2);
     }
 
+    /**
+     * 批量计算：各参数共享同一次迭代，按参数从小到大只计算一遍数列，时间取决于最大的参数，而不是参数个数
+     * 无效的参数（非数字、负数）结果为空字符串，与单个请求出错时的返回一致
+     */
+    private static List<String> fibBatch(List<byte[]> requests) {
+        int count = requests.size();
+        long[] sortKeys = new long[count];
+        int valid = 0;
+        String[] results = new String[count];
+        for (int i = 0; i < count; i++) {
+            results[i] = "";
+            try {
+                int num = Integer.parseInt(new String(requests.get(i), StandardCharsets.UTF_8));
+                if (num >= 0) {
+                    // 高32位为参数，低32位为下标，排序后按参数递增
+                    sortKeys[valid++] = ((long) num << 32) | i;
+                }
+            } catch (NumberFormatException e) {
+                System.out.println("[S] 异常: " + e.toString());
+            }
+        }
+        Arrays.sort(sortKeys, 0, valid);
+        // 迭代计算：current = fib(n)，next = fib(n + 1)（int 溢出与递归版本一致）
+        int n = 0;
+        int current = 0;
+        int next = 1;
+        for (int k = 0; k < valid; k++) {
+            int num = (int) (sortKeys[k] >>> 32);
+            while (n < num) {
+                int sum = current + next;
+                current = next;
+                next = sum;
+                n++;
+            }
+            results[(int) sortKeys[k]] = Integer.toString(current);
+        }
+        return Arrays.asList(results);
+    }
+
+    // 响应缓存：客户端反复请求相同的 n，命中时直接返回结果，无需再次递归计算（最多1万条，10分钟过期），消费线程与多个工作线程共用
+    private static final ResponseCache<String> CACHE = new ResponseCache<>(10_000, 10 * 60_000);
+
+    /**
+     * 启动参数：工作线程数，默认为 CPU 核数
+     */
     public static void main(String[] argv) throws Exception {
+        int workers = argv.length > 0 ? Integer.parseInt(argv[0]) : Runtime.getRuntime().availableProcessors();
+
         ConnectionFactory factory = new ConnectionFactory();
         factory.setHost("localhost");
+        ClientMetrics.install(factory);
 
-        try (Connection connection = factory.newConnection();
-             Channel channel = connection.createChannel()) {
+        Connection connection = factory.newConnection();
+        try (Channel channel = connection.createChannel()) {
             // 声明一个队列rpc_queue
             channel.queueDeclare(QUEUE_NAME, false, false, false, null);
             // 清除指定队列（rpc_queue）中的所有数据
             channel.queuePurge(QUEUE_NAME);
+        }
+
+        // <<<<<<接收：先在消费线程上查缓存，命中的请求直接回复；未命中的由多个工作线程并行计算（预取值为 工作线程数 * 4），由回复线程统一发布结果与确认
+        ConcurrentRpcServer server = new ConcurrentRpcServer(connection, QUEUE_NAME, workers, RPCServer::cached, RPCServer::handle);
+        server.start();
+        System.out.printf(" [*] Awaiting RPC requests with %d workers... To exit press CTRL+C\n", workers);
+
+        // 退出时（CTRL+C）：取消订阅，等待进行中的请求处理完并回复、确认，再关闭连接
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                connection.close();
+                System.out.println(" [*] RPC server stopped, cache: " + CACHE);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "rpc-server-shutdown"));
+    }
+
+    /**
+     * 在消费线程上查缓存：单个请求命中时直接返回结果，不必等待工作线程（批量请求交给工作线程，在那里逐个查缓存）
+     */
+    private static byte[] cached(Delivery delivery, AMQP.BasicProperties.Builder replyProps) {
+        if (BatchEnvelope.isBatch(delivery.getProperties())) {
+            return null;
+        }
+        String cached = CACHE.get(QUEUE_NAME, delivery.getBody());
+        if (cached == null) {
+            return null;
+        }
+        System.out.printf(">>> [S] Cache hit: fib(%s)=%s, correlationId=%s\n", new String(delivery.getBody(), StandardCharsets.UTF_8),
+                cached, delivery.getProperties().getCorrelationId());
+        return cached.getBytes(StandardCharsets.UTF_8);
+    }
 
-            channel.basicQos(1); // 一次只接收一条消息
-
-            System.out.println(" [*] Awaiting RPC requests...");
-
-            Object monitor = new Object();
-            DeliverCallback deliverCallback = (consumerTag, delivery) -> {
-                // 2. 客户端作为消费者从队列rpc_queue接收计算请
-                // 构建响应客户端的发布消息的参数
-                AMQP.BasicProperties replyProps = new AMQP.BasicProperties
-                        .Builder()
-                        .correlationId(delivery.getProperties().getCorrelationId()) // correlationId：来自客户端的设置，现在重新返回给客户端
-                        .build();
-
-                String response = "";
-
-                try {
-                    String numMsg = new String(delivery.getBody(), "UTF-8");
-                    int num = Integer.parseInt(numMsg);
-
-                    System.out.printf("<<< [S] Start to calculate: fib(" + numMsg + ")... replyTo=%s, correlationId=%s\n",
-                            delivery.getProperties().getReplyTo(), delivery.getProperties().getCorrelationId());
-                    response += fib(num); // 实际计算处理
-                    System.out.printf(">>> [S] Done!!! response=%s\n\n", response);
-                } catch (RuntimeException e) {
-                    System.out.println("[S] 异常: " + e.toString());
-                } finally {
-                    // >>>>>>3. 发布：服务端计算完 fib() 后，将结果 response + correlationId 发布到队列 replyTo（由客户端创建的随机队列） 中，等待客户端接收该计算结果
-                    channel.basicPublish("", delivery.getProperties().getReplyTo(), replyProps, response.getBytes("UTF-8"));
-                    // 手动答复消息已处理，若出现异常致使没有答复，则该消息会重新回到队列中，再重新分发下去
-                    channel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
-                    // RabbitMq consumer worker thread notifies the RPC server owner thread
-                    synchronized (monitor) {
-                        monitor.notify();
+    /**
+     * 2. 服务端作为消费者从队列rpc_queue接收计算请求（缓存未命中），在工作线程中计算，返回的结果由 ConcurrentRpcServer
+     * >>>>>>3. 发布到队列 replyTo 中（correlationId：来自客户端的设置，重新返回给客户端），并答复消息已处理
+     */
+    private static byte[] handle(Delivery delivery, AMQP.BasicProperties.Builder replyProps) {
+        // 批量请求：整批计算，结果按顺序打包为一个回复
+        if (BatchEnvelope.isBatch(delivery.getProperties())) {
+            BatchEnvelope.Writer writer = new BatchEnvelope.Writer(256);
+            try {
+                List<byte[]> requests = BatchEnvelope.split(delivery.getBody());
+                System.out.printf("<<< [S] Start to calculate a batch of %d requests... replyTo=%s, correlationId=%s\n",
+                        requests.size(), delivery.getProperties().getReplyTo(), delivery.getProperties().getCorrelationId());
+                // 先逐个查缓存，只计算未命中的参数
+                String[] results = new String[requests.size()];
+                List<byte[]> missed = new ArrayList<>();
+                List<Integer> missedIndexes = new ArrayList<>();
+                for (int i = 0; i < results.length; i++) {
+                    results[i] = CACHE.get(QUEUE_NAME, requests.get(i));
+                    if (results[i] == null) {
+                        missed.add(requests.get(i));
+                        missedIndexes.add(i);
                     }
                 }
-            };
-
-            // <<<<<<接收：接收来自客户端发过来的计算请求，在回调 deliverCallback 中去计算，并将结果再次发布到队列中，等待客户端接收该计算结果
-            channel.basicConsume(QUEUE_NAME, false, deliverCallback, (consumerTag -> {
-            }));
-            // Wait and be prepared to consume the message from RPC client.
-            while (true) {
-                synchronized (monitor) {
-                    try {
-                        monitor.wait();
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
+                List<String> computed = fibBatch(missed);
+                for (int i = 0; i < computed.size(); i++) {
+                    results[missedIndexes.get(i)] = computed.get(i);
+                    // 无效参数的结果（空字符串）不缓存
+                    if (!computed.get(i).isEmpty()) {
+                        CACHE.put(QUEUE_NAME, missed.get(i), computed.get(i));
                     }
                 }
+                for (String result : results) {
+                    writer.add(result.getBytes(StandardCharsets.UTF_8));
+                }
+                System.out.printf(">>> [S] Done!!! %d results, cache: %s\n\n", writer.count(), CACHE);
+                replyProps.contentType(BatchEnvelope.CONTENT_TYPE)
+                        .headers(BatchEnvelope.envelopeProperties(null, writer.count()).getHeaders());
+                return writer.toByteArray();
+            } catch (IllegalArgumentException e) {
+                // 格式错误的信封：不回复，客户端的调用将超时
+                System.out.println("[S] 异常: " + e.toString());
+                return null;
             }
         }
+
+        String response = "";
+        try {
+            String numMsg = new String(delivery.getBody(), StandardCharsets.UTF_8);
+            int num = Integer.parseInt(numMsg);
+
+            System.out.printf("<<< [S] Start to calculate: fib(" + numMsg + ")... replyTo=%s, correlationId=%s, thread=%s\n",
+                    delivery.getProperties().getReplyTo(), delivery.getProperties().getCorrelationId(), Thread.currentThread().getName());
+            // 消费线程上已查过缓存（未命中）：实际计算处理并缓存结果
+            response += fib(num);
+            CACHE.put(QUEUE_NAME, delivery.getBody(), response);
+            System.out.printf(">>> [S] Done!!! response=%s, cache: %s\n\n", response, CACHE);
+        } catch (RuntimeException e) {
+            System.out.println("[S] 异常: " + e.toString());
+        }
+        return response.getBytes(StandardCharsets.UTF_8);
     }
-}
\ No newline at end of file
+}
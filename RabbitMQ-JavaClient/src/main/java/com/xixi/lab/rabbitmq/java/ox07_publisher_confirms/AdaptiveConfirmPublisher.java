@@ -0,0 +1,259 @@
+package com.xixi.lab.rabbitmq.java.ox07_publisher_confirms;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于 异步确认发布（Strategy #3）的可复用发布者，并通过自适应窗口 {@link ConfirmWindow} 限制未确认消息数
+ *
+ * 异步确认发布本身不限制发布速度，当 Broker 出现压力时，未确认消息（及其占用的内存）会无限增长。
+ * 这里每发布一条消息需先占用窗口，收到 ack/nack 后再归还窗口：
+ *      窗口已满时 publish() 阻塞，tryPublish() 等待超时后拒绝（返回 false）；
+ *      窗口大小随确认延迟和 nack 自动伸缩，使吞吐量稳定在 Broker 可承受的上限附近。
+ *
+ * 除阻塞式的 publish() 外，publishAsync() 为每条消息返回一个 CompletableFuture，由 ack/nack 回调直接完成；
+ * flush() 返回的 Future 在此前发布的消息全部确认时完成，无需轮询等待。
+ * 注意：Future 在 Connection 的读线程中完成，其后续回调中不应执行阻塞操作（如同步的 channel 方法）。
+ *
+ * 同一信道 Channel 不是线程安全的，这里发布操作串行化，可在多个线程中共用同一个发布者。
+ */
+public class AdaptiveConfirmPublisher {
+
+    private final Channel channel;
+
+    private final ConfirmWindow window;
+
+    // 跟踪未确认消息：nextPublishSeqNo -> 发布时间(System.nanoTime())
+    private final ConfirmTracker outstandingConfirms;
+
+    private final Object publishLock = new Object();
+
+    // 等待中的 flush()：按目标序列号递增排列，由 outstandingConfirms 的锁保护
+    private final ArrayDeque<FlushWaiter> flushWaiters = new ArrayDeque<>();
+
+    private final AtomicLong ackCount = new AtomicLong();
+
+    private final AtomicLong nackCount = new AtomicLong();
+
+    public AdaptiveConfirmPublisher(Channel channel) throws IOException {
+        this(channel, new ConfirmWindow(64, 1, 8192));
+    }
+
+    public AdaptiveConfirmPublisher(Channel channel, ConfirmWindow window) throws IOException {
+        this.channel = channel;
+        this.window = window;
+        this.outstandingConfirms = new ConfirmTracker(window.getLimit());
+        // 开启发布确认
+        channel.confirmSelect();
+        channel.addConfirmListener(
+                (sequenceNumber, multiple) -> handleConfirm(sequenceNumber, multiple, false),
+                (sequenceNumber, multiple) -> handleConfirm(sequenceNumber, multiple, true));
+        // 信道关闭后将不会再收到确认，归还所有窗口，避免发布线程一直阻塞（后续发布会直接抛出异常）
+        channel.addShutdownListener(cause -> releaseAll(cause));
+    }
+
+    /**
+     * 发布消息，窗口已满时阻塞，直到有消息被确认
+     */
+    public void publish(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body)
+            throws IOException, InterruptedException {
+        window.acquire();
+        doPublish(exchange, routingKey, props, body);
+    }
+
+    /**
+     * 发布消息，窗口已满时最多等待 timeout
+     *
+     * @return false 表示窗口在超时前一直是满的，消息被拒绝（未发布）
+     */
+    public boolean tryPublish(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body,
+                              long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        if (!window.tryAcquire(timeout, unit)) {
+            return false;
+        }
+        doPublish(exchange, routingKey, props, body);
+        return true;
+    }
+
+    /**
+     * 异步发布消息：返回的 Future 在收到 ack 时以该消息的序列号完成，收到 nack 时以 {@link MessageNackedException} 异常完成
+     * 窗口已满时，调用线程仍会阻塞到窗口空出（背压），发布失败时 Future 以对应异常完成
+     */
+    public CompletableFuture<Long> publishAsync(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        try {
+            window.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        }
+        try {
+            doPublish(exchange, routingKey, props, body, future);
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 返回的 Future 在此前发布的所有消息都收到 ack/nack 时完成（被 nack 的消息通过各自的 Future 通知）
+     */
+    public CompletableFuture<Void> flush() {
+        synchronized (outstandingConfirms) {
+            if (outstandingConfirms.isEmpty()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            FlushWaiter waiter = new FlushWaiter(outstandingConfirms.getLastTracked());
+            flushWaiters.add(waiter);
+            return waiter.future;
+        }
+    }
+
+    /**
+     * 等待所有已发布的消息都被确认
+     *
+     * @return 是否在超时前全部确认
+     */
+    public boolean awaitConfirms(Duration timeout) throws InterruptedException {
+        return window.awaitEmpty(timeout.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private void doPublish(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body)
+            throws IOException {
+        doPublish(exchange, routingKey, props, body, null);
+    }
+
+    private void doPublish(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body,
+                           CompletableFuture<Long> future) throws IOException {
+        synchronized (publishLock) {
+            long nextPublishSeqNo = channel.getNextPublishSeqNo();
+            outstandingConfirms.track(nextPublishSeqNo, System.nanoTime(), null, future);
+            try {
+                channel.basicPublish(exchange, routingKey, props, body);
+            } catch (IOException | RuntimeException e) {
+                outstandingConfirms.forget(nextPublishSeqNo);
+                // 本地发布失败不是 Broker 的拥塞信号：只归还窗口位置，不按 nack 收缩窗口
+                window.cancel(1);
+                completeFlushes();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * ack/nack 回调：清除已确认的消息并归还窗口，以其中最早一条消息的确认延迟作为本次采样
+     * 附带的 Future 先收集起来，在锁外完成，避免其后续回调再次发布时与发布线程互相等待
+     */
+    private void handleConfirm(long sequenceNumber, boolean multiple, boolean nack) {
+        int count;
+        long latencyNanos;
+        List<CompletableFuture<Long>> futures = new ArrayList<>();
+        List<Long> seqNos = new ArrayList<>();
+        List<FlushWaiter> flushed = new ArrayList<>();
+        synchronized (outstandingConfirms) {
+            count = outstandingConfirms.confirm(sequenceNumber, multiple, System.nanoTime(), (seqNo, body, attachment) -> {
+                if (attachment != null) {
+                    futures.add(cast(attachment));
+                    seqNos.add(seqNo);
+                }
+            });
+            latencyNanos = outstandingConfirms.getLastLatencyNanos();
+            pollFlushes(flushed);
+        }
+        (nack ? nackCount : ackCount).addAndGet(count);
+        window.release(count, latencyNanos, nack);
+        for (int i = 0; i < futures.size(); i++) {
+            if (nack) {
+                futures.get(i).completeExceptionally(new MessageNackedException(seqNos.get(i)));
+            } else {
+                futures.get(i).complete(seqNos.get(i));
+            }
+        }
+        for (FlushWaiter waiter : flushed) {
+            waiter.future.complete(null);
+        }
+    }
+
+    private void releaseAll(Throwable cause) {
+        List<CompletableFuture<Long>> futures = new ArrayList<>();
+        List<FlushWaiter> flushed = new ArrayList<>();
+        int count;
+        synchronized (outstandingConfirms) {
+            count = outstandingConfirms.clear((seqNo, body, attachment) -> {
+                if (attachment != null) {
+                    futures.add(cast(attachment));
+                }
+            });
+            flushed.addAll(flushWaiters);
+            flushWaiters.clear();
+        }
+        // 信道关闭不是 Broker 的 nack，不缩小窗口
+        window.cancel(count);
+        for (CompletableFuture<Long> future : futures) {
+            future.completeExceptionally(cause);
+        }
+        for (FlushWaiter waiter : flushed) {
+            waiter.future.complete(null);
+        }
+    }
+
+    private void completeFlushes() {
+        List<FlushWaiter> ready = new ArrayList<>();
+        synchronized (outstandingConfirms) {
+            pollFlushes(ready);
+        }
+        for (FlushWaiter waiter : ready) {
+            waiter.future.complete(null);
+        }
+    }
+
+    // 取出目标序列号之前的消息已全部确认的 flush()，调用方需持有 outstandingConfirms 的锁
+    private void pollFlushes(List<FlushWaiter> ready) {
+        long lowestUnconfirmed = outstandingConfirms.getLowestUnconfirmed();
+        while (!flushWaiters.isEmpty() && flushWaiters.peek().seqNo < lowestUnconfirmed) {
+            ready.add(flushWaiters.poll());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static CompletableFuture<Long> cast(Object attachment) {
+        return (CompletableFuture<Long>) attachment;
+    }
+
+    public ConfirmWindow getWindow() {
+        return window;
+    }
+
+    public ConfirmTracker getTracker() {
+        return outstandingConfirms;
+    }
+
+    public long getAckCount() {
+        return ackCount.get();
+    }
+
+    public long getNackCount() {
+        return nackCount.get();
+    }
+
+    private static class FlushWaiter {
+
+        private final long seqNo;
+
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        FlushWaiter(long seqNo) {
+            this.seqNo = seqNo;
+        }
+    }
+}
@@ -0,0 +1,474 @@
+package com.xixi.lab.rabbitmq.java.ox07_publisher_confirms;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 未确认消息跟踪器：以 序列号(publishSeqNo) 为下标的 long 环形数组
+ *
+ * 代替 ConcurrentSkipListMap<Long, String>：每发布一条消息，跳表需要分配节点并装箱一个 Long，
+ * multiple=true 时 headMap(...).clear() 还要逐个删除节点，在大量消息未确认时带来明显的分配和 GC 压力。
+ *
+ * 这里：
+ * （1）序列号是连续递增的，[head, tail) 即为当前窗口，slot = seqNo & mask，每个位置记录该消息的发布时间（纳秒），
+ *      单独确认的消息在原位置标记为已确认，容量不足时成倍扩容；
+ * （2）multiple=true 的确认直接将 head 移到 sequenceNumber + 1，若区间内没有单独确认过的消息（通常情况），
+ *      则新确认的数目可直接算出，整段清除为 O(1)；
+ * （3）可选地将消息体保存在堆外（DirectByteBuffer）的环形区域中，nack 时可取出消息体重新发布，
+ *      消息体的空间随 head 前移整段释放，不产生堆内对象。
+ *
+ * （4）可选地为每条消息附带一个对象（如 CompletableFuture），确认时通过 MessageVisitor 取回；
+ *      附带对象的消息在确认时需逐个访问，不再走 O(1) 的整段清除。
+ *
+ * 确认延迟统计：单条确认按实际延迟记录；批量确认按区间内最早、最晚两条消息的延迟线性估算总和，最大值取最早一条的延迟。
+ *
+ * 发布线程与确认回调线程（Connection 的读线程）都会访问，这里所有方法都在同一把锁上同步。
+ */
+public class ConfirmTracker {
+
+    // 已确认标记（System.nanoTime() 实际不会返回该值）
+    private static final long CONFIRMED = Long.MIN_VALUE;
+
+    private long[] publishNanos;
+
+    private int[] bodyOffset;
+
+    private int[] bodyLength;
+
+    // 附带对象，首次 track 附带对象时才分配
+    private Object[] attachments;
+
+    private int mask;
+
+    // 最小的未确认序列号（之前的都已确认），无未确认消息时 head == tail
+    private long head;
+
+    // 下一个待跟踪的序列号
+    private long tail;
+
+    // 未确认消息数
+    private int outstanding;
+
+    // [head, tail) 中已单独确认的消息数，以及其中最大的序列号
+    private int sparseConfirmed;
+
+    private long maxSparseConfirmed;
+
+    // 堆外消息体存储区域，null 表示不保存消息体
+    private ByteBuffer arena;
+
+    private int arenaWrite;
+
+    // 确认延迟统计
+    private long confirmedCount;
+
+    private long latencyTotalNanos;
+
+    private long latencyMaxNanos;
+
+    private long lastLatencyNanos;
+
+    /**
+     * 只跟踪发布时间，不保存消息体
+     */
+    public ConfirmTracker(int initialCapacity) {
+        this(initialCapacity, 0);
+    }
+
+    /**
+     * @param initialCapacity 初始容量（会向上取整为2的幂），不足时自动扩容
+     * @param bodyArenaBytes  堆外保存消息体的初始字节数，0 表示不保存消息体；不足时自动扩容
+     */
+    public ConfirmTracker(int initialCapacity, int bodyArenaBytes) {
+        int capacity = Integer.highestOneBit(Math.max(16, initialCapacity) - 1) << 1;
+        this.publishNanos = new long[capacity];
+        this.mask = capacity - 1;
+        if (bodyArenaBytes > 0) {
+            this.bodyOffset = new int[capacity];
+            this.bodyLength = new int[capacity];
+            this.arena = ByteBuffer.allocateDirect(bodyArenaBytes);
+        }
+    }
+
+    /**
+     * 跟踪一条刚发布的消息
+     *
+     * @param seqNo       发布前通过 channel.getNextPublishSeqNo() 获取的序列号
+     * @param publishNano 发布时间 System.nanoTime()
+     * @param body        消息体，不保存消息体时可为 null
+     */
+    public void track(long seqNo, long publishNano, byte[] body) {
+        track(seqNo, publishNano, body, null);
+    }
+
+    /**
+     * 跟踪一条刚发布的消息，并附带一个对象，确认时通过 MessageVisitor 取回
+     */
+    public synchronized void track(long seqNo, long publishNano, byte[] body, Object attachment) {
+        if (attachment != null && attachments == null) {
+            attachments = new Object[publishNanos.length];
+        }
+        if (outstanding == 0) {
+            head = tail = seqNo;
+            sparseConfirmed = 0;
+            maxSparseConfirmed = 0;
+            arenaWrite = 0;
+        } else if (seqNo < tail) {
+            throw new IllegalStateException("Sequence number " + seqNo + " has already been tracked, next is " + tail);
+        }
+        // 序列号出现空缺（如发布失败），空缺的位置视为已确认
+        while (tail < seqNo) {
+            ensureCapacity();
+            int slot = (int) (tail & mask);
+            publishNanos[slot] = CONFIRMED;
+            if (arena != null) {
+                bodyOffset[slot] = arenaWrite;
+                bodyLength[slot] = 0;
+            }
+            sparseConfirmed++;
+            maxSparseConfirmed = tail;
+            tail++;
+        }
+        ensureCapacity();
+        int slot = (int) (tail & mask);
+        publishNanos[slot] = publishNano;
+        if (attachments != null) {
+            attachments[slot] = attachment;
+        }
+        if (arena != null) {
+            int length = body == null ? 0 : body.length;
+            int offset = allocate(length);
+            if (length > 0) {
+                ByteBuffer target = arena.duplicate();
+                target.position(offset);
+                target.put(body);
+            }
+            bodyOffset[slot] = offset;
+            bodyLength[slot] = length;
+            arenaWrite = offset + length;
+        }
+        tail++;
+        outstanding++;
+    }
+
+    /**
+     * 处理 ack
+     *
+     * @return 本次新确认的消息数
+     */
+    public synchronized int confirm(long seqNo, boolean multiple, long nowNanos) {
+        return confirm(seqNo, multiple, nowNanos, null);
+    }
+
+    /**
+     * 处理 ack/nack
+     *
+     * @param visitor 非 null 时，在清除前依次访问本次被确认的每条消息（如 nack 时取出消息体、完成附带的 Future），
+     *                消息体 ByteBuffer 仅在回调期间有效，回调在锁内执行，不应在其中做耗时或阻塞操作
+     * @return 本次新确认的消息数
+     */
+    public synchronized int confirm(long seqNo, boolean multiple, long nowNanos, MessageVisitor visitor) {
+        if (outstanding == 0 || seqNo < head) {
+            return 0;
+        }
+        if (!multiple) {
+            return confirmSingle(seqNo, nowNanos, visitor);
+        }
+        long end = Math.min(seqNo, tail - 1);
+        long oldest = publishNanos[(int) (head & mask)];
+        long newest = publishNanos[(int) (end & mask)];
+        int rangeLength = (int) (end - head + 1);
+        // 单独确认过的消息都落在区间内时（通常情况），新确认数可直接算出，否则才需要逐个统计
+        int count = maxSparseConfirmed <= end ? rangeLength - sparseConfirmed : countUnconfirmed(head, end);
+        if (visitor != null || attachments != null) {
+            visit(head, end, visitor);
+        }
+        sparseConfirmed -= rangeLength - count;
+        head = end + 1;
+        outstanding -= count;
+        advanceHead();
+        record(count, nowNanos - oldest, nowNanos - (newest == CONFIRMED ? oldest : newest));
+        return count;
+    }
+
+    private int confirmSingle(long seqNo, long nowNanos, MessageVisitor visitor) {
+        if (seqNo >= tail) {
+            return 0;
+        }
+        int slot = (int) (seqNo & mask);
+        long published = publishNanos[slot];
+        if (published == CONFIRMED) {
+            return 0;
+        }
+        if (visitor != null) {
+            visitor.visit(seqNo, bodyView(slot), attachment(slot));
+        }
+        release(slot);
+        outstanding--;
+        if (seqNo == head) {
+            head++;
+            advanceHead();
+        } else {
+            sparseConfirmed++;
+            maxSparseConfirmed = Math.max(maxSparseConfirmed, seqNo);
+        }
+        long latency = nowNanos - published;
+        record(1, latency, latency);
+        return 1;
+    }
+
+    /**
+     * 不再跟踪某条消息（如发布失败），不计入确认统计
+     */
+    public synchronized void forget(long seqNo) {
+        if (outstanding == 0 || seqNo < head || seqNo >= tail) {
+            return;
+        }
+        int slot = (int) (seqNo & mask);
+        if (publishNanos[slot] == CONFIRMED) {
+            return;
+        }
+        release(slot);
+        outstanding--;
+        if (seqNo == head) {
+            head++;
+            advanceHead();
+        } else {
+            sparseConfirmed++;
+            maxSparseConfirmed = Math.max(maxSparseConfirmed, seqNo);
+        }
+    }
+
+    /**
+     * 清除所有未确认消息（如信道已关闭）
+     *
+     * @return 被清除的消息数
+     */
+    public int clear() {
+        return clear(null);
+    }
+
+    /**
+     * 清除所有未确认消息，清除前依次访问每条未确认的消息
+     *
+     * @return 被清除的消息数
+     */
+    public synchronized int clear(MessageVisitor visitor) {
+        int count = outstanding;
+        if (count > 0 && (visitor != null || attachments != null)) {
+            visit(head, tail - 1, visitor);
+        }
+        head = tail;
+        outstanding = 0;
+        sparseConfirmed = 0;
+        maxSparseConfirmed = 0;
+        arenaWrite = 0;
+        return count;
+    }
+
+    // head 越过已单独确认的消息
+    private void advanceHead() {
+        if (outstanding == 0) {
+            head = tail;
+            sparseConfirmed = 0;
+            maxSparseConfirmed = 0;
+            return;
+        }
+        while (publishNanos[(int) (head & mask)] == CONFIRMED) {
+            head++;
+            sparseConfirmed--;
+        }
+        if (sparseConfirmed == 0) {
+            maxSparseConfirmed = 0;
+        }
+    }
+
+    private int countUnconfirmed(long from, long to) {
+        int count = 0;
+        for (long seqNo = from; seqNo <= to; seqNo++) {
+            if (publishNanos[(int) (seqNo & mask)] != CONFIRMED) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void visit(long from, long to, MessageVisitor visitor) {
+        for (long seqNo = from; seqNo <= to; seqNo++) {
+            int slot = (int) (seqNo & mask);
+            if (publishNanos[slot] != CONFIRMED) {
+                if (visitor != null) {
+                    visitor.visit(seqNo, bodyView(slot), attachment(slot));
+                }
+                release(slot);
+            }
+        }
+    }
+
+    // 标记为已确认，并释放附带对象的引用
+    private void release(int slot) {
+        publishNanos[slot] = CONFIRMED;
+        if (attachments != null) {
+            attachments[slot] = null;
+        }
+    }
+
+    private Object attachment(int slot) {
+        return attachments == null ? null : attachments[slot];
+    }
+
+    private ByteBuffer bodyView(int slot) {
+        if (arena == null) {
+            return null;
+        }
+        ByteBuffer view = arena.duplicate();
+        view.limit(bodyOffset[slot] + bodyLength[slot]).position(bodyOffset[slot]);
+        return view.slice();
+    }
+
+    private void record(int count, long oldestLatency, long newestLatency) {
+        if (count <= 0) {
+            return;
+        }
+        confirmedCount += count;
+        latencyTotalNanos += count == 1 ? oldestLatency : (oldestLatency + newestLatency) / 2 * count;
+        latencyMaxNanos = Math.max(latencyMaxNanos, oldestLatency);
+        lastLatencyNanos = oldestLatency;
+    }
+
+    private void ensureCapacity() {
+        if (tail - head < publishNanos.length) {
+            return;
+        }
+        int capacity = publishNanos.length << 1;
+        int newMask = capacity - 1;
+        long[] newPublishNanos = new long[capacity];
+        int[] newBodyOffset = arena == null ? null : new int[capacity];
+        int[] newBodyLength = arena == null ? null : new int[capacity];
+        Object[] newAttachments = attachments == null ? null : new Object[capacity];
+        for (long seqNo = head; seqNo < tail; seqNo++) {
+            int from = (int) (seqNo & mask);
+            int to = (int) (seqNo & newMask);
+            newPublishNanos[to] = publishNanos[from];
+            if (arena != null) {
+                newBodyOffset[to] = bodyOffset[from];
+                newBodyLength[to] = bodyLength[from];
+            }
+            if (attachments != null) {
+                newAttachments[to] = attachments[from];
+            }
+        }
+        publishNanos = newPublishNanos;
+        bodyOffset = newBodyOffset;
+        bodyLength = newBodyLength;
+        attachments = newAttachments;
+        mask = newMask;
+    }
+
+    /**
+     * 在环形区域中为消息体分配空间，存活区域为 [head 消息体的起始位置, arenaWrite)，可能在末尾回绕
+     */
+    private int allocate(int length) {
+        int capacity = arena.capacity();
+        if (head == tail) {
+            if (length <= capacity) {
+                return 0;
+            }
+        } else {
+            int liveStart = bodyOffset[(int) (head & mask)];
+            if (arenaWrite >= liveStart) {
+                if (capacity - arenaWrite >= length) {
+                    return arenaWrite;
+                }
+                // 末尾空间不足，回绕到开头（严格小于，避免写指针与存活起点重合）
+                if (length < liveStart) {
+                    return 0;
+                }
+            } else if (arenaWrite + length < liveStart) {
+                return arenaWrite;
+            }
+        }
+        growArena(length);
+        return arenaWrite;
+    }
+
+    // 扩容：按顺序把存活的消息体紧凑复制到新的区域
+    private void growArena(int length) {
+        int live = 0;
+        for (long seqNo = head; seqNo < tail; seqNo++) {
+            live += bodyLength[(int) (seqNo & mask)];
+        }
+        int capacity = arena.capacity();
+        while (capacity - live <= length) {
+            capacity <<= 1;
+        }
+        ByteBuffer newArena = ByteBuffer.allocateDirect(capacity);
+        for (long seqNo = head; seqNo < tail; seqNo++) {
+            int slot = (int) (seqNo & mask);
+            int offset = newArena.position();
+            if (bodyLength[slot] > 0) {
+                newArena.put(bodyView(slot));
+            }
+            bodyOffset[slot] = offset;
+        }
+        arenaWrite = newArena.position();
+        arena = newArena;
+    }
+
+    public synchronized boolean isEmpty() {
+        return outstanding == 0;
+    }
+
+    public synchronized int size() {
+        return outstanding;
+    }
+
+    /**
+     * 最小的未确认序列号，之前的消息都已确认；无未确认消息时为下一个待跟踪的序列号
+     */
+    public synchronized long getLowestUnconfirmed() {
+        return head;
+    }
+
+    /**
+     * 最近跟踪的序列号，尚未跟踪过任何消息时为 0
+     */
+    public synchronized long getLastTracked() {
+        return tail == 0 ? 0 : tail - 1;
+    }
+
+    public synchronized long getConfirmedCount() {
+        return confirmedCount;
+    }
+
+    /**
+     * 平均确认延迟（纳秒）
+     */
+    public synchronized long getMeanLatencyNanos() {
+        return confirmedCount == 0 ? 0 : latencyTotalNanos / confirmedCount;
+    }
+
+    public synchronized long getMaxLatencyNanos() {
+        return latencyMaxNanos;
+    }
+
+    /**
+     * 最近一次确认中最早一条消息的确认延迟（纳秒）
+     */
+    public synchronized long getLastLatencyNanos() {
+        return lastLatencyNanos;
+    }
+
+    /**
+     * 访问被确认的消息
+     */
+    @FunctionalInterface
+    public interface MessageVisitor {
+
+        /**
+         * @param seqNo      序列号
+         * @param body       消息体的只读视图，未保存消息体时为 null
+         * @param attachment 附带对象，未附带时为 null
+         */
+        void visit(long seqNo, ByteBuffer body, Object attachment);
+    }
+}
@@ -0,0 +1,221 @@
+package com.xixi.lab.rabbitmq.java.ox07_publisher_confirms;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 自适应的 未确认消息（in-flight）窗口
+ *
+ * 限制同时处于“已发布、未确认”状态的消息数量，窗口大小 limit 根据 Broker 的确认情况自动调整：
+ * （1）确认延迟平稳（不超过基线延迟 * spikeFactor）：加性增长，每确认约 limit 条消息，窗口 +1
+ * （2）确认延迟突增（超过基线延迟 * spikeFactor）：乘性收缩为原来的 80%
+ * （3）收到 nack：乘性收缩为原来的一半
+ * 收缩后需再确认约 limit 条消息才允许再次收缩，避免同一批积压的确认导致窗口被连续砍到最小值。
+ *
+ * 发布线程通过 acquire() 占用窗口，确认回调通过 release() 归还窗口（消息未能发出、或信道关闭后不会再收到确认时通过 cancel() 归还，不影响窗口大小）；
+ * 窗口已满时，发布线程阻塞或超时被拒绝。
+ */
+public class ConfirmWindow {
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    // 延迟突增判定倍数：确认延迟 > 基线延迟 * spikeFactor，即认为 Broker 出现了压力
+    private final double spikeFactor;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notFull = lock.newCondition();
+
+    private final Condition empty = lock.newCondition();
+
+    // 当前窗口大小
+    private int limit;
+
+    // 当前未确认的消息数
+    private int inFlight;
+
+    // 加性增长的小数累加值
+    private double growth;
+
+    // 平稳状态下的确认延迟基线（EWMA），-1 表示尚未采样
+    private double baselineNanos = -1;
+
+    // 距上次收缩以来确认的消息数
+    private long confirmedSinceShrink;
+
+    public ConfirmWindow(int initialLimit, int minLimit, int maxLimit) {
+        this(initialLimit, minLimit, maxLimit, 2.0);
+    }
+
+    public ConfirmWindow(int initialLimit, int minLimit, int maxLimit, double spikeFactor) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid window: initial=%d, min=%d, max=%d", initialLimit, minLimit, maxLimit));
+        }
+        if (spikeFactor <= 1.0) {
+            throw new IllegalArgumentException("spikeFactor must be greater than 1: " + spikeFactor);
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.spikeFactor = spikeFactor;
+    }
+
+    /**
+     * 占用一个窗口位置，窗口已满时一直阻塞
+     */
+    public void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= limit) {
+                notFull.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 占用一个窗口位置，窗口已满时最多等待 timeout，超时则返回 false（拒绝本次发布）
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= limit) {
+                if (nanos <= 0L) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 归还窗口位置（消息已被确认）
+     *
+     * @param count        本次确认的消息数（multiple=true 时可能大于1）
+     * @param latencyNanos 本次确认中最早一条消息的确认延迟
+     * @param nack         是否为 nack
+     */
+    public void release(int count, long latencyNanos, boolean nack) {
+        if (count <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            inFlight = Math.max(0, inFlight - count);
+            confirmedSinceShrink += count;
+            if (nack) {
+                shrink(0.5);
+            } else if (baselineNanos < 0) {
+                baselineNanos = latencyNanos;
+            } else if (latencyNanos > baselineNanos * spikeFactor) {
+                shrink(0.8);
+                // 基线缓慢跟随，若延迟长期升高，则逐步接受为新的基线
+                baselineNanos += (latencyNanos - baselineNanos) / 64;
+            } else {
+                baselineNanos += (latencyNanos - baselineNanos) / 16;
+                growth += (double) count / limit;
+                if (growth >= 1.0) {
+                    int delta = (int) growth;
+                    growth -= delta;
+                    limit = Math.min(maxLimit, limit + delta);
+                }
+            }
+            notFull.signalAll();
+            if (inFlight == 0) {
+                empty.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 归还窗口位置（消息未能发出，如本地发布失败；或信道已关闭，不会再收到确认），不作为 Broker 的确认反馈，窗口大小与基线不变
+     */
+    public void cancel(int count) {
+        if (count <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            inFlight = Math.max(0, inFlight - count);
+            notFull.signalAll();
+            if (inFlight == 0) {
+                empty.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 等待所有未确认消息都被确认
+     *
+     * @return 是否在超时前全部确认
+     */
+    public boolean awaitEmpty(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (inFlight > 0) {
+                if (nanos <= 0L) {
+                    return false;
+                }
+                nanos = empty.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void shrink(double factor) {
+        if (confirmedSinceShrink < limit) {
+            return;
+        }
+        limit = Math.max(minLimit, (int) (limit * factor));
+        growth = 0;
+        confirmedSinceShrink = 0;
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 当前确认延迟基线（纳秒），尚未采样时返回 -1
+     */
+    public long getBaselineNanos() {
+        lock.lock();
+        try {
+            return (long) baselineNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.xixi.lab.rabbitmq.java.ox07_publisher_confirms;
+
+import java.io.IOException;
+
+/**
+ * 消息被 Broker nack（未能成功处理），可根据序列号决定是否重新发布
+ */
+public class MessageNackedException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long sequenceNumber;
+
+    public MessageNackedException(long sequenceNumber) {
+        super("Message has been nack-ed. Sequence number: " + sequenceNumber);
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+}
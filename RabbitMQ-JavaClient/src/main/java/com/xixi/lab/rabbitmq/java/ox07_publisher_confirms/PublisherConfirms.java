@@ -4,11 +4,16 @@ import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.ConfirmCallback;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
+import com.xixi.lab.rabbitmq.java.common.batch.BatchingPublisher;
+import com.xixi.lab.rabbitmq.java.common.metrics.ClientMetrics;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.Queue;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentNavigableMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.BooleanSupplier;
 
 /**
@@ -32,9 +37,15 @@ public class PublisherConfirms {
     static final int MESSAGE_COUNT = 50_000;
 
     static Connection createConnection() throws Exception {
+        return createConnectionFactory().newConnection();
+    }
+
+    // 各示例共用的连接配置（分条发布需要由工厂为每个条带创建连接）
+    static ConnectionFactory createConnectionFactory() {
         ConnectionFactory connectionFactory = new ConnectionFactory();
         connectionFactory.setHost("localhost");
-        return connectionFactory.newConnection();
+        ClientMetrics.install(connectionFactory);
+        return connectionFactory;
     }
 
     public static void main(String[] args) throws Exception {
@@ -44,6 +55,12 @@ public class PublisherConfirms {
         publishMessagesInBatch();
         // 异步确认发布
         handlePublishConfirmsAsynchronously();
+        // 异步确认发布 + 自适应窗口
+        publishMessagesWithAdaptiveWindow();
+        // 多线程分条并行发布
+        publishMessagesStriped();
+        // 批量信封 + 异步确认发布
+        publishMessagesInEnvelopes();
     }
 
     /**
@@ -127,37 +144,31 @@ public class PublisherConfirms {
             // 开启发布确认
             channel.confirmSelect();
 
-            // 存储未确认的消息，当消息被确认后，则清除掉
-            // map: nextPublishSeqNo -> body(消息)
-            ConcurrentNavigableMap<Long, String> outstandingConfirms = new ConcurrentSkipListMap<>();
+            // 跟踪未确认的消息，当消息被确认后，则清除掉
+            // 以 nextPublishSeqNo 为下标的环形数组，消息体保存在堆外（初始1MB），nack 时可取出重新发布
+            ConfirmTracker outstandingConfirms = new ConfirmTracker(1024, 1 << 20);
+            // 被 nack 的消息体，待重新发布
+            Queue<byte[]> nackedBodies = new ConcurrentLinkedQueue<>();
 
             // ack 回调
             ConfirmCallback ackCallback = (sequenceNumber, multiple) -> {
-                System.out.println("ackCallback: multiple=" + multiple + ", sequenceNumber=" + sequenceNumber);
-                // multiple: true 返回的是小于等于当前序列号的未确认消息; false 确认当前序列号消息
-                if (multiple) {
-                    // headMap(sequenceNumber): 合获取key小于sequenceNumber的所有map集
-                    ConcurrentNavigableMap<Long, String> confirmed = outstandingConfirms.headMap(sequenceNumber, true);
-                    StringBuilder keySb = new StringBuilder();
-                    for (Long seqNo : confirmed.keySet()) {
-                        keySb.append(seqNo).append(", ");
-                    }
-                    System.out.println("multiple=true: sequenceNumber=" + sequenceNumber + ">>" + keySb.toString());
-                    confirmed.clear(); // 清除已确认的消息
-                } else {
-                    // 清除当前sequenceNumber的已确认的消息
-                    outstandingConfirms.remove(sequenceNumber);
-                }
+                // multiple: true 确认小于等于当前序列号的所有未确认消息（整段清除）; false 确认当前序列号消息
+                int confirmed = outstandingConfirms.confirm(sequenceNumber, multiple, System.nanoTime());
+                System.out.println("ackCallback: multiple=" + multiple + ", sequenceNumber=" + sequenceNumber + ", confirmed=" + confirmed);
             };
             // nack 回调
             ConfirmCallback nackCallback = (sequenceNumber, multiple) -> {
                 System.out.println("nackCallback: multiple=" + multiple + ", sequenceNumber=" + sequenceNumber);
-                String body = outstandingConfirms.get(sequenceNumber);
-                System.err.format(
-                        "Message with body %s has been nack-ed. Sequence number: %d, multiple: %b%n",
-                        body, sequenceNumber, multiple
-                );
-                ackCallback.handle(sequenceNumber, multiple);
+                outstandingConfirms.confirm(sequenceNumber, multiple, System.nanoTime(), (seqNo, body, attachment) -> {
+                    // 从堆外复制出消息体，待重新发布
+                    byte[] bytes = new byte[body.remaining()];
+                    body.get(bytes);
+                    nackedBodies.add(bytes);
+                    System.err.format(
+                            "Message with body %s has been nack-ed. Sequence number: %d, multiple: %b%n",
+                            new String(bytes, StandardCharsets.UTF_8), seqNo, multiple
+                    );
+                });
             };
 
             /* 添加一个异步确认监听器：
@@ -169,27 +180,169 @@ public class PublisherConfirms {
             long start = System.nanoTime();
             for (int i = 0; i < MESSAGE_COUNT; i++) {
                 String body = String.valueOf(i);
-                long nextPublishSeqNo = channel.getNextPublishSeqNo(); // 获取下一个消息的序列号
-                outstandingConfirms.put(nextPublishSeqNo, body);
-                System.out.printf("发布: nextPublishSeqNo=%d, body=%s\n", nextPublishSeqNo, body);
-                channel.basicPublish("", queue, null, body.getBytes());
+                publishTracked(channel, queue, body.getBytes(), outstandingConfirms);
+            }
+
+            // 若消息在60秒内未完全确认好，则抛出异常；期间被 nack 的消息重新发布
+            do {
+                if (!waitUntil(Duration.ofSeconds(60), outstandingConfirms::isEmpty)) {
+                    throw new IllegalStateException("All messages could not be confirmed in 60 seconds");
+                }
+                byte[] body;
+                while ((body = nackedBodies.poll()) != null) {
+                    publishTracked(channel, queue, body, outstandingConfirms);
+                }
+            } while (!outstandingConfirms.isEmpty() || !nackedBodies.isEmpty());
+
+            long end = System.nanoTime();
+            System.out.format("Published %,d messages and handled confirms asynchronously in %,d ms (mean confirm latency %,d us)%n",
+                    MESSAGE_COUNT, Duration.ofNanos(end - start).toMillis(), outstandingConfirms.getMeanLatencyNanos() / 1000);
+        }
+    }
+
+    /**
+     * Strategy #4: Asynchronous Confirms with an Adaptive Window
+     * 异步确认发布 + 自适应窗口：在异步确认的基础上限制未确认消息数，窗口满时阻塞发布，避免 Broker 压力大时内存无限增长；
+     * 每条消息通过 publishAsync() 返回的 Future 得知确认结果，flush() 等待全部确认
+     */
+    static void publishMessagesWithAdaptiveWindow() throws Exception {
+        try (Connection connection = createConnection()) {
+            Channel channel = connection.createChannel();
+
+            String queue = UUID.randomUUID().toString();
+            channel.queueDeclare(queue, false, false, true, null);
+
+            // 初始窗口64，最小1，最大8192
+            AdaptiveConfirmPublisher publisher = new AdaptiveConfirmPublisher(channel, new ConfirmWindow(64, 1, 8192));
+
+            long start = System.nanoTime();
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                String body = String.valueOf(i);
+                // 每条消息返回一个 Future，由 ack/nack 回调直接完成
+                publisher.publishAsync("", queue, null, body.getBytes())
+                        .whenComplete((seqNo, e) -> {
+                            if (e != null) {
+                                System.err.format("Message with body %s failed: %s%n", body, e.getMessage());
+                            }
+                        });
+            }
+
+            // 最后一条消息确认后立即返回，无需轮询；若消息在60秒内未完全确认好，则抛出异常
+            try {
+                publisher.flush().get(60, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                throw new IllegalStateException("All messages could not be confirmed in 60 seconds");
+            }
+
+            long end = System.nanoTime();
+            System.out.format("Published %,d messages with an adaptive window (limit=%d, nack=%d) in %,d ms%n",
+                    MESSAGE_COUNT, publisher.getWindow().getLimit(), publisher.getNackCount(), Duration.ofNanos(end - start).toMillis());
+        }
+    }
+
+    /**
+     * Strategy #5: Striped Parallel Publishing
+     * 多线程分条并行发布：多个生产者线程分散到多个信道（每个信道独立的连接）上并行发布，各条带独立确认，最后统一等待全部确认
+     * 单个信道上的发布是串行的，吞吐量受限于一个信道的确认往返和一个连接的 socket 写入，分条后吞吐量可随 CPU 核数增长
+     */
+    static void publishMessagesStriped() throws Exception {
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        try (Connection connection = createConnection();
+             StripedPublisher publisher = StripedPublisher.overConnections(createConnectionFactory(), threads)) {
+            Channel channel = connection.createChannel();
+
+            String queue = UUID.randomUUID().toString();
+            channel.queueDeclare(queue, false, false, true, null);
+
+            long start = System.nanoTime();
+            Thread[] producers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                int from = MESSAGE_COUNT * t / threads;
+                int to = MESSAGE_COUNT * (t + 1) / threads;
+                producers[t] = new Thread(() -> {
+                    // 每个线程固定使用一个条带
+                    for (int i = from; i < to; i++) {
+                        String body = String.valueOf(i);
+                        publisher.publishAsync("", queue, null, body.getBytes())
+                                .whenComplete((seqNo, e) -> {
+                                    if (e != null) {
+                                        System.err.format("Message with body %s failed: %s%n", body, e.getMessage());
+                                    }
+                                });
+                    }
+                }, "striped-producer-" + t);
+                producers[t].start();
+            }
+            for (Thread producer : producers) {
+                producer.join();
+            }
+
+            // 所有条带上的消息都确认后返回；若消息在60秒内未完全确认好，则抛出异常
+            try {
+                publisher.flush().get(60, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                throw new IllegalStateException("All messages could not be confirmed in 60 seconds");
+            }
+
+            long end = System.nanoTime();
+            System.out.format("Published %,d messages striped over %d connections (nack=%d) in %,d ms%n",
+                    MESSAGE_COUNT, publisher.getStripeCount(), publisher.getNackCount(), Duration.ofNanos(end - start).toMillis());
+        }
+    }
+
+    /**
+     * Strategy #6: Batch Envelopes with Asynchronous Confirms
+     * 批量信封：每100条小消息打包为一条 AMQP 消息（BatchingPublisher），再通过自适应窗口异步确认发布，
+     * 帧、路由、入队及确认的开销由100条消息分摊，消费者需用 UnbatchingDeliverCallback 拆包
+     */
+    static void publishMessagesInEnvelopes() throws Exception {
+        try (Connection connection = createConnection()) {
+            Channel channel = connection.createChannel();
+
+            String queue = UUID.randomUUID().toString();
+            channel.queueDeclare(queue, false, false, true, null);
+
+            AdaptiveConfirmPublisher publisher = new AdaptiveConfirmPublisher(channel);
+            // 每批最多100条或64KB，按条目数发布时不需要 linger
+            BatchingPublisher batcher = new BatchingPublisher((exchange, routingKey, props, body) ->
+                    publisher.publishAsync(exchange, routingKey, props, body)
+                            .whenComplete((seqNo, e) -> {
+                                if (e != null) {
+                                    System.err.format("Envelope failed: %s%n", e.getMessage());
+                                }
+                            }), 100, 64 * 1024, 0);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                String body = String.valueOf(i);
+                batcher.publish("", queue, null, body.getBytes());
             }
+            batcher.close();
 
-            // 若消息在60秒内未完全确认好，则抛出异常
-            if (!waitUntil(Duration.ofSeconds(60), outstandingConfirms::isEmpty)) {
+            try {
+                publisher.flush().get(60, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
                 throw new IllegalStateException("All messages could not be confirmed in 60 seconds");
             }
 
             long end = System.nanoTime();
-            System.out.format("Published %,d messages and handled confirms asynchronously in %,d ms%n", MESSAGE_COUNT, Duration.ofNanos(end - start).toMillis());
+            System.out.format("Published %,d messages in %,d envelopes in %,d ms%n",
+                    MESSAGE_COUNT, publisher.getAckCount(), Duration.ofNanos(end - start).toMillis());
         }
     }
 
+    static void publishTracked(Channel channel, String queue, byte[] body, ConfirmTracker outstandingConfirms) throws Exception {
+        long nextPublishSeqNo = channel.getNextPublishSeqNo(); // 获取下一个消息的序列号
+        outstandingConfirms.track(nextPublishSeqNo, System.nanoTime(), body);
+        System.out.printf("发布: nextPublishSeqNo=%d, body=%s\n", nextPublishSeqNo, new String(body, StandardCharsets.UTF_8));
+        channel.basicPublish("", queue, null, body);
+    }
+
     static boolean waitUntil(Duration timeout, BooleanSupplier condition) throws InterruptedException {
         int waited = 0;
         while (!condition.getAsBoolean() && waited < timeout.toMillis()) {
             Thread.sleep(100L);
-            waited = +100;
+            waited += 100;
         }
         return condition.getAsBoolean();
     }
@@ -0,0 +1,187 @@
+package com.xixi.lab.rabbitmq.java.ox07_publisher_confirms;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分条（striped）并行发布者：多个生产者线程分散到 N 个信道（或 N 个连接）上并行发布
+ *
+ * 单个信道上，所有发布都要串行写入，确认也只能按该信道的往返逐个返回；单个连接上，所有信道共用一个 socket 写线程。
+ * 这里把 N 个信道各自包装为一个 {@link AdaptiveConfirmPublisher}（一个“条带”，独立跟踪确认、独立的自适应窗口），
+ * 每个生产者线程首次发布时按轮询绑定到一个条带上，之后一直使用该条带（同一线程发布的消息在同一信道上，保持顺序）：
+ * （1）overChannels：N 个信道共用一个连接，避免了单信道的串行与确认往返瓶颈；
+ * （2）overConnections：每个条带独占一个连接（独立的 socket 和读写线程），进一步避免单个 socket 的写入瓶颈。
+ *
+ * flush()/awaitConfirms() 汇总所有条带：此前各线程发布的消息全部确认后才完成。
+ */
+public class StripedPublisher implements AutoCloseable {
+
+    private final AdaptiveConfirmPublisher[] stripes;
+
+    // 由本发布者创建、需在 close() 时关闭的信道/连接
+    private final List<AutoCloseable> resources;
+
+    private final AtomicInteger nextStripe = new AtomicInteger();
+
+    // 当前线程绑定的条带
+    private final ThreadLocal<AdaptiveConfirmPublisher> current;
+
+    /**
+     * 在给定的信道上创建条带（每个信道一个条带），信道由调用方负责关闭
+     */
+    public StripedPublisher(List<Channel> channels) throws IOException {
+        this(channels, new ArrayList<>());
+    }
+
+    private StripedPublisher(List<Channel> channels, List<AutoCloseable> resources) throws IOException {
+        if (channels.isEmpty()) {
+            throw new IllegalArgumentException("at least one channel is required");
+        }
+        this.stripes = new AdaptiveConfirmPublisher[channels.size()];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new AdaptiveConfirmPublisher(channels.get(i));
+        }
+        this.resources = resources;
+        this.current = ThreadLocal.withInitial(() -> stripes[Math.floorMod(nextStripe.getAndIncrement(), stripes.length)]);
+    }
+
+    /**
+     * N 个条带共用一个连接，每个条带一个信道
+     */
+    public static StripedPublisher overChannels(Connection connection, int stripes) throws IOException {
+        List<Channel> channels = new ArrayList<>(stripes);
+        List<AutoCloseable> resources = new ArrayList<>(stripes);
+        try {
+            for (int i = 0; i < stripes; i++) {
+                Channel channel = connection.createChannel();
+                if (channel == null) {
+                    throw new IOException("no channel available on " + connection);
+                }
+                channels.add(channel);
+                resources.add(channel);
+            }
+            // 创建条带时开启确认模式（confirmSelect）也可能失败
+            return new StripedPublisher(channels, resources);
+        } catch (IOException e) {
+            // 已创建的信道随之关闭，连接由调用方管理
+            closeAll(resources);
+            throw e;
+        }
+    }
+
+    /**
+     * 每个条带独占一个连接（及其上的一个信道）
+     */
+    public static StripedPublisher overConnections(ConnectionFactory factory, int stripes) throws IOException, TimeoutException {
+        List<Channel> channels = new ArrayList<>(stripes);
+        List<AutoCloseable> resources = new ArrayList<>(stripes);
+        try {
+            for (int i = 0; i < stripes; i++) {
+                Connection connection = factory.newConnection("striped-publisher-" + i);
+                resources.add(connection);
+                Channel channel = connection.createChannel();
+                if (channel == null) {
+                    throw new IOException("no channel available on " + connection);
+                }
+                channels.add(channel);
+            }
+            return new StripedPublisher(channels, resources);
+        } catch (IOException | TimeoutException e) {
+            closeAll(resources);
+            throw e;
+        }
+    }
+
+    /**
+     * 在当前线程的条带上发布消息，该条带的窗口已满时阻塞
+     */
+    public void publish(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body)
+            throws IOException, InterruptedException {
+        current.get().publish(exchange, routingKey, props, body);
+    }
+
+    /**
+     * 在当前线程的条带上异步发布消息，返回的 Future 在收到 ack/nack 时完成（见 {@link AdaptiveConfirmPublisher#publishAsync}）
+     */
+    public CompletableFuture<Long> publishAsync(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body) {
+        return current.get().publishAsync(exchange, routingKey, props, body);
+    }
+
+    /**
+     * 返回的 Future 在所有条带上此前发布的消息都确认后完成
+     */
+    public CompletableFuture<Void> flush() {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            futures[i] = stripes[i].flush();
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    /**
+     * 等待所有条带上已发布的消息都被确认
+     *
+     * @return 是否在超时前全部确认
+     */
+    public boolean awaitConfirms(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        for (AdaptiveConfirmPublisher stripe : stripes) {
+            if (!stripe.awaitConfirms(Duration.ofNanos(Math.max(0L, deadline - System.nanoTime())))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    public AdaptiveConfirmPublisher getStripe(int index) {
+        return stripes[index];
+    }
+
+    public long getAckCount() {
+        long count = 0;
+        for (AdaptiveConfirmPublisher stripe : stripes) {
+            count += stripe.getAckCount();
+        }
+        return count;
+    }
+
+    public long getNackCount() {
+        long count = 0;
+        for (AdaptiveConfirmPublisher stripe : stripes) {
+            count += stripe.getNackCount();
+        }
+        return count;
+    }
+
+    /**
+     * 关闭由 overChannels()/overConnections() 创建的信道或连接（不等待未确认的消息，需先 flush()）
+     */
+    @Override
+    public void close() {
+        closeAll(resources);
+    }
+
+    private static void closeAll(List<AutoCloseable> resources) {
+        for (AutoCloseable resource : resources) {
+            try {
+                resource.close();
+            } catch (Exception e) {
+                // 已关闭或连接已断开，忽略
+            }
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package com.xixi.lab.rabbitmq.java.perf;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.DeliverCallback;
+import com.rabbitmq.client.MessageProperties;
+import com.xixi.lab.rabbitmq.java.common.batch.AckCoalescer;
+import com.xixi.lab.rabbitmq.java.common.metrics.ClientMetrics;
+import com.xixi.lab.rabbitmq.java.common.metrics.LatencyStamp;
+import com.xixi.lab.rabbitmq.java.ox07_publisher_confirms.ConfirmTracker;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 压测工具（类似 RabbitMQ PerfTest）：N 个生产者、M 个消费者，按 ox01 ~ ox07 的交换机类型与模式发布/消费，
+ * 每秒输出吞吐量与端到端延迟百分位，可同时写入 CSV
+ *
+ * 示例：
+ *   工作队列，2 个生产者各 5000 条/秒，4 个消费者预取 100、每 50 条批量确认：
+ *     --producers 2 --consumers 4 --rate 5000 --prefetch 100 --multi-ack 50
+ *   topic 交换机 + 发布确认 + 不同大小的消息，每个消费者一个临时队列：
+ *     --exchange-type topic --routing-key quick.orange.rabbit,lazy.brown.fox --binding-key *.orange.*,lazy.#
+ *     --queue-per-consumer --confirm 500 --size 100:70,4000:25,64000:5 --csv result.csv
+ *   所有参数见 {@link LoadOptions#usage()}（--help）。
+ *
+ * 每个生产者、消费者各自一个连接（各自的 socket 与读写线程，避免相互影响）。
+ * 消息体前8字节为发布时间戳（{@link LatencyStamp#nowEpochNanos()}），消费者据此计算 发布 -> 消费 的延迟，
+ * 生产者与消费者分开运行（--consumers 0 / --producers 0）时应在同一台机器上。
+ * 开启发布确认时，每个生产者最多 --confirm 条未确认消息（{@link ConfirmTracker} 统计批量确认覆盖的条数）。
+ */
+public class LoadGenerator {
+
+    /**
+     * 消息体中发布时间戳的字节数
+     */
+    static final int HEADER_BYTES = 8;
+
+    private final LoadOptions options;
+
+    private final LoadStats stats = new LoadStats();
+
+    private final List<Connection> connections = new ArrayList<>();
+
+    private final List<Thread> producers = new ArrayList<>();
+
+    private volatile boolean running = true;
+
+    public LoadGenerator(LoadOptions options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && ("--help".equals(args[0]) || "-h".equals(args[0]))) {
+            System.out.println(LoadOptions.usage());
+            return;
+        }
+        LoadOptions options;
+        try {
+            options = LoadOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(LoadOptions.usage());
+            System.exit(1);
+            return;
+        }
+        new LoadGenerator(options).run();
+    }
+
+    public void run() throws Exception {
+        ConnectionFactory factory = new ConnectionFactory();
+        factory.setUri(options.uri);
+        ClientMetrics.install(factory);
+
+        System.out.println("[perf] " + options);
+        try {
+            declareTopology(factory);
+            for (int i = 0; i < options.consumers; i++) {
+                startConsumer(factory, i);
+            }
+            for (int i = 0; i < options.producers; i++) {
+                startProducer(factory, i);
+            }
+            report();
+        } finally {
+            running = false;
+            for (Thread producer : producers) {
+                producer.join(TimeUnit.SECONDS.toMillis(10));
+            }
+            for (Connection connection : connections) {
+                if (connection.isOpen()) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    private String routingKey(int index) {
+        return "default".equals(options.exchangeType) ? options.queue
+                : options.routingKeys.get(index % options.routingKeys.size());
+    }
+
+    private String exchange() {
+        return "default".equals(options.exchangeType) ? "" : options.exchange;
+    }
+
+    /**
+     * 声明交换机、共用的队列及绑定（每个消费者的临时队列在消费者中声明）
+     */
+    private void declareTopology(ConnectionFactory factory) throws Exception {
+        try (Connection connection = factory.newConnection("perf-setup");
+             Channel channel = connection.createChannel()) {
+            if (!"default".equals(options.exchangeType)) {
+                channel.exchangeDeclare(options.exchange,
+                        BuiltinExchangeType.valueOf(options.exchangeType.toUpperCase()), options.persistent);
+            }
+            if (!options.queuePerConsumer) {
+                channel.queueDeclare(options.queue, options.persistent, false, false, null);
+                bind(channel, options.queue);
+            }
+        }
+    }
+
+    private void bind(Channel channel, String queue) throws IOException {
+        if ("default".equals(options.exchangeType)) {
+            return;
+        }
+        for (String bindingKey : options.bindingKeys) {
+            channel.queueBind(queue, options.exchange, bindingKey);
+        }
+    }
+
+    private void startConsumer(ConnectionFactory factory, int index) throws Exception {
+        Connection connection = factory.newConnection("perf-consumer-" + index);
+        connections.add(connection);
+        Channel channel = connection.createChannel();
+        if (options.prefetch > 0) {
+            channel.basicQos(options.prefetch);
+        }
+        String queue = options.queue;
+        if (options.queuePerConsumer) {
+            queue = channel.queueDeclare().getQueue();
+            bind(channel, queue);
+        }
+        // 手动确认：每 multiAck 条合并确认一次，不足一批的消息最多等待 200ms 后确认（发布结束时的最后一批也会被确认）
+        AckCoalescer acks = options.autoAck ? null : new AckCoalescer(channel, options.multiAck, 200);
+        DeliverCallback callback = (consumerTag, delivery) -> {
+            byte[] body = delivery.getBody();
+            long publishedAt = body.length >= HEADER_BYTES ? ByteBuffer.wrap(body).getLong(0) : LatencyStamp.nowEpochNanos();
+            stats.received(LatencyStamp.nowEpochNanos() - publishedAt);
+            if (acks != null) {
+                acks.ack(delivery.getEnvelope().getDeliveryTag());
+            }
+        };
+        channel.basicConsume(queue, options.autoAck, callback, consumerTag -> { });
+    }
+
+    private void startProducer(ConnectionFactory factory, int index) throws Exception {
+        Connection connection = factory.newConnection("perf-producer-" + index);
+        connections.add(connection);
+        Channel channel = connection.createChannel();
+        Semaphore window = null;
+        ConfirmTracker tracker = null;
+        if (options.confirm > 0) {
+            channel.confirmSelect();
+            window = new Semaphore(options.confirm);
+            tracker = new ConfirmTracker(options.confirm);
+            Semaphore confirmWindow = window;
+            ConfirmTracker confirmTracker = tracker;
+            channel.addConfirmListener(new ConfirmListener() {
+                @Override
+                public void handleAck(long deliveryTag, boolean multiple) {
+                    int count = confirmTracker.confirm(deliveryTag, multiple, System.nanoTime());
+                    stats.confirmed(count);
+                    confirmWindow.release(count);
+                }
+
+                @Override
+                public void handleNack(long deliveryTag, boolean multiple) {
+                    int count = confirmTracker.confirm(deliveryTag, multiple, System.nanoTime());
+                    stats.nacked(count);
+                    confirmWindow.release(count);
+                }
+            });
+        }
+        Semaphore confirmWindow = window;
+        ConfirmTracker confirmTracker = tracker;
+        Thread thread = new Thread(() -> {
+            try {
+                produce(channel, confirmWindow, confirmTracker);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                if (running) {
+                    System.err.println("[perf] producer " + index + " failed: " + e);
+                }
+            }
+        }, "perf-producer-" + index);
+        producers.add(thread);
+        thread.start();
+    }
+
+    private void produce(Channel channel, Semaphore window, ConfirmTracker tracker) throws Exception {
+        AMQP.BasicProperties props = options.persistent ? MessageProperties.PERSISTENT_BASIC : MessageProperties.BASIC;
+        String exchange = exchange();
+        long intervalNanos = options.rate > 0 ? TimeUnit.SECONDS.toNanos(1) / options.rate : 0;
+        long next = System.nanoTime();
+        for (long i = 0; running && (options.messages == 0 || i < options.messages); i++) {
+            if (window != null) {
+                while (!window.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                    if (!running) {
+                        return;
+                    }
+                }
+            }
+            byte[] body = new byte[options.sizes.next()];
+            ByteBuffer.wrap(body).putLong(0, LatencyStamp.nowEpochNanos());
+            if (tracker != null) {
+                // 先跟踪再发布，确认可能在 basicPublish 返回前就已到达
+                tracker.track(channel.getNextPublishSeqNo(), System.nanoTime(), null);
+            }
+            channel.basicPublish(exchange, routingKey((int) i), props, body);
+            stats.sent(body.length);
+
+            if (intervalNanos > 0) {
+                next += intervalNanos;
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                } else if (wait < -TimeUnit.SECONDS.toNanos(1)) {
+                    // 落后超过1秒（如 Broker 流控）时不再追赶，避免恢复后突发
+                    next = System.nanoTime();
+                }
+            }
+        }
+        if (tracker != null) {
+            channel.waitForConfirms(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    /**
+     * 每秒输出一次，直到运行时间结束、Ctrl+C，或所有生产者发完且消费者已收完（或不再有进展）
+     */
+    private void report() throws Exception {
+        CountDownLatch finished = new CountDownLatch(1);
+        Thread shutdownHook = new Thread(() -> {
+            running = false;
+            try {
+                finished.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "perf-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+        PrintWriter csv = options.csv == null ? null : new PrintWriter(new FileWriter(options.csv));
+        long start = System.nanoTime();
+        try {
+            if (csv != null) {
+                csv.println(LoadStats.CSV_HEADER);
+            }
+            long idleSeconds = 0;
+            long lastReceived = 0;
+            for (long second = 1; running; second++) {
+                long wake = start + TimeUnit.SECONDS.toNanos(second);
+                while (running && System.nanoTime() < wake) {
+                    LockSupport.parkNanos(Math.min(wake - System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(100)));
+                }
+                LoadStats.Interval interval = stats.interval(second);
+                System.out.println(interval.format());
+                if (csv != null) {
+                    csv.println(interval.csv());
+                    csv.flush();
+                }
+                if (options.time > 0 && second >= options.time) {
+                    break;
+                }
+                if (options.messages > 0 && options.producers > 0 && producers.stream().noneMatch(Thread::isAlive)) {
+                    long received = stats.getReceived();
+                    idleSeconds = received == lastReceived ? idleSeconds + 1 : 0;
+                    lastReceived = received;
+                    if (options.consumers == 0 || received >= stats.getSent() || idleSeconds >= 3) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            running = false;
+            if (csv != null) {
+                csv.close();
+            }
+            System.out.println("[perf] summary: " + stats.summary((System.nanoTime() - start) / 1e9));
+            finished.countDown();
+        }
+    }
+}
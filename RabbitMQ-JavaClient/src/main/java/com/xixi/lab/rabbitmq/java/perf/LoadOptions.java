@@ -0,0 +1,200 @@
+package com.xixi.lab.rabbitmq.java.perf;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 压测参数：由命令行解析（--name value 或 --flag），未指定的取默认值，见 {@link #usage()}
+ */
+public class LoadOptions {
+
+    String uri = "amqp://localhost";
+
+    int producers = 1;
+
+    int consumers = 1;
+
+    SizeDistribution sizes = SizeDistribution.parse("1000");
+
+    String sizeSpec = "1000";
+
+    // 每个生产者的目标速率（条/秒），0 表示不限速
+    int rate;
+
+    // 未确认消息的上限，0 表示不开启发布确认
+    int confirm;
+
+    int prefetch;
+
+    boolean autoAck;
+
+    // 手动确认时每 multiAck 条消息批量确认一次（multiple=true），1 表示逐条确认
+    int multiAck = 1;
+
+    // default、direct、fanout、topic
+    String exchangeType = "direct";
+
+    String exchange = "perf_test_X";
+
+    String queue = "perf_test_queue";
+
+    // 每个消费者各自一个临时队列（发布/订阅），否则所有消费者共用 queue（工作队列）
+    boolean queuePerConsumer;
+
+    List<String> routingKeys = Collections.singletonList("perf.test");
+
+    List<String> bindingKeys;
+
+    boolean persistent;
+
+    // 运行秒数，0 表示一直运行到 Ctrl+C
+    int time = 30;
+
+    // 每个生产者的消息数，0 表示不限
+    long messages;
+
+    String csv;
+
+    /**
+     * @throws IllegalArgumentException 参数错误
+     */
+    public static LoadOptions parse(String[] args) {
+        LoadOptions options = new LoadOptions();
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i];
+            switch (name) {
+                case "--auto-ack":
+                    options.autoAck = true;
+                    continue;
+                case "--queue-per-consumer":
+                    options.queuePerConsumer = true;
+                    continue;
+                case "--persistent":
+                    options.persistent = true;
+                    continue;
+                default:
+                    break;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("missing value for " + name);
+            }
+            String value = args[++i];
+            switch (name) {
+                case "--uri":
+                    options.uri = value;
+                    break;
+                case "--producers":
+                    options.producers = nonNegative(name, value);
+                    break;
+                case "--consumers":
+                    options.consumers = nonNegative(name, value);
+                    break;
+                case "--size":
+                    options.sizes = SizeDistribution.parse(value);
+                    options.sizeSpec = value;
+                    break;
+                case "--rate":
+                    options.rate = nonNegative(name, value);
+                    break;
+                case "--confirm":
+                    options.confirm = nonNegative(name, value);
+                    break;
+                case "--prefetch":
+                    options.prefetch = nonNegative(name, value);
+                    break;
+                case "--multi-ack":
+                    options.multiAck = Math.max(1, nonNegative(name, value));
+                    break;
+                case "--exchange-type":
+                    if (!Arrays.asList("default", "direct", "fanout", "topic").contains(value)) {
+                        throw new IllegalArgumentException("unsupported exchange type " + value);
+                    }
+                    options.exchangeType = value;
+                    break;
+                case "--exchange":
+                    options.exchange = value;
+                    break;
+                case "--queue":
+                    options.queue = value;
+                    break;
+                case "--routing-key":
+                    options.routingKeys = Arrays.asList(value.split(","));
+                    break;
+                case "--binding-key":
+                    options.bindingKeys = Arrays.asList(value.split(","));
+                    break;
+                case "--time":
+                    options.time = nonNegative(name, value);
+                    break;
+                case "--messages":
+                    options.messages = Long.parseLong(value);
+                    break;
+                case "--csv":
+                    options.csv = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + name);
+            }
+        }
+        if (options.bindingKeys == null) {
+            options.bindingKeys = options.routingKeys;
+        }
+        if ("default".equals(options.exchangeType) && options.queuePerConsumer) {
+            throw new IllegalArgumentException("--queue-per-consumer needs an exchange, not the default exchange");
+        }
+        // 未确认的消息达到预取值后 Broker 停止投递，凑不满一批，每批都要等合并确认的超时
+        if (!options.autoAck && options.prefetch > 0 && options.multiAck > options.prefetch) {
+            throw new IllegalArgumentException("--multi-ack " + options.multiAck + " must not exceed --prefetch " + options.prefetch);
+        }
+        return options;
+    }
+
+    private static int nonNegative(String name, String value) {
+        int number;
+        try {
+            number = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " expects a number but got " + value);
+        }
+        if (number < 0) {
+            throw new IllegalArgumentException(name + " must not be negative");
+        }
+        return number;
+    }
+
+    static String usage() {
+        return String.join("\n",
+                "Usage: LoadGenerator [options]",
+                "  --uri <amqp-uri>            Broker 地址，默认 amqp://localhost",
+                "  --producers <n>             生产者数（每个一个连接），默认 1；0 表示只消费",
+                "  --consumers <n>             消费者数（每个一个连接），默认 1；0 表示只发布",
+                "  --size <spec>               消息体大小：1000 | 100-4000 | 100:70,1000:25,64000:5，默认 1000（至少 8 字节）",
+                "  --rate <n>                  每个生产者的目标速率（条/秒），默认 0 不限速",
+                "  --confirm <n>               开启发布确认，最多 n 条未确认消息，默认 0 不开启",
+                "  --prefetch <n>              消费者预取值 basicQos，默认 0 不限制",
+                "  --auto-ack                  自动确认，默认手动确认",
+                "  --multi-ack <n>             手动确认时每 n 条（或等待 200ms）批量确认一次（multiple=true），默认 1，不能超过预取值",
+                "  --exchange-type <type>      default（ox01/ox02）| direct（ox04，默认）| fanout（ox03）| topic（ox05）",
+                "  --exchange <name>           交换机名，默认 perf_test_X",
+                "  --queue <name>              共用的队列名（工作队列），默认 perf_test_queue",
+                "  --queue-per-consumer        每个消费者一个临时队列（发布/订阅）",
+                "  --routing-key <k1,k2>       发布的路由键，多个时轮流使用，默认 perf.test",
+                "  --binding-key <k1,k2>       绑定键（topic 时可用 * #），默认同路由键",
+                "  --persistent                持久化队列与消息",
+                "  --time <seconds>            运行时长，默认 30；0 表示运行到 Ctrl+C",
+                "  --messages <n>              每个生产者发布的消息数，默认 0 不限",
+                "  --csv <file>                同时将每秒统计写入 CSV 文件");
+    }
+
+    @Override
+    public String toString() {
+        return "producers=" + producers + ", consumers=" + consumers + ", size=" + sizeSpec
+                + ", rate=" + (rate == 0 ? "unlimited" : rate + "/s per producer")
+                + ", confirm=" + (confirm == 0 ? "off" : confirm + " outstanding")
+                + ", prefetch=" + prefetch + ", ack=" + (autoAck ? "auto" : multiAck > 1 ? "multi(" + multiAck + ")" : "manual")
+                + ", exchange=" + exchangeType + ("default".equals(exchangeType) ? "" : "(" + exchange + ")")
+                + ", queue=" + (queuePerConsumer ? "per-consumer" : queue) + ", routingKeys=" + routingKeys
+                + ", persistent=" + persistent + ", time=" + (time == 0 ? "unlimited" : time + "s");
+    }
+}
@@ -0,0 +1,161 @@
+package com.xixi.lab.rabbitmq.java.perf;
+
+import com.xixi.lab.rabbitmq.java.common.metrics.LatencyHistogram;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 压测统计：生产者、消费者线程并发累加（LongAdder），报告线程每秒取一次时间段内的增量
+ *
+ * 延迟为 发布 -> 消费 的端到端延迟（消息体前8字节中的发布时间戳），累计与按时间段各一个直方图。
+ */
+class LoadStats {
+
+    static final String CSV_HEADER = "time_s,sent_msg_s,sent_bytes_s,confirmed_msg_s,nacked_msg_s,received_msg_s,"
+            + "latency_p50_us,latency_p95_us,latency_p99_us,latency_p999_us,latency_max_us";
+
+    private final LongAdder sent = new LongAdder();
+
+    private final LongAdder sentBytes = new LongAdder();
+
+    private final LongAdder confirmed = new LongAdder();
+
+    private final LongAdder nacked = new LongAdder();
+
+    private final LongAdder received = new LongAdder();
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final LatencyHistogram intervalLatency = new LatencyHistogram();
+
+    // 上一个时间段结束时的累计值，只由报告线程访问
+    private long lastNanos = System.nanoTime();
+
+    private long lastSent;
+
+    private long lastSentBytes;
+
+    private long lastConfirmed;
+
+    private long lastNacked;
+
+    private long lastReceived;
+
+    void sent(int bytes) {
+        sent.increment();
+        sentBytes.add(bytes);
+    }
+
+    void confirmed(int count) {
+        confirmed.add(count);
+    }
+
+    void nacked(int count) {
+        nacked.add(count);
+    }
+
+    void received(long latencyNanos) {
+        received.increment();
+        latency.record(latencyNanos);
+        intervalLatency.record(latencyNanos);
+    }
+
+    long getSent() {
+        return sent.sum();
+    }
+
+    long getReceived() {
+        return received.sum();
+    }
+
+    /**
+     * 结束当前时间段，返回该时间段的统计
+     */
+    Interval interval(long elapsedSeconds) {
+        long now = System.nanoTime();
+        double seconds = Math.max(1L, now - lastNanos) / 1e9;
+        long sentNow = sent.sum();
+        long sentBytesNow = sentBytes.sum();
+        long confirmedNow = confirmed.sum();
+        long nackedNow = nacked.sum();
+        long receivedNow = received.sum();
+        Interval interval = new Interval(elapsedSeconds,
+                (sentNow - lastSent) / seconds, (sentBytesNow - lastSentBytes) / seconds,
+                (confirmedNow - lastConfirmed) / seconds, (nackedNow - lastNacked) / seconds,
+                (receivedNow - lastReceived) / seconds, intervalLatency.intervalSnapshot());
+        lastNanos = now;
+        lastSent = sentNow;
+        lastSentBytes = sentBytesNow;
+        lastConfirmed = confirmedNow;
+        lastNacked = nackedNow;
+        lastReceived = receivedNow;
+        return interval;
+    }
+
+    /**
+     * 整个压测的汇总
+     */
+    String summary(double seconds) {
+        seconds = Math.max(seconds, 1e-3);
+        return String.format("sent %d (%.0f msg/s, %.2f MB/s), confirmed %d, nacked %d, received %d (%.0f msg/s)%nlatency: %s",
+                sent.sum(), sent.sum() / seconds, sentBytes.sum() / seconds / 1024 / 1024,
+                confirmed.sum(), nacked.sum(), received.sum(), received.sum() / seconds,
+                latency.snapshot().format(TimeUnit.MICROSECONDS));
+    }
+
+    /**
+     * 一个时间段（约1秒）的统计，速率为每秒
+     */
+    static class Interval {
+
+        private final long elapsedSeconds;
+
+        private final double sent;
+
+        private final double sentBytes;
+
+        private final double confirmed;
+
+        private final double nacked;
+
+        private final double received;
+
+        private final LatencyHistogram.Snapshot latency;
+
+        Interval(long elapsedSeconds, double sent, double sentBytes, double confirmed, double nacked, double received,
+                 LatencyHistogram.Snapshot latency) {
+            this.elapsedSeconds = elapsedSeconds;
+            this.sent = sent;
+            this.sentBytes = sentBytes;
+            this.confirmed = confirmed;
+            this.nacked = nacked;
+            this.received = received;
+            this.latency = latency;
+        }
+
+        String format() {
+            String line = String.format("%4ds  sent %9.0f msg/s  confirmed %9.0f msg/s  nacked %6.0f msg/s  received %9.0f msg/s",
+                    elapsedSeconds, sent, confirmed, nacked, received);
+            if (latency.getCount() > 0) {
+                line += String.format("  latency p50 %s  p95 %s  p99 %s  max %s",
+                        duration(latency.percentile(50)), duration(latency.percentile(95)),
+                        duration(latency.percentile(99)), duration(latency.getMax()));
+            }
+            return line;
+        }
+
+        String csv() {
+            // CSV 中的小数点不随系统语言环境变化
+            return String.format(Locale.ROOT, "%d,%.0f,%.0f,%.0f,%.0f,%.0f,%.1f,%.1f,%.1f,%.1f,%.1f", elapsedSeconds,
+                    sent, sentBytes, confirmed, nacked, received,
+                    latency.percentile(50) / 1e3, latency.percentile(95) / 1e3, latency.percentile(99) / 1e3,
+                    latency.percentile(99.9) / 1e3, latency.getMax() / 1e3);
+        }
+
+        private static String duration(long nanos) {
+            return nanos >= 10_000_000L ? String.format("%.0fms", nanos / 1e6) : String.format("%.0fus", nanos / 1e3);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.xixi.lab.rabbitmq.java.perf;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 消息体大小分布，支持三种写法：
+ * （1）固定大小：1000
+ * （2）均匀分布：100-4000（含两端）
+ * （3）加权分布：100:70,1000:25,64000:5（大小:权重，按权重随机选取）
+ *
+ * 消息体前 {@link LoadGenerator#HEADER_BYTES} 字节用于发布时间戳，小于该值的大小按该值处理。
+ */
+public class SizeDistribution {
+
+    private final int[] sizes;
+
+    // 累计权重；均匀分布时为 null，sizes 为 [min, max]
+    private final long[] cumulativeWeights;
+
+    private SizeDistribution(int[] sizes, long[] cumulativeWeights) {
+        this.sizes = sizes;
+        this.cumulativeWeights = cumulativeWeights;
+    }
+
+    /**
+     * @throws IllegalArgumentException 格式错误
+     */
+    public static SizeDistribution parse(String spec) {
+        try {
+            if (spec.contains(":")) {
+                String[] entries = spec.split(",");
+                int[] sizes = new int[entries.length];
+                long[] cumulative = new long[entries.length];
+                long total = 0;
+                for (int i = 0; i < entries.length; i++) {
+                    String[] pair = entries[i].trim().split(":");
+                    if (pair.length != 2) {
+                        throw new IllegalArgumentException("expected size:weight but got " + entries[i]);
+                    }
+                    sizes[i] = size(pair[0]);
+                    long weight = Long.parseLong(pair[1].trim());
+                    if (weight <= 0) {
+                        throw new IllegalArgumentException("weight must be positive: " + entries[i]);
+                    }
+                    total += weight;
+                    cumulative[i] = total;
+                }
+                return new SizeDistribution(sizes, cumulative);
+            }
+            int dash = spec.indexOf('-');
+            if (dash > 0) {
+                int min = size(spec.substring(0, dash));
+                int max = size(spec.substring(dash + 1));
+                if (min > max) {
+                    throw new IllegalArgumentException("min size is greater than max size");
+                }
+                return new SizeDistribution(new int[]{min, max}, null);
+            }
+            int size = size(spec);
+            return new SizeDistribution(new int[]{size, size}, null);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid size distribution '" + spec + "'", e);
+        }
+    }
+
+    private static int size(String value) {
+        int size = Integer.parseInt(value.trim());
+        if (size < 0) {
+            throw new IllegalArgumentException("size must not be negative: " + value);
+        }
+        return Math.max(size, LoadGenerator.HEADER_BYTES);
+    }
+
+    /**
+     * 随机选取一个大小
+     */
+    public int next() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (cumulativeWeights == null) {
+            return sizes[0] == sizes[1] ? sizes[0] : sizes[0] + random.nextInt(sizes[1] - sizes[0] + 1);
+        }
+        long pick = random.nextLong(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (pick < cumulativeWeights[i]) {
+                return sizes[i];
+            }
+        }
+        return sizes[sizes.length - 1];
+    }
+}
@@ -0,0 +1,253 @@
+package com.xixi.lab.rabbitmq.java.perf;
+
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.DeliverCallback;
+import com.xixi.lab.rabbitmq.java.common.broker.EmbeddedBroker;
+import com.xixi.lab.rabbitmq.java.common.metrics.LatencyHistogram;
+import com.xixi.lab.rabbitmq.java.common.metrics.LatencyStamp;
+import com.xixi.lab.rabbitmq.java.common.runtime.SubscriberMultiplexer;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 大量订阅者的扩展性测试：N 个订阅者各自一个临时队列，绑定到同一个 fanout 交换机（与 ReceiveLogs 相同），
+ * 发布若干条消息后输出线程数、堆内存占用与 发布 -> 消费 的延迟
+ *
+ * 两种模式：
+ * （1）multiplexed（默认）：所有订阅者经 {@link SubscriberMultiplexer} 放在少量 NIO 连接上，线程数与订阅者数量无关；
+ * （2）per-connection：与 ReceiveLogs 示例相同，每个订阅者一个阻塞 IO 的连接，每个连接都有读线程与消费者线程池，
+ *      订阅者较多时会耗尽线程（只用于对比，建议 --subscribers 不超过几百）。
+ *
+ * 示例：
+ *   --subscribers 10000 --connections 4 --consumers-per-channel 100 --messages 100
+ *   --subscribers 500 --mode per-connection --messages 100
+ *   --embedded：在本进程内启动 {@link EmbeddedBroker}（随机端口），无需安装 RabbitMQ；
+ *               Broker 每个连接一个读线程，也计入线程数
+ *
+ * 消息体为8字节的发布时间戳（{@link LatencyStamp#nowEpochNanos()}）。
+ */
+public class SubscriberScale {
+
+    private static final String EXCHANGE_NAME = "subscriber_scale_X";
+
+    private String uri = "amqp://localhost";
+
+    private String mode = "multiplexed";
+
+    private int subscribers = 10_000;
+
+    private int connections = 4;
+
+    private int consumersPerChannel = 100;
+
+    private int ioThreads = 2;
+
+    private int consumerThreads = 8;
+
+    private int messages = 100;
+
+    // 发布速率（条/秒），每条消息投递给所有订阅者
+    private int rate = 20;
+
+    private boolean embedded;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final LongAdder delivered = new LongAdder();
+
+    public static void main(String[] args) throws Exception {
+        SubscriberScale scale = new SubscriberScale();
+        try {
+            scale.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: [--uri amqp://localhost] [--mode multiplexed|per-connection] [--subscribers 10000]"
+                    + " [--connections 4] [--consumers-per-channel 100] [--io-threads 2] [--consumer-threads 8]"
+                    + " [--messages 100] [--rate 20] [--embedded]");
+            System.exit(1);
+            return;
+        }
+        scale.run();
+        // 阻塞 IO 模式下连接的线程不是守护线程
+        System.exit(0);
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i];
+            if ("--embedded".equals(name)) {
+                embedded = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("missing value for " + name);
+            }
+            String value = args[++i];
+            switch (name) {
+                case "--uri":
+                    uri = value;
+                    break;
+                case "--mode":
+                    if (!"multiplexed".equals(value) && !"per-connection".equals(value)) {
+                        throw new IllegalArgumentException("unsupported mode " + value);
+                    }
+                    mode = value;
+                    break;
+                case "--subscribers":
+                    subscribers = positive(name, value);
+                    break;
+                case "--connections":
+                    connections = positive(name, value);
+                    break;
+                case "--consumers-per-channel":
+                    consumersPerChannel = positive(name, value);
+                    break;
+                case "--io-threads":
+                    ioThreads = positive(name, value);
+                    break;
+                case "--consumer-threads":
+                    consumerThreads = positive(name, value);
+                    break;
+                case "--messages":
+                    messages = positive(name, value);
+                    break;
+                case "--rate":
+                    rate = positive(name, value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + name);
+            }
+        }
+    }
+
+    private static int positive(String name, String value) {
+        int number;
+        try {
+            number = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number: " + value);
+        }
+        if (number < 1) {
+            throw new IllegalArgumentException(name + " must be positive: " + value);
+        }
+        return number;
+    }
+
+    public void run() throws Exception {
+        EmbeddedBroker broker = embedded ? new EmbeddedBroker().listen(0) : null;
+        ConnectionFactory setupFactory = new ConnectionFactory();
+        setupFactory.setUri(broker != null ? "amqp://localhost:" + broker.getPort() : uri);
+
+        System.out.printf("[scale] mode=%s, subscribers=%d%s%n", mode, subscribers, "multiplexed".equals(mode)
+                ? String.format(", connections=%d, consumers-per-channel=%d, io-threads=%d, consumer-threads=%d",
+                connections, consumersPerChannel, ioThreads, consumerThreads) : "");
+        int baseThreads = threadCount();
+        long baseHeap = usedHeap();
+
+        SubscriberMultiplexer multiplexer = null;
+        List<Connection> perConnection = new ArrayList<>();
+        try (Connection setup = setupFactory.newConnection("subscriber-scale-setup")) {
+            Channel channel = setup.createChannel();
+            channel.exchangeDeclare(EXCHANGE_NAME, BuiltinExchangeType.FANOUT);
+
+            long start = System.nanoTime();
+            DeliverCallback deliverCallback = (consumerTag, delivery) -> {
+                latency.record(LatencyStamp.nowEpochNanos() - ByteBuffer.wrap(delivery.getBody()).getLong(0));
+                delivered.increment();
+            };
+            if ("multiplexed".equals(mode)) {
+                ConnectionFactory factory = setupFactory.clone();
+                multiplexer = new SubscriberMultiplexer(factory, connections, consumersPerChannel,
+                        ioThreads, consumerThreads, "subscriber-scale");
+                for (int i = 0; i < subscribers; i++) {
+                    multiplexer.subscribe(declareQueue(channel), true, 0, deliverCallback);
+                }
+            } else {
+                for (int i = 0; i < subscribers; i++) {
+                    Connection connection = setupFactory.newConnection("subscriber-scale-" + i);
+                    perConnection.add(connection);
+                    connection.createChannel().basicConsume(declareQueue(channel), true, deliverCallback, consumerTag -> { });
+                }
+            }
+            long setupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            int threads = threadCount();
+            long heap = usedHeap();
+            System.out.printf("[scale] %d subscribers ready in %d ms: threads=%d (+%d), heap=%.1fMB (+%.1fMB)%s%n",
+                    subscribers, setupMillis, threads, threads - baseThreads, heap / 1048576.0, (heap - baseHeap) / 1048576.0,
+                    multiplexer != null ? ", channels=" + multiplexer.getChannelCount() : ", connections=" + perConnection.size());
+
+            publish(channel);
+            awaitDeliveries((long) messages * subscribers);
+            System.out.printf("[scale] delivered %d/%d, latency: %s%n", delivered.sum(), (long) messages * subscribers,
+                    latency.snapshot().format(TimeUnit.MILLISECONDS));
+        } finally {
+            if (multiplexer != null) {
+                multiplexer.close();
+            }
+            for (Connection connection : perConnection) {
+                connection.abort();
+            }
+            if (broker != null) {
+                broker.close();
+            }
+        }
+    }
+
+    /**
+     * 临时队列：服务端命名，最后一个消费者取消（连接关闭）后自动删除
+     */
+    private static String declareQueue(Channel channel) throws Exception {
+        String queue = channel.queueDeclare("", false, false, true, null).getQueue();
+        channel.queueBind(queue, EXCHANGE_NAME, "");
+        return queue;
+    }
+
+    private void publish(Channel channel) throws Exception {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long next = System.nanoTime();
+        byte[] body = new byte[8];
+        for (int i = 0; i < messages; i++) {
+            LockSupport.parkNanos(next - System.nanoTime());
+            next += intervalNanos;
+            ByteBuffer.wrap(body).putLong(0, LatencyStamp.nowEpochNanos());
+            channel.basicPublish(EXCHANGE_NAME, "", null, body);
+        }
+    }
+
+    /**
+     * 等待全部投递完成，30 秒内没有新的投递则放弃
+     */
+    private void awaitDeliveries(long expected) throws InterruptedException {
+        long last = -1;
+        long idleSince = System.nanoTime();
+        while (delivered.sum() < expected) {
+            long current = delivered.sum();
+            if (current != last) {
+                last = current;
+                idleSince = System.nanoTime();
+            } else if (System.nanoTime() - idleSince > TimeUnit.SECONDS.toNanos(30)) {
+                return;
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    private static int threadCount() {
+        return ManagementFactory.getThreadMXBean().getThreadCount();
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,46 @@
+package com.xixi.lab.rabbitmq.spring.common.broker;
+
+import com.xixi.lab.rabbitmq.java.common.broker.EmbeddedBroker;
+import org.springframework.amqp.rabbit.connection.AbstractConnectionFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+import java.io.IOException;
+
+/**
+ * 进程内 Broker 配置：与其他示例的 profile 组合使用，不需要安装 RabbitMQ
+ * 例如：--spring.profiles.active=rpc,server,client,embedded-broker
+ *
+ * 在本机 lab.broker.port（默认5672）端口启动 {@link EmbeddedBroker}，并把连接工厂指向它，
+ * 其他进程（不启用该 profile）照常连接 localhost:5672 即可与之通信；端口设为 0 时随机选择空闲端口，只供本进程使用。
+ */
+@Profile("embedded-broker")
+@Configuration
+public class EmbeddedBrokerConfig {
+
+    @Bean(destroyMethod = "close")
+    public EmbeddedBroker embeddedBroker(@Value("${lab.broker.port:5672}") int port) throws IOException {
+        return new EmbeddedBroker().listen(port);
+    }
+
+    /**
+     * 连接工厂连接到进程内 Broker 的端口（BeanPostProcessor 需声明为 static，不依赖配置类实例）
+     */
+    @Bean
+    public static BeanPostProcessor embeddedBrokerPostProcessor(ObjectProvider<EmbeddedBroker> broker) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof AbstractConnectionFactory) {
+                    // Spring Boot 通过 setAddresses 设置 spring.rabbitmq.host/port，地址列表优先于 host/port，这里同样覆盖地址列表
+                    ((AbstractConnectionFactory) bean).setAddresses("localhost:" + broker.getObject().getPort());
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,66 @@
+package com.xixi.lab.rabbitmq.spring.common.cache;
+
+import com.rabbitmq.client.Channel;
+import com.xixi.lab.rabbitmq.java.common.cache.ResponseCache;
+import com.xixi.lab.rabbitmq.spring.common.rpc.RpcReply;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+
+/**
+ * RPC 响应缓存的监听容器 Advice：加入监听容器工厂的 adviceChain，对其上所有 @RabbitListener 生效
+ *
+ * 以 交换机/路由键 + content-type + 请求消息体 为键（同一参数以不同格式编码时不会混淆）：
+ * （1）命中：直接将缓存的回复发布到请求的 replyTo，不执行监听方法（也不进行消息转换）；
+ * （2）未命中：执行监听方法，并记录其在信道上发布到 replyTo 的回复（消息体与属性，已经过转换及 beforeSendReply 处理），写入缓存。
+ * 没有 replyTo 的消息（非 RPC 请求）、监听方法抛出异常时不缓存。
+ *
+ * 回复的 correlationId 与 Spring 的规则一致：取请求的 correlationId，没有时取 messageId。
+ */
+public class ResponseCacheAdvice implements MethodInterceptor {
+
+    private final ResponseCache<RpcReply> cache;
+
+    public ResponseCacheAdvice(ResponseCache<RpcReply> cache) {
+        this.cache = cache;
+    }
+
+    public ResponseCache<RpcReply> getCache() {
+        return cache;
+    }
+
+    /**
+     * 拦截 ContainerDelegate.invokeListener(Channel, Object)
+     */
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Object[] arguments = invocation.getArguments();
+        if (arguments.length != 2 || !(arguments[0] instanceof Channel) || !(arguments[1] instanceof Message)) {
+            return invocation.proceed();
+        }
+        Channel channel = (Channel) arguments[0];
+        Message request = (Message) arguments[1];
+        MessageProperties properties = request.getMessageProperties();
+        if (properties.getReplyTo() == null) {
+            return invocation.proceed();
+        }
+        String key = properties.getReceivedExchange() + '/' + properties.getReceivedRoutingKey()
+                + ';' + properties.getContentType() + ';' + properties.getContentEncoding();
+
+        RpcReply cached = cache.get(key, request.getBody());
+        if (cached != null) {
+            cached.publish(channel, properties);
+            return null;
+        }
+
+        // 未命中：用记录回复的信道代替原信道，执行监听方法
+        RpcReply[] recorded = new RpcReply[1];
+        arguments[0] = RpcReply.recording(channel, properties, reply -> recorded[0] = reply);
+        Object result = invocation.proceed();
+        if (recorded[0] != null) {
+            cache.put(key, request.getBody(), recorded[0]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,30 @@
+package com.xixi.lab.rabbitmq.spring.common.compression;
+
+import com.xixi.lab.rabbitmq.java.common.codec.PayloadCompressor;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.core.MessageProperties;
+
+/**
+ * 发布前压缩：消息体超过阈值时压缩，并设置 content-encoding（如 lz4:UTF-8）
+ * 通过 RabbitTemplate.addBeforePublishPostProcessors() 注册
+ */
+public class CompressingPostProcessor implements MessagePostProcessor {
+
+    private final PayloadCompressor compressor;
+
+    public CompressingPostProcessor(PayloadCompressor compressor) {
+        this.compressor = compressor;
+    }
+
+    @Override
+    public Message postProcessMessage(Message message) {
+        MessageProperties properties = message.getMessageProperties();
+        PayloadCompressor.EncodedPayload encoded = compressor.compress(message.getBody(), properties.getContentEncoding());
+        if (encoded == null) {
+            return message;
+        }
+        properties.setContentEncoding(encoded.getContentEncoding());
+        return new Message(encoded.getBody(), properties);
+    }
+}
@@ -0,0 +1,121 @@
+package com.xixi.lab.rabbitmq.spring.common.compression;
+
+import com.xixi.lab.rabbitmq.java.common.codec.DeflateCodec;
+import com.xixi.lab.rabbitmq.java.common.codec.DictionaryCodec;
+import com.xixi.lab.rabbitmq.java.common.codec.DictionaryTrainer;
+import com.xixi.lab.rabbitmq.java.common.codec.Lz4Codec;
+import com.xixi.lab.rabbitmq.java.common.codec.PayloadCodec;
+import com.xixi.lab.rabbitmq.java.common.codec.PayloadCompressor;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.rabbit.config.AbstractRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.DirectFieldAccessor;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 消息体压缩 配置：与其他示例的 profile 组合使用，生产者和消费者需同时启用
+ * 启动消费者：--server.port=8081 --spring.profiles.active=routing,receiver,compression
+ * 启动生产者：--server.port=8080 --spring.profiles.active=routing,sender,compression
+ *
+ * 配置项：
+ *   lab.compression.codec：压缩算法 lz4（默认）、deflate、dictionary（用日志样本训练的预置字典，适合很短的日志行）
+ *   lab.compression.threshold：消息体达到该字节数才压缩，默认 256（dictionary 时建议调小，如 16）
+ *
+ * 生产者（RabbitTemplate）发布前压缩，消费者（@RabbitListener 的容器）接收后、转换前解压；
+ * 解压端始终支持 lz4、deflate 以及样本字典，与生产者选择哪种算法无关。
+ */
+@Profile("compression")
+@Configuration
+public class CompressionConfig {
+
+    /**
+     * 为 RabbitTemplate 与监听容器工厂注册压缩/解压处理器（BeanPostProcessor 需声明为 static，不依赖配置类实例）
+     */
+    @Bean
+    public static BeanPostProcessor compressionPostProcessor(@Value("${lab.compression.codec:lz4}") String codec,
+                                                             @Value("${lab.compression.threshold:256}") int threshold) {
+        DictionaryCodec dictionary = new DictionaryCodec(DictionaryTrainer.train(logSamples(), 1024));
+        PayloadCompressor compressor = new PayloadCompressor(codec(codec, dictionary), threshold).register(dictionary);
+        CompressingPostProcessor compressing = new CompressingPostProcessor(compressor);
+        DecompressingPostProcessor decompressing = new DecompressingPostProcessor(compressor);
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof RabbitTemplate) {
+                    RabbitTemplate template = (RabbitTemplate) bean;
+                    template.addBeforePublishPostProcessors(compressing);
+                    // 同步 RPC（sendAndReceive）收到的回复也需解压
+                    template.addAfterReceivePostProcessors(decompressing);
+                } else if (bean instanceof AbstractRabbitListenerContainerFactory) {
+                    AbstractRabbitListenerContainerFactory<?> factory = (AbstractRabbitListenerContainerFactory<?>) bean;
+                    // 保留工厂已有的处理器（工厂只提供 setter，从字段读出后合并）：
+                    // 接收后先解压，其他处理器看到的是原始消息体；@RabbitListener 方法的返回值（RPC 回复）在其他处理器之后、发送前压缩
+                    DirectFieldAccessor accessor = new DirectFieldAccessor(factory);
+                    factory.setAfterReceivePostProcessors(
+                            merge(decompressing, existing(accessor, "afterReceivePostProcessors")));
+                    factory.setBeforeSendReplyPostProcessors(
+                            merge(existing(accessor, "beforeSendReplyPostProcessors"), compressing));
+                }
+                return bean;
+            }
+        };
+    }
+
+    private static MessagePostProcessor[] existing(DirectFieldAccessor accessor, String property) {
+        MessagePostProcessor[] processors = (MessagePostProcessor[]) accessor.getPropertyValue(property);
+        return processors == null ? new MessagePostProcessor[0] : processors;
+    }
+
+    private static MessagePostProcessor[] merge(MessagePostProcessor first, MessagePostProcessor[] rest) {
+        MessagePostProcessor[] chain = new MessagePostProcessor[rest.length + 1];
+        chain[0] = first;
+        System.arraycopy(rest, 0, chain, 1, rest.length);
+        return chain;
+    }
+
+    private static MessagePostProcessor[] merge(MessagePostProcessor[] rest, MessagePostProcessor last) {
+        MessagePostProcessor[] chain = Arrays.copyOf(rest, rest.length + 1);
+        chain[rest.length] = last;
+        return chain;
+    }
+
+    private static PayloadCodec codec(String name, DictionaryCodec dictionary) {
+        switch (name) {
+            case "lz4":
+                return new Lz4Codec();
+            case "deflate":
+                return new DeflateCodec();
+            case "dictionary":
+                return dictionary;
+            default:
+                throw new IllegalArgumentException("Unknown lab.compression.codec: " + name);
+        }
+    }
+
+    /**
+     * 训练字典的日志样本：routing、topics 示例中发送的日志格式，生产者与消费者由此训练出同一份字典
+     */
+    private static List<byte[]> logSamples() {
+        List<byte[]> samples = new ArrayList<>();
+        for (String level : new String[]{"debug", "info", "warn", "error"}) {
+            samples.add(String.format("This is %s log.", level).getBytes(StandardCharsets.UTF_8));
+        }
+        for (String speed : new String[]{"quick", "lazy"}) {
+            for (String colour : new String[]{"orange", "brown", "pink"}) {
+                for (String species : new String[]{"rabbit", "elephant", "fox"}) {
+                    samples.add(("Hello, " + speed + "." + colour + "." + species).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return samples;
+    }
+}
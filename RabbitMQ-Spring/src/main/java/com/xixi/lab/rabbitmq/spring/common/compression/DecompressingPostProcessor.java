@@ -0,0 +1,39 @@
+package com.xixi.lab.rabbitmq.spring.common.compression;
+
+import com.xixi.lab.rabbitmq.java.common.codec.PayloadCompressor;
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.core.MessageProperties;
+
+import java.io.IOException;
+
+/**
+ * 接收后解压：按 content-encoding 解压，并还原原来的 content-encoding，之后 @RabbitListener 的消息转换与处理不受影响
+ * 通过 容器工厂.setAfterReceivePostProcessors() 注册，放在工厂已有的处理器之前
+ */
+public class DecompressingPostProcessor implements MessagePostProcessor {
+
+    private final PayloadCompressor compressor;
+
+    public DecompressingPostProcessor(PayloadCompressor compressor) {
+        this.compressor = compressor;
+    }
+
+    @Override
+    public Message postProcessMessage(Message message) {
+        MessageProperties properties = message.getMessageProperties();
+        PayloadCompressor.EncodedPayload decoded;
+        try {
+            decoded = compressor.decompress(message.getBody(), properties.getContentEncoding());
+        } catch (IOException e) {
+            // 数据损坏或字典不一致，重新入队也无法处理
+            throw new AmqpRejectAndDontRequeueException("Failed to decompress message", e);
+        }
+        if (decoded == null) {
+            return message;
+        }
+        properties.setContentEncoding(decoded.getContentEncoding());
+        return new Message(decoded.getBody(), properties);
+    }
+}
@@ -0,0 +1,421 @@
+package com.xixi.lab.rabbitmq.spring.common.converter;
+
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.AbstractMessageConverter;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 紧凑的二进制消息转换器，替代默认的 SimpleMessageConverter
+ *
+ * SimpleMessageConverter 对 String、byte[] 以外的对象（如 RPC 示例中的 Integer）使用 Java 序列化，
+ * 一个 Integer 约 80 字节，还要经过 ObjectOutputStream/ObjectInputStream；且反序列化任意类存在安全隐患。这里：
+ * （1）String：原样 UTF-8（content-type text/plain，与 SimpleMessageConverter 及 Java Client 示例兼容）；
+ * （2）byte[]：原样（application/octet-stream）；
+ * （3）基本类型及其包装类：1 字节类型标记 + 定长大端编码（Integer 共 5 字节）；int[]、long[]：标记 + 长度 + 定长元素；
+ * （4）简单 POJO：需先 register(id, 类型)，编码为 标记 + 类型编号 + 各字段（按字段名排序，跳过 static/transient），
+ *      字段可以是以上类型、已注册的 POJO、枚举及 List；解码时只会实例化已注册的类型（需有无参构造方法）。
+ * 其他 content-type（如 application/x-java-serialized-object）一律不反序列化，原样返回消息体 byte[]。
+ */
+public class BinaryMessageConverter extends AbstractMessageConverter {
+
+    public static final String CONTENT_TYPE = "application/x-rabbitmq-lab-binary";
+
+    // 类型标记
+    static final byte NULL = 0;
+    static final byte BOOLEAN = 1;
+    static final byte BYTE = 2;
+    static final byte SHORT = 3;
+    static final byte CHAR = 4;
+    static final byte INT = 5;
+    static final byte LONG = 6;
+    static final byte FLOAT = 7;
+    static final byte DOUBLE = 8;
+    static final byte STRING = 9;
+    static final byte BYTES = 10;
+    static final byte INTS = 11;
+    static final byte LONGS = 12;
+    static final byte LIST = 13;
+    static final byte ENUM = 14;
+    static final byte OBJECT = 15;
+
+    // 嵌套层数上限，防止异常消息造成栈溢出
+    private static final int MAX_DEPTH = 32;
+
+    private final Map<Class<?>, PojoType> typesByClass = new ConcurrentHashMap<>();
+
+    private final Map<Integer, PojoType> typesById = new ConcurrentHashMap<>();
+
+    /**
+     * 注册可转换的 POJO 类型，生产者与消费者需使用相同的编号
+     *
+     * @param id   类型编号（0 ~ 65535）
+     * @param type 类型，需有无参构造方法
+     */
+    public BinaryMessageConverter register(int id, Class<?> type) {
+        if (id < 0 || id > 0xFFFF) {
+            throw new IllegalArgumentException("type id must be within 0 ~ 65535: " + id);
+        }
+        PojoType pojoType = new PojoType(id, type);
+        PojoType previous = typesById.putIfAbsent(id, pojoType);
+        if (previous != null && previous.type != type) {
+            throw new IllegalArgumentException("type id " + id + " is already registered for " + previous.type.getName());
+        }
+        typesByClass.put(type, pojoType);
+        return this;
+    }
+
+    @Override
+    protected Message createMessage(Object object, MessageProperties messageProperties) {
+        byte[] body;
+        if (object instanceof String) {
+            body = ((String) object).getBytes(StandardCharsets.UTF_8);
+            messageProperties.setContentType(MessageProperties.CONTENT_TYPE_TEXT_PLAIN);
+            messageProperties.setContentEncoding(StandardCharsets.UTF_8.name());
+        } else if (object instanceof byte[]) {
+            body = (byte[]) object;
+            messageProperties.setContentType(MessageProperties.CONTENT_TYPE_BYTES);
+        } else {
+            Writer writer = new Writer();
+            writer.writeValue(object, 0);
+            body = writer.toByteArray();
+            messageProperties.setContentType(CONTENT_TYPE);
+        }
+        messageProperties.setContentLength(body.length);
+        return new Message(body, messageProperties);
+    }
+
+    @Override
+    public Object fromMessage(Message message) throws MessageConversionException {
+        MessageProperties properties = message.getMessageProperties();
+        String contentType = properties == null ? null : properties.getContentType();
+        byte[] body = message.getBody();
+        if (contentType == null || body == null) {
+            return body;
+        }
+        if (contentType.startsWith("text")) {
+            String encoding = properties.getContentEncoding();
+            try {
+                return new String(body, encoding == null ? StandardCharsets.UTF_8 : Charset.forName(encoding));
+            } catch (IllegalArgumentException e) {
+                throw new MessageConversionException("unsupported content-encoding: " + encoding, e);
+            }
+        }
+        if (CONTENT_TYPE.equals(contentType)) {
+            ByteBuffer buffer = ByteBuffer.wrap(body);
+            try {
+                Object value = readValue(buffer, 0);
+                if (buffer.hasRemaining()) {
+                    throw new MessageConversionException(buffer.remaining() + " trailing bytes after the value");
+                }
+                return value;
+            } catch (BufferUnderflowException e) {
+                throw new MessageConversionException("truncated binary message of " + body.length + " bytes", e);
+            }
+        }
+        return body;
+    }
+
+    private Object readValue(ByteBuffer in, int depth) {
+        if (depth > MAX_DEPTH) {
+            throw new MessageConversionException("binary message is nested too deeply");
+        }
+        byte tag = in.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case BOOLEAN:
+                return in.get() != 0;
+            case BYTE:
+                return in.get();
+            case SHORT:
+                return in.getShort();
+            case CHAR:
+                return in.getChar();
+            case INT:
+                return in.getInt();
+            case LONG:
+                return in.getLong();
+            case FLOAT:
+                return in.getFloat();
+            case DOUBLE:
+                return in.getDouble();
+            case STRING:
+                return new String(readBytes(in, readLength(in, 1)), StandardCharsets.UTF_8);
+            case BYTES:
+                return readBytes(in, readLength(in, 1));
+            case INTS: {
+                int[] values = new int[readLength(in, 4)];
+                in.asIntBuffer().get(values);
+                in.position(in.position() + values.length * 4);
+                return values;
+            }
+            case LONGS: {
+                long[] values = new long[readLength(in, 8)];
+                in.asLongBuffer().get(values);
+                in.position(in.position() + values.length * 8);
+                return values;
+            }
+            case LIST: {
+                int size = readLength(in, 1);
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in, depth + 1));
+                }
+                return list;
+            }
+            case ENUM:
+            case OBJECT: {
+                int id = in.getShort() & 0xFFFF;
+                PojoType type = typesById.get(id);
+                if (type == null) {
+                    throw new MessageConversionException("type id " + id + " is not registered");
+                }
+                return tag == ENUM ? type.readEnum(in) : type.read(this, in, depth);
+            }
+            default:
+                throw new MessageConversionException("unknown type tag " + tag);
+        }
+    }
+
+    // 读取长度并校验剩余字节是否足够，避免按异常长度分配大数组
+    private static int readLength(ByteBuffer in, int elementSize) {
+        int length = in.getInt();
+        if (length < 0 || (long) length * elementSize > in.remaining()) {
+            throw new MessageConversionException("invalid length " + length + " with " + in.remaining() + " bytes remaining");
+        }
+        return length;
+    }
+
+    private static byte[] readBytes(ByteBuffer in, int length) {
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * 编码缓冲区（大端）
+     */
+    private class Writer {
+
+        private byte[] buffer = new byte[64];
+
+        private int position;
+
+        void writeValue(Object value, int depth) {
+            if (depth > MAX_DEPTH) {
+                throw new MessageConversionException("object graph is nested too deeply (cyclic reference?)");
+            }
+            if (value == null) {
+                put(NULL);
+            } else if (value instanceof Integer) {
+                put(INT);
+                putInt((Integer) value);
+            } else if (value instanceof Long) {
+                put(LONG);
+                putLong((Long) value);
+            } else if (value instanceof Boolean) {
+                put(BOOLEAN);
+                put((byte) ((Boolean) value ? 1 : 0));
+            } else if (value instanceof Byte) {
+                put(BYTE);
+                put((Byte) value);
+            } else if (value instanceof Short) {
+                put(SHORT);
+                putShort((Short) value);
+            } else if (value instanceof Character) {
+                put(CHAR);
+                putShort((Character) value);
+            } else if (value instanceof Float) {
+                put(FLOAT);
+                putInt(Float.floatToRawIntBits((Float) value));
+            } else if (value instanceof Double) {
+                put(DOUBLE);
+                putLong(Double.doubleToRawLongBits((Double) value));
+            } else if (value instanceof String) {
+                byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+                put(STRING);
+                putInt(bytes.length);
+                putBytes(bytes);
+            } else if (value instanceof byte[]) {
+                byte[] bytes = (byte[]) value;
+                put(BYTES);
+                putInt(bytes.length);
+                putBytes(bytes);
+            } else if (value instanceof int[]) {
+                int[] values = (int[]) value;
+                put(INTS);
+                putInt(values.length);
+                for (int v : values) {
+                    putInt(v);
+                }
+            } else if (value instanceof long[]) {
+                long[] values = (long[]) value;
+                put(LONGS);
+                putInt(values.length);
+                for (long v : values) {
+                    putLong(v);
+                }
+            } else if (value instanceof List) {
+                List<?> list = (List<?>) value;
+                put(LIST);
+                putInt(list.size());
+                for (Object element : list) {
+                    writeValue(element, depth + 1);
+                }
+            } else {
+                // 带方法体的枚举常量是匿名子类，按其声明的枚举类型查找
+                Class<?> valueType = value instanceof Enum ? ((Enum<?>) value).getDeclaringClass() : value.getClass();
+                PojoType type = typesByClass.get(valueType);
+                if (type == null) {
+                    throw new MessageConversionException("cannot convert " + value.getClass().getName()
+                            + ": register it with BinaryMessageConverter.register(id, type)");
+                }
+                put(value instanceof Enum ? ENUM : OBJECT);
+                putShort(type.id);
+                type.write(this, value, depth);
+            }
+        }
+
+        void put(byte b) {
+            ensureCapacity(1);
+            buffer[position++] = b;
+        }
+
+        void putShort(int v) {
+            ensureCapacity(2);
+            buffer[position++] = (byte) (v >>> 8);
+            buffer[position++] = (byte) v;
+        }
+
+        void putInt(int v) {
+            ensureCapacity(4);
+            buffer[position++] = (byte) (v >>> 24);
+            buffer[position++] = (byte) (v >>> 16);
+            buffer[position++] = (byte) (v >>> 8);
+            buffer[position++] = (byte) v;
+        }
+
+        void putLong(long v) {
+            putInt((int) (v >>> 32));
+            putInt((int) v);
+        }
+
+        void putBytes(byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (position + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, position + extra));
+            }
+        }
+    }
+
+    /**
+     * 已注册的 POJO/枚举类型：缓存构造方法与字段（按字段名排序，保证两端顺序一致）
+     */
+    private static class PojoType {
+
+        private final int id;
+
+        private final Class<?> type;
+
+        private final Constructor<?> constructor;
+
+        private final Field[] fields;
+
+        private final Object[] constants;
+
+        PojoType(int id, Class<?> type) {
+            this.id = id;
+            this.type = type;
+            if (type.isEnum()) {
+                this.constructor = null;
+                this.fields = new Field[0];
+                this.constants = type.getEnumConstants();
+                return;
+            }
+            this.constants = null;
+            try {
+                this.constructor = type.getDeclaredConstructor();
+                this.constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException(type.getName() + " has no no-arg constructor", e);
+            }
+            List<Field> list = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()) {
+                        field.setAccessible(true);
+                        list.add(field);
+                    }
+                }
+            }
+            list.sort(Comparator.comparing(Field::getName).thenComparing(f -> f.getDeclaringClass().getName()));
+            this.fields = list.toArray(new Field[0]);
+        }
+
+        void write(Writer writer, Object value, int depth) {
+            if (constants != null) {
+                writer.putShort(((Enum<?>) value).ordinal());
+                return;
+            }
+            try {
+                for (Field field : fields) {
+                    writer.writeValue(field.get(value), depth + 1);
+                }
+            } catch (IllegalAccessException e) {
+                throw new MessageConversionException("cannot read fields of " + type.getName(), e);
+            }
+        }
+
+        Object readEnum(ByteBuffer in) {
+            int ordinal = in.getShort() & 0xFFFF;
+            if (constants == null || ordinal >= constants.length) {
+                throw new MessageConversionException("invalid enum constant " + ordinal + " for type id " + id);
+            }
+            return constants[ordinal];
+        }
+
+        Object read(BinaryMessageConverter converter, ByteBuffer in, int depth) {
+            if (constants != null) {
+                throw new MessageConversionException("type id " + id + " is an enum");
+            }
+            try {
+                Object value = constructor.newInstance();
+                for (Field field : fields) {
+                    Object fieldValue = converter.readValue(in, depth + 1);
+                    if (fieldValue == null && field.getType().isPrimitive()) {
+                        continue;
+                    }
+                    field.set(value, fieldValue);
+                }
+                return value;
+            } catch (ReflectiveOperationException | IllegalArgumentException e) {
+                throw new MessageConversionException("cannot create " + type.getName(), e);
+            }
+        }
+    }
+}
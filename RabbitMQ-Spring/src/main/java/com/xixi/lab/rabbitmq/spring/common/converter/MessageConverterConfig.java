@@ -0,0 +1,21 @@
+package com.xixi.lab.rabbitmq.spring.common.converter;
+
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 消息转换器 配置：所有示例共用
+ *
+ * Spring Boot 的 RabbitAutoConfiguration 检测到唯一的 MessageConverter Bean 后，
+ * 会将其同时设置到 RabbitTemplate 与 @RabbitListener 的监听容器工厂（包括 RPC 回复），无需逐个配置。
+ * 需要以 POJO 作为消息时，在此处 register(类型编号, 类型)，生产者与消费者的编号需一致。
+ */
+@Configuration
+public class MessageConverterConfig {
+
+    @Bean
+    public MessageConverter binaryMessageConverter() {
+        return new BinaryMessageConverter();
+    }
+}
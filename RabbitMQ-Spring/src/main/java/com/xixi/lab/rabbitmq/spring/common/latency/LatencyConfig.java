@@ -0,0 +1,61 @@
+package com.xixi.lab.rabbitmq.spring.common.latency;
+
+import com.xixi.lab.rabbitmq.java.common.metrics.DeliveryLatencyRecorder;
+import org.aopalliance.aop.Advice;
+import org.springframework.amqp.rabbit.config.AbstractRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+
+/**
+ * 端到端延迟 配置：与其他示例的 profile 组合使用，生产者和消费者需同时启用
+ * 启动消费者：--server.port=8081 --spring.profiles.active=work-queues,receiver,latency
+ * 启动生产者：--server.port=8080 --spring.profiles.active=work-queues,sender,latency
+ *
+ * 生产者（RabbitTemplate）发布前写入发布时间戳，消费者（@RabbitListener 的容器）按 队列 + 路由键 记录
+ * 发布 -> 投递、投递 -> 确认 两段延迟（见 {@link DeliveryLatencyRecorder}），每隔 lab.latency.report-ms（默认10000）毫秒输出一次。
+ * 时间戳跨进程比较，生产者与消费者应在同一台机器上（或时钟已同步）。
+ */
+@Profile("latency")
+@Configuration
+public class LatencyConfig {
+
+    @Bean
+    public DeliveryLatencyRecorder deliveryLatencyRecorder() {
+        return new DeliveryLatencyRecorder();
+    }
+
+    /**
+     * 为 RabbitTemplate 注册时间戳处理器，为监听容器工厂加入记录延迟的 Advice（BeanPostProcessor 需声明为 static，不依赖配置类实例）
+     */
+    @Bean
+    public static BeanPostProcessor latencyPostProcessor(ObjectProvider<DeliveryLatencyRecorder> recorder) {
+        LatencyStampingPostProcessor stamping = new LatencyStampingPostProcessor();
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof RabbitTemplate) {
+                    ((RabbitTemplate) bean).addBeforePublishPostProcessors(stamping);
+                } else if (bean instanceof AbstractRabbitListenerContainerFactory) {
+                    AbstractRabbitListenerContainerFactory<?> factory = (AbstractRabbitListenerContainerFactory<?>) bean;
+                    // 保留工厂已有的 Advice（如 RPC 服务端的响应缓存），记录延迟的 Advice 放在最外层
+                    Advice[] existing = factory.getAdviceChain() == null ? new Advice[0] : factory.getAdviceChain();
+                    Advice[] chain = new Advice[existing.length + 1];
+                    chain[0] = new LatencyRecordingAdvice(recorder.getObject());
+                    System.arraycopy(existing, 0, chain, 1, existing.length);
+                    factory.setAdviceChain(chain);
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Scheduled(fixedDelayString = "${lab.latency.report-ms:10000}", initialDelayString = "${lab.latency.report-ms:10000}")
+    public void report() {
+        deliveryLatencyRecorder().report(System.out);
+    }
+}
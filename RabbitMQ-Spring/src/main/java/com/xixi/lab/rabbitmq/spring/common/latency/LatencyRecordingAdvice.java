@@ -0,0 +1,65 @@
+package com.xixi.lab.rabbitmq.spring.common.latency;
+
+import com.xixi.lab.rabbitmq.java.common.metrics.DeliveryLatencyRecorder;
+import com.xixi.lab.rabbitmq.java.common.metrics.LatencyStamp;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+
+import java.util.List;
+
+/**
+ * 记录延迟的监听容器 Advice：加入监听容器工厂的 adviceChain（最外层），按 队列 + 路由键 记录
+ * （1）发布 -> 投递：消息头中的发布时间戳 -> 容器开始调用监听方法；
+ * （2）投递 -> 确认：监听方法的执行时间（含消息转换及其内层的 Advice），容器随后确认消息。
+ * 批量监听（List<Message>）时每条消息分别记录发布 -> 投递，执行时间按整批记录一次。
+ */
+public class LatencyRecordingAdvice implements MethodInterceptor {
+
+    private final DeliveryLatencyRecorder recorder;
+
+    public LatencyRecordingAdvice(DeliveryLatencyRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * 拦截 ContainerDelegate.invokeListener(Channel, Object)
+     */
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Object[] arguments = invocation.getArguments();
+        Object data = arguments.length == 2 ? arguments[1] : null;
+        MessageProperties first;
+        if (data instanceof Message) {
+            first = record((Message) data);
+        } else if (data instanceof List && !((List<?>) data).isEmpty()) {
+            first = null;
+            for (Object message : (List<?>) data) {
+                if (message instanceof Message) {
+                    MessageProperties properties = record((Message) message);
+                    first = first == null ? properties : first;
+                }
+            }
+        } else {
+            first = null;
+        }
+        if (first == null) {
+            return invocation.proceed();
+        }
+
+        long start = System.nanoTime();
+        try {
+            return invocation.proceed();
+        } finally {
+            recorder.recordHandled(first.getConsumerQueue(), first.getReceivedRoutingKey(), System.nanoTime() - start);
+        }
+    }
+
+    private MessageProperties record(Message message) {
+        MessageProperties properties = message.getMessageProperties();
+        recorder.recordDelivered(properties.getConsumerQueue(), properties.getReceivedRoutingKey(),
+                LatencyStamp.publishedAt(properties.getHeaders()));
+        return properties;
+    }
+}
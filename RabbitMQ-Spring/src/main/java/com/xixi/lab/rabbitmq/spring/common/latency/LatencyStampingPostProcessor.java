@@ -0,0 +1,17 @@
+package com.xixi.lab.rabbitmq.spring.common.latency;
+
+import com.xixi.lab.rabbitmq.java.common.metrics.LatencyStamp;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessagePostProcessor;
+
+/**
+ * 发布前在消息头中写入发布时间戳（{@link LatencyStamp#HEADER}），与 Java 客户端的格式相同，两者的生产者/消费者可混用
+ */
+public class LatencyStampingPostProcessor implements MessagePostProcessor {
+
+    @Override
+    public Message postProcessMessage(Message message) {
+        message.getMessageProperties().setHeader(LatencyStamp.HEADER, LatencyStamp.nowEpochNanos());
+        return message;
+    }
+}
@@ -0,0 +1,55 @@
+package com.xixi.lab.rabbitmq.spring.common.metrics;
+
+import com.xixi.lab.rabbitmq.java.common.metrics.ClientMetrics;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.amqp.core.Message;
+
+import java.util.List;
+
+/**
+ * 记录指标的监听容器 Advice：加入监听容器工厂的 adviceChain（最外层），记录重新投递数与监听方法的执行时间（见 {@link ClientMetrics}）
+ *
+ * 批量监听（List<Message>）时每条消息分别判断是否为重新投递，执行时间按整批记录一次。
+ */
+public class ListenerMetricsAdvice implements MethodInterceptor {
+
+    private final ClientMetrics metrics;
+
+    public ListenerMetricsAdvice(ClientMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 拦截 ContainerDelegate.invokeListener(Channel, Object)
+     */
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Object[] arguments = invocation.getArguments();
+        Object data = arguments.length == 2 ? arguments[1] : null;
+        if (data instanceof Message) {
+            recordRedelivered((Message) data);
+        } else if (data instanceof List) {
+            for (Object message : (List<?>) data) {
+                if (message instanceof Message) {
+                    recordRedelivered((Message) message);
+                }
+            }
+        } else {
+            return invocation.proceed();
+        }
+
+        long start = System.nanoTime();
+        try {
+            return invocation.proceed();
+        } finally {
+            metrics.recordHandlerTime(System.nanoTime() - start);
+        }
+    }
+
+    private void recordRedelivered(Message message) {
+        if (Boolean.TRUE.equals(message.getMessageProperties().getRedelivered())) {
+            metrics.recordRedelivered();
+        }
+    }
+}
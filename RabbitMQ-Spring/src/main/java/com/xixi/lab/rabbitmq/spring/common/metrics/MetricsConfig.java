@@ -0,0 +1,70 @@
+package com.xixi.lab.rabbitmq.spring.common.metrics;
+
+import com.xixi.lab.rabbitmq.java.common.metrics.ClientMetrics;
+import org.aopalliance.aop.Advice;
+import org.springframework.amqp.rabbit.config.AbstractRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.AbstractConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+
+/**
+ * 指标 配置：与其他示例的 profile 组合使用，通过 GET /metrics/rabbitmq 查看（见 {@link MetricsController}）
+ * 例如：--spring.profiles.active=rpc,server,metrics，然后 curl localhost:8080/metrics/rabbitmq
+ *
+ * （1）连接工厂：底层 ConnectionFactory 设置 MetricsCollector（{@link ClientMetrics}），统计该应用所有连接上的发布、确认、投递、ack/reject 及信道数；
+ * （2）RabbitTemplate：发布前统计发送量（{@link TemplateMetrics}）；
+ * （3）监听容器工厂：在 adviceChain 最外层加入 {@link ListenerMetricsAdvice}，统计重新投递数与监听方法的执行时间。
+ * 速率按 lab.metrics.sample-ms（默认10000）毫秒的采样周期计算。
+ */
+@Profile("metrics")
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public ClientMetrics clientMetrics() {
+        return new ClientMetrics();
+    }
+
+    @Bean
+    public TemplateMetrics templateMetrics() {
+        return new TemplateMetrics();
+    }
+
+    /**
+     * 为连接工厂、RabbitTemplate、监听容器工厂接入指标（BeanPostProcessor 需声明为 static，不依赖配置类实例）
+     */
+    @Bean
+    public static BeanPostProcessor metricsPostProcessor(ObjectProvider<ClientMetrics> clientMetrics,
+                                                         ObjectProvider<TemplateMetrics> templateMetrics) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof AbstractConnectionFactory) {
+                    // 连接在首次使用时才创建，此时设置即可覆盖所有连接
+                    ((AbstractConnectionFactory) bean).getRabbitConnectionFactory().setMetricsCollector(clientMetrics.getObject());
+                } else if (bean instanceof RabbitTemplate) {
+                    ((RabbitTemplate) bean).addBeforePublishPostProcessors(templateMetrics.getObject());
+                } else if (bean instanceof AbstractRabbitListenerContainerFactory) {
+                    AbstractRabbitListenerContainerFactory<?> factory = (AbstractRabbitListenerContainerFactory<?>) bean;
+                    // 保留工厂已有的 Advice，记录指标的 Advice 放在最外层
+                    Advice[] existing = factory.getAdviceChain() == null ? new Advice[0] : factory.getAdviceChain();
+                    Advice[] chain = new Advice[existing.length + 1];
+                    chain[0] = new ListenerMetricsAdvice(clientMetrics.getObject());
+                    System.arraycopy(existing, 0, chain, 1, existing.length);
+                    factory.setAdviceChain(chain);
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Scheduled(fixedDelayString = "${lab.metrics.sample-ms:10000}", initialDelayString = "${lab.metrics.sample-ms:10000}")
+    public void sample() {
+        clientMetrics().sample();
+    }
+}
@@ -0,0 +1,55 @@
+package com.xixi.lab.rabbitmq.spring.common.metrics;
+
+import com.xixi.lab.rabbitmq.java.common.metrics.ClientMetrics;
+import com.xixi.lab.rabbitmq.java.common.metrics.DeliveryLatencyRecorder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Profile;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 指标接口：GET /metrics/rabbitmq，返回 JSON
+ * （1）client：连接/信道数，发布、确认、投递、ack/reject、重新投递等累计值与最近一个采样周期的速率（每秒），处理时间（微秒）；
+ * （2）template：RabbitTemplate 的发送量；
+ * （3）latency：同时启用 latency profile 时，各 队列 + 路由键 的 发布 -> 投递、投递 -> 确认 延迟（微秒）。
+ */
+@Profile("metrics")
+@RestController
+public class MetricsController {
+
+    private final ClientMetrics clientMetrics;
+
+    private final TemplateMetrics templateMetrics;
+
+    private final ObjectProvider<DeliveryLatencyRecorder> latencyRecorder;
+
+    public MetricsController(ClientMetrics clientMetrics, TemplateMetrics templateMetrics,
+                             ObjectProvider<DeliveryLatencyRecorder> latencyRecorder) {
+        this.clientMetrics = clientMetrics;
+        this.templateMetrics = templateMetrics;
+        this.latencyRecorder = latencyRecorder;
+    }
+
+    @GetMapping("/metrics/rabbitmq")
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("client", clientMetrics.snapshot());
+        metrics.put("template", templateMetrics.snapshot());
+        DeliveryLatencyRecorder recorder = latencyRecorder.getIfAvailable();
+        if (recorder != null) {
+            Map<String, Object> latency = new LinkedHashMap<>();
+            recorder.snapshot().forEach((key, stages) -> {
+                Map<String, Object> value = new LinkedHashMap<>();
+                value.put("publishToDeliverMicros", stages.getPublishToDeliver().toMap(TimeUnit.MICROSECONDS));
+                value.put("deliverToAckMicros", stages.getDeliverToAck().toMap(TimeUnit.MICROSECONDS));
+                latency.put(key, value);
+            });
+            metrics.put("latency", latency);
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,34 @@
+package com.xixi.lab.rabbitmq.spring.common.metrics;
+
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessagePostProcessor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * RabbitTemplate 的发布指标：作为发布前处理器，统计经由 RabbitTemplate 发送的消息数与消息体字节数（已经过转换及之前的处理器，如压缩）
+ *
+ * 信道层面的发布、确认等由 ClientMetrics 统计，这里补充模板层面的发送量，两者之差即其他途径（如监听方法的 RPC 回复）的发布量。
+ */
+public class TemplateMetrics implements MessagePostProcessor {
+
+    private final LongAdder sent = new LongAdder();
+
+    private final LongAdder sentBytes = new LongAdder();
+
+    @Override
+    public Message postProcessMessage(Message message) {
+        sent.increment();
+        sentBytes.add(message.getBody().length);
+        return message;
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("sent", sent.sum());
+        snapshot.put("sentBytes", sentBytes.sum());
+        return snapshot;
+    }
+}
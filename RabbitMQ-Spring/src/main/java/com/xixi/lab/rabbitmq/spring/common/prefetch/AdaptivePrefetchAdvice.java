@@ -0,0 +1,92 @@
+package com.xixi.lab.rabbitmq.spring.common.prefetch;
+
+import com.rabbitmq.client.Channel;
+import com.xixi.lab.rabbitmq.java.common.runtime.AdaptivePrefetchController;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.amqp.core.Message;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 自适应预取值的监听容器 Advice：加入监听容器工厂的 adviceChain（最内层），
+ * 每个消费者的信道对应一个 {@link AdaptivePrefetchController}，记录监听方法的执行时间，到调整周期时在该信道上重新调用 basicQos(P, global=true)。
+ * SimpleMessageListenerContainer 每个消费者独占一个信道，容器设置的 prefetch（global=false）作为上限，两者同时生效取较小者。
+ * 批量监听（List<Message>）时按整批的执行时间除以条数记录。
+ * 控制器持有其信道，不能用弱引用回收：创建时在信道上注册 ShutdownListener，信道关闭（消费者重启、连接断开）时移除对应的控制器。
+ * 预取值变化时以 DEBUG 级别记录日志。
+ */
+public class AdaptivePrefetchAdvice implements MethodInterceptor {
+
+    private static final Log logger = LogFactory.getLog(AdaptivePrefetchAdvice.class);
+
+    private final int minPrefetch;
+
+    private final int maxPrefetch;
+
+    private final long adjustIntervalMillis;
+
+    private final Map<Channel, AdaptivePrefetchController> controllers = new ConcurrentHashMap<>();
+
+    public AdaptivePrefetchAdvice(int minPrefetch, int maxPrefetch, long adjustIntervalMillis) {
+        this.minPrefetch = minPrefetch;
+        this.maxPrefetch = maxPrefetch;
+        this.adjustIntervalMillis = adjustIntervalMillis;
+    }
+
+    /**
+     * 拦截 ContainerDelegate.invokeListener(Channel, Object)
+     */
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Object[] arguments = invocation.getArguments();
+        if (arguments.length != 2 || !(arguments[0] instanceof Channel)) {
+            return invocation.proceed();
+        }
+        Channel channel = (Channel) arguments[0];
+        Object data = arguments[1];
+        int count = data instanceof List ? ((List<?>) data).size() : 1;
+
+        long start = System.nanoTime();
+        try {
+            return invocation.proceed();
+        } finally {
+            if (count > 0) {
+                AdaptivePrefetchController controller = controller(channel);
+                if (controller.recordHandled((System.nanoTime() - start) / count) && logger.isDebugEnabled()) {
+                    logger.debug("Adjusted prefetch for " + queue(data) + ": " + controller);
+                }
+            }
+        }
+    }
+
+    private AdaptivePrefetchController controller(Channel channel) {
+        AdaptivePrefetchController controller = controllers.get(channel);
+        if (controller == null) {
+            controller = new AdaptivePrefetchController(channel, minPrefetch, maxPrefetch, adjustIntervalMillis);
+            AdaptivePrefetchController existing = controllers.putIfAbsent(channel, controller);
+            if (existing != null) {
+                return existing;
+            }
+            // 不在 computeIfAbsent 中注册：信道已关闭时监听器会被立即调用
+            channel.addShutdownListener(cause -> controllers.remove(channel));
+        }
+        return controller;
+    }
+
+    /**
+     * 当前跟踪的信道数
+     */
+    public int getChannelCount() {
+        return controllers.size();
+    }
+
+    private static String queue(Object data) {
+        Object first = data instanceof List ? ((List<?>) data).get(0) : data;
+        return first instanceof Message ? ((Message) first).getMessageProperties().getConsumerQueue() : "?";
+    }
+}
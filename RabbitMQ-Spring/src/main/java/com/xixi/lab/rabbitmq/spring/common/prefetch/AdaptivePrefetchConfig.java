@@ -0,0 +1,51 @@
+package com.xixi.lab.rabbitmq.spring.common.prefetch;
+
+import org.aopalliance.aop.Advice;
+import org.springframework.amqp.rabbit.config.AbstractRabbitListenerContainerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+/**
+ * 自适应预取值 配置：与其他示例的 profile 组合使用，只需消费者启用
+ * 启动消费者：--server.port=8081 --spring.profiles.active=work-queues,receiver,adaptive-prefetch
+ *
+ * 配置项：
+ *   lab.prefetch.min：最小预取值，默认 1
+ *   lab.prefetch.max：最大预取值，默认与 spring.rabbitmq.listener.simple.prefetch 相同（未配置时为 250）
+ *   lab.prefetch.adjust-ms：调整周期（毫秒），默认 1000
+ *
+ * 每个消费者按监听方法的执行时间与 basicQos 的往返时间调整自己信道的预取值（见 {@link AdaptivePrefetchAdvice}），
+ * 处理快的消费者不受 RTT 限制，处理慢的消费者不会囤积消息。确认模式为 none（自动确认）时预取值不生效。
+ */
+@Profile("adaptive-prefetch")
+@Configuration
+public class AdaptivePrefetchConfig {
+
+    /**
+     * 为监听容器工厂加入调整预取值的 Advice（BeanPostProcessor 需声明为 static，不依赖配置类实例）
+     */
+    @Bean
+    public static BeanPostProcessor adaptivePrefetchPostProcessor(
+            @Value("${lab.prefetch.min:1}") int minPrefetch,
+            @Value("${lab.prefetch.max:${spring.rabbitmq.listener.simple.prefetch:250}}") int maxPrefetch,
+            @Value("${lab.prefetch.adjust-ms:1000}") long adjustIntervalMillis) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof AbstractRabbitListenerContainerFactory) {
+                    AbstractRabbitListenerContainerFactory<?> factory = (AbstractRabbitListenerContainerFactory<?>) bean;
+                    // 保留工厂已有的 Advice，调整预取值的 Advice 放在最内层，只计入监听方法本身的执行时间
+                    Advice[] existing = factory.getAdviceChain() == null ? new Advice[0] : factory.getAdviceChain();
+                    Advice[] chain = new Advice[existing.length + 1];
+                    System.arraycopy(existing, 0, chain, 0, existing.length);
+                    chain[existing.length] = new AdaptivePrefetchAdvice(minPrefetch, maxPrefetch, adjustIntervalMillis);
+                    factory.setAdviceChain(chain);
+                }
+                return bean;
+            }
+        };
+    }
+}
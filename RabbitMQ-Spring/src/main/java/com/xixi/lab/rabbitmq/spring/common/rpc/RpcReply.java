@@ -0,0 +1,63 @@
+package com.xixi.lab.rabbitmq.spring.common.rpc;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import org.springframework.amqp.core.Address;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.util.ClassUtils;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.function.Consumer;
+
+/**
+ * 监听方法发布的 RPC 回复（AMQP 属性 + 消息体，已经过消息转换及 beforeSendReply 处理），可重新发布给其他请求方
+ *
+ * 供监听容器的 Advice（拦截 ContainerDelegate.invokeListener(Channel, Object)）使用：
+ * 用 {@link #recording} 包装传给监听方法的信道，记录其发布到 replyTo 的回复，再通过 {@link #publish} 回复其他请求。
+ */
+public class RpcReply {
+
+    private final AMQP.BasicProperties props;
+
+    private final byte[] body;
+
+    public RpcReply(AMQP.BasicProperties props, byte[] body) {
+        this.props = props == null ? new AMQP.BasicProperties() : props;
+        this.body = body;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * 回复请求：发布到请求的 replyTo，correlationId 与 Spring 的规则一致（取请求的 correlationId，没有时取 messageId）
+     */
+    public void publish(Channel channel, MessageProperties request) throws IOException {
+        Address replyTo = new Address(request.getReplyTo());
+        String correlationId = request.getCorrelationId() != null ? request.getCorrelationId() : request.getMessageId();
+        channel.basicPublish(replyTo.getExchangeName(), replyTo.getRoutingKey(),
+                props.builder().correlationId(correlationId).build(), body);
+    }
+
+    /**
+     * 代理信道：转发所有调用，并将发布到 replyTo 的消息交给 recorder（保留原信道实现的接口，如 ChannelProxy）
+     */
+    public static Channel recording(Channel channel, MessageProperties request, Consumer<RpcReply> recorder) {
+        Address replyTo = new Address(request.getReplyTo());
+        return (Channel) Proxy.newProxyInstance(RpcReply.class.getClassLoader(),
+                ClassUtils.getAllInterfaces(channel), (proxy, method, args) -> {
+                    if ("basicPublish".equals(method.getName()) && args.length >= 4
+                            && replyTo.getExchangeName().equals(args[0]) && replyTo.getRoutingKey().equals(args[1])) {
+                        recorder.accept(new RpcReply((AMQP.BasicProperties) args[args.length - 2], (byte[]) args[args.length - 1]));
+                    }
+                    try {
+                        return method.invoke(channel, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                });
+    }
+}
@@ -0,0 +1,190 @@
+package com.xixi.lab.rabbitmq.spring.common.rpc;
+
+import com.rabbitmq.client.Channel;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 合并重复的在途 RPC 请求（single-flight）的监听容器 Advice：加入监听容器工厂的 adviceChain，对其上所有 @RabbitListener 生效
+ *
+ * 监听容器有多个消费者线程时，同一个热门请求可能被多个线程同时处理，每个都重复计算一遍。这里：
+ * （1）以 交换机/路由键 + content-type + 请求消息体 为键，第一个到达的请求（leader）执行监听方法，并记录其回复；
+ * （2）leader 执行期间到达的相同请求（follower）不再执行监听方法，而是等待 leader 完成，
+ *      再用同一个回复分别发布到各自的 replyTo（correlationId 各自不同）；
+ * （3）leader 抛出异常或没有回复时，follower 各自执行监听方法（不会把一个请求的失败扩散给其他请求）；
+ * （4）follower 最多等待 maxWaitMillis（应与客户端的 reply-timeout 一致，超过后客户端已不再等待回复），
+ *      超时后不再等待 leader，自己执行监听方法，一个卡住的 leader 不会让所有合并到它的消费者线程一直阻塞。
+ * 只合并同时在途的请求，leader 完成后到达的请求重新执行（需要复用已完成的结果时，配合 ResponseCacheAdvice 使用）。
+ *
+ * follower 在其消费者线程中阻塞等待，等待期间不占用 CPU；没有 replyTo 的消息（非 RPC 请求）不合并。
+ */
+public class SingleFlightAdvice implements MethodInterceptor {
+
+    // 在途请求：键 -> leader 的回复（leader 失败或没有回复时为 null）
+    private final Map<Key, CompletableFuture<RpcReply>> flights = new ConcurrentHashMap<>();
+
+    // 默认的最长等待时间，与 spring.rabbitmq.template.reply-timeout 的示例配置相同
+    private static final long DEFAULT_MAX_WAIT_MILLIS = 30_000;
+
+    private final long maxWaitMillis;
+
+    private final LongAdder executed = new LongAdder();
+
+    private final LongAdder coalesced = new LongAdder();
+
+    private final LongAdder timedOut = new LongAdder();
+
+    public SingleFlightAdvice() {
+        this(DEFAULT_MAX_WAIT_MILLIS);
+    }
+
+    /**
+     * @param maxWaitMillis follower 等待 leader 的最长时间（毫秒）
+     */
+    public SingleFlightAdvice(long maxWaitMillis) {
+        if (maxWaitMillis <= 0) {
+            throw new IllegalArgumentException("maxWaitMillis must be positive");
+        }
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * 拦截 ContainerDelegate.invokeListener(Channel, Object)
+     */
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Object[] arguments = invocation.getArguments();
+        if (arguments.length != 2 || !(arguments[0] instanceof Channel) || !(arguments[1] instanceof Message)) {
+            return invocation.proceed();
+        }
+        Channel channel = (Channel) arguments[0];
+        Message request = (Message) arguments[1];
+        MessageProperties properties = request.getMessageProperties();
+        if (properties.getReplyTo() == null) {
+            return invocation.proceed();
+        }
+        Key key = new Key(properties.getReceivedExchange() + '/' + properties.getReceivedRoutingKey()
+                + ';' + properties.getContentType() + ';' + properties.getContentEncoding(), request.getBody());
+
+        CompletableFuture<RpcReply> flight = new CompletableFuture<>();
+        CompletableFuture<RpcReply> leader = flights.putIfAbsent(key, flight);
+        if (leader != null) {
+            // follower：等待 leader 的回复
+            RpcReply reply = await(leader);
+            if (reply != null) {
+                coalesced.increment();
+                reply.publish(channel, properties);
+                return null;
+            }
+            executed.increment();
+            return invocation.proceed();
+        }
+
+        // leader：执行监听方法并记录回复，完成后唤醒所有 follower
+        RpcReply[] recorded = new RpcReply[1];
+        arguments[0] = RpcReply.recording(channel, properties, reply -> recorded[0] = reply);
+        executed.increment();
+        try {
+            Object result = invocation.proceed();
+            flight.complete(recorded[0]);
+            return result;
+        } catch (Throwable e) {
+            flight.complete(null);
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+        }
+    }
+
+    private RpcReply await(CompletableFuture<RpcReply> leader) throws InterruptedException {
+        try {
+            return leader.get(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            return null;
+        } catch (TimeoutException e) {
+            // leader 长时间未完成：不再等待，由 follower 自己执行
+            timedOut.increment();
+            return null;
+        }
+    }
+
+    /**
+     * 执行了监听方法的请求数
+     */
+    public long getExecutedCount() {
+        return executed.sum();
+    }
+
+    /**
+     * 被合并（直接使用 leader 的回复）的请求数
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * 等待 leader 超时、改为自己执行的请求数
+     */
+    public long getTimedOutCount() {
+        return timedOut.sum();
+    }
+
+    /**
+     * 当前在途（正在执行）的不同请求数
+     */
+    public int getInFlightCount() {
+        return flights.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("executed=%d, coalesced=%d, timedOut=%d, inFlight=%d",
+                getExecutedCount(), getCoalescedCount(), getTimedOutCount(), getInFlightCount());
+    }
+
+    /**
+     * 请求的键：路由信息 + 消息体，哈希值在创建时计算一次
+     */
+    private static final class Key {
+
+        private final String route;
+
+        private final byte[] body;
+
+        private final int hash;
+
+        Key(String route, byte[] body) {
+            this.route = route;
+            this.body = body;
+            this.hash = 31 * route.hashCode() + Arrays.hashCode(body);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && route.equals(other.route) && Arrays.equals(body, other.body);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.xixi.lab.rabbitmq.spring.ox06_rpc;
+
+import com.xixi.lab.rabbitmq.java.common.metrics.LatencyHistogram;
+import org.springframework.amqp.core.AmqpReplyTimeoutException;
+import org.springframework.amqp.core.DirectExchange;
+import org.springframework.amqp.rabbit.AsyncRabbitTemplate;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 异步流水线客户端：基于 AsyncRabbitTemplate（Direct Reply-to），始终保持 inFlight 个请求在途，用于压测 RPC 链路
+ *
+ * 同步的 Tut6Client 每秒只发出一个请求，且一次只有一个请求在途；这里发送线程在并发许可（Semaphore）内连续发出请求，
+ * 回复到达（或超时）时归还许可，由 AsyncRabbitTemplate 的 receiveTimeout 控制每次调用的超时时间。
+ * 每次调用的延迟（发出 -> 收到回复）记录在直方图中，每5秒输出一次该时间段的 吞吐量、p50/p99/p999 延迟与超时、失败次数。
+ *
+ * 配置项：
+ *   lab.rpc.in-flight：在途请求数上限，默认 64
+ *   lab.rpc.max-n：请求的参数在 0 ~ max-n 之间循环，默认 25
+ *   lab.rpc.timeout-ms：每次调用的超时时间（毫秒），默认 5000（在 Tut6Config 中设置到 AsyncRabbitTemplate）
+ */
+public class Tut6AsyncClient implements DisposableBean {
+
+    @Autowired
+    private AsyncRabbitTemplate asyncTemplate;
+
+    @Autowired
+    private DirectExchange exchange;
+
+    @Value("${lab.rpc.in-flight:64}")
+    private int inFlight;
+
+    @Value("${lab.rpc.max-n:25}")
+    private int maxN;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final AtomicLong timeouts = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    private Thread sender;
+
+    private long lastReportNanos = System.nanoTime();
+
+    /**
+     * 应用启动完成（AsyncRabbitTemplate 的回复容器已启动）后开始发送
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        sender = new Thread(this::sendLoop, "rpc-async-client");
+        sender.start();
+        System.out.printf(">>> [C] Pipelining fib(0 ~ %d) requests with %d in flight...\n", maxN, inFlight);
+    }
+
+    private void sendLoop() {
+        Semaphore permits = new Semaphore(inFlight);
+        int n = 0;
+        try {
+            while (running) {
+                permits.acquire();
+                long start = System.nanoTime();
+                int request = n;
+                n = n == maxN ? 0 : n + 1;
+                try {
+                    asyncTemplate.<Integer>convertSendAndReceive(exchange.getName(), Tut6Config.ROUTING_KEY, request)
+                            .addCallback(response -> {
+                                latency.record(System.nanoTime() - start);
+                                permits.release();
+                            }, e -> {
+                                (e instanceof AmqpReplyTimeoutException ? timeouts : failures).incrementAndGet();
+                                permits.release();
+                            });
+                } catch (RuntimeException e) {
+                    // 发送失败（如连接断开）：稍后重试
+                    failures.incrementAndGet();
+                    permits.release();
+                    TimeUnit.SECONDS.sleep(1);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 每5秒输出一次该时间段的统计
+     */
+    @Scheduled(fixedDelay = 5000, initialDelay = 5000)
+    public void report() {
+        long now = System.nanoTime();
+        LatencyHistogram.Snapshot snapshot = latency.intervalSnapshot();
+        double seconds = (now - lastReportNanos) / 1e9;
+        lastReportNanos = now;
+        System.out.printf("<<< [C] %.0f calls/s, latency: %s, timeouts=%d, failures=%d\n",
+                snapshot.getCount() / seconds, snapshot.format(TimeUnit.MILLISECONDS),
+                timeouts.getAndSet(0), failures.getAndSet(0));
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        if (sender != null) {
+            sender.interrupt();
+            sender.join(1000);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.xixi.lab.rabbitmq.spring.ox06_rpc;
+
+import org.springframework.amqp.core.DirectExchange;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.util.StopWatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 批量客户端：在等待窗口（LINGER_MILLIS）内收集多个计算请求，以 int[] 一次发出，服务端返回 int[] 结果后再拆分给各个调用
+ *
+ * 请求频率很高时，消息数与每次调用在 Broker 上的开销约降低为原来的 1/批次大小；
+ * 消息体 int[] 由 BinaryMessageConverter 编码为定长数组，服务端由 @RabbitHandler 按类型分派到批量方法。
+ */
+public class Tut6BatchClient implements DisposableBean {
+
+    // 每批最多调用数
+    private static final int MAX_CALLS = 64;
+
+    // 批次最长等待时间（毫秒）
+    private static final long LINGER_MILLIS = 10;
+
+    @Autowired
+    private RabbitTemplate template;
+
+    @Autowired
+    private DirectExchange exchange;
+
+    private final ScheduledExecutorService lingerScheduler = Executors.newSingleThreadScheduledExecutor();
+
+    // convertSendAndReceive 是同步的，在单独的线程中等待回复，不阻塞调用方与等待窗口
+    private final ExecutorService senders = Executors.newCachedThreadPool();
+
+    private final Object lock = new Object();
+
+    private List<Integer> arguments = new ArrayList<>();
+
+    private List<CompletableFuture<Integer>> futures = new ArrayList<>();
+
+    private int start = 0;
+
+    // 失败（回复超时、批量回复异常等）的调用数
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * 模拟大量并发请求：每秒发起32个计算请求
+     */
+    @Scheduled(fixedDelay = 1000, initialDelay = 500)
+    public void send() {
+        System.out.println(">>> [C] Requesting fib(" + start + ") ~ fib(" + (start + 31) + ")...");
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+        List<CompletableFuture<Integer>> responses = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            responses.add(fibAsync(start + i));
+        }
+        try {
+            CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0])).join();
+            stopWatch.stop();
+            System.out.printf("<<< [C] Got: fib(%d)=%d, ..., fib(%d)=%d, cost=%fs\n\n", start, responses.get(0).join(),
+                    start + 31, responses.get(31).join(), stopWatch.getTotalTimeSeconds());
+        } catch (CompletionException e) {
+            // 某个批次失败：统计失败的调用数，不让异常逃出定时任务（allOf 完成时所有调用都已完成）
+            long failed = responses.stream().filter(CompletableFuture::isCompletedExceptionally).count();
+            System.out.printf("<<< [C] %d of 32 calls failed: %s, failures=%d\n\n", failed, e.getCause(), failures.addAndGet(failed));
+        } finally {
+            start = (start + 32) % 32_768;
+        }
+    }
+
+    /**
+     * 加入当前批次，返回该调用的 Future
+     */
+    public CompletableFuture<Integer> fibAsync(int n) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        synchronized (lock) {
+            if (futures.isEmpty()) {
+                List<CompletableFuture<Integer>> batch = futures;
+                lingerScheduler.schedule(() -> linger(batch), LINGER_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            arguments.add(n);
+            futures.add(future);
+            if (futures.size() >= MAX_CALLS) {
+                flush();
+            }
+        }
+        return future;
+    }
+
+    // 等待到期：若该批次仍未发出（未因调用数上限提前发出），则发出
+    private void linger(List<CompletableFuture<Integer>> batch) {
+        synchronized (lock) {
+            if (futures == batch && !futures.isEmpty()) {
+                flush();
+            }
+        }
+    }
+
+    // 发出当前批次，调用方需持有 lock
+    private void flush() {
+        int[] ns = arguments.stream().mapToInt(Integer::intValue).toArray();
+        List<CompletableFuture<Integer>> batch = futures;
+        arguments = new ArrayList<>();
+        futures = new ArrayList<>();
+        senders.execute(() -> {
+            try {
+                int[] results = (int[]) template.convertSendAndReceive(exchange.getName(), Tut6Config.ROUTING_KEY, ns);
+                if (results == null || results.length != ns.length) {
+                    throw new IllegalStateException("unexpected batch reply for " + ns.length + " calls");
+                }
+                for (int i = 0; i < results.length; i++) {
+                    batch.get(i).complete(results[i]);
+                }
+            } catch (RuntimeException e) {
+                batch.forEach(future -> future.completeExceptionally(e));
+            }
+        });
+    }
+
+    @Override
+    public void destroy() {
+        lingerScheduler.shutdownNow();
+        senders.shutdownNow();
+    }
+}
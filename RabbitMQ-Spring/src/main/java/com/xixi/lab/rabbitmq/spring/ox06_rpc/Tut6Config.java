@@ -1,10 +1,18 @@
 package com.xixi.lab.rabbitmq.spring.ox06_rpc;
 
-
+import com.xixi.lab.rabbitmq.java.common.cache.ResponseCache;
+import com.xixi.lab.rabbitmq.spring.common.cache.ResponseCacheAdvice;
+import com.xixi.lab.rabbitmq.spring.common.rpc.SingleFlightAdvice;
 import org.springframework.amqp.core.Binding;
 import org.springframework.amqp.core.BindingBuilder;
 import org.springframework.amqp.core.DirectExchange;
 import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.AsyncRabbitTemplate;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
@@ -14,11 +22,17 @@ import org.springframework.context.annotation.Profile;
  *
  * 启动客户端：--server.port=8081 --spring.profiles.active=rpc,client
  * 启动服务单：--server.port=8080 --spring.profiles.active=rpc,server
+ * 启动批量客户端：--server.port=8081 --spring.profiles.active=rpc,client,batch
+ * 启动异步压测客户端：--server.port=8081 --spring.profiles.active=rpc,client,async（可加 --lab.rpc.in-flight=256 --lab.rpc.timeout-ms=2000）
  *
  * （1）客户端将计算请求通过 direct交换机（spring-rpc-direct-X）+绑定键（rpc） 发布出去 convertSendAndReceive()
  * （2）服务端建立了绑定关系：队列spring-rpc-request-queue <-- rpc --> direct交换机 (spring-rpc-direct-X)
  * （3）服务端监听 队列spring-rpc-request-queue，收到消息，并计算处理，最终将结果返回出去
  * （4）由于客户端使用 convertSendAndReceive() 同步发布消息，所以服务端的计算结果会直接return回客户端，此时客户端才可以发送下一条计算请求
+ * （5）批量客户端将一个等待窗口内的多个计算请求合并为一个 int[] 请求，服务端整批计算后返回 int[]，一次往返完成多个调用
+ * （6）服务端的监听容器带有响应缓存，相同的请求直接返回缓存的结果，每10秒输出一次命中率；
+ *      多个消费者线程同时收到相同的请求时，只计算一次（single-flight），结果回复给所有请求方
+ * （7）异步客户端通过 AsyncRabbitTemplate 同时保持多个请求在途，每次调用有超时时间，并输出延迟的 p50/p99/p999
  */
 @Profile("rpc")
 @Configuration
@@ -47,11 +61,42 @@ public class Tut6Config {
         /**
          * 创建客户端
          */
+        @Profile("!batch & !async")
         @Bean
         public Tut6Client client() {
             return new Tut6Client();
         }
 
+        /**
+         * 创建批量客户端
+         */
+        @Profile("batch")
+        @Bean
+        public Tut6BatchClient batchClient() {
+            return new Tut6BatchClient();
+        }
+
+        /**
+         * 异步 RabbitTemplate：基于已配置的 RabbitTemplate，使用 Direct Reply-to 接收回复，设置每次调用的超时时间
+         */
+        @Profile("async")
+        @Bean
+        public AsyncRabbitTemplate asyncRabbitTemplate(RabbitTemplate template,
+                                                       @Value("${lab.rpc.timeout-ms:5000}") long timeoutMillis) {
+            AsyncRabbitTemplate asyncTemplate = new AsyncRabbitTemplate(template);
+            asyncTemplate.setReceiveTimeout(timeoutMillis);
+            return asyncTemplate;
+        }
+
+        /**
+         * 创建异步压测客户端
+         */
+        @Profile("async")
+        @Bean
+        public Tut6AsyncClient asyncClient() {
+            return new Tut6AsyncClient();
+        }
+
     }
 
     /**
@@ -82,6 +127,41 @@ public class Tut6Config {
             return BindingBuilder.bind(queue).to(exchange).with(ROUTING_KEY);
         }
 
+        /**
+         * 响应缓存：最多1万条，10分钟过期
+         */
+        @Bean
+        public ResponseCacheAdvice responseCacheAdvice() {
+            return new ResponseCacheAdvice(new ResponseCache<>(10_000, 10 * 60_000));
+        }
+
+        /**
+         * 合并同时在途的相同请求：只计算一次，结果回复给所有请求方；
+         * 等待 leader 最多 reply-timeout 毫秒（客户端不再等待之后合并已无意义），未配置或不限时取 30 秒
+         */
+        @Bean
+        public SingleFlightAdvice singleFlightAdvice(@Value("${spring.rabbitmq.template.reply-timeout:30000}") long replyTimeout) {
+            return replyTimeout > 0 ? new SingleFlightAdvice(replyTimeout) : new SingleFlightAdvice();
+        }
+
+        /**
+         * 服务端专用的监听容器工厂：沿用 spring.rabbitmq.listener.simple 的配置，
+         * 多个消费者线程（lab.rpc.server.concurrency，默认 4）并行处理请求，并依次加入 响应缓存、在途请求合并
+         */
+        @Bean
+        public SimpleRabbitListenerContainerFactory rpcContainerFactory(SimpleRabbitListenerContainerFactoryConfigurer configurer,
+                                                                        ConnectionFactory connectionFactory,
+                                                                        ResponseCacheAdvice responseCacheAdvice,
+                                                                        SingleFlightAdvice singleFlightAdvice,
+                                                                        @Value("${lab.rpc.server.concurrency:4}") int concurrency) {
+            SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+            configurer.configure(factory, connectionFactory);
+            factory.setConcurrentConsumers(concurrency);
+            // 缓存在外层：命中时直接回复；未命中的相同请求再由 single-flight 合并
+            factory.setAdviceChain(responseCacheAdvice, singleFlightAdvice);
+            return factory;
+        }
+
         /**
          * 创建服务端
          */
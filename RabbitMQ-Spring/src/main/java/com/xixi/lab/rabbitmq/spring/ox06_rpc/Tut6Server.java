@@ -1,19 +1,46 @@
 package com.xixi.lab.rabbitmq.spring.ox06_rpc;
 
+import com.xixi.lab.rabbitmq.spring.common.cache.ResponseCacheAdvice;
+import com.xixi.lab.rabbitmq.spring.common.rpc.SingleFlightAdvice;
+import org.springframework.amqp.rabbit.annotation.RabbitHandler;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.util.StopWatch;
 
+import java.util.Arrays;
+
 /**
  * 服务端
+ *
+ * 监听 队列 spring-rpc-request-queue，按消息体的类型分派到不同的 @RabbitHandler 方法：
+ * （1）Integer：单个计算请求（Tut6Client），按消息体类型匹配，参数需为包装类型；
+ * （2）int[]：批量计算请求（Tut6BatchClient），整批计算后返回 int[] 结果。
  */
+@RabbitListener(queues = Tut6Config.REQUEST_QUEUE, containerFactory = "rpcContainerFactory")
 public class Tut6Server {
 
+    @Autowired
+    private ResponseCacheAdvice responseCacheAdvice;
+
+    @Autowired
+    private SingleFlightAdvice singleFlightAdvice;
+
     /**
-     * 监听 队列 spring-rpc-request-queue，接收来自客户端的计算请求
+     * 输出响应缓存的命中率、在途请求的合并次数（命中或被合并的请求由监听容器直接回复，不会进入下面的方法）
      */
-    @RabbitListener(queues = Tut6Config.REQUEST_QUEUE)
+    @Scheduled(fixedDelay = 10_000, initialDelay = 10_000)
+    public void printCacheStats() {
+        System.out.println(" [S] Response cache: " + responseCacheAdvice.getCache());
+        System.out.println(" [S] Single-flight: " + singleFlightAdvice);
+    }
+
+    /**
+     * 接收来自客户端的计算请求
+     */
+    @RabbitHandler
     // @SendTo("tut.rpc.replies") used when the client doesn't set replyTo.
-    public int fibonacci(int n) {
+    public int fibonacci(Integer n) {
         StopWatch stopWatch = new StopWatch();
         stopWatch.start();
         System.out.println("<<< [S] Received request for " + n);
@@ -23,7 +50,52 @@ public class Tut6Server {
         return result;
     }
 
+    /**
+     * 接收来自客户端的批量计算请求，结果与参数一一对应
+     */
+    @RabbitHandler
+    public int[] fibonacciBatch(int[] ns) {
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+        System.out.println("<<< [S] Received batch request for " + Arrays.toString(ns));
+        int[] results = fibBatch(ns);
+        stopWatch.stop();
+        System.out.printf(" [S] Returned: %d results, cost=%fs\n\n", results.length, stopWatch.getTotalTimeSeconds());
+        return results;
+    }
+
     public int fib(int n) {
         return n == 0 ? 0 : n == 1 ? 1 : (fib(n - 1) + fib(n - 2));
     }
+
+    /**
+     * 批量计算：各参数共享同一次迭代，按参数从小到大只计算一遍数列，时间取决于最大的参数，而不是参数个数
+     */
+    public int[] fibBatch(int[] ns) {
+        long[] sortKeys = new long[ns.length];
+        for (int i = 0; i < ns.length; i++) {
+            if (ns[i] < 0) {
+                throw new IllegalArgumentException("fib(" + ns[i] + ") is undefined");
+            }
+            // 高32位为参数，低32位为下标，排序后按参数递增
+            sortKeys[i] = ((long) ns[i] << 32) | i;
+        }
+        Arrays.sort(sortKeys);
+        int[] results = new int[ns.length];
+        // 迭代计算：current = fib(n)，next = fib(n + 1)（int 溢出与递归版本一致）
+        int n = 0;
+        int current = 0;
+        int next = 1;
+        for (long sortKey : sortKeys) {
+            int num = (int) (sortKey >>> 32);
+            while (n < num) {
+                int sum = current + next;
+                current = next;
+                next = sum;
+                n++;
+            }
+            results[(int) sortKey] = current;
+        }
+        return results;
+    }
 }